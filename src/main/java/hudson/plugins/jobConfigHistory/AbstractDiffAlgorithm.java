@@ -0,0 +1,325 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import bmsi.util.Diff;
+
+/**
+ * Base class for {@link DiffAlgorithm}s which split the files into smaller ranges.
+ *
+ * Ranges are processed from the first to the last line with an explicit stack, so deep
+ * recursions on big files cannot overflow the thread stack. The common prefix and suffix
+ * of every range are stripped before {@link #split} is called. Ranges which cannot be split
+ * any further are compared with the classic Myers algorithm of {@link Diff}.
+ */
+public abstract class AbstractDiffAlgorithm implements DiffAlgorithm {
+
+    /** The classic algorithm of the bundled {@link Diff}. */
+    public static final String MYERS = "myers";
+
+    /** The histogram algorithm, see {@link HistogramDiffAlgorithm}. */
+    public static final String HISTOGRAM = "histogram";
+
+    /** The patience algorithm, see {@link PatienceDiffAlgorithm}. */
+    public static final String PATIENCE = "patience";
+
+    /**
+     * Returns the algorithm registered under the given name.
+     *
+     * @param name
+     *            one of {@link #MYERS}, {@link #HISTOGRAM} or {@link #PATIENCE}.
+     * @return the algorithm, the classic one for unknown names.
+     */
+    public static DiffAlgorithm forName(String name) {
+        if (HISTOGRAM.equals(name)) {
+            return HistogramDiffAlgorithm.INSTANCE;
+        } else if (PATIENCE.equals(name)) {
+            return PatienceDiffAlgorithm.INSTANCE;
+        }
+        return MyersDiffAlgorithm.INSTANCE;
+    }
+
+    /**
+     * Hashes the lines of two files once into int ids. Equal lines get equal ids, the ids are
+     * numbered consecutively starting with 0.
+     *
+     * @param file0
+     *            lines of the first file.
+     * @param file1
+     *            lines of the second file.
+     * @return the ids of the first file at index 0 and those of the second file at index 1.
+     */
+    public static int[][] hashLines(Object[] file0, Object[] file1) {
+        final Map<Object, Integer> ids = new HashMap<Object, Integer>(file0.length + file1.length);
+        return new int[][] {hashLines(file0, ids), hashLines(file1, ids)};
+    }
+
+    /**
+     * @param lines lines of a file.
+     * @param ids the ids assigned so far.
+     * @return the ids of the lines.
+     */
+    private static int[] hashLines(Object[] lines, Map<Object, Integer> ids) {
+        final int[] result = new int[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+            Integer id = ids.get(lines[i]);
+            if (id == null) {
+                id = ids.size();
+                ids.put(lines[i], id);
+            }
+            result[i] = id;
+        }
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    public final Diff.change diff(int[] a, int[] b) {
+        final Ranges ranges = new Ranges(a, b);
+        final EditScript script = new EditScript();
+        ranges.push(0, a.length, 0, b.length);
+        while (!ranges.isEmpty()) {
+            final int[] range = ranges.pop();
+            int aStart = range[0];
+            int aEnd = range[1];
+            int bStart = range[2];
+            int bEnd = range[3];
+            while (aStart < aEnd && bStart < bEnd && a[aStart] == b[bStart]) {
+                aStart++;
+                bStart++;
+            }
+            while (aStart < aEnd && bStart < bEnd && a[aEnd - 1] == b[bEnd - 1]) {
+                aEnd--;
+                bEnd--;
+            }
+            if (aStart == aEnd || bStart == bEnd) {
+                script.add(aStart, bStart, aEnd - aStart, bEnd - bStart);
+            } else if (!split(a, aStart, aEnd, b, bStart, bEnd, ranges)) {
+                myers(a, aStart, aEnd, b, bStart, bEnd, script);
+            }
+        }
+        return script.toChange();
+    }
+
+    /**
+     * Splits the given range into smaller ranges around lines which are known to match.
+     * The common prefix and suffix of the range were already stripped, so both parts of the
+     * range hold at least one line.
+     *
+     * @param a
+     *            line ids of the first file.
+     * @param aStart
+     *            first line of the range in the first file.
+     * @param aEnd
+     *            line after the range in the first file.
+     * @param b
+     *            line ids of the second file.
+     * @param bStart
+     *            first line of the range in the second file.
+     * @param bEnd
+     *            line after the range in the second file.
+     * @param ranges
+     *            where to push the remaining ranges, see {@link Ranges#pushAll(int[], int)}.
+     * @return false if the range cannot be split and should be compared as a whole.
+     */
+    protected abstract boolean split(int[] a, int aStart, int aEnd, int[] b, int bStart, int bEnd, Ranges ranges);
+
+    /**
+     * Compares a range with the classic algorithm of {@link Diff} and adds the result to the script.
+     *
+     * @param a line ids of the first file.
+     * @param aStart first line of the range in the first file.
+     * @param aEnd line after the range in the first file.
+     * @param b line ids of the second file.
+     * @param bStart first line of the range in the second file.
+     * @param bEnd line after the range in the second file.
+     * @param script the script to add the changes to.
+     */
+    private static void myers(int[] a, int aStart, int aEnd, int[] b, int bStart, int bEnd, EditScript script) {
+        final Diff diff = new Diff(box(a, aStart, aEnd), box(b, bStart, bEnd));
+        for (Diff.change change = diff.diff_2(false); change != null; change = change.link) {
+            script.add(aStart + change.line0, bStart + change.line1, change.deleted, change.inserted);
+        }
+    }
+
+    /**
+     * @param ids line ids.
+     * @param start first index.
+     * @param end index after the last one.
+     * @return the boxed ids of the range.
+     */
+    private static Integer[] box(int[] ids, int start, int end) {
+        final Integer[] boxed = new Integer[end - start];
+        for (int i = start; i < end; i++) {
+            boxed[i - start] = ids[i];
+        }
+        return boxed;
+    }
+
+    /**
+     * Stack of ranges still to be compared together with scratch tables indexed by line id,
+     * which implementations may use as long as they reset all touched entries to 0 before
+     * {@link #split} returns. The tables are only allocated when first used, so implementations
+     * not using them, like {@link MyersDiffAlgorithm}, do not pay for them.
+     */
+    protected static final class Ranges {
+
+        /** Line ids of the first file. */
+        private final int[] a;
+
+        /** Line ids of the second file. */
+        private final int[] b;
+
+        /** Scratch table indexed by line id, null until used. */
+        private int[] scratch0;
+
+        /** Scratch table indexed by line id, null until used. */
+        private int[] scratch1;
+
+        /** Four ints per range: start and end in the first file, start and end in the second file. */
+        private int[] stack = new int[64];
+
+        /** Number of used ints of the stack. */
+        private int size;
+
+        /**
+         * @param a line ids of the first file.
+         * @param b line ids of the second file.
+         */
+        Ranges(int[] a, int[] b) {
+            this.a = a;
+            this.b = b;
+        }
+
+        /**
+         * @return a scratch table indexed by line id, all entries are 0 between calls to {@link #split}.
+         */
+        int[] scratch0() {
+            if (scratch0 == null) {
+                scratch0 = new int[idCount()];
+            }
+            return scratch0;
+        }
+
+        /**
+         * @return another scratch table indexed by line id, all entries are 0 between calls to
+         *         {@link #split}.
+         */
+        int[] scratch1() {
+            if (scratch1 == null) {
+                scratch1 = new int[idCount()];
+            }
+            return scratch1;
+        }
+
+        /**
+         * @return the number of line ids, i.e. the highest id plus one.
+         */
+        private int idCount() {
+            int maxId = -1;
+            for (final int id : a) {
+                maxId = Math.max(maxId, id);
+            }
+            for (final int id : b) {
+                maxId = Math.max(maxId, id);
+            }
+            return maxId + 1;
+        }
+
+        /**
+         * Pushes a range, ranges are popped in reverse order.
+         *
+         * @param aStart first line of the range in the first file.
+         * @param aEnd line after the range in the first file.
+         * @param bStart first line of the range in the second file.
+         * @param bEnd line after the range in the second file.
+         */
+        void push(int aStart, int aEnd, int bStart, int bEnd) {
+            if (size + 4 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            stack[size++] = aStart;
+            stack[size++] = aEnd;
+            stack[size++] = bStart;
+            stack[size++] = bEnd;
+        }
+
+        /**
+         * Pushes ranges given in ascending line order so they will be popped in ascending order.
+         *
+         * @param ranges four ints per range, see {@link #push(int, int, int, int)}.
+         * @param count number of ranges.
+         */
+        void pushAll(int[] ranges, int count) {
+            for (int i = count - 1; i >= 0; i--) {
+                push(ranges[4 * i], ranges[4 * i + 1], ranges[4 * i + 2], ranges[4 * i + 3]);
+            }
+        }
+
+        /**
+         * @return true if no ranges are left.
+         */
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        /**
+         * @return the range on top of the stack.
+         */
+        int[] pop() {
+            size -= 4;
+            return new int[] {stack[size], stack[size + 1], stack[size + 2], stack[size + 3]};
+        }
+    }
+
+    /**
+     * Collects changes in ascending line order, joining adjacent ones.
+     */
+    static final class EditScript {
+
+        /** Four ints per change: line0, line1, deleted and inserted. */
+        private int[] changes = new int[64];
+
+        /** Number of used ints. */
+        private int size;
+
+        /**
+         * Adds a change behind all changes added so far, does nothing for empty changes.
+         *
+         * @param line0 first deleted line of the first file.
+         * @param line1 first inserted line of the second file.
+         * @param deleted number of deleted lines.
+         * @param inserted number of inserted lines.
+         */
+        void add(int line0, int line1, int deleted, int inserted) {
+            if (deleted == 0 && inserted == 0) {
+                return;
+            }
+            if (size > 0 && changes[size - 4] + changes[size - 2] == line0
+                    && changes[size - 3] + changes[size - 1] == line1) {
+                changes[size - 2] += deleted;
+                changes[size - 1] += inserted;
+                return;
+            }
+            if (size + 4 > changes.length) {
+                changes = Arrays.copyOf(changes, changes.length * 2);
+            }
+            changes[size++] = line0;
+            changes[size++] = line1;
+            changes[size++] = deleted;
+            changes[size++] = inserted;
+        }
+
+        /**
+         * @return the changes as linked list in ascending order, null if there are none.
+         */
+        Diff.change toChange() {
+            Diff.change result = null;
+            for (int i = size - 4; i >= 0; i -= 4) {
+                result = new Diff.change(changes[i], changes[i + 1], changes[i + 2], changes[i + 3], result);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package hudson.plugins.jobConfigHistory;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Groups the changes of mass updates, e.g. a seed job regenerating thousands of jobs, into a single
+ * changeset.
+ *
+ * While a changeset is open, changes are not saved by the thread firing the event but queued; the
+ * changes of the same config file are collapsed into one. Every {@link #BATCH_SIZE} changes and when
+ * the changeset is closed the queued changes are written in one batch by a single background thread.
+ * The history entries carry the id of the changeset, see {@link HistoryDescr#getChangeset()}, so the
+ * overview page can show the changeset as one operation.
+ *
+ * A changeset is opened explicitly by {@link #begin()} or automatically when more changes than the
+ * threshold happen within a second. An automatically opened changeset is closed as soon as a second
+ * passes with fewer changes.
+ */
+final class BulkIngest {
+
+    /** Maximum number of queued changes written in one batch. */
+    static final int BATCH_SIZE = 500;
+
+    /** Length of the window the rate of changes is measured in. */
+    static final long RATE_WINDOW_MILLIS = 1000;
+
+    /** Our logger. */
+    private static final Logger LOG = Logger.getLogger(BulkIngest.class.getName());
+
+    /** Writes the batches one after the other and closes automatically opened changesets. */
+    private static final ScheduledExecutorService WRITER = Executors.newSingleThreadScheduledExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), "JobConfigHistory bulk ingest"));
+
+    /** Id of the changeset the current thread writes entries for. */
+    private static final ThreadLocal<String> CURRENT = new ThreadLocal<String>();
+
+    /** Writes the batches, must run them one after the other. */
+    private final ScheduledExecutorService writer;
+
+    /** Guards the fields below. */
+    private final Object lock = new Object();
+
+    /** Changes per second opening a changeset automatically, zero or less to disable. */
+    private volatile int threshold;
+
+    /** Id of the open changeset, null if there is none. */
+    private volatile String changeset;
+
+    /** Whether the open changeset was opened by {@link #begin()}. */
+    private boolean explicit;
+
+    /** Queued changes of the open changeset by absolute config file. */
+    private Map<File, Runnable> pending = new LinkedHashMap<File, Runnable>();
+
+    /** Start of the current rate window. */
+    private long rateWindowStart;
+
+    /** Number of changes in the current rate window. */
+    private int rateCount;
+
+    /** Number of changes since the automatically opened changeset was checked last. */
+    private int recentCount;
+
+    /** Closes the automatically opened changeset once the rate drops, null if not scheduled. */
+    private ScheduledFuture<?> monitor;
+
+    /**
+     * Creates a bulk ingest using the shared writer.
+     */
+    BulkIngest() {
+        this(WRITER);
+    }
+
+    /**
+     * @param writer writes the batches, must run them one after the other.
+     */
+    BulkIngest(ScheduledExecutorService writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * @return id of the changeset the current thread writes entries for, null if none.
+     */
+    static String currentChangeset() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @param threshold changes per second opening a changeset automatically, zero or less to disable.
+     */
+    void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * @return changes per second opening a changeset automatically, zero or less if disabled.
+     */
+    int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @return id of the open changeset, null if there is none.
+     */
+    String getChangeset() {
+        return changeset;
+    }
+
+    /**
+     * Opens a changeset unless one is open already. The changeset stays open until {@link #end()}.
+     *
+     * @return id of the open changeset.
+     */
+    String begin() {
+        synchronized (lock) {
+            if (changeset == null) {
+                open();
+            }
+            explicit = true;
+            return changeset;
+        }
+    }
+
+    /**
+     * Closes the open changeset, if any, and writes its queued changes in the background.
+     */
+    void end() {
+        synchronized (lock) {
+            close();
+        }
+    }
+
+    /**
+     * Queues a change if a changeset is open or gets opened by this change.
+     *
+     * @param configFile the changed config file.
+     * @param save writes the history entry.
+     * @return true if the change was queued, false if the caller has to save it.
+     */
+    boolean offer(File configFile, Runnable save) {
+        if (changeset == null && threshold <= 0) {
+            return false;
+        }
+        final File key = configFile.getAbsoluteFile();
+        synchronized (lock) {
+            countChange();
+            if (changeset == null) {
+                if (threshold <= 0 || rateCount <= threshold) {
+                    return false;
+                }
+                open();
+                LOG.log(Level.INFO, "More than {0} changes per second, saving them as changeset {1}",
+                        new Object[] {threshold, changeset});
+                monitor = writer.scheduleWithFixedDelay(new Runnable() {
+                    public void run() {
+                        checkRate();
+                    }
+                }, RATE_WINDOW_MILLIS, RATE_WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            pending.put(key, save);
+            if (pending.size() >= BATCH_SIZE) {
+                submitBatch();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Writes the queued change of a config file at once, e.g. before the item is deleted. Waits for
+     * batches already handed to the writer.
+     *
+     * @param configFile the config file.
+     */
+    void flush(File configFile) {
+        final File key = configFile.getAbsoluteFile();
+        final String id;
+        final Runnable save;
+        synchronized (lock) {
+            id = changeset;
+            save = pending.remove(key);
+        }
+        awaitWriter();
+        if (save != null) {
+            write(id, Collections.singletonList(save));
+        }
+    }
+
+    /**
+     * Writes all queued changes at once, e.g. before an item is renamed or when Jenkins stops. Waits
+     * for batches already handed to the writer.
+     */
+    void flushAll() {
+        final String id;
+        final Collection<Runnable> saves;
+        synchronized (lock) {
+            id = changeset;
+            saves = new ArrayList<Runnable>(pending.values());
+            pending.clear();
+        }
+        awaitWriter();
+        write(id, saves);
+    }
+
+    /**
+     * Counts a change in the current rate window. Called holding the lock.
+     */
+    private void countChange() {
+        final long now = System.currentTimeMillis();
+        if (now - rateWindowStart >= RATE_WINDOW_MILLIS) {
+            rateWindowStart = now;
+            rateCount = 0;
+        }
+        rateCount++;
+        recentCount++;
+    }
+
+    /**
+     * Closes the automatically opened changeset if fewer changes than the threshold happened since
+     * the last check.
+     */
+    private void checkRate() {
+        synchronized (lock) {
+            if (changeset == null || explicit) {
+                return;
+            }
+            if (recentCount < threshold) {
+                close();
+            } else {
+                recentCount = 0;
+            }
+        }
+    }
+
+    /**
+     * Opens a new changeset. Called holding the lock.
+     */
+    private void open() {
+        changeset = new SimpleDateFormat(JobConfigHistoryConsts.ID_FORMATTER).format(new Date());
+        explicit = false;
+        recentCount = 0;
+    }
+
+    /**
+     * Closes the open changeset and hands its queued changes to the writer. Called holding the lock.
+     */
+    private void close() {
+        if (monitor != null) {
+            monitor.cancel(false);
+            monitor = null;
+        }
+        if (changeset != null) {
+            submitBatch();
+            LOG.log(Level.FINE, "Closed changeset {0}", changeset);
+            changeset = null;
+            explicit = false;
+        }
+    }
+
+    /**
+     * Hands the queued changes to the writer. Called holding the lock.
+     */
+    private void submitBatch() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        final String id = changeset;
+        final Collection<Runnable> saves = pending.values();
+        pending = new LinkedHashMap<File, Runnable>();
+        writer.execute(new Runnable() {
+            public void run() {
+                write(id, saves);
+            }
+        });
+    }
+
+    /**
+     * Waits until the batches handed to the writer so far are written.
+     */
+    private void awaitWriter() {
+        try {
+            writer.submit(new Runnable() {
+                public void run() {
+                    // marks the position in the queue of the writer
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOG.log(Level.WARNING, "Unable to wait for queued changes", e.getCause());
+        }
+    }
+
+    /**
+     * Writes a batch of changes in the calling thread.
+     *
+     * @param id id of the changeset the changes belong to.
+     * @param saves write the history entries.
+     */
+    private static void write(String id, Collection<Runnable> saves) {
+        final String previous = CURRENT.get();
+        CURRENT.set(id);
+        try {
+            for (final Runnable save : saves) {
+                try {
+                    save.run();
+                } catch (RuntimeException e) {
+                    LOG.log(Level.WARNING, "Unable to save change of changeset " + id, e);
+                }
+            }
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+}
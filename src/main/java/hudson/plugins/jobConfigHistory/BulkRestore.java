@@ -0,0 +1,341 @@
+package hudson.plugins.jobConfigHistory;
+
+import hudson.model.AbstractItem;
+import hudson.model.User;
+import hudson.security.ACL;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.transform.stream.StreamSource;
+
+import org.acegisecurity.Authentication;
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+
+/**
+ * Restores many jobs to their last revision before a point in time, e.g. after a bad mass change
+ * done by a seed job.
+ *
+ * The jobs are restored in parallel on a small pool, so at most {@link #POOL_SIZE} jobs are
+ * restored at the same time. The jobs are restored with the authentication of the user who started
+ * the restore, so the pool threads have the same permissions as the request. Restoring a job fires
+ * more than one change event; while a job is being restored, {@link JobConfigHistoryJobListener}
+ * ignores them and a single history entry is written once the job was restored, on behalf of the
+ * user who started the restore. Jobs already equal to the revision to restore are skipped without
+ * writing anything.
+ */
+public final class BulkRestore {
+
+    /** Maximum number of jobs restored at the same time. */
+    static final int POOL_SIZE = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /** Our logger. */
+    private static final Logger LOG = Logger.getLogger(BulkRestore.class.getName());
+
+    /** Restores the jobs. */
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(POOL_SIZE,
+            new NamingThreadFactory(new DaemonThreadFactory(), "JobConfigHistory bulk restore"));
+
+    /** Config files of the jobs being restored right now. */
+    private static final Set<File> RESTORING = Collections.synchronizedSet(new HashSet<File>());
+
+    /** The jobs to restore. */
+    private final List<Target> targets;
+
+    /** The point in time, see {@link JobConfigHistoryConsts#ID_FORMATTER}. */
+    private final String before;
+
+    /** The user who started the restore. */
+    private final User user;
+
+    /** The authentication of the user who started the restore. */
+    private final Authentication authentication;
+
+    /** Number of restored jobs. */
+    private final AtomicInteger restored = new AtomicInteger();
+
+    /** Number of jobs which were equal to the revision to restore. */
+    private final AtomicInteger unchanged = new AtomicInteger();
+
+    /** Jobs which could not be restored together with the reason. */
+    private final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * A job to restore together with the revision to restore.
+     */
+    public static final class Target {
+        /** The job. */
+        private final AbstractItem item;
+        /** The store holding the revision. */
+        private final HistoryStore store;
+        /** Key of the history of the job. */
+        private final String key;
+        /** Timestamp of the revision to restore. */
+        private final String timestamp;
+
+        /**
+         * @param item the job.
+         * @param store the store holding the revision.
+         * @param key key of the history of the job.
+         * @param timestamp timestamp of the revision to restore.
+         */
+        Target(AbstractItem item, HistoryStore store, String key, String timestamp) {
+            this.item = item;
+            this.store = store;
+            this.key = key;
+            this.timestamp = timestamp;
+        }
+
+        /**
+         * @return the full name of the job.
+         */
+        public String getName() {
+            return item.getFullName();
+        }
+
+        /**
+         * @return the timestamp of the revision to restore.
+         */
+        public String getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * @return the saved config file of the revision.
+         * @throws IOException if the revision holds no config file or it cannot be read.
+         */
+        InputStream readConfig() throws IOException {
+            final InputStream in = store.readConfig(key, timestamp);
+            if (in == null) {
+                throw new FileNotFoundException("No config file in " + key + "/" + timestamp);
+            }
+            return in;
+        }
+    }
+
+    /**
+     * @param targets the jobs to restore.
+     * @param before the point in time.
+     * @param user the user who started the restore, null for an anonymous user.
+     * @param authentication the authentication of the user who started the restore.
+     */
+    BulkRestore(List<Target> targets, String before, User user, Authentication authentication) {
+        this.targets = targets;
+        this.before = before;
+        this.user = user;
+        this.authentication = authentication;
+    }
+
+    /**
+     * @param configFile the config file of a job.
+     * @return true if the job is being restored, so its changes are recorded by the restore itself.
+     */
+    static boolean isRestoring(File configFile) {
+        return !RESTORING.isEmpty() && RESTORING.contains(configFile.getAbsoluteFile());
+    }
+
+    /**
+     * Starts restoring the jobs in the background.
+     */
+    void start() {
+        for (final Target target : targets) {
+            EXECUTOR.execute(new Runnable() {
+                public void run() {
+                    final SecurityContext previous = ACL.impersonate(authentication);
+                    try {
+                        restore(target);
+                    } finally {
+                        SecurityContextHolder.setContext(previous);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Restores a single job.
+     *
+     * @param target the job.
+     */
+    void restore(Target target) {
+        try {
+            final File liveFile = target.item.getConfigFile().getFile().getAbsoluteFile();
+            if (isUnchanged(liveFile, target)) {
+                unchanged.incrementAndGet();
+                return;
+            }
+            RESTORING.add(liveFile);
+            try {
+                final InputStream in = target.readConfig();
+                try {
+                    target.item.updateByXml(new StreamSource(in));
+                } finally {
+                    in.close();
+                }
+                target.item.save();
+            } finally {
+                RESTORING.remove(liveFile);
+            }
+            ConfigHistoryListenerHelper.CHANGED.createNewHistoryEntry(target.item.getConfigFile(), user);
+            restored.incrementAndGet();
+        } catch (IOException e) {
+            fail(target, e);
+        } catch (RuntimeException e) {
+            fail(target, e);
+        }
+    }
+
+    /**
+     * @param target the job which could not be restored.
+     * @param e the reason.
+     */
+    private void fail(Target target, Exception e) {
+        LOG.log(Level.WARNING, "Unable to restore " + target.getName() + " to " + target.getTimestamp(), e);
+        failures.add(target.getName() + ": " + e);
+    }
+
+    /**
+     * @param liveFile the config file of a job.
+     * @param target the job with the revision to restore.
+     * @return true if the job is at the revision already.
+     * @throws IOException if one of the config files cannot be read.
+     */
+    private static boolean isUnchanged(File liveFile, Target target) throws IOException {
+        final InputStream in1 = new FileInputStream(liveFile);
+        try {
+            final InputStream in2 = target.readConfig();
+            try {
+                return sameContent(in1, in2);
+            } finally {
+                in2.close();
+            }
+        } finally {
+            in1.close();
+        }
+    }
+
+    /**
+     * @param file1 a file.
+     * @param file2 another file.
+     * @return true if both files hold the same bytes.
+     * @throws IOException if one of the files cannot be read.
+     */
+    static boolean sameContent(File file1, File file2) throws IOException {
+        if (file1.length() != file2.length()) {
+            return false;
+        }
+        final InputStream in1 = new FileInputStream(file1);
+        try {
+            final InputStream in2 = new FileInputStream(file2);
+            try {
+                return sameContent(in1, in2);
+            } finally {
+                in2.close();
+            }
+        } finally {
+            in1.close();
+        }
+    }
+
+    /**
+     * @param in1 a stream, not closed.
+     * @param in2 another stream, not closed.
+     * @return true if both streams hold the same bytes.
+     * @throws IOException if one of the streams cannot be read.
+     */
+    static boolean sameContent(InputStream in1, InputStream in2) throws IOException {
+        final byte[] buffer1 = new byte[8192];
+        final byte[] buffer2 = new byte[8192];
+        int read1;
+        while ((read1 = in1.read(buffer1)) > 0) {
+            int read2 = 0;
+            while (read2 < read1) {
+                final int read = in2.read(buffer2, read2, read1 - read2);
+                if (read < 0) {
+                    return false;
+                }
+                read2 += read;
+            }
+            for (int i = 0; i < read1; i++) {
+                if (buffer1[i] != buffer2[i]) {
+                    return false;
+                }
+            }
+        }
+        return in2.read() < 0;
+    }
+
+    /**
+     * @return the point in time the jobs are restored to.
+     */
+    public String getBefore() {
+        return before;
+    }
+
+    /**
+     * @return the jobs to restore.
+     */
+    public List<Target> getTargets() {
+        return Collections.unmodifiableList(targets);
+    }
+
+    /**
+     * @return number of jobs to restore.
+     */
+    public int getTotal() {
+        return targets.size();
+    }
+
+    /**
+     * @return number of restored jobs.
+     */
+    public int getRestored() {
+        return restored.get();
+    }
+
+    /**
+     * @return number of jobs which were equal to the revision to restore.
+     */
+    public int getUnchanged() {
+        return unchanged.get();
+    }
+
+    /**
+     * @return the jobs which could not be restored together with the reason.
+     */
+    public List<String> getFailures() {
+        synchronized (failures) {
+            return new ArrayList<String>(failures);
+        }
+    }
+
+    /**
+     * @return number of jobs handled so far.
+     */
+    public int getDone() {
+        return restored.get() + unchanged.get() + failures.size();
+    }
+
+    /**
+     * @return true if all jobs were handled.
+     */
+    public boolean isFinished() {
+        return getDone() >= targets.size();
+    }
+}
@@ -0,0 +1,460 @@
+package hudson.plugins.jobConfigHistory;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import bmsi.util.Diff;
+
+/**
+ * Reports all changes of job and system configurations within a time window, e.g. during an
+ * incident.
+ *
+ * Timestamps sort chronologically by name, so the entries of every item within the window are found
+ * by a binary search over the timestamps listed by the {@link HistoryStore}, without reading a single
+ * description of entries outside the window. The diffs of the entries
+ * against their previous revisions are computed in parallel on a bounded pool and handed out in
+ * chronological order; only a few diffs are computed ahead, so the report can be streamed.
+ */
+public final class ChangeReport {
+
+    /** Maximum number of diffs computed at the same time. */
+    static final int POOL_SIZE = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /** Maximum number of diffs computed ahead of the entry handed out. */
+    static final int LOOKAHEAD = 2 * POOL_SIZE;
+
+    /** Our logger. */
+    private static final Logger LOG = Logger.getLogger(ChangeReport.class.getName());
+
+    /** Computes the diffs. */
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(POOL_SIZE,
+            new NamingThreadFactory(new DaemonThreadFactory(), "JobConfigHistory change report"));
+
+    /** Orders candidates chronologically, then by name. */
+    private static final Comparator<Candidate> CHRONOLOGICAL = new Comparator<Candidate>() {
+        public int compare(Candidate c1, Candidate c2) {
+            final int result = c1.timestamp.compareTo(c2.timestamp);
+            return result != 0 ? result : c1.name.compareTo(c2.name);
+        }
+    };
+
+    /**
+     * Utility class.
+     */
+    private ChangeReport() {
+        // only static methods
+    }
+
+    /**
+     * A history entry within the time window together with its previous revision.
+     */
+    static final class Candidate {
+        /** The store holding the entries. */
+        private final HistoryStore store;
+        /** Name of the item, including the folders. */
+        private final String name;
+        /** Key of the history of the item. */
+        private final String item;
+        /** Timestamp of the entry. */
+        private final String timestamp;
+        /** Timestamp of the previous entry holding a config file, null if there is none. */
+        private final String previousTimestamp;
+
+        /**
+         * @param store the store holding the entries.
+         * @param name name of the item.
+         * @param item key of the history of the item.
+         * @param timestamp timestamp of the entry.
+         * @param previousTimestamp timestamp of the previous entry, null if there is none.
+         */
+        Candidate(HistoryStore store, String name, String item, String timestamp, String previousTimestamp) {
+            this.store = store;
+            this.name = name;
+            this.item = item;
+            this.timestamp = timestamp;
+            this.previousTimestamp = previousTimestamp;
+        }
+
+        /**
+         * @return name of the item.
+         */
+        String getName() {
+            return name;
+        }
+
+        /**
+         * @return key of the history of the item.
+         */
+        String getItem() {
+            return item;
+        }
+
+        /**
+         * @return timestamp of the entry.
+         */
+        String getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * @return timestamp of the previous entry holding a config file, null if there is none.
+         */
+        String getPreviousTimestamp() {
+            return previousTimestamp;
+        }
+    }
+
+    /**
+     * A change within the time window.
+     */
+    public static final class Entry {
+        /** Name of the item. */
+        private final String name;
+        /** The description of the history entry. */
+        private final HistoryDescr historyDescr;
+        /** The unified diff against the previous revision, null if the entry has no config file. */
+        private final String diff;
+        /** Why the diff could not be computed, null if it was computed. */
+        private final String error;
+
+        /**
+         * @param name name of the item.
+         * @param historyDescr the description of the history entry.
+         * @param diff the unified diff against the previous revision.
+         * @param error why the diff could not be computed.
+         */
+        Entry(String name, HistoryDescr historyDescr, String diff, String error) {
+            this.name = name;
+            this.historyDescr = historyDescr;
+            this.diff = diff;
+            this.error = error;
+        }
+
+        /**
+         * @return name of the item.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return timestamp of the change.
+         */
+        public String getTimestamp() {
+            return historyDescr.getTimestamp();
+        }
+
+        /**
+         * @return name of the operation.
+         */
+        public String getOperation() {
+            return historyDescr.getOperation();
+        }
+
+        /**
+         * @return display name of the user.
+         */
+        public String getUser() {
+            return historyDescr.getUser();
+        }
+
+        /**
+         * @return id of the user.
+         */
+        public String getUserID() {
+            return historyDescr.getUserID();
+        }
+
+        /**
+         * @return the unified diff against the previous revision, null if the entry has no config file.
+         */
+        public String getDiff() {
+            return diff;
+        }
+
+        /**
+         * @return why the diff could not be computed, null if it was computed.
+         */
+        public String getError() {
+            return error;
+        }
+    }
+
+    /**
+     * Finds the history entries of system configurations within a time window.
+     *
+     * @param store the history store.
+     * @param from first timestamp or a prefix of it, inclusive.
+     * @param to last timestamp or a prefix of it, exclusive, null for no upper bound.
+     * @param candidates where to add the entries.
+     * @throws IOException if the store cannot be read.
+     */
+    static void findSystemCandidates(HistoryStore store, String from, String to, List<Candidate> candidates)
+        throws IOException {
+        for (final String item : store.items("")) {
+            // the jobs are found by findJobCandidates
+            if (!item.startsWith(FileHistoryStore.JOBS_PREFIX) && item.indexOf('/') < 0) {
+                findItemCandidates(store, item, item, from, to, candidates);
+            }
+        }
+    }
+
+    /**
+     * Finds the history entries of existing and deleted jobs within a time window, including the
+     * jobs in folders.
+     *
+     * @param store the history store.
+     * @param from first timestamp or a prefix of it, inclusive.
+     * @param to last timestamp or a prefix of it, exclusive, null for no upper bound.
+     * @param candidates where to add the entries.
+     * @throws IOException if the store cannot be read.
+     */
+    static void findJobCandidates(HistoryStore store, String from, String to, List<Candidate> candidates)
+        throws IOException {
+        for (final String item : store.items(FileHistoryStore.JOBS_PREFIX)) {
+            final String path = item.substring(FileHistoryStore.JOBS_PREFIX.length());
+            // no modules
+            final String[] segments = path.split("/");
+            boolean inFolders = true;
+            for (int i = 1; i < segments.length; i += 2) {
+                inFolders &= segments[i].equals(JobConfigHistoryConsts.JOBS_HISTORY_DIR);
+            }
+            if (inFolders) {
+                final String name = path.replace("/" + JobConfigHistoryConsts.JOBS_HISTORY_DIR + "/", "/");
+                findItemCandidates(store, item, name, from, to, candidates);
+            }
+        }
+    }
+
+    /**
+     * Finds the history entries of a single item within a time window by a binary search over the
+     * sorted timestamps of its entries.
+     *
+     * @param store the history store.
+     * @param item the key of the history of the item.
+     * @param name name of the item.
+     * @param from first timestamp or a prefix of it, inclusive.
+     * @param to last timestamp or a prefix of it, exclusive, null for no upper bound.
+     * @param candidates where to add the entries.
+     * @throws IOException if the store cannot be read.
+     */
+    static void findItemCandidates(HistoryStore store, String item, String name, String from, String to,
+            List<Candidate> candidates) throws IOException {
+        // the older entries are needed for the previous revisions
+        final List<String> timestamps = store.list(item, null, to, 0, -1);
+        for (int i = lowerBound(timestamps, from); i < timestamps.size(); i++) {
+            candidates.add(new Candidate(store, name, item, timestamps.get(i),
+                    findPreviousTimestamp(store, item, timestamps, i)));
+        }
+    }
+
+    /**
+     * @param timestamps sorted timestamps.
+     * @param key a timestamp or a prefix of it.
+     * @return index of the first timestamp not less than the key.
+     */
+    private static int lowerBound(List<String> timestamps, String key) {
+        final int index = Collections.binarySearch(timestamps, key);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * @param store the history store.
+     * @param item the key of the history of the item.
+     * @param timestamps sorted timestamps of its entries.
+     * @param index index of an entry.
+     * @return the timestamp of the newest older entry holding a config file, null if there is none.
+     * @throws IOException if the store cannot be read.
+     */
+    private static String findPreviousTimestamp(HistoryStore store, String item, List<String> timestamps, int index)
+        throws IOException {
+        for (int i = index - 1; i >= 0; i--) {
+            if (store.readConfigName(item, timestamps.get(i)) != null) {
+                return timestamps.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sorts the candidates chronologically.
+     *
+     * @param candidates the candidates.
+     */
+    static void sort(List<Candidate> candidates) {
+        Collections.sort(candidates, CHRONOLOGICAL);
+    }
+
+    /**
+     * Computes the entries of the report on the shared pool.
+     *
+     * @param candidates the chronologically sorted candidates.
+     * @param algorithm the algorithm used to compare revisions.
+     * @return the entries in the order of the candidates, computed while iterating.
+     */
+    static Iterator<Entry> entries(List<Candidate> candidates, DiffAlgorithm algorithm) {
+        return entries(candidates, algorithm, EXECUTOR);
+    }
+
+    /**
+     * Computes the entries of the report, at most {@link #LOOKAHEAD} entries ahead of the caller.
+     * If the calling thread is interrupted, the remaining computations are cancelled and the
+     * iteration ends early.
+     *
+     * @param candidates the chronologically sorted candidates.
+     * @param algorithm the algorithm used to compare revisions.
+     * @param executor computes the diffs.
+     * @return the entries in the order of the candidates, computed while iterating.
+     */
+    static Iterator<Entry> entries(final List<Candidate> candidates, final DiffAlgorithm algorithm,
+            final ExecutorService executor) {
+        return new Iterator<Entry>() {
+            /** Computations of the next entries. */
+            private final ArrayDeque<Future<Entry>> pending = new ArrayDeque<Future<Entry>>();
+            /** Index of the next candidate to submit. */
+            private int submitted;
+
+            public boolean hasNext() {
+                fill();
+                return !pending.isEmpty();
+            }
+
+            public Entry next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final Future<Entry> future = pending.poll();
+                try {
+                    return future.get();
+                } catch (ExecutionException e) {
+                    // compute() reports failures as entries, so this is a bug
+                    throw new IllegalStateException(e.getCause());
+                } catch (InterruptedException e) {
+                    for (final Future<Entry> other : pending) {
+                        other.cancel(true);
+                    }
+                    pending.clear();
+                    submitted = candidates.size();
+                    Thread.currentThread().interrupt();
+                    throw new NoSuchElementException("Interrupted while computing the change report");
+                }
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            /**
+             * Submits candidates until {@link #LOOKAHEAD} computations are pending.
+             */
+            private void fill() {
+                while (pending.size() < LOOKAHEAD && submitted < candidates.size()) {
+                    final Candidate candidate = candidates.get(submitted++);
+                    pending.add(executor.submit(new Callable<Entry>() {
+                        public Entry call() {
+                            return compute(candidate, algorithm);
+                        }
+                    }));
+                }
+            }
+        };
+    }
+
+    /**
+     * Computes the entry of a candidate. Failures are reported in the entry.
+     *
+     * @param candidate the candidate.
+     * @param algorithm the algorithm used to compare revisions.
+     * @return the entry.
+     */
+    static Entry compute(Candidate candidate, DiffAlgorithm algorithm) {
+        final String entry = candidate.item + "/" + candidate.timestamp;
+        HistoryDescr historyDescr = null;
+        try {
+            historyDescr = candidate.store.readDescr(candidate.item, candidate.timestamp);
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Unable to read " + entry, e);
+        }
+        if (historyDescr == null) {
+            historyDescr = new HistoryDescr("", "", "", candidate.timestamp);
+        }
+        try {
+            final MappedLineIndex current = readConfig(candidate.store, candidate.item, candidate.timestamp);
+            if (current == null) {
+                // e.g. the entry of a deleted job
+                return new Entry(candidate.name, historyDescr, null, null);
+            }
+            final MappedLineIndex previousConfig = candidate.previousTimestamp == null ? null
+                    : readConfig(candidate.store, candidate.item, candidate.previousTimestamp);
+            final MappedLineIndex previous = previousConfig == null ? MappedLineIndex.EMPTY : previousConfig;
+            final int[][] lineIds = MappedLineIndex.lineIds(previous, current);
+            final Diff.change script = algorithm.diff(lineIds[0], lineIds[1]);
+            final StringWriter output = new StringWriter();
+            final String label0 = candidate.previousTimestamp == null ? "/dev/null"
+                    : candidate.name + "/" + candidate.previousTimestamp;
+            MappedLineIndex.printUnified(new PrintWriter(output), label0,
+                    candidate.name + "/" + candidate.timestamp, previous, current, script);
+            return new Entry(candidate.name, historyDescr, output.toString(), null);
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Unable to compare " + entry, e);
+            return new Entry(candidate.name, historyDescr, null, String.valueOf(e));
+        }
+    }
+
+    /**
+     * @param store the history store.
+     * @param item the key of the history of the item.
+     * @param timestamp timestamp of an entry.
+     * @return the line index of the saved config file, null if the entry holds none.
+     * @throws IOException if the config file cannot be read.
+     */
+    private static MappedLineIndex readConfig(HistoryStore store, String item, String timestamp) throws IOException {
+        final InputStream in = store.readConfig(item, timestamp);
+        if (in == null) {
+            return null;
+        }
+        try {
+            return MappedLineIndex.open(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the entries of the report as unified diff text, flushing after every entry.
+     *
+     * @param entries the entries.
+     * @param out where to write.
+     */
+    static void writeText(Iterator<Entry> entries, PrintWriter out) {
+        while (entries.hasNext()) {
+            final Entry entry = entries.next();
+            out.println("Index: " + entry.getName() + "/" + entry.getTimestamp() + " " + entry.getOperation()
+                    + " by " + entry.getUserID());
+            if (entry.getError() != null) {
+                out.println("# " + entry.getError());
+            } else if (entry.getDiff() != null) {
+                out.print(entry.getDiff());
+            }
+            out.flush();
+        }
+    }
+}
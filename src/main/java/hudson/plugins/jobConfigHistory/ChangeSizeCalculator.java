@@ -0,0 +1,242 @@
+package hudson.plugins.jobConfigHistory;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import bmsi.util.Diff;
+
+/**
+ * Computes the size of a change, i.e. the number of added and removed lines and the byte delta
+ * against the previous revision, and stores it in the {@link HistoryDescr} of the history entry.
+ * The previous revision is read and the description written through the {@link HistoryStore}, so
+ * every store gets the statistics. The same diff is used to update the {@link ConfigBlame} annotations
+ * of the entry.
+ *
+ * As diffing big configurations takes a while, the computation runs on a single background thread
+ * after the history entry was written, so saving a configuration is not slowed down. As the thread
+ * handles the entries in the order they were written, the previous entry is always annotated already.
+ */
+final class ChangeSizeCalculator {
+
+    /** Our logger. */
+    private static final Logger LOG = Logger.getLogger(ChangeSizeCalculator.class.getName());
+
+    /** Runs the computations one after the other. */
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), "JobConfigHistory change size calculator"));
+
+    /**
+     * Utility class.
+     */
+    private ChangeSizeCalculator() {
+        // only static methods
+    }
+
+    /**
+     * Schedules the computation of the change size of a history entry.
+     *
+     * @param store
+     *            the store holding the history entry.
+     * @param item
+     *            key of the item.
+     * @param timestamp
+     *            timestamp of the history entry.
+     * @param configFileName
+     *            name of the saved config file.
+     * @param historyDescr
+     *            the description already written to the history entry.
+     * @param algorithm
+     *            the algorithm used to compare the revisions.
+     * @param lock
+     *            the lock of the item, held while the description is rewritten.
+     */
+    static void schedule(final HistoryStore store, final String item, final String timestamp,
+            final String configFileName, final HistoryDescr historyDescr, final DiffAlgorithm algorithm,
+            final HistoryStore.Lock lock) {
+        EXECUTOR.execute(new Runnable() {
+            public void run() {
+                try {
+                    update(store, item, timestamp, configFileName, historyDescr, algorithm, lock);
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "Unable to compute the change size of " + item + "/" + timestamp, e);
+                } catch (RuntimeException e) {
+                    LOG.log(Level.WARNING, "Unable to compute the change size of " + item + "/" + timestamp, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Computes the change size of a history entry and rewrites its description. The revisions are
+     * read and compared without holding the lock of the item, so saving and purging other entries of
+     * the item is not held up by a long diff. The lock is only taken to check that the entry still
+     * exists and to rewrite its description and annotations.
+     *
+     * @param store
+     *            the store holding the history entry.
+     * @param item
+     *            key of the item.
+     * @param timestamp
+     *            timestamp of the history entry.
+     * @param configFileName
+     *            name of the saved config file.
+     * @param historyDescr
+     *            the description already written to the history entry.
+     * @param algorithm
+     *            the algorithm used to compare the revisions.
+     * @param lock
+     *            the lock of the item, held while the description is rewritten.
+     * @throws IOException
+     *             if one of the revisions cannot be read or the description cannot be written.
+     */
+    static void update(HistoryStore store, String item, String timestamp, String configFileName,
+            HistoryDescr historyDescr, DiffAlgorithm algorithm, HistoryStore.Lock lock) throws IOException {
+        final String previousTimestamp = getPreviousTimestamp(store, item, timestamp, configFileName);
+        final byte[] previousConfig;
+        final byte[] config;
+        try {
+            previousConfig = previousTimestamp == null ? new byte[0] : readConfig(store, item, previousTimestamp);
+            config = readConfig(store, item, timestamp);
+        } catch (FileNotFoundException e) {
+            if (!configFileName.equals(store.readConfigName(item, timestamp))) {
+                // the entry was purged in the meantime
+                return;
+            }
+            throw e;
+        }
+        final String[] lines = readLines(new ByteArrayInputStream(config));
+        final Diff.change script = diff(readLines(new ByteArrayInputStream(previousConfig)), lines, algorithm);
+        final int[] counts = countChangedLines(script);
+        final HistoryDescr updated = historyDescr.withChangeSize(counts[0], counts[1],
+                config.length - previousConfig.length);
+        // the entry must not be purged while its description is rewritten
+        lock.lock();
+        try {
+            if (!configFileName.equals(store.readConfigName(item, timestamp))) {
+                // the entry was purged in the meantime
+                return;
+            }
+            store.writeDescr(item, timestamp, updated);
+            if (previousTimestamp == null || configFileName.equals(store.readConfigName(item, previousTimestamp))) {
+                ConfigBlame.update(store, item, timestamp, previousTimestamp, configFileName, updated, script,
+                        lines.length, algorithm);
+            }
+            // otherwise the annotations are computed on first access, see ConfigBlame#load
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the newest history entry older than the given one which holds a config file of the
+     * same name.
+     *
+     * @param store
+     *            the store holding the history entries.
+     * @param item
+     *            key of the item.
+     * @param timestamp
+     *            timestamp of a history entry.
+     * @param configFileName
+     *            name of the saved config file.
+     * @return the timestamp of the previous entry or null if there is none.
+     * @throws IOException
+     *             if the store cannot be read.
+     */
+    static String getPreviousTimestamp(HistoryStore store, String item, String timestamp, String configFileName)
+        throws IOException {
+        final List<String> older = store.list(item, null, timestamp, 0, -1);
+        for (int i = older.size() - 1; i >= 0; i--) {
+            if (configFileName.equals(store.readConfigName(item, older.get(i)))) {
+                return older.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param store
+     *            the store holding the history entry.
+     * @param item
+     *            key of the item.
+     * @param timestamp
+     *            timestamp of a history entry holding a config file.
+     * @return the content of the config file.
+     * @throws IOException
+     *             if the entry holds no config file or it cannot be read.
+     */
+    static byte[] readConfig(HistoryStore store, String item, String timestamp) throws IOException {
+        final InputStream in = store.readConfig(item, timestamp);
+        if (in == null) {
+            throw new FileNotFoundException(item + "/" + timestamp);
+        }
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @param script the diff between two revisions.
+     * @return the number of added lines at index 0 and of removed lines at index 1.
+     */
+    static int[] countChangedLines(Diff.change script) {
+        final int[] counts = new int[2];
+        for (Diff.change change = script; change != null; change = change.link) {
+            counts[0] += change.inserted;
+            counts[1] += change.deleted;
+        }
+        return counts;
+    }
+
+    /**
+     * @param previousLines lines of the previous revision.
+     * @param lines lines of the current revision.
+     * @param algorithm the algorithm used to compare the revisions.
+     * @return the diff between both revisions.
+     */
+    static Diff.change diff(String[] previousLines, String[] lines, DiffAlgorithm algorithm) {
+        final int[][] lineIds = AbstractDiffAlgorithm.hashLines(previousLines, lines);
+        return algorithm.diff(lineIds[0], lineIds[1]);
+    }
+
+    /**
+     * @param in content of a config file, closed afterwards.
+     * @return the lines of the content.
+     * @throws IOException if the content cannot be read.
+     */
+    static String[] readLines(InputStream in) throws IOException {
+        final List<String> lines = new ArrayList<String>();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+}
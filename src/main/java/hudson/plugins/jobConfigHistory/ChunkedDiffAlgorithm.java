@@ -0,0 +1,253 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import bmsi.util.Diff;
+
+/**
+ * Keeps time and memory of diffs between very large files bounded.
+ *
+ * Small files are handed to the wrapped algorithm as they are. Above {@link #THRESHOLD_LINES}, both
+ * files are cut into content-defined chunks: a gear rolling hash over the line ids ends a chunk
+ * wherever the hash of the preceding lines matches a bit mask, so an insertion only moves the
+ * boundaries next to it. The sequences of chunks are compared first, and only the lines of changed
+ * chunks are compared line by line. Once {@link #MAX_DIFFED_LINES} lines were compared that way, the
+ * remaining changed chunks are reported as replaced as a whole, which is correct but coarser.
+ */
+final class ChunkedDiffAlgorithm implements DiffAlgorithm {
+
+    /** Files with at least this number of lines together are chunked. */
+    static final int THRESHOLD_LINES = 10000;
+
+    /** Maximum number of lines compared line by line within changed chunks. */
+    static final int MAX_DIFFED_LINES = 50000;
+
+    /** Minimum number of lines of a chunk. */
+    private static final int MIN_CHUNK_LINES = 8;
+
+    /** Maximum number of lines of a chunk. */
+    private static final int MAX_CHUNK_LINES = 512;
+
+    /** A chunk ends where the low bits of the rolling hash are 0, i.e. after 32 lines on average. */
+    private static final int BOUNDARY_MASK = 0x1f;
+
+    /** Our logger. */
+    private static final Logger LOG = Logger.getLogger(ChunkedDiffAlgorithm.class.getName());
+
+    /** The algorithm used for small files, chunk sequences and the lines of changed chunks. */
+    private final DiffAlgorithm delegate;
+
+    /** See {@link #THRESHOLD_LINES}. */
+    private final int thresholdLines;
+
+    /** See {@link #MAX_DIFFED_LINES}. */
+    private final int maxDiffedLines;
+
+    /**
+     * @param delegate the algorithm used for small files and changed chunks.
+     */
+    ChunkedDiffAlgorithm(DiffAlgorithm delegate) {
+        this(delegate, THRESHOLD_LINES, MAX_DIFFED_LINES);
+    }
+
+    /**
+     * @param delegate the algorithm used for small files and changed chunks.
+     * @param thresholdLines files with at least this number of lines together are chunked.
+     * @param maxDiffedLines maximum number of lines compared line by line within changed chunks.
+     */
+    ChunkedDiffAlgorithm(DiffAlgorithm delegate, int thresholdLines, int maxDiffedLines) {
+        this.delegate = delegate;
+        this.thresholdLines = thresholdLines;
+        this.maxDiffedLines = maxDiffedLines;
+    }
+
+    /** {@inheritDoc} */
+    public Diff.change diff(int[] a, int[] b) {
+        if (a.length + b.length < thresholdLines) {
+            return delegate.diff(a, b);
+        }
+        final int[] aBounds = chunkBounds(a);
+        final int[] bBounds = chunkBounds(b);
+        final int[][] chunkIds = AbstractDiffAlgorithm.hashLines(chunks(a, aBounds), chunks(b, bBounds));
+
+        int idCount = 0;
+        for (final int id : a) {
+            idCount = Math.max(idCount, id + 1);
+        }
+        for (final int id : b) {
+            idCount = Math.max(idCount, id + 1);
+        }
+        final int[] denseIds = new int[idCount];
+        Arrays.fill(denseIds, -1);
+
+        final AbstractDiffAlgorithm.EditScript script = new AbstractDiffAlgorithm.EditScript();
+        int budget = maxDiffedLines;
+        for (Diff.change change = delegate.diff(chunkIds[0], chunkIds[1]); change != null; change = change.link) {
+            final int aStart = aBounds[change.line0];
+            final int aEnd = aBounds[change.line0 + change.deleted];
+            final int bStart = bBounds[change.line1];
+            final int bEnd = bBounds[change.line1 + change.inserted];
+            final int lines = aEnd - aStart + bEnd - bStart;
+            if (change.deleted == 0 || change.inserted == 0) {
+                script.add(aStart, bStart, aEnd - aStart, bEnd - bStart);
+            } else if (lines > budget) {
+                LOG.log(Level.FINE, "Diff budget exhausted, reporting {0} lines as replaced", lines);
+                script.add(aStart, bStart, aEnd - aStart, bEnd - bStart);
+            } else {
+                budget -= lines;
+                diffRange(a, aStart, aEnd, b, bStart, bEnd, denseIds, script);
+            }
+        }
+        return script.toChange();
+    }
+
+    /**
+     * Compares the lines of a range with the wrapped algorithm. The line ids are renumbered, so the
+     * memory needed only depends on the size of the range.
+     *
+     * @param a line ids of the first file.
+     * @param aStart first line of the range in the first file.
+     * @param aEnd line after the range in the first file.
+     * @param b line ids of the second file.
+     * @param bStart first line of the range in the second file.
+     * @param bEnd line after the range in the second file.
+     * @param denseIds table indexed by line id holding -1 for every id, restored before returning.
+     * @param script the script to add the changes to.
+     */
+    private void diffRange(int[] a, int aStart, int aEnd, int[] b, int bStart, int bEnd, int[] denseIds,
+            AbstractDiffAlgorithm.EditScript script) {
+        final int[] rangeA = new int[aEnd - aStart];
+        final int[] rangeB = new int[bEnd - bStart];
+        int idCount = 0;
+        for (int i = 0; i < rangeA.length; i++) {
+            final int id = a[aStart + i];
+            if (denseIds[id] < 0) {
+                denseIds[id] = idCount++;
+            }
+            rangeA[i] = denseIds[id];
+        }
+        for (int i = 0; i < rangeB.length; i++) {
+            final int id = b[bStart + i];
+            if (denseIds[id] < 0) {
+                denseIds[id] = idCount++;
+            }
+            rangeB[i] = denseIds[id];
+        }
+        for (int i = aStart; i < aEnd; i++) {
+            denseIds[a[i]] = -1;
+        }
+        for (int i = bStart; i < bEnd; i++) {
+            denseIds[b[i]] = -1;
+        }
+        for (Diff.change change = delegate.diff(rangeA, rangeB); change != null; change = change.link) {
+            script.add(aStart + change.line0, bStart + change.line1, change.deleted, change.inserted);
+        }
+    }
+
+    /**
+     * Cuts a file into content-defined chunks.
+     *
+     * @param ids line ids of the file.
+     * @return the first line of every chunk followed by the number of lines.
+     */
+    static int[] chunkBounds(int[] ids) {
+        int[] bounds = new int[ids.length / (BOUNDARY_MASK + 1) + 2];
+        int count = 1;
+        int hash = 0;
+        int chunkStart = 0;
+        for (int i = 0; i < ids.length; i++) {
+            // gear hash: older lines are shifted out after 32 lines
+            hash = (hash << 1) + gear(ids[i]);
+            final int length = i + 1 - chunkStart;
+            if (i + 1 < ids.length && (length >= MAX_CHUNK_LINES
+                    || length >= MIN_CHUNK_LINES && (hash & BOUNDARY_MASK) == 0)) {
+                if (count + 1 >= bounds.length) {
+                    bounds = Arrays.copyOf(bounds, bounds.length * 2);
+                }
+                bounds[count++] = i + 1;
+                chunkStart = i + 1;
+            }
+        }
+        bounds[count++] = ids.length;
+        return Arrays.copyOf(bounds, count);
+    }
+
+    /**
+     * @param id a line id.
+     * @return a well mixed pseudo random value for the id.
+     */
+    private static int gear(int id) {
+        int h = id * 0x9e3779b9;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    /**
+     * @param ids line ids of a file.
+     * @param bounds the chunk bounds of the file.
+     * @return one key per chunk, equal for chunks holding the same lines.
+     */
+    private static Chunk[] chunks(int[] ids, int[] bounds) {
+        final Chunk[] chunks = new Chunk[bounds.length - 1];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = new Chunk(ids, bounds[i], bounds[i + 1]);
+        }
+        return chunks;
+    }
+
+    /**
+     * Key for a range of line ids.
+     */
+    private static final class Chunk {
+        /** Line ids of the file. */
+        private final int[] ids;
+        /** First line of the chunk. */
+        private final int start;
+        /** Line after the chunk. */
+        private final int end;
+        /** Hash of the line ids of the chunk. */
+        private final int hash;
+
+        /**
+         * @param ids line ids of the file.
+         * @param start first line of the chunk.
+         * @param end line after the chunk.
+         */
+        Chunk(int[] ids, int start, int end) {
+            this.ids = ids;
+            this.start = start;
+            this.end = end;
+            int h = 1;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + ids[i];
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Chunk)) {
+                return false;
+            }
+            final Chunk other = (Chunk) obj;
+            if (hash != other.hash || end - start != other.end - other.start) {
+                return false;
+            }
+            for (int i = 0; i < end - start; i++) {
+                if (ids[start + i] != other.ids[other.start + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import bmsi.util.Diff;
+
+/**
+ * Annotates every line of a saved configuration with the history entry which last changed it.
+ *
+ * The annotations of a history entry are stored in its attachment {@link JobConfigHistoryConsts#BLAME_FILE},
+ * see {@link HistoryStore#writeAttachment(String, String, String, byte[])}. They are derived from the
+ * annotations of the previous entry by carrying them through the diff between both revisions, so
+ * showing the blame never replays the whole history.
+ * Entries written by older versions of the plugin are annotated once on first access.
+ *
+ * The file starts with the number of referenced revisions, followed by one line per revision holding
+ * timestamp, user id and user name separated by tabs, followed by the revision index of every line.
+ */
+public final class ConfigBlame {
+
+    /** Annotations of a file without lines. */
+    static final ConfigBlame EMPTY = new ConfigBlame(Collections.<String[]>emptyList(), new int[0]);
+
+    /** Separator of the columns of a revision. */
+    private static final char SEPARATOR = '\t';
+
+    /** Referenced revisions, each holding timestamp, user id and user name. */
+    private final List<String[]> revisions;
+
+    /** Index into {@link #revisions} for every line. */
+    private final int[] lineRevisions;
+
+    /**
+     * @param revisions referenced revisions.
+     * @param lineRevisions index into the revisions for every line.
+     */
+    ConfigBlame(List<String[]> revisions, int[] lineRevisions) {
+        this.revisions = revisions;
+        this.lineRevisions = lineRevisions;
+    }
+
+    /**
+     * A line of a configuration together with the history entry which last changed it.
+     */
+    public static final class Line {
+        /** Line number starting with 1. */
+        private final int number;
+        /** Text of the line. */
+        private final String text;
+        /** Revision which last changed the line. */
+        private final String[] revision;
+
+        /**
+         * @param number line number.
+         * @param text text of the line.
+         * @param revision timestamp, user id and user name.
+         */
+        Line(int number, String text, String[] revision) {
+            this.number = number;
+            this.text = text;
+            this.revision = revision;
+        }
+
+        /**
+         * @return line number starting with 1.
+         */
+        public int getNumber() {
+            return number;
+        }
+
+        /**
+         * @return text of the line.
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * @return timestamp of the history entry which last changed the line.
+         */
+        public String getTimestamp() {
+            return revision[0];
+        }
+
+        /**
+         * @return id of the user who last changed the line.
+         */
+        public String getUserID() {
+            return revision[1];
+        }
+
+        /**
+         * @return display name of the user who last changed the line.
+         */
+        public String getUser() {
+            return revision[2];
+        }
+    }
+
+    /**
+     * @return number of annotated lines.
+     */
+    int getLineCount() {
+        return lineRevisions.length;
+    }
+
+    /**
+     * @param line line index starting with 0.
+     * @return timestamp, user id and user name of the revision which last changed the line.
+     */
+    String[] getRevision(int line) {
+        return revisions.get(lineRevisions[line]);
+    }
+
+    /**
+     * Combines the annotations with the text of the annotated revision.
+     *
+     * @param lines the lines of the annotated revision.
+     * @return annotated lines, unannotated lines are attributed to an unknown revision.
+     */
+    List<Line> annotate(String[] lines) {
+        final String[] unknown = {"", "", ""};
+        final List<Line> result = new ArrayList<Line>(lines.length);
+        for (int i = 0; i < lines.length; i++) {
+            result.add(new Line(i + 1, lines[i], i < lineRevisions.length ? getRevision(i) : unknown));
+        }
+        return result;
+    }
+
+    /**
+     * Derives the annotations of the next revision. Unchanged lines keep their annotation, inserted
+     * lines are attributed to the new history entry. Revisions no longer referenced are dropped.
+     *
+     * @param script the diff from the annotated revision to the next one.
+     * @param lineCount number of lines of the next revision.
+     * @param historyDescr description of the next history entry.
+     * @return the annotations of the next revision.
+     */
+    ConfigBlame next(Diff.change script, int lineCount, HistoryDescr historyDescr) {
+        final List<String[]> nextRevisions = new ArrayList<String[]>();
+        final int[] remapped = new int[revisions.size()];
+        Arrays.fill(remapped, -1);
+        final int[] nextLineRevisions = new int[lineCount];
+        int newRevision = -1;
+        int pos0 = 0;
+        int pos1 = 0;
+        for (Diff.change change = script; ; change = change.link) {
+            final int unchangedEnd = change == null ? lineCount : change.line1;
+            while (pos1 < unchangedEnd) {
+                final int revision = lineRevisions[pos0++];
+                if (remapped[revision] < 0) {
+                    remapped[revision] = nextRevisions.size();
+                    nextRevisions.add(revisions.get(revision));
+                }
+                nextLineRevisions[pos1++] = remapped[revision];
+            }
+            if (change == null) {
+                break;
+            }
+            if (change.inserted > 0 && newRevision < 0) {
+                newRevision = nextRevisions.size();
+                nextRevisions.add(new String[] {historyDescr.getTimestamp(), historyDescr.getUserID(),
+                    historyDescr.getUser()});
+            }
+            for (int i = 0; i < change.inserted; i++) {
+                nextLineRevisions[pos1++] = newRevision;
+            }
+            pos0 += change.deleted;
+        }
+        return new ConfigBlame(nextRevisions, nextLineRevisions);
+    }
+
+    /**
+     * Updates the annotations for a new history entry.
+     *
+     * @param store the store holding the history entries.
+     * @param item key of the item.
+     * @param timestamp timestamp of the new history entry.
+     * @param previousTimestamp timestamp of the previous entry, null if there is none.
+     * @param configFileName name of the saved config file.
+     * @param historyDescr description of the new history entry.
+     * @param script the diff from the previous revision to the new one.
+     * @param lineCount number of lines of the new revision.
+     * @param algorithm the algorithm used to compare revisions if older entries must be annotated.
+     * @throws IOException if the annotations cannot be read or written.
+     */
+    static void update(HistoryStore store, String item, String timestamp, String previousTimestamp,
+            String configFileName, HistoryDescr historyDescr, Diff.change script, int lineCount,
+            DiffAlgorithm algorithm) throws IOException {
+        final ConfigBlame previous = previousTimestamp == null ? EMPTY
+                : load(store, item, previousTimestamp, configFileName, algorithm);
+        previous.next(script, lineCount, historyDescr).write(store, item, timestamp);
+    }
+
+    /**
+     * Returns the annotations of a history entry. Missing annotations of the entry and its
+     * predecessors are computed starting at the newest annotated predecessor.
+     *
+     * @param store the store holding the history entries.
+     * @param item key of the item.
+     * @param timestamp timestamp of a history entry holding a config file.
+     * @param configFileName name of the saved config file.
+     * @param algorithm the algorithm used to compare revisions.
+     * @return the annotations.
+     * @throws IOException if a revision or its annotations cannot be read or written.
+     */
+    static ConfigBlame load(HistoryStore store, String item, String timestamp, String configFileName,
+            DiffAlgorithm algorithm) throws IOException {
+        final LinkedList<String> unannotated = new LinkedList<String>();
+        ConfigBlame blame = EMPTY;
+        String[] previousLines = new String[0];
+        final List<String> timestamps = new ArrayList<String>(store.list(item, null, timestamp, 0, -1));
+        timestamps.add(timestamp);
+        for (int i = timestamps.size() - 1; i >= 0; i--) {
+            final String candidate = timestamps.get(i);
+            if (!configFileName.equals(store.readConfigName(item, candidate))) {
+                continue;
+            }
+            final ConfigBlame annotated = read(store, item, candidate);
+            if (annotated != null) {
+                final String[] lines = ChangeSizeCalculator.readLines(store.readConfig(item, candidate));
+                // annotations not matching the revision are recomputed
+                if (annotated.getLineCount() == lines.length) {
+                    blame = annotated;
+                    previousLines = lines;
+                    break;
+                }
+            }
+            unannotated.addFirst(candidate);
+        }
+        if (unannotated.isEmpty()) {
+            return blame;
+        }
+        // the entries must not be purged or moved while they are annotated
+        final HistoryStore.Lock lock = store.getLock(item);
+        lock.lock();
+        try {
+            for (final String candidate : unannotated) {
+                if (!configFileName.equals(store.readConfigName(item, candidate))) {
+                    // purged in the meantime
+                    continue;
+                }
+                final String[] lines = ChangeSizeCalculator.readLines(store.readConfig(item, candidate));
+                HistoryDescr historyDescr = store.readDescr(item, candidate);
+                if (historyDescr == null) {
+                    historyDescr = new HistoryDescr("", "", "", candidate);
+                }
+                blame = blame.next(ChangeSizeCalculator.diff(previousLines, lines, algorithm), lines.length,
+                        historyDescr);
+                blame.write(store, item, candidate);
+                previousLines = lines;
+            }
+        } finally {
+            lock.unlock();
+        }
+        return blame;
+    }
+
+    /**
+     * Reads the annotations of a history entry.
+     *
+     * @param store the store holding the history entries.
+     * @param item key of the item.
+     * @param timestamp timestamp of the history entry.
+     * @return the annotations or null if there are none or they are unreadable.
+     * @throws IOException if the annotations cannot be read.
+     */
+    static ConfigBlame read(HistoryStore store, String item, String timestamp) throws IOException {
+        final InputStream in = store.readAttachment(item, timestamp, JobConfigHistoryConsts.BLAME_FILE);
+        if (in == null) {
+            return null;
+        }
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            final String header = reader.readLine();
+            if (header == null) {
+                return null;
+            }
+            final int revisionCount = Integer.parseInt(header);
+            if (revisionCount < 0) {
+                return null;
+            }
+            final List<String[]> revisions = new ArrayList<String[]>(revisionCount);
+            for (int i = 0; i < revisionCount; i++) {
+                final String line = reader.readLine();
+                if (line == null) {
+                    // truncated file
+                    return null;
+                }
+                final String[] revision = line.split(String.valueOf(SEPARATOR), -1);
+                if (revision.length != 3) {
+                    return null;
+                }
+                revisions.add(revision);
+            }
+            int[] lineRevisions = new int[64];
+            int lineCount = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final int revision = Integer.parseInt(line);
+                if (revision < 0 || revision >= revisionCount) {
+                    return null;
+                }
+                if (lineCount == lineRevisions.length) {
+                    lineRevisions = Arrays.copyOf(lineRevisions, lineCount * 2);
+                }
+                lineRevisions[lineCount++] = revision;
+            }
+            return new ConfigBlame(revisions, Arrays.copyOf(lineRevisions, lineCount));
+        } catch (NumberFormatException e) {
+            return null;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Writes the annotations into a history entry.
+     *
+     * @param store the store holding the history entries.
+     * @param item key of the item.
+     * @param timestamp timestamp of the history entry.
+     * @throws IOException if the annotations cannot be written.
+     */
+    void write(HistoryStore store, String item, String timestamp) throws IOException {
+        final StringBuilder content = new StringBuilder();
+        content.append(revisions.size()).append('\n');
+        for (final String[] revision : revisions) {
+            content.append(clean(revision[0])).append(SEPARATOR).append(clean(revision[1])).append(SEPARATOR)
+                    .append(clean(revision[2])).append('\n');
+        }
+        for (final int revision : lineRevisions) {
+            content.append(revision).append('\n');
+        }
+        store.writeAttachment(item, timestamp, JobConfigHistoryConsts.BLAME_FILE,
+                content.toString().getBytes("UTF-8"));
+    }
+
+    /**
+     * @param value a column of a revision.
+     * @return the value without separators and line breaks.
+     */
+    private static String clean(String value) {
+        return value == null ? "" : value.replace(SEPARATOR, ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+}
@@ -4,20 +4,16 @@
 
 package hudson.plugins.jobConfigHistory;
 
-import hudson.Util;
 import hudson.XmlFile;
 import hudson.model.Hudson;
 import hudson.model.User;
 
-import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -67,45 +63,32 @@ public enum ConfigHistoryListenerHelper {
     }
 
     /**
-     * Creates a timestamped directory to save the configuration beneath. Purges old data if configured
+     * Writes a new history entry with the current time as timestamp or, if an entry with that
+     * timestamp exists, the next free one.
      * 
+     * @param store
+     *            the store to write the entry to.
+     * @param item
+     *            the key of the history.
      * @param xmlFile
      *            the current xmlFile configuration file to save
-     * @param timestampHolder
-     *            time of operation.
-     * @return timestamped directory where to store one history entry.
+     * @param currentUser
+     *            the user who did the action, null for an anonymous user.
+     * @return the written description.
+     * @throws IOException
+     *             if writing the entry fails.
      */
-    @SuppressWarnings("SleepWhileInLoop")
-    private File getRootDir(final XmlFile xmlFile, final AtomicReference<Calendar> timestampHolder) {
-        final JobConfigHistory plugin = Hudson.getInstance().getPlugin(JobConfigHistory.class);
-        final File itemHistoryDir = plugin.getHistoryDir(xmlFile);
-        final int halfASecond = 500;
-        // perform check for purge here, when we are actually going to create
-        // a new directory, rather than just when we scan it in above method.
-        plugin.checkForPurgeByQuantity(itemHistoryDir);
-        Calendar timestamp;
-        File f;
-        while (true) {
-            timestamp = new GregorianCalendar();
-            f = new File(itemHistoryDir, getIdFormatter().format(timestamp.getTime()));
-            if (f.isDirectory()) {
-                LOG.log(Level.FINE, "clash on {0}, will wait a moment", f);
-                try {
-                    Thread.sleep(halfASecond);
-                } catch (InterruptedException x) {
-                    throw new RuntimeException(x);
-                }
-            } else {
-                timestampHolder.set(timestamp);
-                break;
+    private HistoryDescr writeEntry(final HistoryStore store, final String item, final XmlFile xmlFile,
+            final User currentUser) throws IOException {
+        final HistoryDescr historyDescr = createHistoryDescr(new GregorianCalendar(), currentUser);
+        final InputStream config = this == DELETED ? null : new FileInputStream(xmlFile.getFile());
+        try {
+            return store.writeNew(item, historyDescr, xmlFile.getFile().getName(), config);
+        } finally {
+            if (config != null) {
+                config.close();
             }
         }
-        // mkdirs sometimes fails although the directory exists afterwards,
-        // so check for existence as well and just be happy if it does.
-        if (!(f.mkdirs() || f.exists())) {
-            throw new RuntimeException("Could not create rootDir " + f);
-        }
-        return f;
     }
 
     /**
@@ -115,15 +98,58 @@ public enum ConfigHistoryListenerHelper {
      *            configuration file for the item we want to backup
      */
     public final void createNewHistoryEntry(final XmlFile xmlFile) {
+        createNewHistoryEntry(xmlFile, getCurrentUser());
+    }
+
+    /**
+     * Creates a new backup of the job configuration on behalf of the given user, e.g. for changes
+     * done by a background thread.
+     * 
+     * @param xmlFile
+     *            configuration file for the item we want to backup
+     * @param currentUser
+     *            the user who changed the configuration, null for an anonymous user
+     */
+    final void createNewHistoryEntry(final XmlFile xmlFile, final User currentUser) {
+        final JobConfigHistory plugin = Hudson.getInstance().getPlugin(JobConfigHistory.class);
+        final String item = plugin.getHistoryKey(xmlFile);
+        if (item != null) {
+            createNewHistoryEntry(item, xmlFile, currentUser);
+        }
+    }
+
+    /**
+     * Creates a new backup of the job configuration in the given history, e.g. in the history kept
+     * under the old name of a job renamed since the change.
+     * 
+     * @param item
+     *            the key of the history.
+     * @param xmlFile
+     *            configuration file for the item we want to backup
+     * @param currentUser
+     *            the user who changed the configuration, null for an anonymous user
+     */
+    final void createNewHistoryEntry(final String item, final XmlFile xmlFile, final User currentUser) {
         try {
-            final AtomicReference<Calendar> timestamp = new AtomicReference<Calendar>();
-            final File timestampedDir = getRootDir(xmlFile, timestamp);
-            LOG.log(Level.FINE, "{0} on {1}", new Object[] {this, timestampedDir});
+            final JobConfigHistory plugin = Hudson.getInstance().getPlugin(JobConfigHistory.class);
+            final HistoryStore store = plugin.getHistoryStore();
+            final HistoryDescr historyDescr;
+            // no purge, rename or deletion of the history may come in between
+            final HistoryStore.Lock lock = store.getLock(item);
+            lock.lock();
+            try {
+                // perform check for purge here, when we are actually going to create
+                // a new entry, rather than just when we scan it in above method.
+                plugin.checkForPurgeByQuantity(item);
+                historyDescr = writeEntry(store, item, xmlFile, currentUser);
+            } finally {
+                lock.unlock();
+            }
+            LOG.log(Level.FINE, "{0} on {1}/{2}", new Object[] {this, item, historyDescr.getTimestamp()});
             if (this != DELETED) {
-                copyConfigFile(xmlFile.getFile(), timestampedDir);
+                ChangeSizeCalculator.schedule(store, item, historyDescr.getTimestamp(), xmlFile.getFile().getName(),
+                        historyDescr, plugin.getConfiguredDiffAlgorithm(), lock);
             }
-            assert timestamp.get() != null;
-            createHistoryXmlFile(timestamp.get(), timestampedDir);
         } catch (IOException e) {
             // If not able to create the history entry, log, but continue without it.
             // A known issue is where Hudson core fails to move the folders on rename,
@@ -144,13 +170,11 @@ public enum ConfigHistoryListenerHelper {
      * 
      * @param timestamp
      *            when the action did happen.
-     * @param timestampedDir
-     *            the directory where to save the history.
-     * @throws IOException
-     *             if writing the history fails.
+     * @param currentUser
+     *            the user who did the action, null for an anonymous user.
+     * @return the description.
      */
-    private void createHistoryXmlFile(final Calendar timestamp, final File timestampedDir) throws IOException {
-        final User currentUser = getCurrentUser();
+    private HistoryDescr createHistoryDescr(final Calendar timestamp, final User currentUser) {
         final String user;
         final String userId;
         if (currentUser != null) {
@@ -161,10 +185,10 @@ public enum ConfigHistoryListenerHelper {
             userId = Messages.ConfigHistoryListenerHelper_anonymous();
         }
 
-        final XmlFile historyDescription = new XmlFile(new File(timestampedDir, JobConfigHistoryConsts.HISTORY_FILE));
-        final HistoryDescr myDescr = new HistoryDescr(user, userId, operation, getIdFormatter().format(
+        final HistoryDescr descr = new HistoryDescr(user, userId, operation, getIdFormatter().format(
                 timestamp.getTime()));
-        historyDescription.write(myDescr);
+        final String changeset = BulkIngest.currentChangeset();
+        return changeset == null ? descr : descr.withChangeset(changeset);
     }
 
     /**
@@ -176,34 +200,6 @@ public enum ConfigHistoryListenerHelper {
         return User.current();
     }
 
-    /**
-     * Saves a copy of this project's {@code config.xml} into {@code timestampedDir}.
-     * 
-     * @param currentConfig
-     *            which we want to copy.
-     * @param timestampedDir
-     *            the directory where to save the copy.
-     * @throws FileNotFoundException
-     *             if initiating the file holding the copy fails.
-     * @throws IOException
-     *             if writing the file holding the copy fails.
-     */
-    private void copyConfigFile(final File currentConfig, final File timestampedDir) throws FileNotFoundException,
-            IOException {
-
-        final FileOutputStream configCopy = new FileOutputStream(new File(timestampedDir, currentConfig.getName()));
-        try {
-            final FileInputStream configOriginal = new FileInputStream(currentConfig);
-            try {
-                Util.copyStream(configOriginal, configCopy);
-            } finally {
-                configOriginal.close();
-            }
-        } finally {
-            configCopy.close();
-        }
-    }
-
     /**
      * Returns a simple formatter used for creating timestamped directories. We create this every time as
      * {@link SimpleDateFormat} is <b>not</b> threadsafe.
@@ -40,6 +40,21 @@ public class ConfigInfo {
      */
     private boolean isJob;
 
+    /** Number of lines added against the previous revision, -1 if unknown. */
+    private int linesAdded = -1;
+
+    /** Number of lines removed against the previous revision, -1 if unknown. */
+    private int linesRemoved = -1;
+
+    /** Size difference in bytes against the previous revision. */
+    private long byteDelta;
+
+    /** Id of the changeset the change belongs to, null if it was saved on its own. */
+    private String changeset;
+
+    /** Number of changes this object stands for, more than one if it stands for a whole changeset. */
+    private int changesetSize = 1;
+
     /**
      * Returns a new ConfigInfo object for a Jenkins job.
      *
@@ -59,7 +74,7 @@ public class ConfigInfo {
                 histDescr.getUser(),
                 histDescr.getOperation(),
                 histDescr.getUserID(),
-                true);
+                true).withChangeSize(histDescr).withChangeset(histDescr);
     }
     /**
      * Returns a new ConfigInfo object for a system configuration file.
@@ -81,7 +96,7 @@ public class ConfigInfo {
                 histDescr.getUser(),
                 histDescr.getOperation(),
                 histDescr.getUserID(),
-                isJob);
+                isJob).withChangeSize(histDescr).withChangeset(histDescr);
     }
     
     /**
@@ -117,6 +132,32 @@ public class ConfigInfo {
 
     }
 
+    /**
+     * Copies the size of the change from the history description if it was computed already.
+     *
+     * @param histDescr metadata of the change.
+     * @return this object.
+     */
+    private ConfigInfo withChangeSize(final HistoryDescr histDescr) {
+        if (histDescr.hasChangeSize()) {
+            linesAdded = histDescr.getLinesAdded();
+            linesRemoved = histDescr.getLinesRemoved();
+            byteDelta = histDescr.getByteDelta();
+        }
+        return this;
+    }
+
+    /**
+     * Copies the id of the changeset from the history description.
+     *
+     * @param histDescr metadata of the change.
+     * @return this object.
+     */
+    private ConfigInfo withChangeset(final HistoryDescr histDescr) {
+        changeset = histDescr.getChangeset();
+        return this;
+    }
+
     /**
      * Returns the display name of the user.
      *
@@ -186,6 +227,73 @@ public class ConfigInfo {
         return isJob;
     }
 
+    /**
+     * Returns the number of lines added against the previous revision.
+     *
+     * @return added lines, -1 if unknown
+     */
+    @Exported
+    public int getLinesAdded() {
+        return linesAdded;
+    }
+
+    /**
+     * Returns the number of lines removed against the previous revision.
+     *
+     * @return removed lines, -1 if unknown
+     */
+    @Exported
+    public int getLinesRemoved() {
+        return linesRemoved;
+    }
+
+    /**
+     * Returns the size difference in bytes against the previous revision.
+     *
+     * @return byte delta, 0 if unknown
+     */
+    @Exported
+    public long getByteDelta() {
+        return byteDelta;
+    }
+
+    /**
+     * Returns the size of the change used for sorting, i.e. the number of added and removed lines.
+     *
+     * @return changed lines, -1 if unknown
+     */
+    public int getChangeSize() {
+        return linesAdded < 0 ? -1 : linesAdded + linesRemoved;
+    }
+
+    /**
+     * Returns the id of the changeset the change belongs to.
+     *
+     * @return id of the changeset, null if the change was saved on its own
+     */
+    @Exported
+    public String getChangeset() {
+        return changeset;
+    }
+
+    /**
+     * Returns the number of changes this object stands for on the overview page.
+     *
+     * @return 1, or the number of changes of the changeset if it stands for a whole changeset
+     */
+    public int getChangesetSize() {
+        return changesetSize;
+    }
+
+    /**
+     * Makes this object stand for a whole changeset on the overview page.
+     *
+     * @param size number of changes of the changeset.
+     */
+    void setChangesetSize(int size) {
+        changesetSize = size;
+    }
+
     @Override public String toString() {
         return operation + " on " + file + " @" + date;
     }
@@ -0,0 +1,202 @@
+package hudson.plugins.jobConfigHistory;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import bmsi.util.Diff;
+
+/**
+ * Compares one configuration against many others, e.g. a template job against all jobs created
+ * from it, to find out which of them deviate and by how much.
+ *
+ * The line index of the base configuration, i.e. its line offsets and line hashes, is built once
+ * and shared by all comparisons, which run in parallel on a small pool of background threads.
+ * Only the number of added and removed lines is computed; the side-by-side view of a single pair
+ * is computed on demand.
+ */
+public final class CrossItemDiff {
+
+    /** Maximum number of comparisons running at the same time. */
+    static final int POOL_SIZE = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /** Our logger. */
+    private static final Logger LOG = Logger.getLogger(CrossItemDiff.class.getName());
+
+    /** Runs the comparisons. */
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(POOL_SIZE,
+            new NamingThreadFactory(new DaemonThreadFactory(), "JobConfigHistory cross item diff"));
+
+    /**
+     * A configuration compared against the base configuration.
+     */
+    public static final class Result {
+        /** Name of the compared item. */
+        private final String name;
+        /** Timestamp of the compared revision, {@link JobConfigHistoryRootAction#CURRENT} for the live config. */
+        private final String timestamp;
+        /** Number of lines added relative to the base configuration. */
+        private final int linesAdded;
+        /** Number of lines removed relative to the base configuration. */
+        private final int linesRemoved;
+        /** Why the configuration could not be compared, null if it was compared. */
+        private final String error;
+
+        /**
+         * @param name name of the compared item.
+         * @param timestamp timestamp of the compared revision.
+         * @param linesAdded number of lines added relative to the base configuration.
+         * @param linesRemoved number of lines removed relative to the base configuration.
+         * @param error why the configuration could not be compared, null if it was compared.
+         */
+        Result(String name, String timestamp, int linesAdded, int linesRemoved, String error) {
+            this.name = name;
+            this.timestamp = timestamp;
+            this.linesAdded = linesAdded;
+            this.linesRemoved = linesRemoved;
+            this.error = error;
+        }
+
+        /**
+         * @return name of the compared item.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return timestamp of the compared revision.
+         */
+        public String getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * @return number of lines added relative to the base configuration.
+         */
+        public int getLinesAdded() {
+            return linesAdded;
+        }
+
+        /**
+         * @return number of lines removed relative to the base configuration.
+         */
+        public int getLinesRemoved() {
+            return linesRemoved;
+        }
+
+        /**
+         * @return true if the configuration equals the base configuration.
+         */
+        public boolean isIdentical() {
+            return error == null && linesAdded == 0 && linesRemoved == 0;
+        }
+
+        /**
+         * @return why the configuration could not be compared, null if it was compared.
+         */
+        public String getError() {
+            return error;
+        }
+    }
+
+    /**
+     * A configuration to compare against the base configuration.
+     */
+    static final class Target {
+        /** Name of the item. */
+        private final String name;
+        /** Timestamp of the revision. */
+        private final String timestamp;
+        /** The config file. */
+        private final File file;
+
+        /**
+         * @param name name of the item.
+         * @param timestamp timestamp of the revision.
+         * @param file the config file.
+         */
+        Target(String name, String timestamp, File file) {
+            this.name = name;
+            this.timestamp = timestamp;
+            this.file = file;
+        }
+    }
+
+    /**
+     * Utility class.
+     */
+    private CrossItemDiff() {
+        // only static methods
+    }
+
+    /**
+     * Compares the base configuration against every target on the shared pool.
+     *
+     * @param baseFile the base configuration.
+     * @param targets the configurations to compare.
+     * @param algorithm the algorithm used to compare the configurations.
+     * @return one result per target in the same order.
+     * @throws IOException if the base configuration cannot be read or the comparison was interrupted.
+     */
+    static List<Result> compare(File baseFile, List<Target> targets, DiffAlgorithm algorithm) throws IOException {
+        return compare(baseFile, targets, algorithm, EXECUTOR);
+    }
+
+    /**
+     * Compares the base configuration against every target.
+     *
+     * @param baseFile the base configuration.
+     * @param targets the configurations to compare.
+     * @param algorithm the algorithm used to compare the configurations.
+     * @param executor runs the comparisons.
+     * @return one result per target in the same order.
+     * @throws IOException if the base configuration cannot be read or the comparison was interrupted.
+     */
+    static List<Result> compare(File baseFile, List<Target> targets, final DiffAlgorithm algorithm,
+            ExecutorService executor) throws IOException {
+        final MappedLineIndex base = MappedLineIndex.open(baseFile);
+        final List<Future<Result>> futures = new ArrayList<Future<Result>>(targets.size());
+        for (final Target target : targets) {
+            futures.add(executor.submit(new Callable<Result>() {
+                public Result call() throws IOException {
+                    final MappedLineIndex other = MappedLineIndex.open(target.file);
+                    final int[][] lineIds = MappedLineIndex.lineIds(base, other);
+                    final Diff.change script = algorithm.diff(lineIds[0], lineIds[1]);
+                    final int[] counts = ChangeSizeCalculator.countChangedLines(script);
+                    return new Result(target.name, target.timestamp, counts[0], counts[1], null);
+                }
+            }));
+        }
+        final List<Result> results = new ArrayList<Result>(targets.size());
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                final Target target = targets.get(i);
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    LOG.log(Level.FINE, "Unable to compare " + target.file, e.getCause());
+                    results.add(new Result(target.name, target.timestamp, -1, -1, String.valueOf(e.getCause())));
+                }
+            }
+        } catch (InterruptedException e) {
+            for (final Future<Result> future : futures) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while comparing " + baseFile);
+        }
+        return results;
+    }
+}
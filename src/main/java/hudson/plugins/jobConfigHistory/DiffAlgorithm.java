@@ -0,0 +1,24 @@
+package hudson.plugins.jobConfigHistory;
+
+import bmsi.util.Diff;
+
+/**
+ * Computes the differences between two files whose lines were already hashed into int ids.
+ *
+ * Equal lines must have equal ids and the ids must be small non-negative numbers,
+ * as returned by {@link AbstractDiffAlgorithm#hashLines(Object[], Object[])}.
+ */
+public interface DiffAlgorithm {
+
+    /**
+     * Returns the edit script which turns the first file into the second one.
+     *
+     * @param a
+     *            line ids of the first file.
+     * @param b
+     *            line ids of the second file.
+     * @return the edit script in ascending line order as expected by
+     *         {@link bmsi.util.DiffPrint.UnifiedPrint#print_script(Diff.change)}, null if both files are equal.
+     */
+    Diff.change diff(int[] a, int[] b);
+}
@@ -0,0 +1,290 @@
+package hudson.plugins.jobConfigHistory;
+
+import hudson.plugins.jobConfigHistory.JobConfigHistoryBaseAction.SideBySideView.Line;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Size-bounded LRU cache of computed side-by-side diffs.
+ *
+ * History entries never change once written, so the diff between two history directories is
+ * stable as long as both directories exist. Entries are keyed by the two history directories
+ * (e.g. {@code jobs/Test/2013-01-18_17-33-51}) and evicted in least recently used order as soon as
+ * the estimated size of all cached rows exceeds the configured number of bytes. Entries have to be
+ * invalidated when one of their history directories is deleted or moved.
+ */
+public class DiffCache {
+
+    /** Rough size of a cached {@link Line} without its texts, in bytes. */
+    private static final int LINE_OVERHEAD = 96;
+
+    /** Rough size of an intra-line segment without its text, in bytes. */
+    private static final int SEGMENT_OVERHEAD = 56;
+
+    /** Rough size of a cache entry without its lines, in bytes. */
+    private static final int ENTRY_OVERHEAD = 256;
+
+    /** Maximum estimated size of all cached entries in bytes. */
+    private final long maxBytes;
+
+    /** The cached entries in access order, guarded by {@code this}. */
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+
+    /** Estimated size of all cached entries in bytes, guarded by {@code this}. */
+    private long currentBytes;
+
+    /** Number of successful lookups, guarded by {@code this}. */
+    private long hitCount;
+
+    /** Number of failed lookups, guarded by {@code this}. */
+    private long missCount;
+
+    /** Number of entries evicted because the cache was full, guarded by {@code this}. */
+    private long evictionCount;
+
+    /**
+     * @param maxBytes
+     *            maximum estimated size of all cached diffs in bytes, 0 disables the cache.
+     */
+    public DiffCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the cached diff between two history directories.
+     *
+     * @param historyDir1
+     *            history directory of the older revision, e.g. {@code jobs/Test/2013-01-18_17-33-51}.
+     * @param historyDir2
+     *            history directory of the newer revision.
+     * @return the cached lines or null if the diff is not cached.
+     */
+    public synchronized List<Line> get(File historyDir1, File historyDir2) {
+        final Entry entry = entries.get(new Key(historyDir1, historyDir2));
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return entry.lines;
+    }
+
+    /**
+     * Caches the diff between two history directories, evicting the least recently used
+     * entries if the cache grows too big. Diffs bigger than the whole cache are not stored.
+     *
+     * @param historyDir1
+     *            history directory of the older revision.
+     * @param historyDir2
+     *            history directory of the newer revision.
+     * @param lines
+     *            the computed diff.
+     * @return an unmodifiable view of the given lines.
+     */
+    public List<Line> put(File historyDir1, File historyDir2, List<Line> lines) {
+        final List<Line> unmodifiableLines = Collections.unmodifiableList(lines);
+        final long bytes = estimateBytes(lines);
+        if (bytes > maxBytes) {
+            return unmodifiableLines;
+        }
+        synchronized (this) {
+            final Entry old = entries.put(new Key(historyDir1, historyDir2), new Entry(unmodifiableLines, bytes));
+            if (old != null) {
+                currentBytes -= old.bytes;
+            }
+            currentBytes += bytes;
+            final Iterator<Entry> eldest = entries.values().iterator();
+            while (currentBytes > maxBytes && eldest.hasNext()) {
+                currentBytes -= eldest.next().bytes;
+                eldest.remove();
+                evictionCount++;
+            }
+        }
+        return unmodifiableLines;
+    }
+
+    /**
+     * Removes all cached diffs which involve the given history directory or, if an item history
+     * directory (e.g. {@code jobs/Test}) is given, any history directory beneath it.
+     *
+     * @param dir
+     *            the history directory which was deleted or moved.
+     */
+    public synchronized void invalidate(File dir) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        final String path = dir.getAbsolutePath();
+        final Iterator<Map.Entry<Key, Entry>> iter = entries.entrySet().iterator();
+        while (iter.hasNext()) {
+            final Map.Entry<Key, Entry> mapEntry = iter.next();
+            if (mapEntry.getKey().involves(path)) {
+                currentBytes -= mapEntry.getValue().bytes;
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all cached diffs.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        currentBytes = 0;
+    }
+
+    /**
+     * @return the number of lookups answered from the cache.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return the number of lookups not answered from the cache.
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return the number of entries evicted to keep the cache within its size.
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return the number of cached diffs.
+     */
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return the estimated size of all cached diffs in bytes.
+     */
+    public synchronized long getSizeInBytes() {
+        return currentBytes;
+    }
+
+    /**
+     * @return the maximum estimated size of all cached diffs in bytes.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DiffCache[entries=" + entries.size() + ", bytes=" + currentBytes + "/" + maxBytes
+                + ", hits=" + hitCount + ", misses=" + missCount + ", evictions=" + evictionCount + "]";
+    }
+
+    /**
+     * Estimates the heap size of the given lines.
+     *
+     * @param lines
+     *            a computed diff.
+     * @return estimated size in bytes.
+     */
+    static long estimateBytes(List<Line> lines) {
+        long bytes = ENTRY_OVERHEAD;
+        for (final Line line : lines) {
+            bytes += LINE_OVERHEAD + 2L * (length(line.getLeft().getText()) + length(line.getRight().getText()));
+            // segments hold a copy of the text of changed lines
+            if (line.getLeft().getSegments() != null) {
+                bytes += SEGMENT_OVERHEAD * line.getLeft().getSegments().size() + 2L * length(line.getLeft().getText());
+            }
+            if (line.getRight().getSegments() != null) {
+                bytes += SEGMENT_OVERHEAD * line.getRight().getSegments().size()
+                        + 2L * length(line.getRight().getText());
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @param text
+     *            may be null.
+     * @return length of the text, 0 for null.
+     */
+    private static int length(String text) {
+        return text == null ? 0 : text.length();
+    }
+
+    /**
+     * Cache key consisting of the absolute paths of both history directories.
+     */
+    private static final class Key {
+        /** Absolute path of the first history directory. */
+        private final String path1;
+        /** Absolute path of the second history directory. */
+        private final String path2;
+
+        /**
+         * @param historyDir1 first history directory.
+         * @param historyDir2 second history directory.
+         */
+        Key(File historyDir1, File historyDir2) {
+            path1 = historyDir1.getAbsolutePath();
+            path2 = historyDir2.getAbsolutePath();
+        }
+
+        /**
+         * @param path absolute path of a history directory or item history directory.
+         * @return true if one of the history directories is the given directory or lies beneath it.
+         */
+        boolean involves(String path) {
+            return isSameOrBeneath(path1, path) || isSameOrBeneath(path2, path);
+        }
+
+        /**
+         * @param candidate path of a history directory.
+         * @param path path of a history directory or item history directory.
+         * @return true if candidate equals path or lies beneath it.
+         */
+        private static boolean isSameOrBeneath(String candidate, String path) {
+            return candidate.startsWith(path)
+                    && (candidate.length() == path.length() || candidate.charAt(path.length()) == File.separatorChar);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return path1.equals(other.path1) && path2.equals(other.path2);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * path1.hashCode() + path2.hashCode();
+        }
+    }
+
+    /**
+     * Cached diff together with its estimated size.
+     */
+    private static final class Entry {
+        /** The cached rows. */
+        private final List<Line> lines;
+        /** Estimated size of the rows in bytes. */
+        private final long bytes;
+
+        /**
+         * @param lines the cached rows.
+         * @param bytes their estimated size.
+         */
+        Entry(List<Line> lines, long bytes) {
+            this.lines = lines;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the exclude pattern of system configurations in file names.
+ *
+ * Most exclude patterns, like the default {@link JobConfigHistoryConsts#DEFAULT_EXCLUDE}, are plain
+ * alternations of literal words. Those are matched by an Aho-Corasick automaton in a single pass over
+ * the name without backtracking; all other patterns are matched by the regular expression.
+ */
+abstract class ExcludeMatcher {
+
+    /** Characters with a special meaning in regular expressions. */
+    private static final String META_CHARACTERS = "\\^$.|?*+()[]{}";
+
+    /**
+     * @param name a file name.
+     * @return true if the pattern is found in the name.
+     */
+    abstract boolean find(CharSequence name);
+
+    /**
+     * @param pattern the exclude pattern.
+     * @return a matcher for the pattern, using an automaton if it is a plain alternation of words.
+     */
+    static ExcludeMatcher forPattern(Pattern pattern) {
+        final List<String> words = literalAlternatives(pattern);
+        return words == null ? new RegexMatcher(pattern) : new AhoCorasickMatcher(words);
+    }
+
+    /**
+     * @param pattern a regular expression.
+     * @return the words if the expression is a plain alternation of non-empty literal words, otherwise null.
+     */
+    static List<String> literalAlternatives(Pattern pattern) {
+        if (pattern.flags() != 0) {
+            return null;
+        }
+        final String[] alternatives = pattern.pattern().split("\\|", -1);
+        for (final String alternative : alternatives) {
+            if (alternative.length() == 0) {
+                return null;
+            }
+            for (int i = 0; i < alternative.length(); i++) {
+                if (META_CHARACTERS.indexOf(alternative.charAt(i)) >= 0) {
+                    return null;
+                }
+            }
+        }
+        return Arrays.asList(alternatives);
+    }
+
+    /**
+     * Matches any regular expression.
+     */
+    static final class RegexMatcher extends ExcludeMatcher {
+        /** The expression. */
+        private final Pattern pattern;
+
+        /**
+         * @param pattern the expression.
+         */
+        RegexMatcher(Pattern pattern) {
+            this.pattern = pattern;
+        }
+
+        @Override
+        boolean find(CharSequence name) {
+            return pattern.matcher(name).find();
+        }
+    }
+
+    /**
+     * Matches a set of literal words with an Aho-Corasick automaton.
+     */
+    static final class AhoCorasickMatcher extends ExcludeMatcher {
+        /** Sorted labels of the edges leaving each node. */
+        private final char[][] labels;
+        /** Targets of the edges leaving each node, in the order of the labels. */
+        private final int[][] targets;
+        /** Node of the longest proper suffix of each node that is in the trie. */
+        private final int[] fail;
+        /** Whether a word ends at each node or at one of its suffixes. */
+        private final boolean[] output;
+
+        /**
+         * @param words the words, not empty.
+         */
+        AhoCorasickMatcher(List<String> words) {
+            final List<StringBuilder> nodeLabels = new ArrayList<StringBuilder>();
+            final List<List<Integer>> nodeTargets = new ArrayList<List<Integer>>();
+            final List<Boolean> ends = new ArrayList<Boolean>();
+            nodeLabels.add(new StringBuilder());
+            nodeTargets.add(new ArrayList<Integer>());
+            ends.add(Boolean.FALSE);
+            for (final String word : words) {
+                int node = 0;
+                for (int i = 0; i < word.length(); i++) {
+                    final int index = nodeLabels.get(node).indexOf(String.valueOf(word.charAt(i)));
+                    if (index >= 0) {
+                        node = nodeTargets.get(node).get(index);
+                    } else {
+                        final int child = nodeLabels.size();
+                        nodeLabels.add(new StringBuilder());
+                        nodeTargets.add(new ArrayList<Integer>());
+                        ends.add(Boolean.FALSE);
+                        nodeLabels.get(node).append(word.charAt(i));
+                        nodeTargets.get(node).add(child);
+                        node = child;
+                    }
+                }
+                ends.set(node, Boolean.TRUE);
+            }
+            final int size = nodeLabels.size();
+            labels = new char[size][];
+            targets = new int[size][];
+            fail = new int[size];
+            output = new boolean[size];
+            for (int node = 0; node < size; node++) {
+                sortEdges(node, nodeLabels.get(node).toString().toCharArray(), nodeTargets.get(node));
+                output[node] = ends.get(node);
+            }
+            // breadth first, so the failure links of shorter prefixes are known
+            final Queue<Integer> queue = new ArrayDeque<Integer>();
+            for (final int child : targets[0]) {
+                fail[child] = 0;
+                queue.add(child);
+            }
+            while (!queue.isEmpty()) {
+                final int node = queue.remove();
+                for (int e = 0; e < labels[node].length; e++) {
+                    final int child = targets[node][e];
+                    int suffix = fail[node];
+                    int next = step(suffix, labels[node][e]);
+                    while (next < 0 && suffix != 0) {
+                        suffix = fail[suffix];
+                        next = step(suffix, labels[node][e]);
+                    }
+                    fail[child] = next < 0 ? 0 : next;
+                    output[child] |= output[fail[child]];
+                    queue.add(child);
+                }
+            }
+        }
+
+        /**
+         * Stores the edges of a node sorted by label.
+         *
+         * @param node the node.
+         * @param nodeLabels labels of its edges.
+         * @param nodeTargets targets of its edges.
+         */
+        private void sortEdges(int node, char[] nodeLabels, List<Integer> nodeTargets) {
+            final char[] sorted = nodeLabels.clone();
+            Arrays.sort(sorted);
+            final int[] sortedTargets = new int[sorted.length];
+            for (int i = 0; i < nodeLabels.length; i++) {
+                sortedTargets[Arrays.binarySearch(sorted, nodeLabels[i])] = nodeTargets.get(i);
+            }
+            labels[node] = sorted;
+            targets[node] = sortedTargets;
+        }
+
+        /**
+         * @param node a node.
+         * @param c a character.
+         * @return the target of the edge of the node labelled with the character, -1 if there is none.
+         */
+        private int step(int node, char c) {
+            final int index = Arrays.binarySearch(labels[node], c);
+            return index < 0 ? -1 : targets[node][index];
+        }
+
+        @Override
+        boolean find(CharSequence name) {
+            int node = 0;
+            for (int i = 0; i < name.length(); i++) {
+                final char c = name.charAt(i);
+                int next = step(node, c);
+                while (next < 0 && node != 0) {
+                    node = fail[node];
+                    next = step(node, c);
+                }
+                node = next < 0 ? 0 : next;
+                if (output[node]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,748 @@
+package hudson.plugins.jobConfigHistory;
+
+import hudson.XmlFile;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the history in directories, the layout the plugin always used: every item has a directory
+ * beneath the history root, named like the system configuration file or, beneath the job history
+ * root, like the job, with a directory per entry named by its timestamp. An entry directory holds
+ * {@link JobConfigHistoryConsts#HISTORY_FILE} and the copy of the configuration file.
+ *
+ * An entry is written to a temporary directory next to it, named by
+ * {@link JobConfigHistoryConsts#TEMP_ENTRY_PREFIX} and the timestamp, and renamed once its files are
+ * forced to the disk, so readers never see a partially written entry and listings can tell the entries
+ * by name, see {@link HistoryDirNames}. The entries being written are recorded in
+ * {@link JobConfigHistoryConsts#JOURNAL_DIR} beneath the history root, so that {@link #recover()}
+ * only needs to look at those after a crash.
+ *
+ * The summary of every item is kept in {@link JobConfigHistoryConsts#MANIFESTS_DIR} beneath the
+ * history root, updated with each change made through the store while holding the lock of the item,
+ * see {@link HistoryLocks}. A summary older than the directory of its item, e.g. after entries were
+ * copied there by hand, is computed again when it is needed, as is one as old as the directory whose
+ * number of entries or newest entry does not match the listing.
+ */
+public class FileHistoryStore implements HistoryStore {
+
+    /** Beginning of the keys of jobs. */
+    static final String JOBS_PREFIX = JobConfigHistoryConsts.JOBS_HISTORY_DIR + "/";
+
+    /** Directory of the history of system configurations. */
+    private final File historyRootDir;
+
+    /** Directory of the history of jobs. */
+    private final File jobHistoryRootDir;
+
+    /** Directory of the summaries of the items. */
+    private final File manifestsDir;
+
+    /** Records of the entries being written. */
+    private final HistoryJournal journal;
+
+    /** our logger. */
+    private static final Logger LOG = Logger.getLogger(FileHistoryStore.class.getName());
+
+    /**
+     * @param historyRootDir directory of the history of system configurations.
+     * @param jobHistoryRootDir directory of the history of jobs, either beneath or next to the other one.
+     */
+    public FileHistoryStore(File historyRootDir, File jobHistoryRootDir) {
+        this.historyRootDir = historyRootDir;
+        this.jobHistoryRootDir = jobHistoryRootDir;
+        this.manifestsDir = new File(historyRootDir, JobConfigHistoryConsts.MANIFESTS_DIR);
+        this.journal = new HistoryJournal(new File(historyRootDir, JobConfigHistoryConsts.JOURNAL_DIR));
+    }
+
+    /**
+     * Returns the directory of an item, e.g. for caches keyed by directory.
+     *
+     * @param item key of the item.
+     * @return the directory holding the entries of the item, which need not exist.
+     */
+    public File getItemDir(String item) {
+        checkKey(item);
+        if (item.startsWith(JOBS_PREFIX)) {
+            return new File(jobHistoryRootDir, item.substring(JOBS_PREFIX.length()));
+        }
+        return new File(historyRootDir, item);
+    }
+
+    /**
+     * Returns the directory of an entry, for code working on the files of the entry.
+     *
+     * @param item key of the item.
+     * @param timestamp timestamp of the entry.
+     * @return the directory of the entry, which need not exist.
+     */
+    public File getEntryDir(String item, String timestamp) {
+        if (timestamp.length() == 0 || timestamp.indexOf('/') >= 0 || timestamp.indexOf('\\') >= 0
+                || timestamp.startsWith(".")) {
+            throw new IllegalArgumentException("Invalid timestamp: " + timestamp);
+        }
+        return new File(getItemDir(item), timestamp);
+    }
+
+    /** {@inheritDoc} */
+    public boolean write(String item, String timestamp, HistoryDescr descr, String configName, InputStream config)
+            throws IOException {
+        final HistoryLocks lock = HistoryLocks.of(getItemDir(item));
+        lock.lock();
+        try {
+            final HistoryManifest manifest = readManifest(item);
+            // left behind if the entry or its summary is not written completely
+            final File record = journal.begin(item, timestamp);
+            final boolean written = writeEntry(item, timestamp, descr, configName, config);
+            if (manifest != null) {
+                final long size = config == null ? 0 : new File(getEntryDir(item, timestamp), configName).length();
+                // written again in any case, as the temporary directory may have changed the directory
+                writeManifest(item, written ? manifest.withEntry(timestamp, descr.getOperation(), size) : manifest);
+            }
+            journal.end(record);
+            return written;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public HistoryDescr writeNew(String item, HistoryDescr descr, String configName, InputStream config)
+            throws IOException {
+        final HistoryLocks lock = HistoryLocks.of(getItemDir(item));
+        lock.lock();
+        try {
+            HistoryDescr free = descr;
+            while (getEntryDir(item, free.getTimestamp()).exists()) {
+                free = free.withTimestamp(nextTimestamp(free.getTimestamp()));
+            }
+            // the entry could only be taken meanwhile by writing around the store
+            if (!write(item, free.getTimestamp(), free, configName, config)) {
+                throw new IOException("Could not create " + getEntryDir(item, free.getTimestamp()));
+            }
+            return free;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param timestamp a timestamp in {@link JobConfigHistoryConsts#ID_FORMATTER} format.
+     * @return the timestamp one millisecond later.
+     */
+    private static String nextTimestamp(String timestamp) {
+        final SimpleDateFormat format = new SimpleDateFormat(JobConfigHistoryConsts.ID_FORMATTER);
+        try {
+            return format.format(new Date(format.parse(timestamp).getTime() + 1));
+        } catch (ParseException e) {
+            throw new IllegalArgumentException("Invalid timestamp: " + timestamp);
+        }
+    }
+
+    /**
+     * Forces a written file to the disk, so that an entry renamed into place after a crash is complete.
+     * The directories cannot be forced as well, as Java 6 cannot open them, so the entry itself may be
+     * missing after a crash; the journal record, removed only after the rename, lets {@link #recover()}
+     * clean up after it.
+     *
+     * @param file the file.
+     * @throws IOException if the file cannot be forced to the disk.
+     */
+    private static void sync(File file) throws IOException {
+        final FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.getChannel().force(true);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Creates an entry, see {@link #write(String, String, HistoryDescr, String, InputStream)}.
+     *
+     * @param item key of the item.
+     * @param timestamp timestamp of the entry.
+     * @param descr description of the entry.
+     * @param configName name of the configuration file.
+     * @param config content of the configuration file, null for entries without a copy.
+     * @return true if the entry was created, false if it exists already.
+     * @throws IOException if the entry cannot be written.
+     */
+    private boolean writeEntry(String item, String timestamp, HistoryDescr descr, String configName,
+            InputStream config) throws IOException {
+        final File entryDir = getEntryDir(item, timestamp);
+        if (entryDir.exists()) {
+            return false;
+        }
+        final File dir = entryDir.getParentFile();
+        // mkdirs sometimes fails although the directory exists afterwards
+        if (!dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Could not create " + dir);
+        }
+        final File tempDir = getTempEntryDir(item, timestamp);
+        // left by a crash before the recovery
+        deleteRecursive(tempDir);
+        if (!tempDir.mkdir()) {
+            throw new IOException("Could not create " + tempDir);
+        }
+        boolean renamed = false;
+        try {
+            if (config != null) {
+                final FileOutputStream out = new FileOutputStream(new File(tempDir, configName));
+                try {
+                    copy(config, out);
+                    out.getChannel().force(true);
+                } finally {
+                    out.close();
+                }
+            }
+            final File historyFile = new File(tempDir, JobConfigHistoryConsts.HISTORY_FILE);
+            new XmlFile(historyFile).write(descr);
+            sync(historyFile);
+            renamed = tempDir.renameTo(entryDir);
+        } finally {
+            if (!renamed) {
+                deleteRecursive(tempDir);
+            }
+        }
+        if (!renamed) {
+            if (entryDir.exists()) {
+                return false;
+            }
+            throw new IOException("Could not rename " + tempDir + " to " + entryDir);
+        }
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    public void writeDescr(String item, String timestamp, HistoryDescr descr) throws IOException {
+        final File entryDir = getEntryDir(item, timestamp);
+        if (!entryDir.isDirectory()) {
+            throw new FileNotFoundException(entryDir.getPath());
+        }
+        final HistoryLocks lock = HistoryLocks.of(getItemDir(item));
+        lock.lock();
+        try {
+            final HistoryManifest manifest = readManifest(item);
+            new XmlFile(new File(entryDir, JobConfigHistoryConsts.HISTORY_FILE)).write(descr);
+            if (manifest != null && (timestamp.equals(manifest.getFirst()) || timestamp.equals(manifest.getLast()))) {
+                writeManifest(item, manifest.withOperation(timestamp, descr.getOperation()));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public boolean exists(String item, String timestamp) {
+        return HistoryDirNames.isHistoryDir(getEntryDir(item, timestamp));
+    }
+
+    /** {@inheritDoc} */
+    public HistoryDescr readDescr(String item, String timestamp) throws IOException {
+        final File historyFile = new File(getEntryDir(item, timestamp), JobConfigHistoryConsts.HISTORY_FILE);
+        if (!historyFile.exists()) {
+            return null;
+        }
+        return (HistoryDescr) new XmlFile(historyFile).read();
+    }
+
+    /** {@inheritDoc} */
+    public String readConfigName(String item, String timestamp) {
+        final File configFile = JobConfigHistory.findConfigFile(getEntryDir(item, timestamp));
+        return configFile == null ? null : configFile.getName();
+    }
+
+    /** {@inheritDoc} */
+    public InputStream readConfig(String item, String timestamp) throws IOException {
+        final File configFile = JobConfigHistory.findConfigFile(getEntryDir(item, timestamp));
+        return configFile == null ? null : new FileInputStream(configFile);
+    }
+
+    /** {@inheritDoc} */
+    public InputStream readAttachment(String item, String timestamp, String name) throws IOException {
+        checkAttachmentName(name);
+        final File file = new File(getEntryDir(item, timestamp), name);
+        return file.isFile() ? new FileInputStream(file) : null;
+    }
+
+    /** {@inheritDoc} */
+    public void writeAttachment(String item, String timestamp, String name, byte[] content) throws IOException {
+        checkAttachmentName(name);
+        final File entryDir = getEntryDir(item, timestamp);
+        final HistoryLocks lock = HistoryLocks.of(getItemDir(item));
+        lock.lock();
+        try {
+            if (!entryDir.isDirectory()) {
+                throw new FileNotFoundException(entryDir.getPath());
+            }
+            final File file = new File(entryDir, name);
+            final File tempFile = new File(entryDir, name + ".tmp");
+            final FileOutputStream out = new FileOutputStream(tempFile);
+            try {
+                out.write(content);
+            } finally {
+                out.close();
+            }
+            // renameTo does not replace an existing file on every platform
+            if (!tempFile.renameTo(file) && !(file.delete() && tempFile.renameTo(file))) {
+                tempFile.delete();
+                throw new IOException("Could not rename " + tempFile + " to " + file);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public List<String> list(String item, String from, String to, int offset, int limit) {
+        final File itemDir = getItemDir(item);
+        final String[] names = itemDir.list();
+        if (names == null || limit == 0) {
+            return Collections.emptyList();
+        }
+        Arrays.sort(names);
+        final HistoryDirNames entries = new HistoryDirNames(itemDir, names);
+        final List<String> timestamps = new ArrayList<String>();
+        int skipped = 0;
+        for (final String name : names) {
+            if (from != null && name.compareTo(from) < 0) {
+                continue;
+            }
+            if (to != null && name.compareTo(to) >= 0) {
+                break;
+            }
+            if (!entries.isHistoryDir(name)) {
+                continue;
+            }
+            if (skipped < offset) {
+                skipped++;
+                continue;
+            }
+            timestamps.add(name);
+            if (limit > 0 && timestamps.size() >= limit) {
+                break;
+            }
+        }
+        return timestamps;
+    }
+
+    /** {@inheritDoc} */
+    public String latest(String item) {
+        final File itemDir = getItemDir(item);
+        final String[] names = itemDir.list();
+        if (names == null) {
+            return null;
+        }
+        Arrays.sort(names, Collections.reverseOrder());
+        final HistoryDirNames entries = new HistoryDirNames(itemDir, names);
+        for (final String name : names) {
+            if (entries.isHistoryDir(name)) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    /** {@inheritDoc} */
+    public HistoryManifest summarize(String item) throws IOException {
+        HistoryManifest manifest = readManifest(item);
+        if (manifest != null) {
+            return manifest;
+        }
+        final HistoryLocks lock = HistoryLocks.of(getItemDir(item));
+        lock.lock();
+        try {
+            manifest = readManifest(item);
+            if (manifest == null) {
+                final List<String> timestamps = list(item, null, null, 0, -1);
+                long bytes = 0;
+                for (final String timestamp : timestamps) {
+                    bytes += getConfigSize(item, timestamp);
+                }
+                manifest = HistoryManifest.compute(this, item, timestamps, bytes);
+                writeManifest(item, manifest);
+            }
+            return manifest;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes what is left of the entries being written when the process ended, e.g. by a crash,
+     * looking only at the entries recorded in the journal.
+     *
+     * @return the number of entries removed.
+     * @throws IOException if something left cannot be removed.
+     */
+    public int recover() throws IOException {
+        int removed = 0;
+        for (final File record : journal.list()) {
+            final String[] entry = HistoryJournal.read(record);
+            if (entry != null) {
+                final String item = entry[0];
+                final HistoryLocks lock = HistoryLocks.of(getItemDir(item));
+                lock.lock();
+                try {
+                    final File tempDir = getTempEntryDir(item, entry[1]);
+                    if (tempDir.exists()) {
+                        deleteRecursive(tempDir);
+                        removed++;
+                    }
+                    // may not count the entry yet
+                    deleteManifests(item);
+                } finally {
+                    lock.unlock();
+                }
+            }
+            journal.end(record);
+        }
+        if (removed > 0) {
+            LOG.log(Level.INFO, "Removed {0} history entries interrupted while being written", removed);
+        }
+        return removed;
+    }
+
+    /** {@inheritDoc} */
+    public List<String> items(String prefix) {
+        final List<String> items = new ArrayList<String>();
+        collectItems(historyRootDir, "", prefix, items);
+        collectItems(jobHistoryRootDir, JOBS_PREFIX, prefix, items);
+        Collections.sort(items);
+        return items;
+    }
+
+    /**
+     * Adds the keys of the items beneath a directory.
+     *
+     * @param dir the directory.
+     * @param keyPrefix key of the directory followed by a slash, the empty string for the history root.
+     * @param prefix beginning of the keys to add.
+     * @param items the list to add the keys to.
+     */
+    private void collectItems(File dir, String keyPrefix, String prefix, List<String> items) {
+        if (!keyPrefix.startsWith(prefix) && !prefix.startsWith(keyPrefix)) {
+            return;
+        }
+        final String[] children = dir.list();
+        if (children == null) {
+            return;
+        }
+        for (final String child : children) {
+            final File childDir = new File(dir, child);
+            if (childDir.getAbsoluteFile().equals(jobHistoryRootDir.getAbsoluteFile())
+                    || childDir.getAbsoluteFile().equals(manifestsDir.getAbsoluteFile())
+                    || child.equals(JobConfigHistoryConsts.JOURNAL_DIR)) {
+                continue;
+            }
+            final String key = keyPrefix + child;
+            if (!key.startsWith(prefix) && !prefix.startsWith(key + "/")) {
+                continue;
+            }
+            // not a directory
+            final String[] grandChildren = childDir.list();
+            if (grandChildren == null) {
+                continue;
+            }
+            final HistoryDirNames entries = new HistoryDirNames(childDir, grandChildren);
+            final List<String> nested = new ArrayList<String>();
+            boolean hasEntries = false;
+            for (final String grandChild : grandChildren) {
+                if (holdsEntries(entries, grandChild)) {
+                    hasEntries = true;
+                } else if (!grandChild.startsWith(JobConfigHistoryConsts.TEMP_ENTRY_PREFIX)) {
+                    nested.add(grandChild);
+                }
+            }
+            if (hasEntries && key.startsWith(prefix)) {
+                items.add(key);
+            }
+            // nested items, e.g. jobs of a folder or modules of a Maven project
+            for (final String grandChild : nested) {
+                collectItems(new File(childDir, grandChild), key + "/" + grandChild + "/", prefix, items);
+            }
+        }
+    }
+
+    /**
+     * Tells the directories of entries from those of nested items in the directory of an item by name,
+     * see {@link HistoryDirNames}.
+     *
+     * @param entries the entries in the directory of an item.
+     * @param name name of a file in the directory.
+     * @return true if it is or holds entries of the item.
+     */
+    boolean holdsEntries(HistoryDirNames entries, String name) {
+        return entries.isHistoryDir(name);
+    }
+
+    /** {@inheritDoc} */
+    public void delete(String item, String timestamp) throws IOException {
+        final File entryDir = getEntryDir(item, timestamp);
+        final HistoryLocks lock = HistoryLocks.of(getItemDir(item));
+        lock.lock();
+        try {
+            if (!entryDir.exists()) {
+                return;
+            }
+            final HistoryManifest manifest = readManifest(item);
+            final long size = getConfigSize(item, timestamp);
+            try {
+                deleteRecursive(entryDir);
+            } catch (IOException e) {
+                // the entry may be gone without the directory of the item changing
+                deleteManifests(item);
+                throw e;
+            }
+            if (manifest != null) {
+                writeManifest(item, manifest.withoutEntry(this, item, timestamp, size));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void move(String item, String newItem) throws IOException {
+        final File itemDir = getItemDir(item);
+        final File newItemDir = getItemDir(newItem);
+        final Lock lock = getMoveLock(item, newItem);
+        lock.lock();
+        try {
+            if (!itemDir.exists() || itemDir.equals(newItemDir)) {
+                return;
+            }
+            // the entries moved there have not been checked
+            HistoryDirNames.forget(itemDir);
+            HistoryDirNames.forget(newItemDir);
+            // computed again when needed
+            deleteManifests(item);
+            deleteManifests(newItem);
+            if (!newItemDir.exists()) {
+                final File parent = newItemDir.getParentFile();
+                if (!parent.mkdirs() && !parent.isDirectory()) {
+                    throw new IOException("Could not create " + parent);
+                }
+                if (itemDir.renameTo(newItemDir)) {
+                    return;
+                }
+            }
+            // the new item has entries already or the directory cannot be renamed, e.g. across file systems
+            copyRecursive(itemDir, newItemDir);
+            deleteRecursive(itemDir);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public Lock getLock(String item) {
+        return HistoryLocks.of(getItemDir(item));
+    }
+
+    /** {@inheritDoc} */
+    public Lock getMoveLock(String item, String newItem) {
+        final List<File> itemDirs = new ArrayList<File>();
+        itemDirs.add(getItemDir(item));
+        itemDirs.add(getItemDir(newItem));
+        for (final String nested : items(item + "/")) {
+            itemDirs.add(getItemDir(nested));
+        }
+        return HistoryLocks.of(itemDirs.toArray(new File[itemDirs.size()]));
+    }
+
+    /**
+     * @param item key of the item.
+     * @param timestamp timestamp of the entry.
+     * @return the directory the entry is written to before it is renamed.
+     */
+    private File getTempEntryDir(String item, String timestamp) {
+        final File entryDir = getEntryDir(item, timestamp);
+        return new File(entryDir.getParentFile(), JobConfigHistoryConsts.TEMP_ENTRY_PREFIX + timestamp);
+    }
+
+    /**
+     * @param item key of the item.
+     * @return the file holding the summary of the item, which need not exist.
+     */
+    File getManifestFile(String item) {
+        return new File(manifestsDir, item + ".xml");
+    }
+
+    /**
+     * Reads the summary of an item. A summary as old as the directory of the item may miss a change
+     * made within the resolution of the modification times, a second on some file systems, so its
+     * number of entries and newest entry are checked against the listing of the item.
+     *
+     * @param item key of the item.
+     * @return the summary of the item, null if it is missing or outdated.
+     */
+    private HistoryManifest readManifest(String item) {
+        final File itemDir = getItemDir(item);
+        if (!itemDir.exists()) {
+            return HistoryManifest.EMPTY;
+        }
+        final File manifestFile = getManifestFile(item);
+        final long manifestModified = manifestFile.lastModified();
+        final long itemModified = itemDir.lastModified();
+        if (manifestModified < itemModified) {
+            return null;
+        }
+        final HistoryManifest manifest;
+        try {
+            manifest = (HistoryManifest) new XmlFile(manifestFile).read();
+        } catch (IOException e) {
+            // computed again
+            return null;
+        }
+        if (manifestModified == itemModified) {
+            final List<String> timestamps = list(item, null, null, 0, -1);
+            final String last = timestamps.isEmpty() ? null : timestamps.get(timestamps.size() - 1);
+            if (timestamps.size() != manifest.getEntries()
+                    || (last == null ? manifest.getLast() != null : !last.equals(manifest.getLast()))) {
+                return null;
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * @param item key of the item.
+     * @param manifest the new summary of the item.
+     * @throws IOException if the summary cannot be written.
+     */
+    private void writeManifest(String item, HistoryManifest manifest) throws IOException {
+        final File manifestFile = getManifestFile(item);
+        final File parent = manifestFile.getParentFile();
+        if (!parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Could not create " + parent);
+        }
+        new XmlFile(manifestFile).write(manifest);
+    }
+
+    /**
+     * Deletes the summaries of an item and the items nested in it.
+     *
+     * @param item key of the item.
+     * @throws IOException if a summary cannot be deleted.
+     */
+    private void deleteManifests(String item) throws IOException {
+        deleteRecursive(getManifestFile(item));
+        deleteRecursive(new File(manifestsDir, item));
+    }
+
+    /**
+     * @param item key of the item.
+     * @param timestamp timestamp of the entry.
+     * @return size of the saved configuration file in bytes, 0 if the entry holds no copy.
+     */
+    private long getConfigSize(String item, String timestamp) {
+        final File configFile = JobConfigHistory.findConfigFile(getEntryDir(item, timestamp));
+        return configFile == null ? 0 : configFile.length();
+    }
+
+    /**
+     * Checks that a key is a relative path without empty, current or parent directory segments.
+     *
+     * @param item key of an item.
+     */
+    private static void checkKey(String item) {
+        if (item.length() == 0 || item.indexOf('\\') >= 0 || ("/" + item + "/").contains("//")
+                || ("/" + item + "/").contains("/./") || ("/" + item + "/").contains("/../")) {
+            throw new IllegalArgumentException("Invalid history key: " + item);
+        }
+    }
+
+    /**
+     * Checks that an attachment cannot be mistaken for the description or the copy of the configuration.
+     *
+     * @param name name of an attachment.
+     */
+    private static void checkAttachmentName(String name) {
+        if (name.length() == 0 || name.indexOf('/') >= 0 || name.indexOf('\\') >= 0 || name.startsWith(".")
+                || name.endsWith(".xml")) {
+            throw new IllegalArgumentException("Invalid attachment name: " + name);
+        }
+    }
+
+    /**
+     * Copies a directory with all its contents, replacing existing files.
+     *
+     * @param source the directory to copy.
+     * @param target the directory to copy to.
+     * @throws IOException if copying fails.
+     */
+    private static void copyRecursive(File source, File target) throws IOException {
+        if (!target.mkdirs() && !target.isDirectory()) {
+            throw new IOException("Could not create " + target);
+        }
+        final File[] children = source.listFiles();
+        if (children == null) {
+            throw new IOException("Could not list " + source);
+        }
+        for (final File child : children) {
+            final File targetChild = new File(target, child.getName());
+            if (child.isDirectory()) {
+                copyRecursive(child, targetChild);
+            } else {
+                final InputStream in = new FileInputStream(child);
+                try {
+                    final OutputStream out = new FileOutputStream(targetChild);
+                    try {
+                        copy(in, out);
+                    } finally {
+                        out.close();
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes a file or a directory with all its contents.
+     *
+     * @param file the file or directory.
+     * @throws IOException if something cannot be deleted.
+     */
+    private static void deleteRecursive(File file) throws IOException {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                deleteRecursive(child);
+            }
+        }
+        if (!file.delete() && file.exists()) {
+            throw new IOException("Could not delete " + file);
+        }
+    }
+
+    /**
+     * @param in the stream to copy.
+     * @param out the stream to copy to.
+     * @throws IOException if copying fails.
+     */
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+    }
+}
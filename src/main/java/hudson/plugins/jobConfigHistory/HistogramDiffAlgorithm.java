@@ -0,0 +1,88 @@
+package hudson.plugins.jobConfigHistory;
+
+/**
+ * Histogram diff as known from JGit: splits a range around the longest common region whose
+ * lines occur least often in the first file. Frequent lines like {@code </hudson.tasks.Shell>}
+ * therefore do not attract unrelated blocks, which keeps hunks readable for configurations with
+ * many repeated lines.
+ */
+final class HistogramDiffAlgorithm extends AbstractDiffAlgorithm {
+
+    /** Algorithms are stateless, so one instance is enough. */
+    static final HistogramDiffAlgorithm INSTANCE = new HistogramDiffAlgorithm();
+
+    /** Lines occurring more often than this in a range are never used to split it. */
+    private static final int MAX_CHAIN_LENGTH = 64;
+
+    /** Use {@link #INSTANCE}. */
+    private HistogramDiffAlgorithm() {
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected boolean split(int[] a, int aStart, int aEnd, int[] b, int bStart, int bEnd, Ranges ranges) {
+        // occurrences of each line id in the range of the first file
+        final int[] count = ranges.scratch0();
+        // index + 1 of the first occurrence of each line id, the others are chained via next
+        final int[] head = ranges.scratch1();
+        final int[] next = new int[aEnd - aStart];
+        for (int i = aEnd - 1; i >= aStart; i--) {
+            final int id = a[i];
+            next[i - aStart] = head[id];
+            head[id] = i + 1;
+            count[id]++;
+        }
+
+        int bestLength = 0;
+        int bestCount = MAX_CHAIN_LENGTH + 1;
+        int bestAStart = 0;
+        int bestBStart = 0;
+        int bi = bStart;
+        while (bi < bEnd) {
+            int nextBi = bi + 1;
+            final int id = b[bi];
+            if (count[id] > 0 && count[id] <= bestCount) {
+                for (int ai = head[id] - 1; ai >= 0; ai = next[ai - aStart] - 1) {
+                    int regionCount = count[id];
+                    int as = ai;
+                    int bs = bi;
+                    int ae = ai + 1;
+                    int be = bi + 1;
+                    while (as > aStart && bs > bStart && a[as - 1] == b[bs - 1]) {
+                        as--;
+                        bs--;
+                        regionCount = Math.min(regionCount, count[a[as]]);
+                    }
+                    while (ae < aEnd && be < bEnd && a[ae] == b[be]) {
+                        regionCount = Math.min(regionCount, count[a[ae]]);
+                        ae++;
+                        be++;
+                    }
+                    if (ae - as > bestLength || regionCount < bestCount) {
+                        bestLength = ae - as;
+                        bestCount = regionCount;
+                        bestAStart = as;
+                        bestBStart = bs;
+                    }
+                    if (nextBi < be) {
+                        nextBi = be;
+                    }
+                }
+            }
+            bi = nextBi;
+        }
+
+        for (int i = aStart; i < aEnd; i++) {
+            count[a[i]] = 0;
+            head[a[i]] = 0;
+        }
+        if (bestLength == 0) {
+            return false;
+        }
+        ranges.pushAll(new int[] {
+            aStart, bestAStart, bStart, bestBStart,
+            bestAStart + bestLength, aEnd, bestBStart + bestLength, bEnd,
+        }, 2);
+        return true;
+    }
+}
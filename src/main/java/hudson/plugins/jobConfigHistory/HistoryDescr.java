@@ -19,6 +19,18 @@ public class HistoryDescr {
     /** Timestamp of the operation, see {@link ConfigHistoryListenerHelper#ID_FORMATTER}. */
     private final String timestamp;
 
+    /** Number of lines added against the previous revision, null if not computed (yet). */
+    private final Integer linesAdded;
+
+    /** Number of lines removed against the previous revision, null if not computed (yet). */
+    private final Integer linesRemoved;
+
+    /** Size difference in bytes against the previous revision, null if not computed (yet). */
+    private final Long byteDelta;
+
+    /** Id of the changeset the operation belongs to, null if it was saved on its own. */
+    private final String changeset;
+
     /**
      * @param user
      *            display name of the user doing the operation
@@ -30,11 +42,74 @@ public class HistoryDescr {
      *            timestamp of the operation
      */
     public HistoryDescr(String user, String userId, String operation, String timestamp) {
+        this(user, userId, operation, timestamp, null, null, null, null);
+    }
+
+    /**
+     * @param user
+     *            display name of the user doing the operation
+     * @param userId
+     *            id of the user doing the operation
+     * @param operation
+     *            name of the operation
+     * @param timestamp
+     *            timestamp of the operation
+     * @param linesAdded
+     *            number of lines added against the previous revision
+     * @param linesRemoved
+     *            number of lines removed against the previous revision
+     * @param byteDelta
+     *            size difference in bytes against the previous revision
+     * @param changeset
+     *            id of the changeset the operation belongs to
+     */
+    private HistoryDescr(String user, String userId, String operation, String timestamp, Integer linesAdded,
+            Integer linesRemoved, Long byteDelta, String changeset) {
         this.user = user;
         this.userId = userId;
         this.operation = operation;
         this.timestamp = timestamp;
+        this.linesAdded = linesAdded;
+        this.linesRemoved = linesRemoved;
+        this.byteDelta = byteDelta;
+        this.changeset = changeset;
+    }
+
+    /**
+     * Returns a copy of this description holding the size of the change.
+     *
+     * @param added
+     *            number of lines added against the previous revision
+     * @param removed
+     *            number of lines removed against the previous revision
+     * @param delta
+     *            size difference in bytes against the previous revision
+     * @return the new description
+     */
+    HistoryDescr withChangeSize(int added, int removed, long delta) {
+        return new HistoryDescr(user, userId, operation, timestamp, added, removed, delta, changeset);
+    }
 
+    /**
+     * Returns a copy of this description with another timestamp.
+     *
+     * @param newTimestamp
+     *            timestamp of the operation
+     * @return the new description
+     */
+    HistoryDescr withTimestamp(String newTimestamp) {
+        return new HistoryDescr(user, userId, operation, newTimestamp, linesAdded, linesRemoved, byteDelta, changeset);
+    }
+
+    /**
+     * Returns a copy of this description belonging to a changeset.
+     *
+     * @param id
+     *            id of the changeset
+     * @return the new description
+     */
+    HistoryDescr withChangeset(String id) {
+        return new HistoryDescr(user, userId, operation, timestamp, linesAdded, linesRemoved, byteDelta, id);
     }
 
     /**
@@ -73,4 +148,50 @@ public class HistoryDescr {
         return timestamp;
     }
 
+    /**
+     * Returns whether the size of the change was computed already. It is computed in the background
+     * after the entry was written and is missing for entries of older plugin versions.
+     *
+     * @return true if the change size is known
+     */
+    public boolean hasChangeSize() {
+        return linesAdded != null && linesRemoved != null && byteDelta != null;
+    }
+
+    /**
+     * Returns the number of lines added against the previous revision.
+     *
+     * @return added lines, 0 if unknown
+     */
+    public int getLinesAdded() {
+        return linesAdded == null ? 0 : linesAdded;
+    }
+
+    /**
+     * Returns the number of lines removed against the previous revision.
+     *
+     * @return removed lines, 0 if unknown
+     */
+    public int getLinesRemoved() {
+        return linesRemoved == null ? 0 : linesRemoved;
+    }
+
+    /**
+     * Returns the size difference in bytes against the previous revision.
+     *
+     * @return byte delta, 0 if unknown
+     */
+    public long getByteDelta() {
+        return byteDelta == null ? 0 : byteDelta;
+    }
+
+    /**
+     * Returns the id of the changeset the operation belongs to, e.g. all jobs regenerated by one
+     * seed job run.
+     *
+     * @return id of the changeset, null if the operation was saved on its own
+     */
+    public String getChangeset() {
+        return changeset;
+    }
 }
@@ -0,0 +1,185 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Tells the history entries in the directory of an item by the names in a single listing of the
+ * directory, instead of looking for the {@link JobConfigHistoryConsts#HISTORY_FILE} of every entry
+ * like {@link JobConfigHistory#HISTORY_FILTER}.
+ *
+ * An entry directory is named by its timestamp and only appears once the entry is complete, see
+ * {@link FileHistoryStore}. Older versions wrote the entries in place and may have left incomplete
+ * ones. So the first listing of a directory checks its entries once, see
+ * {@link #check(File, String[])}, and remembers the incomplete ones for the {@link #MAX_CHECKED} directories
+ * used last. Directories holding entries not named by a timestamp are checked one by one every time.
+ */
+final class HistoryDirNames {
+
+    /** Names of entry directories, the timestamps with or without milliseconds. */
+    private static final Pattern TIMESTAMP = Pattern.compile("\\d{4}-\\d{2}-\\d{2}_\\d{2}-\\d{2}-\\d{2}(-\\d{3})?");
+
+    /** Maximum number of directories whose checks are remembered. */
+    static final int MAX_CHECKED = 10000;
+
+    /** Incomplete entries by the paths of the directories checked, the least recently used first. */
+    private static final Map<String, Set<String>> CHECKED = new LinkedHashMap<String, Set<String>>(16, 0.75f,
+            true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Set<String>> eldest) {
+            return size() > MAX_CHECKED;
+        }
+    };
+
+    /** Remembered for directories holding entries not named by a timestamp. */
+    private static final Set<String> UNNAMED = Collections.unmodifiableSet(new HashSet<String>());
+
+    /** The directory of the item. */
+    private final File itemDir;
+
+    /** Incomplete entries, null if not all entries are named by a timestamp. */
+    private final Set<String> incomplete;
+
+    /**
+     * @param itemDir the directory of an item.
+     * @param names the names of its files.
+     */
+    HistoryDirNames(File itemDir, String[] names) {
+        this.itemDir = itemDir;
+        final Set<String> remembered = getChecked(itemDir);
+        final Set<String> checked = remembered != null ? remembered : check(itemDir, names);
+        incomplete = checked == UNNAMED ? null : checked;
+    }
+
+    /**
+     * @param name name of a file in the directory.
+     * @return true if it is the directory of a complete entry.
+     */
+    boolean isHistoryDir(String name) {
+        if (incomplete != null) {
+            return TIMESTAMP.matcher(name).matches() && !incomplete.contains(name);
+        }
+        return JobConfigHistory.HISTORY_FILTER.accept(new File(itemDir, name));
+    }
+
+    /**
+     * Tells whether a single directory is a complete entry, like {@code JobConfigHistory.HISTORY_FILTER},
+     * by its name once the directory of its item has been checked.
+     *
+     * @param entryDir the directory of a supposed entry.
+     * @return true if it is the directory of a complete entry.
+     */
+    static boolean isHistoryDir(File entryDir) {
+        final File itemDir = entryDir.getParentFile();
+        // e.g. the directory of a job holding its live config file
+        if (itemDir == null || !TIMESTAMP.matcher(entryDir.getName()).matches()) {
+            return JobConfigHistory.HISTORY_FILTER.accept(entryDir);
+        }
+        Set<String> checked = getChecked(itemDir);
+        if (checked == null) {
+            final String[] names = itemDir.list();
+            if (names == null) {
+                return false;
+            }
+            checked = check(itemDir, names);
+        }
+        if (checked == UNNAMED) {
+            return JobConfigHistory.HISTORY_FILTER.accept(entryDir);
+        }
+        return !checked.contains(entryDir.getName()) && entryDir.isDirectory();
+    }
+
+    /**
+     * Lists the complete entries of an item, like {@code listFiles(JobConfigHistory.HISTORY_FILTER)}.
+     *
+     * @param itemDir the directory of an item.
+     * @return the directories of its complete entries in no particular order, null if the directory
+     *         cannot be listed.
+     */
+    static File[] listHistoryDirs(File itemDir) {
+        final String[] names = itemDir.list();
+        if (names == null) {
+            return null;
+        }
+        final HistoryDirNames entries = new HistoryDirNames(itemDir, names);
+        final List<File> historyDirs = new ArrayList<File>();
+        for (final String name : names) {
+            if (entries.isHistoryDir(name)) {
+                historyDirs.add(new File(itemDir, name));
+            }
+        }
+        return historyDirs.toArray(new File[historyDirs.size()]);
+    }
+
+    /**
+     * Forgets the checks of a directory and the directories beneath, e.g. after other entries have been
+     * moved there.
+     *
+     * @param dir the directory of an item.
+     */
+    static void forget(File dir) {
+        final String prefix = dir.getPath() + File.separator;
+        synchronized (CHECKED) {
+            for (final Iterator<String> paths = CHECKED.keySet().iterator(); paths.hasNext();) {
+                final String path = paths.next();
+                if (path.equals(dir.getPath()) || path.startsWith(prefix)) {
+                    paths.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param itemDir the directory of an item.
+     * @return its remembered incomplete entries, null if it has not been checked.
+     */
+    private static Set<String> getChecked(File itemDir) {
+        synchronized (CHECKED) {
+            return CHECKED.get(itemDir.getPath());
+        }
+    }
+
+    /**
+     * @param itemDir the directory of an item.
+     * @param incomplete its incomplete entries.
+     * @return the incomplete entries.
+     */
+    private static Set<String> remember(File itemDir, Set<String> incomplete) {
+        synchronized (CHECKED) {
+            CHECKED.put(itemDir.getPath(), incomplete);
+        }
+        return incomplete;
+    }
+
+    /**
+     * Checks the entries of an item once: finds the incomplete entries by their missing
+     * {@link JobConfigHistoryConsts#HISTORY_FILE}. A directory holding an entry not named by a timestamp
+     * is remembered as such.
+     *
+     * @param itemDir the directory of an item.
+     * @param names the names of its files.
+     * @return the incomplete entries, {@link #UNNAMED} if the entries cannot be told by name.
+     */
+    private static Set<String> check(File itemDir, String[] names) {
+        final Set<String> incomplete = new HashSet<String>();
+        for (final String name : names) {
+            final File file = new File(itemDir, name);
+            if (TIMESTAMP.matcher(name).matches()) {
+                if (file.isDirectory() && !JobConfigHistory.HISTORY_FILTER.accept(file)) {
+                    incomplete.add(name);
+                }
+            } else if (JobConfigHistory.HISTORY_FILTER.accept(file)) {
+                return remember(itemDir, UNNAMED);
+            }
+        }
+        return remember(itemDir, incomplete.isEmpty() ? Collections.<String>emptySet() : incomplete);
+    }
+}
@@ -0,0 +1,108 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Records the history entries being written, so that the recovery after a crash only needs to look at
+ * those instead of scanning the whole history, see {@link FileHistoryStore#recover()}.
+ *
+ * Every entry gets a small file of its own in {@link JobConfigHistoryConsts#JOURNAL_DIR} beneath the
+ * history root, holding the key of the item and the timestamp on a line each, so that writes of
+ * different items need not share a file. The file is removed once the entry is complete.
+ */
+final class HistoryJournal {
+
+    /** Beginning of the names of the records. */
+    private static final String RECORD_PREFIX = "entry";
+
+    /** Encoding of the records. */
+    private static final String ENCODING = "UTF-8";
+
+    /** Directory of the records. */
+    private final File journalDir;
+
+    /**
+     * @param journalDir directory of the records, created with the first one.
+     */
+    HistoryJournal(File journalDir) {
+        this.journalDir = journalDir;
+    }
+
+    /**
+     * Records an entry before it is written.
+     *
+     * @param item key of the item.
+     * @param timestamp timestamp of the entry.
+     * @return the record, to be passed to {@link #end(File)} once the entry is complete.
+     * @throws IOException if the record cannot be written.
+     */
+    File begin(String item, String timestamp) throws IOException {
+        if (!journalDir.mkdirs() && !journalDir.isDirectory()) {
+            throw new IOException("Could not create " + journalDir);
+        }
+        final File record = File.createTempFile(RECORD_PREFIX, null, journalDir);
+        final FileOutputStream out = new FileOutputStream(record);
+        try {
+            out.write((item + "\n" + timestamp + "\n").getBytes(ENCODING));
+            // on the disk before the entry is begun
+            out.getChannel().force(true);
+        } finally {
+            out.close();
+        }
+        return record;
+    }
+
+    /**
+     * Removes the record of a complete entry.
+     *
+     * @param record the record returned by {@link #begin(String, String)}.
+     * @throws IOException if the record cannot be removed.
+     */
+    void end(File record) throws IOException {
+        if (!record.delete() && record.exists()) {
+            throw new IOException("Could not delete " + record);
+        }
+    }
+
+    /**
+     * @return the records of the entries begun, but not completed, in no particular order.
+     */
+    List<File> list() {
+        final File[] records = journalDir.listFiles();
+        return records == null ? new ArrayList<File>() : Arrays.asList(records);
+    }
+
+    /**
+     * @param record a record.
+     * @return the key of the item and the timestamp of the entry, null if the record was not written
+     *         completely, i.e. the entry was not begun.
+     * @throws IOException if the record cannot be read.
+     */
+    static String[] read(File record) throws IOException {
+        final StringBuilder content = new StringBuilder();
+        final Reader reader = new InputStreamReader(new FileInputStream(record), ENCODING);
+        try {
+            final char[] buffer = new char[256];
+            int read;
+            while ((read = reader.read(buffer)) >= 0) {
+                content.append(buffer, 0, read);
+            }
+        } finally {
+            reader.close();
+        }
+        final String[] lines = content.toString().split("\n");
+        // the last line break is written last
+        if (lines.length != 2 || content.charAt(content.length() - 1) != '\n') {
+            return null;
+        }
+        return lines;
+    }
+}
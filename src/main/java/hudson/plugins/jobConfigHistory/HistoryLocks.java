@@ -0,0 +1,87 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.io.File;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serializes the changes of the history of an item: creating an entry together with the purge
+ * before it, purging, deleting and moving the history on rename, deletion or restore of a job.
+ *
+ * The locks are striped by the history directory of the item, so a fixed number of locks serves all
+ * items and unrelated items mostly get different stripes. Moves lock the stripes of the moved item,
+ * of the items nested in it, e.g. the jobs of a folder, and of the new item together. To rule out
+ * deadlocks, several stripes must only be locked while no stripe is held; {@link #lock()} takes them
+ * in ascending order. The locks are reentrant, so the store may lock an item again while the caller
+ * holds it.
+ */
+final class HistoryLocks implements HistoryStore.Lock {
+
+    /** Number of stripes, a power of two. */
+    static final int STRIPES = 64;
+
+    /** The stripes, shared by all stores and callers. */
+    private static final ReentrantLock[] LOCKS = new ReentrantLock[STRIPES];
+
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            LOCKS[i] = new ReentrantLock();
+        }
+    }
+
+    /** Indexes of the stripes to lock in ascending order. */
+    private final int[] stripes;
+
+    /**
+     * @param stripes indexes of the stripes to lock in ascending order.
+     */
+    private HistoryLocks(int[] stripes) {
+        this.stripes = stripes;
+    }
+
+    /**
+     * @param historyDirs the history directories of one or more items.
+     * @return the lock of the items.
+     */
+    static HistoryLocks of(File... historyDirs) {
+        final SortedSet<Integer> sorted = new TreeSet<Integer>();
+        for (final File historyDir : historyDirs) {
+            sorted.add(stripe(historyDir));
+        }
+        final int[] stripes = new int[sorted.size()];
+        int i = 0;
+        for (final Integer stripe : sorted) {
+            stripes[i++] = stripe;
+        }
+        return new HistoryLocks(stripes);
+    }
+
+    /**
+     * @param historyDir the history directory of an item.
+     * @return the index of its stripe.
+     */
+    static int stripe(File historyDir) {
+        final int hash = historyDir.getAbsolutePath().hashCode();
+        // spread the higher bits, as the paths of the items differ near the end
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+
+    /**
+     * Waits for the stripes and locks them.
+     */
+    public void lock() {
+        for (final int stripe : stripes) {
+            LOCKS[stripe].lock();
+        }
+    }
+
+    /**
+     * Unlocks the stripes.
+     */
+    public void unlock() {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            LOCKS[stripes[i]].unlock();
+        }
+    }
+}
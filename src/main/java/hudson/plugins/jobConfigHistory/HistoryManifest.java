@@ -0,0 +1,259 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Summary of the history of an item, so that filters like the created and deleted jobs or the build
+ * badges need not list and read all entries of every item, see {@link HistoryStore#summarize(String)}.
+ */
+public class HistoryManifest {
+
+    /** Summary of an item without entries. */
+    public static final HistoryManifest EMPTY = new HistoryManifest(0, null, false, null, false, 0);
+
+    /** Number of entries. */
+    private final int entries;
+
+    /** Timestamp of the oldest entry, null if there is none. */
+    private final String first;
+
+    /** Whether the oldest entry is a 'Created' entry. */
+    private final boolean firstCreated;
+
+    /** Timestamp of the newest entry, null if there is none. */
+    private final String last;
+
+    /** Whether the newest entry is a 'Deleted' entry. */
+    private final boolean lastDeleted;
+
+    /** Total size of the saved configuration files in bytes. */
+    private final long bytes;
+
+    /**
+     * @param entries
+     *            number of entries
+     * @param first
+     *            timestamp of the oldest entry
+     * @param firstCreated
+     *            whether the oldest entry is a 'Created' entry
+     * @param last
+     *            timestamp of the newest entry
+     * @param lastDeleted
+     *            whether the newest entry is a 'Deleted' entry
+     * @param bytes
+     *            total size of the saved configuration files in bytes
+     */
+    HistoryManifest(int entries, String first, boolean firstCreated, String last, boolean lastDeleted, long bytes) {
+        this.entries = entries;
+        this.first = first;
+        this.firstCreated = firstCreated;
+        this.last = last;
+        this.lastDeleted = lastDeleted;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Summarizes the history of an item by listing and reading its entries, for stores without a
+     * cheaper way.
+     *
+     * @param store
+     *            the store holding the history
+     * @param item
+     *            key of the item
+     * @return the summary
+     * @throws IOException
+     *             if the entries cannot be read
+     */
+    public static HistoryManifest compute(HistoryStore store, String item) throws IOException {
+        final List<String> timestamps = store.list(item, null, null, 0, -1);
+        long bytes = 0;
+        final byte[] buffer = new byte[8192];
+        for (final String timestamp : timestamps) {
+            final InputStream in = store.readConfig(item, timestamp);
+            if (in == null) {
+                continue;
+            }
+            try {
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    bytes += read;
+                }
+            } finally {
+                in.close();
+            }
+        }
+        return compute(store, item, timestamps, bytes);
+    }
+
+    /**
+     * Summarizes the history of an item whose entries are listed and measured already.
+     *
+     * @param store
+     *            the store holding the history
+     * @param item
+     *            key of the item
+     * @param timestamps
+     *            the timestamps of all entries in chronological order
+     * @param bytes
+     *            total size of the saved configuration files in bytes
+     * @return the summary
+     * @throws IOException
+     *             if the oldest or newest entry cannot be read
+     */
+    static HistoryManifest compute(HistoryStore store, String item, List<String> timestamps, long bytes)
+            throws IOException {
+        if (timestamps.isEmpty()) {
+            return EMPTY;
+        }
+        final String first = timestamps.get(0);
+        final String last = timestamps.get(timestamps.size() - 1);
+        return new HistoryManifest(timestamps.size(), first, hasOperation(store, item, first, "Created"), last,
+                hasOperation(store, item, last, "Deleted"), bytes);
+    }
+
+    /**
+     * Returns a copy of this summary counting a new entry.
+     *
+     * @param timestamp
+     *            timestamp of the entry
+     * @param operation
+     *            name of the operation of the entry
+     * @param size
+     *            size of the saved configuration file in bytes
+     * @return the new summary
+     */
+    HistoryManifest withEntry(String timestamp, String operation, long size) {
+        final boolean isFirst = first == null || timestamp.compareTo(first) < 0;
+        final boolean isLast = last == null || timestamp.compareTo(last) > 0;
+        return new HistoryManifest(entries + 1, isFirst ? timestamp : first,
+                isFirst ? "Created".equals(operation) : firstCreated, isLast ? timestamp : last,
+                isLast ? "Deleted".equals(operation) : lastDeleted, bytes + size);
+    }
+
+    /**
+     * Returns a copy of this summary no longer counting a deleted entry.
+     *
+     * @param store
+     *            the store holding the history, to find the oldest or newest entry left
+     * @param item
+     *            key of the item
+     * @param timestamp
+     *            timestamp of the deleted entry
+     * @param size
+     *            size of its saved configuration file in bytes
+     * @return the new summary
+     * @throws IOException
+     *             if the entries left cannot be read
+     */
+    HistoryManifest withoutEntry(HistoryStore store, String item, String timestamp, long size) throws IOException {
+        if (entries <= 1) {
+            return EMPTY;
+        }
+        String newFirst = first;
+        boolean newFirstCreated = firstCreated;
+        if (timestamp.equals(first)) {
+            final List<String> left = store.list(item, null, null, 0, 1);
+            if (left.isEmpty()) {
+                return EMPTY;
+            }
+            newFirst = left.get(0);
+            newFirstCreated = hasOperation(store, item, newFirst, "Created");
+        }
+        String newLast = last;
+        boolean newLastDeleted = lastDeleted;
+        if (timestamp.equals(last)) {
+            newLast = store.latest(item);
+            newLastDeleted = hasOperation(store, item, newLast, "Deleted");
+        }
+        return new HistoryManifest(entries - 1, newFirst, newFirstCreated, newLast, newLastDeleted, bytes - size);
+    }
+
+    /**
+     * Returns a copy of this summary after the description of an entry was replaced.
+     *
+     * @param timestamp
+     *            timestamp of the entry
+     * @param operation
+     *            name of the operation in the new description
+     * @return the new summary
+     */
+    HistoryManifest withOperation(String timestamp, String operation) {
+        return new HistoryManifest(entries, first, timestamp.equals(first) ? "Created".equals(operation)
+                : firstCreated, last, timestamp.equals(last) ? "Deleted".equals(operation) : lastDeleted, bytes);
+    }
+
+    /**
+     * @param store
+     *            the store holding the history
+     * @param item
+     *            key of the item
+     * @param timestamp
+     *            timestamp of an entry
+     * @param operation
+     *            name of an operation
+     * @return true if the entry is one of that operation
+     * @throws IOException
+     *             if the entry cannot be read
+     */
+    private static boolean hasOperation(HistoryStore store, String item, String timestamp, String operation)
+            throws IOException {
+        final HistoryDescr descr = store.readDescr(item, timestamp);
+        return descr != null && operation.equals(descr.getOperation());
+    }
+
+    /**
+     * Returns the number of entries.
+     *
+     * @return number of entries
+     */
+    public int getEntries() {
+        return entries;
+    }
+
+    /**
+     * Returns the timestamp of the oldest entry.
+     *
+     * @return timestamp, null if there are no entries
+     */
+    public String getFirst() {
+        return first;
+    }
+
+    /**
+     * Returns whether the oldest entry is a 'Created' entry, i.e. the whole life of the item is recorded.
+     *
+     * @return true if the oldest entry is a 'Created' entry
+     */
+    public boolean isFirstCreated() {
+        return firstCreated;
+    }
+
+    /**
+     * Returns the timestamp of the newest entry.
+     *
+     * @return timestamp, null if there are no entries
+     */
+    public String getLast() {
+        return last;
+    }
+
+    /**
+     * Returns whether the newest entry is a 'Deleted' entry.
+     *
+     * @return true if the newest entry is a 'Deleted' entry
+     */
+    public boolean isLastDeleted() {
+        return lastDeleted;
+    }
+
+    /**
+     * Returns the total size of the saved configuration files.
+     *
+     * @return size in bytes
+     */
+    public long getBytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,221 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Storage of the configuration history, separating how history entries are kept from the listeners
+ * saving them and the pages showing them.
+ *
+ * The history of an item is addressed by its key, a path with {@code /} separators: the name of a
+ * system configuration file without extension, e.g. {@code config} or {@code hudson.tasks.Maven}, or
+ * {@code jobs/} followed by the history path of a job, e.g. {@code jobs/folder/jobs/job} or
+ * {@code jobs/maven/modules/module}, see {@link JobConfigHistory#getHistoryKey(hudson.XmlFile)}.
+ * The entries of an item are identified by their timestamp in {@link JobConfigHistoryConsts#ID_FORMATTER}
+ * format, so timestamps sort chronologically. Each entry holds its {@link HistoryDescr} and, except
+ * for deletions, a copy of the saved configuration file.
+ *
+ * Implementations must be safe for use by several threads. {@link FileHistoryStore} keeps the layout
+ * of the history directories; every implementation has to pass {@code HistoryStoreConformanceTest}.
+ */
+public interface HistoryStore {
+
+    /**
+     * Lock serializing the changes of the history of one or more items. The store takes the lock of an
+     * item for every change it makes; callers take it to make several changes at once, e.g. to purge
+     * old entries and write a new one. The lock is reentrant. To rule out deadlocks, a caller holding a
+     * lock must not take another one.
+     */
+    interface Lock {
+        /**
+         * Waits for the lock and takes it.
+         */
+        void lock();
+
+        /**
+         * Releases the lock.
+         */
+        void unlock();
+    }
+
+    /**
+     * @param item key of the item.
+     * @return the lock serializing the changes of the item.
+     */
+    Lock getLock(String item);
+
+    /**
+     * Returns the lock to hold while moving an item, e.g. to write the entry recording a rename
+     * together with the move.
+     *
+     * @param item key of the item.
+     * @param newItem new key of the item.
+     * @return the lock of the item, of the items nested in it, which are moved as well, and of the new item.
+     */
+    Lock getMoveLock(String item, String newItem);
+
+    /**
+     * Creates an entry unless an entry with the same timestamp exists already.
+     *
+     * @param item key of the item.
+     * @param timestamp timestamp of the entry.
+     * @param descr description of the entry.
+     * @param configName name of the configuration file, e.g. {@code config.xml}.
+     * @param config content of the configuration file, null for entries without a copy. Not closed.
+     * @return true if the entry was created, false if it exists already.
+     * @throws IOException if the entry cannot be written.
+     */
+    boolean write(String item, String timestamp, HistoryDescr descr, String configName, InputStream config)
+            throws IOException;
+
+    /**
+     * Creates an entry at the timestamp of its description or, if an entry with that timestamp exists
+     * already, at the next free millisecond, so two changes within the same millisecond both get an
+     * entry without waiting.
+     *
+     * @param item key of the item.
+     * @param descr description of the entry, its timestamp in {@link JobConfigHistoryConsts#ID_FORMATTER} format.
+     * @param configName name of the configuration file, e.g. {@code config.xml}.
+     * @param config content of the configuration file, null for entries without a copy. Not closed.
+     * @return the description of the created entry, holding its timestamp.
+     * @throws IOException if the entry cannot be written.
+     */
+    HistoryDescr writeNew(String item, HistoryDescr descr, String configName, InputStream config) throws IOException;
+
+    /**
+     * Replaces the description of an existing entry, e.g. to add the size of the change.
+     *
+     * @param item key of the item.
+     * @param timestamp timestamp of the entry.
+     * @param descr new description of the entry.
+     * @throws IOException if the entry does not exist or cannot be written.
+     */
+    void writeDescr(String item, String timestamp, HistoryDescr descr) throws IOException;
+
+    /**
+     * @param item key of the item.
+     * @param timestamp timestamp of the entry.
+     * @return true if the entry exists.
+     * @throws IOException if the store cannot be read.
+     */
+    boolean exists(String item, String timestamp) throws IOException;
+
+    /**
+     * @param item key of the item.
+     * @param timestamp timestamp of the entry.
+     * @return description of the entry, null if it does not exist.
+     * @throws IOException if the entry cannot be read.
+     */
+    HistoryDescr readDescr(String item, String timestamp) throws IOException;
+
+    /**
+     * @param item key of the item.
+     * @param timestamp timestamp of the entry.
+     * @return name of the saved configuration file, null if the entry does not exist or holds no copy.
+     * @throws IOException if the entry cannot be read.
+     */
+    String readConfigName(String item, String timestamp) throws IOException;
+
+    /**
+     * @param item key of the item.
+     * @param timestamp timestamp of the entry.
+     * @return content of the saved configuration file, to be closed by the caller; null if the entry
+     *         does not exist or holds no copy.
+     * @throws IOException if the entry cannot be read.
+     */
+    InputStream readConfig(String item, String timestamp) throws IOException;
+
+    /**
+     * Reads a file kept with an entry besides its description and configuration copy, e.g. the
+     * annotations of the blame view.
+     *
+     * @param item key of the item.
+     * @param timestamp timestamp of the entry.
+     * @param name name of the attachment, a plain file name neither starting with a dot nor ending with
+     *            {@code .xml}.
+     * @return content of the attachment, to be closed by the caller; null if the entry or the attachment
+     *         does not exist.
+     * @throws IOException if the attachment cannot be read.
+     * @throws IllegalArgumentException if the name is not a valid attachment name.
+     */
+    InputStream readAttachment(String item, String timestamp, String name) throws IOException;
+
+    /**
+     * Creates or replaces a file kept with an existing entry. Readers see either the old or the new
+     * content.
+     *
+     * @param item key of the item.
+     * @param timestamp timestamp of the entry.
+     * @param name name of the attachment, see {@link #readAttachment(String, String, String)}.
+     * @param content the new content.
+     * @throws IOException if the entry does not exist or the attachment cannot be written.
+     */
+    void writeAttachment(String item, String timestamp, String name, byte[] content) throws IOException;
+
+    /**
+     * Lists the timestamps of entries of an item in chronological order.
+     *
+     * @param item key of the item.
+     * @param from smallest timestamp to list, null for no lower bound.
+     * @param to timestamp to list entries before, null for no upper bound.
+     * @param offset number of entries in the range to skip.
+     * @param limit maximum number of timestamps to return, negative for no limit.
+     * @return the timestamps, empty if the item has no entries in the range.
+     * @throws IOException if the store cannot be read.
+     */
+    List<String> list(String item, String from, String to, int offset, int limit) throws IOException;
+
+    /**
+     * @param item key of the item.
+     * @return timestamp of the newest entry of the item, null if it has none.
+     * @throws IOException if the store cannot be read.
+     */
+    String latest(String item) throws IOException;
+
+    /**
+     * Summarizes the history of an item without the caller listing and reading all its entries.
+     *
+     * @param item key of the item.
+     * @return the summary, {@link HistoryManifest#EMPTY} if the item has no entries.
+     * @throws IOException if the store cannot be read.
+     */
+    HistoryManifest summarize(String item) throws IOException;
+
+    /**
+     * Lists the items having entries.
+     *
+     * @param prefix beginning of the keys to list, e.g. {@code jobs/}; the empty string for all items.
+     * @return the keys of the items, sorted.
+     * @throws IOException if the store cannot be read.
+     */
+    List<String> items(String prefix) throws IOException;
+
+    /**
+     * Deletes an entry, doing nothing if it does not exist.
+     *
+     * @param item key of the item.
+     * @param timestamp timestamp of the entry.
+     * @throws IOException if the entry cannot be deleted.
+     */
+    void delete(String item, String timestamp) throws IOException;
+
+    /**
+     * Moves all entries of an item to another key, e.g. when a job is renamed or deleted. Entries
+     * existing under the new key are kept unless replaced by an entry with the same timestamp.
+     *
+     * @param item key of the item.
+     * @param newItem new key of the item.
+     * @throws IOException if the entries cannot be moved.
+     */
+    void move(String item, String newItem) throws IOException;
+
+    /**
+     * Cleans up after the changes interrupted when the process ended, e.g. by a crash. Meant to be
+     * called on startup, before the store is used.
+     *
+     * @return the number of interrupted changes cleaned up.
+     * @throws IOException if something left cannot be cleaned up.
+     */
+    int recover() throws IOException;
+}
@@ -0,0 +1,188 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import bmsi.util.Diff;
+
+/**
+ * Finds the changed words within a changed line, so long lines like scripts, credentials ids or
+ * JSON values need not be compared by eye.
+ *
+ * Lines are split into words, runs of whitespace, HTML entities and single other characters. As
+ * comparing tokens costs time, every line and every request has a {@link Budget}; lines exceeding
+ * it are marked as changed as a whole, as before.
+ */
+public final class IntraLineDiff {
+
+    /** Maximum number of tokens of each of both lines. */
+    static final int MAX_LINE_TOKENS = 2000;
+
+    /** Maximum number of tokens compared per request. */
+    static final int MAX_REQUEST_TOKENS = 100000;
+
+    /** Maximum time spent on comparing tokens per request in milliseconds. */
+    static final long MAX_REQUEST_MILLIS = 250;
+
+    /** Tokens: HTML entities (lines are already escaped), words, whitespace or any other single character. */
+    private static final Pattern TOKEN = Pattern.compile("&#?\\w+;|\\w+|\\s+|.", Pattern.DOTALL);
+
+    /**
+     * A part of a line, which is either changed or not.
+     */
+    public static final class Segment {
+        /** Text of the segment. */
+        private final String text;
+        /** True if the segment was changed. */
+        private final boolean changed;
+
+        /**
+         * @param text text of the segment.
+         * @param changed true if the segment was changed.
+         */
+        Segment(String text, boolean changed) {
+            this.text = text;
+            this.changed = changed;
+        }
+
+        /**
+         * @return text of the segment.
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * @return true if the segment was changed.
+         */
+        public boolean isChanged() {
+            return changed;
+        }
+    }
+
+    /**
+     * Limits the tokens compared and the time spent for one request.
+     */
+    static final class Budget {
+        /** Tokens which may still be compared. */
+        private int tokensLeft;
+        /** Time after which no more lines are compared, see {@link System#nanoTime()}. */
+        private final long deadline;
+
+        /**
+         * Creates the default budget of a request.
+         */
+        Budget() {
+            this(MAX_REQUEST_TOKENS, MAX_REQUEST_MILLIS);
+        }
+
+        /**
+         * @param tokens tokens which may be compared.
+         * @param millis time which may be spent in milliseconds.
+         */
+        Budget(int tokens, long millis) {
+            this.tokensLeft = tokens;
+            this.deadline = System.nanoTime() + millis * 1000000L;
+        }
+
+        /**
+         * Takes tokens from the budget.
+         *
+         * @param tokens number of tokens to compare.
+         * @return false if the budget does not allow to compare them.
+         */
+        boolean take(int tokens) {
+            if (tokens > tokensLeft || System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            tokensLeft -= tokens;
+            return true;
+        }
+    }
+
+    /**
+     * Utility class.
+     */
+    private IntraLineDiff() {
+        // only static methods
+    }
+
+    /**
+     * Compares the tokens of two lines.
+     *
+     * @param oldLine the old line.
+     * @param newLine the new line.
+     * @param budget the budget of the request.
+     * @return the segments of the old line at index 0 and of the new line at index 1, null if the
+     *         lines exceed the budget and should be marked as changed as a whole.
+     */
+    static List<List<Segment>> diff(String oldLine, String newLine, Budget budget) {
+        final List<String> oldTokens = tokenize(oldLine);
+        final List<String> newTokens = tokenize(newLine);
+        if (oldTokens == null || newTokens == null || !budget.take(oldTokens.size() + newTokens.size())) {
+            return null;
+        }
+        final int[][] ids = AbstractDiffAlgorithm.hashLines(oldTokens.toArray(), newTokens.toArray());
+        final List<Segment> oldSegments = new ArrayList<Segment>();
+        final List<Segment> newSegments = new ArrayList<Segment>();
+        int pos0 = 0;
+        int pos1 = 0;
+        for (Diff.change change = MyersDiffAlgorithm.INSTANCE.diff(ids[0], ids[1]); change != null;
+                change = change.link) {
+            addSegment(oldSegments, oldTokens, pos0, change.line0, false);
+            addSegment(newSegments, newTokens, pos1, change.line1, false);
+            pos0 = change.line0 + change.deleted;
+            pos1 = change.line1 + change.inserted;
+            addSegment(oldSegments, oldTokens, change.line0, pos0, true);
+            addSegment(newSegments, newTokens, change.line1, pos1, true);
+        }
+        addSegment(oldSegments, oldTokens, pos0, oldTokens.size(), false);
+        addSegment(newSegments, newTokens, pos1, newTokens.size(), false);
+        final List<List<Segment>> result = new ArrayList<List<Segment>>(2);
+        result.add(oldSegments);
+        result.add(newSegments);
+        return result;
+    }
+
+    /**
+     * @param line a line.
+     * @return the tokens of the line, null if there are more than {@link #MAX_LINE_TOKENS}.
+     */
+    static List<String> tokenize(String line) {
+        final List<String> tokens = new ArrayList<String>();
+        final Matcher matcher = TOKEN.matcher(line);
+        while (matcher.find()) {
+            if (tokens.size() == MAX_LINE_TOKENS) {
+                return null;
+            }
+            tokens.add(matcher.group());
+        }
+        return tokens;
+    }
+
+    /**
+     * Adds a range of tokens as segment, joining it with the previous segment if both are changed
+     * or unchanged.
+     *
+     * @param segments the segments so far.
+     * @param tokens all tokens of the line.
+     * @param start first token of the range.
+     * @param end token after the range.
+     * @param changed true if the tokens were changed.
+     */
+    private static void addSegment(List<Segment> segments, List<String> tokens, int start, int end, boolean changed) {
+        if (start >= end) {
+            return;
+        }
+        final StringBuilder text = new StringBuilder();
+        if (!segments.isEmpty() && segments.get(segments.size() - 1).changed == changed) {
+            text.append(segments.remove(segments.size() - 1).text);
+        }
+        for (int i = start; i < end; i++) {
+            text.append(tokens.get(i));
+        }
+        segments.add(new Segment(text.toString(), changed));
+    }
+}
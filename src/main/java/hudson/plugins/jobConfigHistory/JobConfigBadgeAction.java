@@ -2,7 +2,6 @@ package hudson.plugins.jobConfigHistory;
 
 import static java.util.logging.Level.FINE;
 
-import java.io.File;
 import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -12,7 +11,6 @@ import java.util.Date;
 import java.util.logging.Logger;
 
 import hudson.Extension;
-import hudson.XmlFile;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.BuildBadgeAction;
@@ -76,18 +74,26 @@ public final class JobConfigBadgeAction implements BuildBadgeAction, RunAction2
         
             //get timestamp of config-change
             final ArrayList<ConfigInfo> configs = new ArrayList<ConfigInfo>();
-            final File historyRootDir = Hudson.getInstance().getPlugin(JobConfigHistory.class).getHistoryDir(project.getConfigFile());
-            if (historyRootDir.exists()) {
-                try {
-                    for (final File historyDir : historyRootDir.listFiles(JobConfigHistory.HISTORY_FILTER)) {
-                        final XmlFile historyXml = new XmlFile(new File(historyDir, JobConfigHistoryConsts.HISTORY_FILE));
-                        final HistoryDescr histDescr = (HistoryDescr) historyXml.read();
-                        final ConfigInfo config = ConfigInfo.create(project, historyDir, histDescr);
-                        configs.add(config);
-                    }
-                } catch (IOException ex) {
-                    LOG.log(FINE, "Could not parse history files: {0}", ex);
+            final JobConfigHistory plugin = Hudson.getInstance().getPlugin(JobConfigHistory.class);
+            final String item = plugin.getHistoryKey(project.getConfigFile());
+            final HistoryStore store = plugin.getHistoryStore();
+            try {
+                // nothing to show unless the newest of several changes happened after the last build
+                final HistoryManifest manifest = store.summarize(item);
+                final Date newestChange = manifest.getLast() == null ? null : parseDate(manifest.getLast());
+                if (lastBuildDate == null || manifest.getEntries() < 2
+                        || newestChange != null && !newestChange.after(lastBuildDate)) {
+                    super.onStarted(build, listener);
+                    return;
+                }
+                for (final String timestamp : store.list(item, null, null, 0, -1)) {
+                    final HistoryDescr histDescr = store.readDescr(item, timestamp);
+                    final ConfigInfo config = ConfigInfo.create(project,
+                            plugin.getHistoryEntryDir(item, timestamp), histDescr);
+                    configs.add(config);
                 }
+            } catch (IOException ex) {
+                LOG.log(FINE, "Could not parse history files: {0}", ex);
             }
         
             if (configs.size() > 1) {
@@ -131,9 +137,19 @@ public final class JobConfigBadgeAction implements BuildBadgeAction, RunAction2
          * @return The parsed date as a java.util.Date.
          */
         private Date parseDate(ConfigInfo config) {
+            return parseDate(config.getDate());
+        }
+
+        /**
+         * Parses a timestamp into a java.util.Date.
+         * 
+         * @param timestamp A timestamp in {@link JobConfigHistoryConsts#ID_FORMATTER} format.
+         * @return The parsed date as a java.util.Date.
+         */
+        private Date parseDate(String timestamp) {
             Date date = null;
             try {
-                date = new SimpleDateFormat(JobConfigHistoryConsts.ID_FORMATTER).parse(config.getDate());
+                date = new SimpleDateFormat(JobConfigHistoryConsts.ID_FORMATTER).parse(timestamp);
             } catch (ParseException ex) {
                 LOG.finest("Could not parse Date: " + ex);
             }
@@ -160,11 +176,14 @@ public final class JobConfigBadgeAction implements BuildBadgeAction, RunAction2
     public boolean oldConfigsExist() {
         final JobConfigHistory plugin = Hudson.getInstance().getPlugin(JobConfigHistory.class);
         
+        final String item = plugin.getHistoryKey(build.getProject().getConfigFile());
         for (String timestamp : configDates) {
-            final String path = plugin.getJobHistoryRootDir() + "/" + build.getProject().getFullName().replace("/", "/jobs/") 
-                    + "/" + timestamp;
-            final File historyDir = new File(path);
-            if (!historyDir.exists() || !new File(historyDir, "config.xml").exists()) {
+            try {
+                if (!"config.xml".equals(plugin.getHistoryStore().readConfigName(item, timestamp))) {
+                    return false;
+                }
+            } catch (IOException ex) {
+                LOG.log(FINE, "Could not read history entry: {0}", ex);
                 return false;
             }
         }
@@ -8,16 +8,20 @@ import hudson.model.Hudson;
 import hudson.model.ItemGroup;
 import hudson.model.Saveable;
 import hudson.model.Descriptor.FormException;
+import hudson.util.DaemonThreadFactory;
 import hudson.util.FormValidation;
+import hudson.util.NamingThreadFactory;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.Collections;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -70,6 +74,9 @@ public class JobConfigHistory extends Plugin {
 
     /** Compiled regular expression pattern. */
     private transient Pattern excludeRegexpPattern;
+
+    /** Decides quickly which saved files are system configurations to keep the history of. */
+    private final transient SaveableClassifier saveableClassifier = new SaveableClassifier();
     
     /** Flag to indicate if we should save the config history of Maven modules. */
     private boolean saveModuleConfiguration = true;
@@ -80,6 +87,37 @@ public class JobConfigHistory extends Plugin {
      */
     private String showBuildBadges = "always";
 
+    /** Name of the algorithm used to compute diffs, see {@link AbstractDiffAlgorithm#forName(String)}. */
+    private String diffAlgorithm = AbstractDiffAlgorithm.MYERS;
+
+    /** Window in milliseconds within which changes of the same item are saved as one entry. */
+    private String saveCoalesceMillis;
+
+    /** Coalesces bursts of changes of the same item. */
+    private final transient SaveCoalescer saveCoalescer = new SaveCoalescer();
+
+    /** Changes per second from which on changes are grouped into a changeset. */
+    private String bulkIngestThreshold;
+
+    /** Groups the changes of mass updates into changesets. */
+    private final transient BulkIngest bulkIngest = new BulkIngest();
+
+    /** Whether the entries lie in directories per month, see {@link ShardedFileHistoryStore}. */
+    private boolean shardHistoryByMonth;
+
+    /** Whether entries are left to be moved since {@link #shardHistoryByMonth} was changed. */
+    private volatile boolean historyLayoutPending;
+
+    /** Storage of the history, null for the directories beneath the history root. */
+    private transient volatile HistoryStore historyStore;
+
+    /** Cache of computed diffs between history entries. */
+    private final transient DiffCache diffCache = new DiffCache(JobConfigHistoryConsts.DIFF_CACHE_MAX_BYTES);
+
+    /** Moves the entries into the configured layout in the background. */
+    private static final ExecutorService LAYOUT_MIGRATOR = Executors.newSingleThreadExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), "JobConfigHistory layout migration"));
+
     /** our logger. */
     private static final Logger LOG = Logger.getLogger(JobConfigHistory.class.getName());
 
@@ -108,6 +146,18 @@ public class JobConfigHistory extends Plugin {
     public void start() throws Exception {
         load();
         loadRegexpPatterns();
+        loadSaveCoalesceWindow();
+        loadBulkIngestThreshold();
+        recoverHistoryStore();
+        if (historyLayoutPending) {
+            migrateHistoryLayout();
+        }
+    }
+
+    @Override
+    public void stop() throws Exception {
+        bulkIngest.end();
+        flushPendingChanges();
     }
 
     @Override
@@ -123,8 +173,17 @@ public class JobConfigHistory extends Plugin {
         excludePattern = formData.getString("excludePattern");
         saveModuleConfiguration = formData.getBoolean("saveModuleConfiguration");
         showBuildBadges = formData.getString("showBuildBadges");
+        setDiffAlgorithm(formData.getString("diffAlgorithm"));
+        saveCoalesceMillis = formData.getString("saveCoalesceMillis").trim();
+        bulkIngestThreshold = formData.getString("bulkIngestThreshold").trim();
+        final boolean layoutChanged = setShardHistoryByMonth(formData.getBoolean("shardHistoryByMonth"));
         save();
         loadRegexpPatterns();
+        loadSaveCoalesceWindow();
+        loadBulkIngestThreshold();
+        if (layoutChanged) {
+            migrateHistoryLayout();
+        }
     }
     
     /**
@@ -186,6 +245,7 @@ public class JobConfigHistory extends Plugin {
      */
     public void setSaveSystemConfiguration(boolean bool) {
         saveSystemConfiguration = bool;
+        loadSaveableClassifier();
     }
 
     /**
@@ -239,6 +299,32 @@ public class JobConfigHistory extends Plugin {
         showBuildBadges = showBadges;
     }
 
+    /**
+     * @return Name of the algorithm used to compute diffs: myers, histogram or patience.
+     */
+    public String getDiffAlgorithm() {
+        return diffAlgorithm;
+    }
+
+    /**
+     * Sets the diff algorithm, dropping the diffs cached so far if it changes.
+     * @param diffAlgorithm myers, histogram or patience.
+     */
+    public void setDiffAlgorithm(String diffAlgorithm) {
+        if (!diffAlgorithm.equals(this.diffAlgorithm)) {
+            // computed with the previous algorithm
+            diffCache.clear();
+        }
+        this.diffAlgorithm = diffAlgorithm;
+    }
+
+    /**
+     * @return The algorithm used to compute diffs, chunking very large files.
+     */
+    DiffAlgorithm getConfiguredDiffAlgorithm() {
+        return new ChunkedDiffAlgorithm(AbstractDiffAlgorithm.forName(diffAlgorithm));
+    }
+
     /**
      * Whether build badges should appear for the builds of this project for this user.
      * 
@@ -256,6 +342,212 @@ public class JobConfigHistory extends Plugin {
         return false;
     }
 
+    /**
+     * @return The window in milliseconds within which changes of the same item are saved as one entry.
+     */
+    public String getSaveCoalesceMillis() {
+        return saveCoalesceMillis;
+    }
+
+    /**
+     * Used for testing only.
+     * @param saveCoalesceMillis The window in milliseconds, blank or 0 to save every change.
+     */
+    void setSaveCoalesceMillis(String saveCoalesceMillis) {
+        this.saveCoalesceMillis = saveCoalesceMillis;
+        loadSaveCoalesceWindow();
+    }
+
+    /**
+     * Returns the coalescer changes pass through when no changeset is open.
+     *
+     * @return the save coalescer.
+     */
+    SaveCoalescer getSaveCoalescer() {
+        return saveCoalescer;
+    }
+
+    /**
+     * @return The number of changes per second from which on changes are grouped into a changeset.
+     */
+    public String getBulkIngestThreshold() {
+        return bulkIngestThreshold;
+    }
+
+    /**
+     * @return Whether the entries lie in directories per month, see {@link ShardedFileHistoryStore}.
+     */
+    public boolean getShardHistoryByMonth() {
+        return shardHistoryByMonth;
+    }
+
+    /**
+     * Changes the layout of the history, marking the entries as left to be moved.
+     *
+     * @param shardHistoryByMonth Whether the entries are to lie in directories per month.
+     * @return true if the layout changed.
+     */
+    private synchronized boolean setShardHistoryByMonth(final boolean shardHistoryByMonth) {
+        if (shardHistoryByMonth == this.shardHistoryByMonth) {
+            return false;
+        }
+        this.shardHistoryByMonth = shardHistoryByMonth;
+        historyLayoutPending = true;
+        return true;
+    }
+
+    /**
+     * Moves the entries into the configured layout in the background, see
+     * {@link ShardedFileHistoryStore#migrate()} and {@link ShardedFileHistoryStore#flatten()}. The entries
+     * stay readable meanwhile, and a migration cut short, e.g. by a restart, is started again on startup.
+     */
+    private void migrateHistoryLayout() {
+        if (historyStore != null) {
+            return;
+        }
+        final boolean shard = shardHistoryByMonth;
+        final ShardedFileHistoryStore store = new ShardedFileHistoryStore(getConfiguredHistoryRootDir(),
+                getJobHistoryRootDir(), shard);
+        LAYOUT_MIGRATOR.submit(new Runnable() {
+            public void run() {
+                try {
+                    if (shard) {
+                        store.migrate();
+                    } else {
+                        store.flatten();
+                    }
+                    historyLayoutMigrated(shard);
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "unable to move the history entries into the configured layout", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Clears the mark of the entries left to be moved, unless the layout changed again meanwhile.
+     *
+     * @param shard The layout the entries were moved into.
+     * @throws IOException if the configuration cannot be saved.
+     */
+    private synchronized void historyLayoutMigrated(final boolean shard) throws IOException {
+        if (shard == shardHistoryByMonth) {
+            historyLayoutPending = false;
+            save();
+        }
+    }
+
+    /**
+     * Used for testing only.
+     * @param bulkIngestThreshold Changes per second, blank or 0 to never group changes automatically.
+     */
+    void setBulkIngestThreshold(String bulkIngestThreshold) {
+        this.bulkIngestThreshold = bulkIngestThreshold;
+        loadBulkIngestThreshold();
+    }
+
+    /**
+     * Starts grouping all following changes into a single changeset, e.g. from a system Groovy
+     * script before a seed job regenerates many jobs. The changes are written in batches in the
+     * background and shown as one operation on the overview page until {@link #endChangeset()}
+     * is called.
+     *
+     * @return id of the changeset.
+     */
+    public String beginChangeset() {
+        return bulkIngest.begin();
+    }
+
+    /**
+     * Stops grouping changes into the changeset started by {@link #beginChangeset()}. The remaining
+     * changes of the changeset are written in the background.
+     */
+    public void endChangeset() {
+        bulkIngest.end();
+    }
+
+    /**
+     * Saves a change of a config file: queued as part of the open changeset if there is one,
+     * otherwise coalesced with the other changes of the same file, see {@link SaveCoalescer}.
+     *
+     * @param configFile the changed config file.
+     * @param save writes the history entry.
+     */
+    void saveChange(File configFile, Runnable save) {
+        if (!bulkIngest.offer(configFile, save)) {
+            saveCoalescer.submit(configFile, save);
+        }
+    }
+
+    /**
+     * Writes the change of a config file still pending at once, e.g. before the item is deleted.
+     *
+     * @param configFile the config file.
+     */
+    void flushPendingChanges(File configFile) {
+        bulkIngest.flush(configFile);
+        saveCoalescer.flush(configFile);
+    }
+
+    /**
+     * Writes all changes still pending at once, e.g. before an item is renamed.
+     */
+    void flushPendingChanges() {
+        bulkIngest.flushAll();
+        saveCoalescer.flushAll();
+    }
+
+    /**
+     * Applies the configured threshold to the bulk ingest, disabling the automatic changesets if
+     * the threshold is blank or not a valid number.
+     */
+    private void loadBulkIngestThreshold() {
+        int threshold = 0;
+        if (StringUtils.isNotBlank(bulkIngestThreshold)) {
+            try {
+                threshold = Integer.parseInt(bulkIngestThreshold.trim());
+            } catch (NumberFormatException e) {
+                LOG.warning("bulk ingest threshold not formatted properly, never grouping changes: "
+                        + bulkIngestThreshold);
+            }
+        }
+        bulkIngest.setThreshold(threshold);
+    }
+
+    /**
+     * Applies the configured window to the save coalescer, disabling it if the window is blank
+     * or not a valid number.
+     */
+    private void loadSaveCoalesceWindow() {
+        long windowMillis = 0;
+        if (StringUtils.isNotBlank(saveCoalesceMillis)) {
+            try {
+                windowMillis = Long.parseLong(saveCoalesceMillis.trim());
+            } catch (NumberFormatException e) {
+                LOG.warning("save coalesce window not formatted properly, saving every change: " + saveCoalesceMillis);
+            }
+        }
+        saveCoalescer.setWindowMillis(windowMillis);
+    }
+
+    /**
+     * Returns the cache of computed diffs, e.g. to look at its hit and miss statistics.
+     *
+     * @return the diff cache.
+     */
+    public DiffCache getDiffCache() {
+        return diffCache;
+    }
+
+    /**
+     * Returns the classifier of saved files, e.g. to look at the number of accepted and rejected events.
+     *
+     * @return the saveable classifier.
+     */
+    public SaveableClassifier getSaveableClassifier() {
+        return saveableClassifier;
+    }
+
     /**
      * Used for testing to verify invalid pattern not loaded.
      * @return The loaded regexp pattern, or null if pattern was invalid. 
@@ -269,6 +561,16 @@ public class JobConfigHistory extends Plugin {
      */
     private void loadRegexpPatterns() {
         excludeRegexpPattern = loadRegex(excludePattern);
+        loadSaveableClassifier();
+    }
+
+    /**
+     * Rebuilds the classifier of saved files for the current configuration.
+     */
+    private void loadSaveableClassifier() {
+        final Hudson hudson = Hudson.getInstance();
+        saveableClassifier.configure(hudson == null ? null : hudson.root, saveSystemConfiguration,
+                excludeRegexpPattern);
     }
 
     /**
@@ -332,14 +634,60 @@ public class JobConfigHistory extends Plugin {
     }
 
     /**
-     * Returns the configuration history directory for the given configuration file.
+     * Removes the history entries left incomplete by a crash, see {@link HistoryStore#recover()}.
+     * Failures are only logged, as readers ignore such entries anyway.
+     */
+    private void recoverHistoryStore() {
+        try {
+            getHistoryStore().recover();
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "unable to clean up history entries interrupted while being written", e);
+        }
+    }
+
+    /**
+     * Returns the storage of the history. Unless another store was set, this is the
+     * {@link #getFileHistoryStore()}.
+     *
+     * @return the history store.
+     */
+    public HistoryStore getHistoryStore() {
+        final HistoryStore store = historyStore;
+        return store != null ? store : getFileHistoryStore();
+    }
+
+    /**
+     * Returns the history directories on the configured history root directories in the configured
+     * layout, a {@link ShardedFileHistoryStore} while entries are left to be moved in either direction.
+     *
+     * @return the history store working on directories.
+     */
+    private FileHistoryStore getFileHistoryStore() {
+        if (shardHistoryByMonth || historyLayoutPending) {
+            return new ShardedFileHistoryStore(getConfiguredHistoryRootDir(), getJobHistoryRootDir(),
+                    shardHistoryByMonth);
+        }
+        return new FileHistoryStore(getConfiguredHistoryRootDir(), getJobHistoryRootDir());
+    }
+
+    /**
+     * Used for testing only.
+     *
+     * @param historyStore the history store, null for the history root directories.
+     */
+    void setHistoryStore(HistoryStore historyStore) {
+        this.historyStore = historyStore;
+    }
+
+    /**
+     * Returns the key of the history of the given configuration file in the {@link HistoryStore}.
      *
      * @param xmlFile
      *            The configuration file whose content we are saving.
-     * @return The base directory where to store the history, 
+     * @return The key of the history, e.g. {@code config} or {@code jobs/folder/jobs/job},
      *         or null if the file is not a valid Hudson configuration file.
      */
-    protected File getHistoryDir(final XmlFile xmlFile) {
+    protected String getHistoryKey(final XmlFile xmlFile) {
         final String configRootDir = xmlFile.getFile().getParent();
         final String hudsonRootDir = Hudson.getInstance().root.getPath();
 
@@ -350,22 +698,52 @@ public class JobConfigHistory extends Plugin {
 
         //if the file is stored directly under HUDSON_ROOT, it's a system config 
         //so create a distinct directory
-        String underRootDir = null;
         if (configRootDir.equals(hudsonRootDir)) {
             final String xmlFileName = xmlFile.getFile().getName();
-            underRootDir = xmlFileName.substring(0, xmlFileName.lastIndexOf('.'));
-        }
-         
-        File historyDir;
-        if (underRootDir == null) {
-            final String remainingPath = configRootDir.substring(hudsonRootDir.length() 
-                                        + JobConfigHistoryConsts.JOBS_HISTORY_DIR.length() + 1);
-            historyDir = new File(getJobHistoryRootDir(), remainingPath);
-        } else {
-            historyDir = new File(getConfiguredHistoryRootDir(), underRootDir);
+            return xmlFileName.substring(0, xmlFileName.lastIndexOf('.'));
         }
+        final String remainingPath = configRootDir.substring(hudsonRootDir.length() 
+                                    + JobConfigHistoryConsts.JOBS_HISTORY_DIR.length() + 1);
+        return JobConfigHistoryConsts.JOBS_HISTORY_DIR + remainingPath.replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Returns the configuration history directory for the given configuration file.
+     *
+     * @param xmlFile
+     *            The configuration file whose content we are saving.
+     * @return The base directory where to store the history, 
+     *         or null if the file is not a valid Hudson configuration file.
+     */
+    protected File getHistoryDir(final XmlFile xmlFile) {
+        final String item = getHistoryKey(xmlFile);
+        return item == null ? null : getHistoryDir(item);
+    }
+
+    /**
+     * Returns the directory of the history with the given key in the history root directories,
+     * e.g. for the pages working on the files of the entries.
+     *
+     * @param item
+     *            The key of the history, see {@link #getHistoryKey(XmlFile)}.
+     * @return The directory of the history.
+     */
+    protected File getHistoryDir(final String item) {
+        return getFileHistoryStore().getItemDir(item);
+    }
 
-        return historyDir;
+    /**
+     * Returns the directory of a history entry in the history root directories, wherever the
+     * configured layout puts it, e.g. for the pages working on the files of the entries.
+     *
+     * @param item
+     *            The key of the history, see {@link #getHistoryKey(XmlFile)}.
+     * @param timestamp
+     *            The timestamp of the entry.
+     * @return The directory of the entry, which need not exist.
+     */
+    protected File getHistoryEntryDir(final String item, final String timestamp) {
+        return getFileHistoryStore().getEntryDir(item, timestamp);
     }
 
     /**
@@ -383,8 +761,19 @@ public class JobConfigHistory extends Plugin {
      * @return The configuration file or null if no file is found.
      */
     protected File getConfigFile(final File historyDir) {
+        return findConfigFile(historyDir);
+    }
+
+    /**
+     * Static variant of {@link #getConfigFile(File)} for code running without a plugin instance.
+     *
+     * @param historyDir
+     *            The history directory to look under.
+     * @return The configuration file or null if no file is found.
+     */
+    static File findConfigFile(final File historyDir) {
         File configFile = null;
-        if (historyDir.exists() && isHistoryDir(historyDir)) {
+        if (HistoryDirNames.isHistoryDir(historyDir)) {
             // get the *.xml file that is not the JobConfigHistoryConsts.HISTORY_FILE
             // assumes random .xml files won't appear in the history directory
             final File[] listing = historyDir.listFiles();
@@ -420,8 +809,8 @@ public class JobConfigHistory extends Plugin {
         if (item instanceof AbstractProject<?, ?>) {
             saveable = false;
         } 
-        if (xmlFile.getFile().getParentFile().equals(Hudson.getInstance().root) && saveSystemConfiguration) {
-            saveable = checkRegex(xmlFile);
+        if (saveableClassifier.isSystemConfigFile(xmlFile.getFile())) {
+            saveable = true;
         }
 
 /*      if (item instanceof ItemGroup && saveItemGroupConfiguration) {
@@ -465,21 +854,6 @@ public class JobConfigHistory extends Plugin {
         }
     }
 
-    /**
-     * Check whether config file should not be saved because of regex pattern.
-     * @param xmlFile The config file
-     * @return True if it should be saved
-     */
-    private boolean checkRegex(final XmlFile xmlFile) {
-        if (excludeRegexpPattern != null) {
-            final Matcher matcher = excludeRegexpPattern.matcher(xmlFile.getFile().getName());
-            return !matcher.find();
-        } else {
-            return true;
-        }
-    }
-    
-    
     /**
      * Determines if the {@link XmlFile} contains a duplicate of
      * the last saved information, if there is previous history.
@@ -491,37 +865,54 @@ public class JobConfigHistory extends Plugin {
     private boolean hasDuplicateHistory(XmlFile xmlFile) {
         boolean isDuplicated = false;
 
-        final File[] historyDirs = getHistoryDir(xmlFile).listFiles(HISTORY_FILTER);
-        if (historyDirs != null && historyDirs.length != 0) {
-            Arrays.sort(historyDirs, Collections.reverseOrder());
-            final File lastFile = new File(historyDirs[0], xmlFile.getFile().getName());
-            if (lastFile.exists()) {
-                final XmlFile lastXmlFile = new XmlFile(lastFile);
+        final String item = getHistoryKey(xmlFile);
+        if (item == null) {
+            return false;
+        }
+        final HistoryStore store = getHistoryStore();
+        try {
+            final String timestamp = store.latest(item);
+            if (timestamp != null && xmlFile.getFile().getName().equals(store.readConfigName(item, timestamp))) {
+                final InputStream last = store.readConfig(item, timestamp);
                 try {
-                    if (xmlFile.asString().equals(lastXmlFile.asString())) {
-                        isDuplicated = true;
+                    final InputStream current = new FileInputStream(xmlFile.getFile());
+                    try {
+                        isDuplicated = BulkRestore.sameContent(current, last);
+                    } finally {
+                        current.close();
                     }
-                } catch (IOException e) {
-                    LOG.warning("unable to check for duplicate previous history file: " + lastXmlFile + "\n" + e);
+                } finally {
+                    last.close();
                 }
             }
+        } catch (IOException e) {
+            LOG.warning("unable to check for duplicate previous history file: " + item + "\n" + e);
         }
         return isDuplicated;
     }
 
     /**
-     * Checks if we should purge old history entries under the specified root
+     * Checks if we should purge old history entries of the specified item
      * using the {@code maxHistoryEntries} value as the criteria, and if required
      * calls the appropriate method to perform the purge.
      *
-     * @param itemHistoryRoot
-     *            The directory to consider purging history under.
+     * @param item
+     *            The key of the history to consider purging entries of.
+     */
+    protected void checkForPurgeByQuantity(final String item) {
+        checkForPurgeByQuantity(getHistoryStore(), item);
+    }
+
+    /**
+     * @param store
+     *            The store holding the history.
+     * @param item
+     *            The key of the history to consider purging entries of.
      */
-    protected void checkForPurgeByQuantity(final File itemHistoryRoot) {
+    private void checkForPurgeByQuantity(final HistoryStore store, final String item) {
         int maxEntries = 0;
         if (StringUtils.isNotEmpty(maxHistoryEntries)) {
             try {
-                maxEntries = new Integer(getMaxHistoryEntries());
                 maxEntries = Integer.parseInt(getMaxHistoryEntries());
                 if (maxEntries < 0) {
                     throw new NumberFormatException();
@@ -532,68 +923,70 @@ public class JobConfigHistory extends Plugin {
         }
         if (maxEntries > 0) {
             LOG.fine("checking for history files to purge (" + maxHistoryEntries + " max allowed)");
-            purgeHistoryByQuantity(itemHistoryRoot, maxEntries);
+            purgeHistoryByQuantity(store, item, maxEntries);
         }
     }
 
     /**
      * Performs the actual purge of history entries.
-     * @param historyRoot
-     *            The directory to purge entries from.
+     * @param store
+     *            The store holding the history.
+     * @param item
+     *            The key of the history to purge entries from.
      * @param maxEntries
      *            The maximum number of history entries to keep.
      */
-    private void purgeHistoryByQuantity(final File historyRoot, final int maxEntries) {
+    private void purgeHistoryByQuantity(final HistoryStore store, final String item, final int maxEntries) {
         // we are about to create a new history entry, so 
         // subtract 1 from the maximum configured to save.
         final int entriesToLeave = maxEntries - 1;
-        final File[] historyDirs = historyRoot.listFiles(HISTORY_FILTER);
-        if (historyDirs != null && historyDirs.length >= entriesToLeave) {
-            Arrays.sort(historyDirs, Collections.reverseOrder());
-            for (int i = entriesToLeave; i < historyDirs.length; i++) {
-                if (isCreatedEntry(historyDirs[i])) {
+        try {
+            if (store.summarize(item).getEntries() <= entriesToLeave) {
+                return;
+            }
+            final List<String> timestamps = store.list(item, null, null, 0, -1);
+            for (int i = timestamps.size() - 1 - entriesToLeave; i >= 0; i--) {
+                if (isCreatedEntry(store.readDescr(item, timestamps.get(i)))) {
                     continue; 
                 }
-                LOG.fine("purging old directory from history logs: " + historyDirs[i]);
-                deleteDirectory(historyDirs[i]);
+                LOG.fine("purging old entry from history logs: " + item + "/" + timestamps.get(i));
+                deleteEntry(store, item, timestamps.get(i));
             }
+        } catch (IOException e) {
+            LOG.warning("unable to purge history of " + item + "\n" + e);
         }
     }
 
     /**
      * Checks whether the respective history entry is a 'Created' entry.
      * 
-     * @param historyDir The directory, e.g. 2013-01-18_17-33-51
-     * @return True if the directory contains a 'Created' entry.
+     * @param histDescr The description of the entry, null if it cannot be read.
+     * @return True if the entry is a 'Created' entry.
      */
-    protected boolean isCreatedEntry(File historyDir) {
-        final XmlFile historyXml = new XmlFile(new File(historyDir, JobConfigHistoryConsts.HISTORY_FILE));
-        try {
-            final HistoryDescr histDescr = (HistoryDescr) historyXml.read();
-            LOG.finest("historyDir: " + historyDir);
-            LOG.finest("histDescr.getOperation(): " + histDescr.getOperation());
-            if ("Created".equals(histDescr.getOperation())) {
-                return true;
-            }
-        } catch (IOException ex) {
-            LOG.finest("Unable to retrieve history file for " + historyDir);
-        }
-        return false;
+    private static boolean isCreatedEntry(HistoryDescr histDescr) {
+        return histDescr != null && "Created".equals(histDescr.getOperation());
     }
 
     /**
-     * Deletes a history directory (e.g. Test/2013-18-01_19-53-40),
-     * first deleting the files it contains.
-     * @param dir The directory which should be deleted.
+     * Deletes a history entry, e.g. Test/2013-18-01_19-53-40.
+     * @param item The key of the history.
+     * @param timestamp The timestamp of the entry.
      */
-    protected void deleteDirectory(File dir) {
-        for (File file : dir.listFiles()) {
-            if (!file.delete()) {
-                LOG.warning("problem deleting history file: " + file);
-            }
-        }
-        if (!dir.delete()) {
-            LOG.warning("problem deleting history directory: " + dir);
+    protected void deleteEntry(String item, String timestamp) {
+        deleteEntry(getHistoryStore(), item, timestamp);
+    }
+
+    /**
+     * @param store The store holding the history.
+     * @param item The key of the history.
+     * @param timestamp The timestamp of the entry.
+     */
+    private void deleteEntry(HistoryStore store, String item, String timestamp) {
+        diffCache.invalidate(getHistoryEntryDir(item, timestamp));
+        try {
+            store.delete(item, timestamp);
+        } catch (IOException e) {
+            LOG.warning("problem deleting history entry: " + item + "/" + timestamp + "\n" + e);
         }
     }
     
@@ -602,9 +995,14 @@ public class JobConfigHistory extends Plugin {
      *
      * @param dir
      *            The directory under consideration.
-     * @return true if this directory contains a {@link JobConfigHistoryConsts#HISTORY_FILE} file.
+     * @return true if this directory contains a {@link JobConfigHistoryConsts#HISTORY_FILE} file
+     *         and is not an entry being written.
      */
     private static boolean  isHistoryDir(File dir) {
+        // complete, but not renamed yet
+        if (dir.getName().startsWith(JobConfigHistoryConsts.TEMP_ENTRY_PREFIX)) {
+            return false;
+        }
         return (new File(dir, JobConfigHistoryConsts.HISTORY_FILE)).exists();
     }
 
@@ -644,6 +1042,42 @@ public class JobConfigHistory extends Plugin {
         }
     }
 
+    /**
+     * Validates the user entry for the window within which changes are saved as one entry.
+     * Must be blank or a non-negative integer.
+     * @param value
+     *            The form input entered by the user.
+     * @return ok if the entry is blank or a non-negative integer.
+     */
+    public FormValidation doCheckSaveCoalesceMillis(@QueryParameter final String value) {
+        try {
+            if (StringUtils.isNotBlank(value) && Long.parseLong(value.trim()) < 0) {
+                throw new NumberFormatException();
+            }
+            return FormValidation.ok();
+        } catch (NumberFormatException ex) {
+            return FormValidation.error("Enter a valid positive integer");
+        }
+    }
+
+    /**
+     * Validates the user entry for the number of changes per second from which on changes
+     * are grouped into a changeset. Must be blank or a non-negative integer.
+     * @param value
+     *            The form input entered by the user.
+     * @return ok if the entry is blank or a non-negative integer.
+     */
+    public FormValidation doCheckBulkIngestThreshold(@QueryParameter final String value) {
+        try {
+            if (StringUtils.isNotBlank(value) && Integer.parseInt(value.trim()) < 0) {
+                throw new NumberFormatException();
+            }
+            return FormValidation.ok();
+        } catch (NumberFormatException ex) {
+            return FormValidation.error("Enter a valid positive integer");
+        }
+    }
+
     /**
      * Validates the user entry for the regular expression of system file names
      * to exclude from saving.
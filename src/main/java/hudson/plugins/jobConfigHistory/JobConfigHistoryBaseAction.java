@@ -1,5 +1,7 @@
 package hudson.plugins.jobConfigHistory;
 
+import hudson.Util;
+import hudson.XmlFile;
 import hudson.model.Action;
 import hudson.model.Hudson;
 import hudson.plugins.jobConfigHistory.JobConfigHistoryBaseAction.SideBySideView.Line;
@@ -7,14 +9,14 @@ import hudson.security.AccessControlled;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
-import java.util.TreeMap;
 
 import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.Stapler;
@@ -27,7 +29,6 @@ import difflib.DiffRowGenerator;
 import difflib.DiffUtils;
 import difflib.Patch;
 
-import bmsi.util.Diff;
 import bmsi.util.DiffPrint;
 import bmsi.util.Diff.change;
 
@@ -39,6 +40,11 @@ import bmsi.util.Diff.change;
  */
 public abstract class JobConfigHistoryBaseAction implements Action {
 
+    /**
+     * Value of the request parameter {@code mode} selecting the structural XML diff.
+     */
+    public static final String STRUCTURAL_MODE = "structural";
+
     /**
      * The hudson instance.
      */
@@ -168,6 +174,7 @@ public abstract class JobConfigHistoryBaseAction implements Action {
         builder.columnWidth(Integer.MAX_VALUE);
         final DiffRowGenerator dfg = builder.build();
         
+        final IntraLineDiff.Budget intraLineBudget = new IntraLineDiff.Budget();
         int previousLeftPos = 0;
         
         for (final Delta delta : diff.getDeltas()) {
@@ -214,6 +221,14 @@ public abstract class JobConfigHistoryBaseAction implements Action {
                         rightPos++;
                     }
                     line.right.cssClass = "diff_revised";
+                    if (line.left.text != null && line.right.text != null) {
+                        final List<List<IntraLineDiff.Segment>> segments = IntraLineDiff.diff(line.left.text,
+                                line.right.text, intraLineBudget);
+                        if (segments != null) {
+                            line.left.segments = segments.get(0);
+                            line.right.segments = segments.get(1);
+                        }
+                    }
 
                 } else if (tag == Tag.DELETE) {
                     line.left.lineNumber = leftPos;
@@ -240,10 +255,125 @@ public abstract class JobConfigHistoryBaseAction implements Action {
                 previousLeftPos = leftPos;
             }
         }
-        view.clearDuplicateLines();
         return view.getLines();
     }
     
+    /**
+     * Returns the side-by-side diff view lines between two history entries. As history entries never
+     * change, the result is taken from or put into the {@link DiffCache} of the plugin. Live config
+     * files of items are compared without the cache. The files are read through a
+     * {@link MappedLineIndex}, so only the printed lines are decoded.
+     *
+     * @param configXml1
+     *            config file of the older history entry.
+     * @param configXml2
+     *            config file of the newer history entry.
+     * @return Nice and clean diff as list of single Lines.
+     * @throws IOException
+     *             if reading one of the config files does not succeed.
+     */
+    protected final List<Line> getDiffLines(XmlFile configXml1, XmlFile configXml2) throws IOException {
+        final File historyDir1 = configXml1.getFile().getParentFile();
+        final File historyDir2 = configXml2.getFile().getParentFile();
+        final boolean cacheable = HistoryDirNames.isHistoryDir(historyDir1)
+                && HistoryDirNames.isHistoryDir(historyDir2);
+        final DiffCache diffCache = getPlugin().getDiffCache();
+        final List<Line> cachedLines = cacheable ? diffCache.get(historyDir1, historyDir2) : null;
+        if (cachedLines != null) {
+            return cachedLines;
+        }
+        final MappedLineIndex configXml1Lines = MappedLineIndex.open(configXml1.getFile());
+        final MappedLineIndex configXml2Lines = MappedLineIndex.open(configXml2.getFile());
+        final int[][] lineIds = MappedLineIndex.lineIds(configXml1Lines, configXml2Lines);
+        final change change = getPlugin().getConfiguredDiffAlgorithm().diff(lineIds[0], lineIds[1]);
+        final StringWriter output = new StringWriter();
+        MappedLineIndex.printUnified(new PrintWriter(output), configXml1.getFile().getPath(),
+                configXml2.getFile().getPath(), configXml1Lines, configXml2Lines, change);
+        final List<String> diffLines = Arrays.asList(output.toString().split("\n"));
+        if (!cacheable) {
+            return getDiffLines(diffLines);
+        }
+        return diffCache.put(historyDir1, historyDir2, getDiffLines(diffLines));
+    }
+
+    /**
+     * Returns the structural differences between two history entries as side-by-side view lines.
+     * Every change of an element is shown in a line of its own, its position in the first and the
+     * second file is given by the line numbers.
+     *
+     * @param configXml1
+     *            config file of the older history entry.
+     * @param configXml2
+     *            config file of the newer history entry.
+     * @return one Line per structural change.
+     * @throws IOException
+     *             if reading or parsing one of the config files does not succeed.
+     */
+    protected final List<Line> getStructuralDiffLines(XmlFile configXml1, XmlFile configXml2) throws IOException {
+        final List<Line> lines = new ArrayList<Line>();
+        for (final StructuralXmlDiff.Change change : StructuralXmlDiff.diff(configXml1.getFile(),
+                configXml2.getFile())) {
+            final Line line = new Line();
+            // the view prints the text of all lines as is, like the already escaped line diff
+            final String label = Util.escape(getStructuralChangeLabel(change.getType()) + ": " + change.getPath());
+            line.left.lineNumber = change.getOldLine();
+            line.right.lineNumber = change.getNewLine();
+            if (change.getOldLine() > 0) {
+                line.left.text = change.getOldValue() == null ? label
+                        : label + "\n" + Util.escape(change.getOldValue());
+            }
+            if (change.getNewLine() > 0) {
+                line.right.text = change.getNewValue() == null ? label
+                        : label + "\n" + Util.escape(change.getNewValue());
+            }
+            line.left.cssClass = "diff_original";
+            line.right.cssClass = "diff_revised";
+            line.tag = change.getType() == StructuralXmlDiff.Type.ADDED ? Tag.INSERT
+                    : (change.getType() == StructuralXmlDiff.Type.REMOVED ? Tag.DELETE : Tag.CHANGE);
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    /**
+     * @param type kind of a structural change.
+     * @return the localized label of the change.
+     */
+    private static String getStructuralChangeLabel(StructuralXmlDiff.Type type) {
+        switch (type) {
+        case ADDED:
+            return Messages.StructuralXmlDiff_ADDED();
+        case REMOVED:
+            return Messages.StructuralXmlDiff_REMOVED();
+        case MOVED:
+            return Messages.StructuralXmlDiff_MOVED();
+        case ATTRIBUTES_CHANGED:
+            return Messages.StructuralXmlDiff_ATTRIBUTES_CHANGED();
+        default:
+            return Messages.StructuralXmlDiff_TEXT_CHANGED();
+        }
+    }
+
+    /**
+     * Returns the diff view lines between two history entries in the mode selected by the request
+     * parameter {@code mode}: {@code structural} for the changes of XML elements, the line based
+     * side-by-side diff otherwise.
+     *
+     * @param configXml1
+     *            config file of the older history entry.
+     * @param configXml2
+     *            config file of the newer history entry.
+     * @return Nice and clean diff as list of single Lines.
+     * @throws IOException
+     *             if reading one of the config files does not succeed.
+     */
+    protected final List<Line> getDiffLinesForMode(XmlFile configXml1, XmlFile configXml2) throws IOException {
+        if (STRUCTURAL_MODE.equals(getRequestParameter("mode"))) {
+            return getStructuralDiffLines(configXml1, configXml2);
+        }
+        return getDiffLines(configXml1, configXml2);
+    }
+
     /**
      * Returns a unified diff between two string arrays.
      * 
@@ -259,7 +389,8 @@ public abstract class JobConfigHistoryBaseAction implements Action {
      */
     protected final String getDiffAsString(final File file1, final File file2,
             final String[] file1Lines, final String[] file2Lines) {
-        final change change = new Diff(file1Lines, file2Lines).diff_2(false);
+        final int[][] lineIds = AbstractDiffAlgorithm.hashLines(file1Lines, file2Lines);
+        final change change = getPlugin().getConfiguredDiffAlgorithm().diff(lineIds[0], lineIds[1]);
         final DiffPrint.UnifiedPrint unifiedPrint = new DiffPrint.UnifiedPrint(
                 file1Lines, file2Lines);
         final StringWriter output = new StringWriter();
@@ -272,58 +403,90 @@ public abstract class JobConfigHistoryBaseAction implements Action {
     
     /**
      * Holds information for the SideBySideView.
+     *
+     * Lines are de-duplicated while they are added: the unified diff repeats context lines when
+     * hunks overlap, so a left line number may show up more than once. An {@code EQUAL} line with an
+     * already known number is dropped right away, any other line with a known number replaces the
+     * first line with that number. Replaced lines are compacted away in a single pass when the lines
+     * are requested.
      */
     public static class SideBySideView {
 
         /**
-         * All lines of the view.
+         * All lines of the view, replaced lines are set to {@code null} until the next compaction.
          */
         private final List<Line> lines = new ArrayList<Line>();
 
+        /**
+         * Index into {@link #lines} plus one of the first line with a given left line number, zero if
+         * the number was not seen yet and -1 if the first line was already replaced.
+         */
+        private int[] firstIndexByLineNumber = new int[64];
+
+        /**
+         * Number of lines which were replaced since the last compaction.
+         */
+        private int replaced;
+
         /**
          * Returns the lines of the {@link SideBySideView}.
          *
          * @return an unmodifiable view of the lines.
          */
         public List<Line> getLines() {
+            if (replaced > 0) {
+                compact();
+            }
             return Collections.unmodifiableList(lines);
         }
 
         /**
-         * Adds a line.
+         * Adds a line, dropping or replacing duplicates of already added lines.
          *
          * @param line A single line.
          */
         public void addLine(Line line) {
+            final int lineNum = line.left.lineNumber;
+            if (lineNum > 0) {
+                if (lineNum >= firstIndexByLineNumber.length) {
+                    firstIndexByLineNumber = Arrays.copyOf(firstIndexByLineNumber,
+                            Math.max(lineNum + 1, firstIndexByLineNumber.length * 2));
+                }
+                final int firstIndex = firstIndexByLineNumber[lineNum];
+                if (firstIndex == 0) {
+                    firstIndexByLineNumber[lineNum] = lines.size() + 1;
+                } else if (line.tag == Tag.EQUAL) {
+                    return;
+                } else if (firstIndex > 0) {
+                    lines.set(firstIndex - 1, null);
+                    firstIndexByLineNumber[lineNum] = -1;
+                    replaced++;
+                }
+            }
             lines.add(line);
         }
-        
+
         /**
-         * Deletes all dupes in the given lines.
+         * Removes replaced lines by moving the remaining lines to the front in one pass,
+         * keeping the recorded indices in sync.
          */
-        public void clearDuplicateLines() {
-            final TreeMap<Integer, Line> linesByNumbers = new TreeMap<Integer, Line>();
-            final ArrayList<Line> dupes = new ArrayList<Line>();
-            final Iterator<Line> iter = lines.iterator();
-            while (iter.hasNext()) {
-                final Line line = iter.next();
-                final String lineNum = line.left.getLineNumber();
-                if (lineNum.length() != 0) {
-                    final int lineNumInt = Integer.parseInt(lineNum);
-                    if (linesByNumbers.containsKey(lineNumInt)) {
-                        if (line.tag == Tag.EQUAL) {
-                            iter.remove();
-                        } else {
-                            dupes.add(linesByNumbers.get(lineNumInt));
-                        }
-                    } else {
-                        linesByNumbers.put(lineNumInt, line);
+        private void compact() {
+            int target = 0;
+            for (int source = 0; source < lines.size(); source++) {
+                final Line line = lines.get(source);
+                if (line != null) {
+                    lines.set(target, line);
+                    final int lineNum = line.left.lineNumber;
+                    if (lineNum > 0 && firstIndexByLineNumber[lineNum] == source + 1) {
+                        firstIndexByLineNumber[lineNum] = target + 1;
                     }
+                    target++;
                 }
             }
-            lines.removeAll(dupes);
+            lines.subList(target, lines.size()).clear();
+            replaced = 0;
         }
-        
+
         /**
          * Holds information about a single line, which consists
          * of the left and right information of the diff.
@@ -373,19 +536,21 @@ public abstract class JobConfigHistoryBaseAction implements Action {
              * the item was modified, added or deleted.
              */
             public static class Item {
-                /**Line number of Item.*/
-                private Integer lineNumber;
-                /**Text of Item.*/
+                /**Line number of Item, 0 if the Item has no line number.*/
+                private int lineNumber;
+                /**Text of Item, already HTML-escaped as the view prints it as is.*/
                 private String text;
                 /**CSS Class of Item.*/
                 private String cssClass;
+                /**Changed and unchanged parts of the text, null if the whole text is marked.*/
+                private List<IntraLineDiff.Segment> segments;
 
                 /**
                  * Returns the line number of the Item.
-                 * @return lineNumber.
+                 * @return lineNumber, 0 if the Item has no line number.
                  */
-                public String getLineNumber() {
-                    return lineNumber == null ? "" : String.valueOf(lineNumber);
+                public int getLineNumber() {
+                    return lineNumber;
                 }
 
                 /**
@@ -396,6 +561,14 @@ public abstract class JobConfigHistoryBaseAction implements Action {
                     return text;
                 }
 
+                /**
+                 * Returns the changed and unchanged parts of the text of a changed line.
+                 * @return segments, null if the whole text is marked as changed.
+                 */
+                public List<IntraLineDiff.Segment> getSegments() {
+                    return segments;
+                }
+
                 /**
                  * Returns the cssClass of the Item.
                  *
@@ -29,12 +29,27 @@ public final class JobConfigHistoryConsts {
     /** name of history xml file. */
     public static final String HISTORY_FILE = "history.xml";
 
+    /** name of the file holding the blame annotations of a history entry, must not end with .xml. */
+    public static final String BLAME_FILE = "blame.txt";
+
+    /** name of the directory a history entry is written to before it is renamed, followed by its timestamp. */
+    public static final String TEMP_ENTRY_PREFIX = ".tmp-";
+
+    /** name of the directory beneath the history root recording the history entries being written. */
+    public static final String JOURNAL_DIR = ".journal";
+
+    /** name of the directory beneath the history root holding the summaries of the items. */
+    public static final String MANIFESTS_DIR = ".manifests";
+
     /** name of history xml file. */
     public static final String DELETED_MARKER = "_deleted_";
 
     /** Default regexp pattern of configuration files not to save. */
     public static final String DEFAULT_EXCLUDE = "queue|nodeMonitors|UpdateCenter|global-build-stats";
 
+    /** Maximum estimated size of all cached diffs in bytes. */
+    public static final long DIFF_CACHE_MAX_BYTES = 16L * 1024 * 1024;
+
     /** Format for timestamped dirs. */
     public static final String ID_FORMATTER = "yyyy-MM-dd_HH-mm-ss-SSS";
 }
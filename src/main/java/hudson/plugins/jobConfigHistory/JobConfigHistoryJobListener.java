@@ -2,14 +2,13 @@ package hudson.plugins.jobConfigHistory;
 
 import static java.util.logging.Level.*;
 import hudson.Extension;
-import hudson.FilePath;
 import hudson.XmlFile;
 import hudson.model.Item;
 import hudson.model.AbstractItem;
 import hudson.model.Hudson;
+import hudson.model.User;
 import hudson.model.listeners.ItemListener;
 
-import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -40,12 +39,28 @@ public final class JobConfigHistoryJobListener extends ItemListener {
     }
 
     @Override
-    public void onUpdated(Item item) {
+    public void onUpdated(final Item item) {
         LOG.finest("In onUpdated for " + item);
-        final XmlFile file = ((AbstractItem) item).getConfigFile();
-        final JobConfigHistory plugin = Hudson.getInstance().getPlugin(JobConfigHistory.class);
-        if (item instanceof AbstractItem && plugin.isSaveableProject(item, file)){
-            ConfigHistoryListenerHelper.CHANGED.createNewHistoryEntry(file);
+        if (item instanceof AbstractItem) {
+            final XmlFile file = ((AbstractItem) item).getConfigFile();
+            // jobs being restored in bulk get a single history entry once they are restored
+            if (BulkRestore.isRestoring(file.getFile())) {
+                LOG.finest("onUpdated: restoring in bulk, skipping history save");
+                return;
+            }
+            final JobConfigHistory plugin = Hudson.getInstance().getPlugin(JobConfigHistory.class);
+            final User user = ConfigHistoryListenerHelper.CHANGED.getCurrentUser();
+            final String historyKey = plugin.getHistoryKey(file);
+            plugin.saveChange(file.getFile(), new Runnable() {
+                public void run() {
+                    // if the item was renamed meanwhile, its config file has moved, but its history
+                    // is kept under the old key until onRenamed moves it
+                    final XmlFile current = ((AbstractItem) item).getConfigFile();
+                    if (historyKey != null && plugin.isSaveableProject(item, current)) {
+                        ConfigHistoryListenerHelper.CHANGED.createNewHistoryEntry(historyKey, current, user);
+                    }
+                }
+            });
         } else {
             LOG.finest("onUpdated: not an AbstractItem, skipping history save");
         }
@@ -64,31 +79,38 @@ public final class JobConfigHistoryJobListener extends ItemListener {
         LOG.log(FINEST, "In onRenamed for {0}{1}", new Object[] {item, onRenameDesc});
         if (item instanceof AbstractItem) {
             final JobConfigHistory plugin = Hudson.getInstance().getPlugin(JobConfigHistory.class);
+            // changes pending under the old name are saved there before the history is moved, reading
+            // the config files from where Jenkins has moved them already
+            plugin.flushPendingChanges();
 
-            // move history items from previous name, if the directory exists
-            // only applies if using a custom root directory for saving history
-            if (plugin.getConfiguredHistoryRootDir() != null) {
-                final File currentHistoryDir = plugin.getHistoryDir(((AbstractItem) item).getConfigFile());
-                final File historyParentDir = currentHistoryDir.getParentFile();
-                final File oldHistoryDir = new File(historyParentDir, oldName);
-                if (oldHistoryDir.exists()) {
-                    final FilePath fp = new FilePath(oldHistoryDir);
+            final String currentItem = plugin.getHistoryKey(((AbstractItem) item).getConfigFile());
+            if (currentItem == null) {
+                return;
+            }
+            final String oldItem = currentItem.substring(0, currentItem.lastIndexOf('/') + 1) + oldName;
+            // no entry may be written between moving the history and the RENAMED entry
+            final HistoryStore.Lock lock = plugin.getHistoryStore().getMoveLock(oldItem, currentItem);
+            lock.lock();
+            try {
+                // move history items from previous name, if the directory exists
+                // only applies if using a custom root directory for saving history
+                if (plugin.getConfiguredHistoryRootDir() != null) {
+                    plugin.getDiffCache().invalidate(plugin.getHistoryDir(oldItem));
                     // catch all exceptions so Hudson can continue with other rename tasks.
                     try {
-                        fp.copyRecursiveTo(new FilePath(currentHistoryDir));
-                        fp.deleteRecursive();
+                        plugin.getHistoryStore().move(oldItem, currentItem);
                         LOG.log(FINEST, "completed move of old history files on rename.{0}", onRenameDesc);
                     } catch (IOException e) {
                         final String ioExceptionStr = "unable to move old history on rename." + onRenameDesc;
                         LOG.log(Level.SEVERE, ioExceptionStr, e);
-                    } catch (InterruptedException e) {
-                        final String irExceptionStr = "interrupted while moving old history on rename." + onRenameDesc;
-                        LOG.log(Level.WARNING, irExceptionStr, e);
                     }
                 }
+                // Must do this after moving old history, in case a CHANGED was fired during the same second
+                // under the old name.
+                ConfigHistoryListenerHelper.RENAMED.createNewHistoryEntry(((AbstractItem) item).getConfigFile());
+            } finally {
+                lock.unlock();
             }
-            // Must do this after moving old history, in case a CHANGED was fired during the same second under the old name.
-            ConfigHistoryListenerHelper.RENAMED.createNewHistoryEntry(((AbstractItem) item).getConfigFile());
         }
         LOG.log(FINEST, "Completed onRename for {0} done.", item);
 //        new Exception("STACKTRACE for double invocation").printStackTrace();
@@ -100,18 +122,29 @@ public final class JobConfigHistoryJobListener extends ItemListener {
         LOG.log(FINEST, "In onDeleted for {0}", item);
         if (item instanceof AbstractItem) {
             final JobConfigHistory plugin = Hudson.getInstance().getPlugin(JobConfigHistory.class);
+            plugin.flushPendingChanges(((AbstractItem) item).getConfigFile().getFile());
             
-            ConfigHistoryListenerHelper.DELETED.createNewHistoryEntry(((AbstractItem) item).getConfigFile());
-            final File currentHistoryDir = plugin.getHistoryDir(((AbstractItem) item).getConfigFile());
-
+            final String currentItem = plugin.getHistoryKey(((AbstractItem) item).getConfigFile());
+            if (currentItem == null) {
+                return;
+            }
             final SimpleDateFormat buildDateFormat = new SimpleDateFormat("yyyyMMdd_HHmmss_SSS");
             final String timestamp = buildDateFormat.format(new Date());
-            final String deletedHistoryName = item.getFullName().replace("/", "/jobs/") 
-                    + JobConfigHistoryConsts.DELETED_MARKER + timestamp;
-            final File deletedHistoryDir = new File(currentHistoryDir.getParentFile(), deletedHistoryName);
-            
-            if (!currentHistoryDir.renameTo(deletedHistoryDir)) {
-                LOG.warning("unable to rename deleted history dir to: " + deletedHistoryDir);
+            final String deletedItem = currentItem + JobConfigHistoryConsts.DELETED_MARKER + timestamp;
+            // no entry may be written between the DELETED entry and moving the history
+            final HistoryStore.Lock lock = plugin.getHistoryStore().getMoveLock(currentItem, deletedItem);
+            lock.lock();
+            try {
+                ConfigHistoryListenerHelper.DELETED.createNewHistoryEntry(((AbstractItem) item).getConfigFile());
+                plugin.getDiffCache().invalidate(plugin.getHistoryDir(currentItem));
+
+                try {
+                    plugin.getHistoryStore().move(currentItem, deletedItem);
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "unable to move deleted history to: " + deletedItem, e);
+                }
+            } finally {
+                lock.unlock();
             }
         }
         LOG.log(FINEST, "onDeleted for {0} done.", item);
@@ -13,7 +13,6 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -68,19 +67,45 @@ public class JobConfigHistoryProjectAction extends JobConfigHistoryBaseAction {
     public final List<ConfigInfo> getJobConfigs() throws IOException {
         checkConfigurePermission();
         final ArrayList<ConfigInfo> configs = new ArrayList<ConfigInfo>();
-        final File historyRootDir = getPlugin().getHistoryDir(project.getConfigFile());
-        if (historyRootDir.exists()) {
-            for (final File historyDir : historyRootDir.listFiles(JobConfigHistory.HISTORY_FILTER)) {
-                final XmlFile historyXml = new XmlFile(new File(historyDir, JobConfigHistoryConsts.HISTORY_FILE));
-                final HistoryDescr histDescr = (HistoryDescr) historyXml.read();
-                final ConfigInfo config = ConfigInfo.create(project, historyDir, histDescr);
-                configs.add(config);
-            }
+        final String item = getPlugin().getHistoryKey(project.getConfigFile());
+        final HistoryStore store = getPlugin().getHistoryStore();
+        for (final String timestamp : store.list(item, null, null, 0, -1)) {
+            final HistoryDescr histDescr = store.readDescr(item, timestamp);
+            final ConfigInfo config = ConfigInfo.create(project, getPlugin().getHistoryEntryDir(item, timestamp),
+                    histDescr);
+            configs.add(config);
         }
         Collections.sort(configs, ConfigInfoComparator.INSTANCE);
         return configs;
     }
 
+    /**
+     * Returns the lines of the newest saved configuration, each annotated with the history entry
+     * which last changed it.
+     *
+     * @return annotated lines, empty if no configuration was saved yet.
+     * @throws IOException
+     *             if a saved configuration or its annotations cannot be read.
+     */
+    public final List<ConfigBlame.Line> getBlameLines() throws IOException {
+        checkConfigurePermission();
+        final String configFileName = project.getConfigFile().getFile().getName();
+        final String item = getPlugin().getHistoryKey(project.getConfigFile());
+        final HistoryStore store = getPlugin().getHistoryStore();
+        if (item == null) {
+            return Collections.emptyList();
+        }
+        final List<String> timestamps = store.list(item, null, null, 0, -1);
+        for (int i = timestamps.size() - 1; i >= 0; i--) {
+            if (configFileName.equals(store.readConfigName(item, timestamps.get(i)))) {
+                final ConfigBlame blame = ConfigBlame.load(store, item, timestamps.get(i), configFileName,
+                        getPlugin().getConfiguredDiffAlgorithm());
+                return blame.annotate(ChangeSizeCalculator.readLines(store.readConfig(item, timestamps.get(i))));
+            }
+        }
+        return Collections.emptyList();
+    }
+
     /**
      * Returns {@link JobConfigHistoryBaseAction#getConfigXml(String)} as
      * String.
@@ -150,6 +175,7 @@ public class JobConfigHistoryProjectAction extends JobConfigHistoryBaseAction {
     /**
      * Takes the two timestamp request parameters and returns the diff between the corresponding
      * config files of this project as a list of single lines.
+     * With the parameter {@code mode=structural} the changed XML elements are returned instead.
      * 
      * @return Differences between two config versions as list of lines.
      * @throws IOException If diff doesn't work or xml files can't be read.
@@ -160,15 +186,8 @@ public class JobConfigHistoryProjectAction extends JobConfigHistoryBaseAction {
         final String timestamp2 = getRequestParameter("timestamp2");
 
         final XmlFile configXml1 = getOldConfigXml(timestamp1);
-        final String[] configXml1Lines = configXml1.asString().split("\\n");
         final XmlFile configXml2 = getOldConfigXml(timestamp2);
-        final String[] configXml2Lines = configXml2.asString().split("\\n");
-        
-        final String diffAsString = getDiffAsString(configXml1.getFile(), configXml2.getFile(),
-                configXml1Lines, configXml2Lines);
-        
-        final List<String> diffLines = Arrays.asList(diffAsString.split("\n"));
-        return getDiffLines(diffLines);
+        return getDiffLinesForMode(configXml1, configXml2);
     }
     
     /**
@@ -180,18 +199,14 @@ public class JobConfigHistoryProjectAction extends JobConfigHistoryBaseAction {
     private XmlFile getOldConfigXml(String timestamp) {
         checkConfigurePermission();
 
-        final String rootDir = getPlugin().getJobHistoryRootDir().getPath() + "/";
         File configFile = null;
         String path = null;
         
         if (checkTimestamp(timestamp)) {
-            if (project instanceof MavenModule) {
-                path = rootDir + ((MavenModule) project).getParent().getFullName().replace("/", "/jobs/") + "/modules/"
-                        + ((MavenModule) project).getModuleName().toFileSystemName() + "/" + timestamp;
-            } else {
-                path = rootDir + project.getFullName().replace("/", "/jobs/") + "/" + timestamp;
-            }
-            configFile = getPlugin().getConfigFile(new File(path));
+            final File historyDir = getPlugin().getHistoryEntryDir(
+                    getPlugin().getHistoryKey(project.getConfigFile()), timestamp);
+            path = historyDir.getPath();
+            configFile = getPlugin().getConfigFile(historyDir);
         }
         
         if (configFile == null) {
@@ -1,18 +1,14 @@
 package hudson.plugins.jobConfigHistory;
 
 import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.WARNING;
 
-import java.io.File;
-import java.text.ParseException;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.logging.Logger;
 
-import jenkins.model.Jenkins;
-
 import org.apache.commons.lang.StringUtils;
 
 import hudson.Extension;
@@ -66,60 +62,28 @@ public class JobConfigHistoryPurger extends PeriodicWork {
      * Performs the actual purge of history entries.
      */
     private void purgeHistoryByAge() {
-        purgeSystemOrJobHistory(plugin.getConfiguredHistoryRootDir().listFiles());
-        purgeSystemOrJobHistory(plugin.getJobHistoryRootDir().listFiles());
-    }
-    
-    /**
-     * Traverse directories in order to find files which are too old.
-     * @param itemDirs Config history directories as file arrays.
-     */
-    private void purgeSystemOrJobHistory(File[] itemDirs) {
-        final JobConfigHistory plugin = Jenkins.getInstance().getPlugin(JobConfigHistory.class);
-        
-        if (itemDirs != null && itemDirs.length > 0) {
-            for (File itemDir : itemDirs) {
-                //itemDir: z.B. Test2 or hudson.tasks.Ant
-                final File[] historyDirs = itemDir.listFiles(JobConfigHistory.HISTORY_FILTER);
-                if (historyDirs != null) {
-                    Arrays.sort(historyDirs);
-                    for (File historyDir : historyDirs) {
-                        //historyDir: e.g. 2013-01-18_17-33-51
-                        if (isTooOld(historyDir)) {
-                            LOG.log(FINE, "Should delete: {0}", historyDir);
-                            plugin.deleteDirectory(historyDir);
-                        } else {
-                            break;
-                        }
+        final HistoryStore store = plugin.getHistoryStore();
+        final Calendar oldestAllowedDate = new GregorianCalendar();
+        oldestAllowedDate.add(Calendar.DAY_OF_YEAR, -maxAge);
+        final String oldestAllowed = new SimpleDateFormat(JobConfigHistoryConsts.ID_FORMATTER).format(
+                oldestAllowedDate.getTime());
+        try {
+            for (final String item : store.items("")) {
+                //item: e.g. jobs/Test2 or hudson.tasks.Ant
+                final HistoryStore.Lock lock = store.getLock(item);
+                lock.lock();
+                try {
+                    for (final String timestamp : store.list(item, null, oldestAllowed, 0, -1)) {
+                        //timestamp: e.g. 2013-01-18_17-33-51
+                        LOG.log(FINE, "Should delete: {0}/{1}", new Object[] {item, timestamp});
+                        plugin.deleteEntry(item, timestamp);
                     }
+                } finally {
+                    lock.unlock();
                 }
             }
+        } catch (IOException e) {
+            LOG.log(WARNING, "Unable to purge history by age", e);
         }
     }
-    
-    /**
-     * Checks if the history directory is too old by parsing its name as a date
-     * and comparing it to the current date minus the maximal allowed age in days.
-     * @param historyDir The history directory, e.g. 2013-01-18_17-33-51
-     * @return True if it is too old.
-     */
-    private boolean isTooOld(File historyDir) {
-        Date parsedDate = null;
-        final SimpleDateFormat dateParser = new SimpleDateFormat(JobConfigHistoryConsts.ID_FORMATTER);
-        try {
-            parsedDate = dateParser.parse(historyDir.getName());
-        } catch (ParseException ex) {
-            LOG.warning("Unable to parse Date: " + ex);
-        }
-        final Calendar historyDate = new GregorianCalendar();
-        if (parsedDate != null) {
-            historyDate.setTime(parsedDate);
-            final Calendar oldestAllowedDate = new GregorianCalendar();
-            oldestAllowedDate.add(Calendar.DAY_OF_YEAR, -maxAge);
-            if (historyDate.before(oldestAllowedDate)) {
-                return true;
-            }
-        }
-        return false;
-    }
 }
\ No newline at end of file
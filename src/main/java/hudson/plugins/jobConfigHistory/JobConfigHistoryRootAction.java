@@ -2,28 +2,41 @@ package hudson.plugins.jobConfigHistory;
 
 import java.io.ByteArrayInputStream;
 import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.WARNING;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import javax.servlet.ServletException;
 
+import jenkins.model.Jenkins;
+import jenkins.model.ModifiableTopLevelItemGroup;
+
+import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 
 import hudson.Extension;
-import hudson.FilePath;
 import hudson.XmlFile;
+import hudson.model.AbstractItem;
 import hudson.model.AbstractProject;
 import hudson.model.Item;
 import hudson.model.RootAction;
+import hudson.model.User;
 import hudson.plugins.jobConfigHistory.JobConfigHistoryBaseAction.SideBySideView.Line;
 import hudson.security.AccessControlled;
 import hudson.security.Permission;
@@ -40,6 +53,19 @@ public class JobConfigHistoryRootAction extends JobConfigHistoryBaseAction imple
 
     /** Our logger. */
     private static final Logger LOG = Logger.getLogger(JobConfigHistoryRootAction.class.getName());
+
+    /** Value of a timestamp parameter selecting the live config of an existing item. */
+    public static final String CURRENT = "current";
+
+    /** Length of the time window of the change report in hours if no start is given. */
+    static final int DEFAULT_REPORT_HOURS = 2;
+
+    /** The last bulk restore started, null if there was none. */
+    private static volatile BulkRestore bulkRestore;
+
+    /** Valid bounds of the time window of the change report: timestamps or prefixes of them. */
+    private static final Pattern REPORT_BOUND = Pattern.compile(
+            "\\d{4}-\\d{2}-\\d{2}(_\\d{2}(-\\d{2}(-\\d{2}(-\\d{3})?)?)?)?");
     
     /**
      * Constructor necessary for testing.
@@ -97,6 +123,59 @@ public class JobConfigHistoryRootAction extends JobConfigHistoryBaseAction imple
             configs = getJobConfigs(filter);
         }
         
+        Collections.sort(configs, ConfigInfoComparator.INSTANCE);
+        return collapseChangesets(configs);
+    }
+
+    /**
+     * Replaces the entries of each changeset by its newest entry standing for the whole changeset,
+     * so mass updates do not flood the overview page.
+     *
+     * @param configs the entries, newest first.
+     * @return the entries with one entry per changeset, newest first.
+     */
+    static List<ConfigInfo> collapseChangesets(List<ConfigInfo> configs) {
+        final List<ConfigInfo> collapsed = new ArrayList<ConfigInfo>();
+        final Map<String, ConfigInfo> changesets = new HashMap<String, ConfigInfo>();
+        for (final ConfigInfo config : configs) {
+            final String changeset = config.getChangeset();
+            if (changeset == null) {
+                collapsed.add(config);
+                continue;
+            }
+            final ConfigInfo newest = changesets.get(changeset);
+            if (newest == null) {
+                changesets.put(changeset, config);
+                collapsed.add(config);
+            } else {
+                newest.setChangesetSize(newest.getChangesetSize() + 1);
+            }
+        }
+        return collapsed;
+    }
+
+    /**
+     * Returns the job and system configuration history entries of the changeset given by the url
+     * parameter {@code id}.
+     *
+     * @return list of configuration histories (as ConfigInfo), newest first.
+     * @throws IOException
+     *             if one of the history entries might not be read.
+     */
+    public final List<ConfigInfo> getChangesetConfigs() throws IOException {
+        final String id = getRequestParameter("id");
+        final List<ConfigInfo> configs = new ArrayList<ConfigInfo>();
+        if (id == null) {
+            return configs;
+        }
+        final List<ConfigInfo> all = getJobConfigs("jobs");
+        all.addAll(getJobConfigs("deleted"));
+        all.addAll(getSystemConfigs());
+        for (final ConfigInfo config : all) {
+            if (id.equals(config.getChangeset())) {
+                configs.add(config);
+            }
+        }
         Collections.sort(configs, ConfigInfoComparator.INSTANCE);
         return configs;
     }
@@ -111,28 +190,18 @@ public class JobConfigHistoryRootAction extends JobConfigHistoryBaseAction imple
      */
     protected List<ConfigInfo> getSystemConfigs() throws IOException {
         final ArrayList<ConfigInfo> configs = new ArrayList<ConfigInfo>();
-        final File historyRootDir = getPlugin().getConfiguredHistoryRootDir();
         
         if (!hasConfigurePermission()) {
             return configs;
         }
 
-        if (!historyRootDir.isDirectory()) {
-            LOG.log(FINE, "{0} is not a directory, assuming that no history exists yet.", historyRootDir);
-        } else {
-            final File[] itemDirs = historyRootDir.listFiles();
-            for (final File itemDir : itemDirs) {
-                //skip the "jobs" directory since we're looking for system changes
-                if (itemDir.getName().equals(JobConfigHistoryConsts.JOBS_HISTORY_DIR)) {
-                    continue;
-                }
-                for (final File historyDir : itemDir.listFiles(JobConfigHistory.HISTORY_FILTER)) {
-                    final XmlFile historyXml = new XmlFile(new File(historyDir, JobConfigHistoryConsts.HISTORY_FILE));
-                    final HistoryDescr histDescr = (HistoryDescr) historyXml.read();
-                    final ConfigInfo config = ConfigInfo.create(itemDir.getName(), historyDir, histDescr, false);
-                    configs.add(config);
-                }
+        final HistoryStore store = getPlugin().getHistoryStore();
+        for (final String item : store.items("")) {
+            //skip the jobs since we're looking for system changes
+            if (item.startsWith(FileHistoryStore.JOBS_PREFIX)) {
+                continue;
             }
+            addConfigs(configs, store, item, item, store.list(item, null, null, 0, -1), false);
         }
         return configs; 
     }
@@ -148,44 +217,25 @@ public class JobConfigHistoryRootAction extends JobConfigHistoryBaseAction imple
      */
     protected List<ConfigInfo> getJobConfigs(String type) throws IOException {
         final ArrayList<ConfigInfo> configs = new ArrayList<ConfigInfo>();
-        final File historyRootDir = getPlugin().getJobHistoryRootDir();
         
         if (!hasJobConfigurePermission()) {
             return configs;
         }
 
-        if (!historyRootDir.isDirectory()) {
-            LOG.log(FINE, "{0} is not a directory, assuming that no history exists yet.", historyRootDir);
-        } else {
-            addConfigs(configs, type, historyRootDir, "");
-        }
-        return configs; 
-    }
-
-    /**
-     * Adds ConfigInfos to Collection, recurses into Cloudbees plugin folders (thanks to Jesse Glick).
-     * @param configs Collection of ConfigInfos that configs are added to.
-     * @param type 'created', 'deleted' or 'jobs'
-     * @param rootDir The config history rootDir as File.
-     * @param prefix Something Jesse Glick came up with but never documented.
-     * @throws IOException If one of the entries cannot be read.
-     */
-    private void addConfigs(Collection<ConfigInfo> configs, String type, File rootDir, String prefix) throws IOException {
-        final File[] itemDirs;
-        if ("deleted".equals(type)) {
-            itemDirs = rootDir.listFiles(JobConfigHistory.DELETED_FILTER);
-        } else {
-            itemDirs = rootDir.listFiles();
-        }
-        for (final File itemDir : itemDirs) {
-            configs.addAll(getConfigsForType(type, itemDir, prefix));
-
-            final File jobs = new File(itemDir, JobConfigHistoryConsts.JOBS_HISTORY_DIR);
-            if (jobs.isDirectory()) {
-                // Recurse into folders.
-                addConfigs(configs, type, jobs, prefix + itemDir.getName() + "/");
+        final HistoryStore store = getPlugin().getHistoryStore();
+        for (final String item : store.items(FileHistoryStore.JOBS_PREFIX)) {
+            final String path = item.substring(FileHistoryStore.JOBS_PREFIX.length());
+            // jobs and jobs in Cloudbees plugin folders (thanks to Jesse Glick), but no modules
+            final String[] segments = path.split("/");
+            boolean inFolders = true;
+            for (int i = 1; i < segments.length; i += 2) {
+                inFolders &= segments[i].equals(JobConfigHistoryConsts.JOBS_HISTORY_DIR);
+            }
+            if (inFolders) {
+                configs.addAll(getConfigsForType(type, store, item, path));
             }
         }
+        return configs; 
     }
 
     /**
@@ -194,96 +244,122 @@ public class JobConfigHistoryRootAction extends JobConfigHistoryBaseAction imple
      * 'deleted' and 'created' only show the last or the first one respectively.  
      * 
      * @param type 'created', 'deleted' or 'jobs'
-     * @param itemDir The job directory as File
-     * @param prefix Something Jesse Glick came up with but never documented.
+     * @param store The store holding the history.
+     * @param item The key of the history of the job.
+     * @param path The path of the job below the job history root, e.g. folder/jobs/job.
      * @return List of ConfigInfo, may be empty
      * @throws IOException If one of the entries cannot be read.
      */
-    private List<ConfigInfo> getConfigsForType(String type, File itemDir, String prefix) throws IOException {
+    private List<ConfigInfo> getConfigsForType(String type, HistoryStore store, String item, String path)
+        throws IOException {
         final ArrayList<ConfigInfo> configs = new ArrayList<ConfigInfo>();
+        final String itemName = path.substring(path.lastIndexOf('/') + 1);
+        final boolean deleted = itemName.contains(JobConfigHistoryConsts.DELETED_MARKER);
+        final String name = path.replace("/" + JobConfigHistoryConsts.JOBS_HISTORY_DIR + "/", "/");
 
-        final File[] historyDirs = itemDir.listFiles(JobConfigHistory.HISTORY_FILTER);
-        if (historyDirs.length == 0) {
-            return configs;
-        }
-        Arrays.sort(historyDirs, new FileNameComparator());
-        
         if ("created".equals(type)) {
-            if (itemDir.getName().contains(JobConfigHistoryConsts.DELETED_MARKER)) {
+            if (deleted) {
                 return configs;
             }
-            final File historyDir = historyDirs[0];
-            final HistoryDescr histDescr = readHistoryXml(historyDir);
-            if ("Created".equals(histDescr.getOperation())) {
-                final ConfigInfo config = ConfigInfo.create(itemDir.getName(), historyDir, histDescr, true);
-                configs.add(config);
+            final HistoryManifest manifest = store.summarize(item);
+            if (manifest.isFirstCreated()) {
+                addConfigs(configs, store, item, itemName, Collections.singletonList(manifest.getFirst()), true);
             }
         } else if ("deleted".equals(type)) {
-            final File historyDir = historyDirs[historyDirs.length - 1];
-            final HistoryDescr histDescr = readHistoryXml(historyDir);
-            if ("Deleted".equals(histDescr.getOperation())) {
-                final ConfigInfo config = ConfigInfo.create(itemDir.getName(), historyDir, histDescr, false);
-                configs.add(config);
+            if (!deleted) {
+                return configs;
             }
-        } else {
-            for (final File historyDir : historyDirs) {
-                final ConfigInfo config;
-                final HistoryDescr histDescr = readHistoryXml(historyDir);
-                if (!itemDir.getName().contains(JobConfigHistoryConsts.DELETED_MARKER)) {
-                    config = ConfigInfo.create(prefix + itemDir.getName(), historyDir, histDescr, true);
-                } else {
-                    config = ConfigInfo.create(prefix + itemDir.getName(), historyDir, histDescr, false);
-                }
-                configs.add(config);
+            final HistoryManifest manifest = store.summarize(item);
+            if (manifest.isLastDeleted()) {
+                // jobs deleted from folders are shown with the folders, see getDeletedItemKey
+                addConfigs(configs, store, item, name, Collections.singletonList(manifest.getLast()), false);
             }
+        } else {
+            addConfigs(configs, store, item, name, store.list(item, null, null, 0, -1), !deleted);
         }
 
         return configs;
     }
-    
+
     /**
-     * Extract HistoryDescriptor from history directory.
-     * @param historyDir History directory as File. (e.g. 2013-10-10_00-08-15)
-     * @return History descriptor
-     * @throws IOException If xml file cannot be read.
+     * Adds ConfigInfos for history entries to a collection.
+     * @param configs Collection of ConfigInfos that configs are added to.
+     * @param store The store holding the history.
+     * @param item The key of the history.
+     * @param name The name shown for the entries.
+     * @param timestamps The timestamps of the entries.
+     * @param isJob Whether the entries are shown as entries of an existing job.
+     * @throws IOException If one of the entries cannot be read.
      */
-    private HistoryDescr readHistoryXml(File historyDir) throws IOException {
-        final XmlFile historyXml = new XmlFile(new File(historyDir, JobConfigHistoryConsts.HISTORY_FILE));
-        return (HistoryDescr) historyXml.read();
+    private void addConfigs(Collection<ConfigInfo> configs, HistoryStore store, String item, String name,
+            List<String> timestamps, boolean isJob) throws IOException {
+        for (final String timestamp : timestamps) {
+            final HistoryDescr histDescr = store.readDescr(item, timestamp);
+            configs.add(ConfigInfo.create(name, getPlugin().getHistoryEntryDir(item, timestamp), histDescr, isJob));
+        }
     }
     
     /**
      * Returns the configuration history entries for one group of system files
      * or deleted jobs.
      * 
-     * @param name The name of the job or system file
+     * @param name The name of the job or system file, for jobs deleted from folders including the folders
      * @return Configs list for one group of system configuration files or a deleted job.
      * @throws IOException
      *             if one of the history entries might not be read.
      */
     public final List<ConfigInfo> getSingleConfigs(String name) throws IOException {
         final ArrayList<ConfigInfo> configs = new ArrayList<ConfigInfo>();
-        final File historyRootDir;
+        if (name.length() == 0 || name.contains("\\") || name.startsWith(".")) {
+            return configs;
+        }
+        final String item;
         if (name.contains(JobConfigHistoryConsts.DELETED_MARKER)) {
-            historyRootDir = getPlugin().getJobHistoryRootDir();
+            item = getDeletedItemKey(name);
+        } else if (!name.contains("/")) {
+            item = name;
         } else {
-            historyRootDir = getPlugin().getConfiguredHistoryRootDir();
+            item = null;
         }
-
-        for (final File itemDir : historyRootDir.listFiles()) {
-            if (itemDir.getName().equals(name)) {
-                for (final File historyDir : itemDir.listFiles(JobConfigHistory.HISTORY_FILTER)) {
-                    final XmlFile historyXml = new XmlFile(new File(historyDir, JobConfigHistoryConsts.HISTORY_FILE));
-                    final HistoryDescr histDescr = (HistoryDescr) historyXml.read();
-                    final ConfigInfo config = ConfigInfo.create(itemDir.getName(), historyDir, histDescr, false);
-                    configs.add(config);
-                }
-            }
+        if (item == null) {
+            return configs;
         }
+
+        final HistoryStore store = getPlugin().getHistoryStore();
+        addConfigs(configs, store, item, name, store.list(item, null, null, 0, -1), false);
         Collections.sort(configs, ConfigInfoComparator.INSTANCE);
         return configs;
     }
 
+    /**
+     * Returns the history key of a deleted job from its name as shown on the overview, where jobs
+     * deleted from folders are prefixed with the full name of the folder, e.g.
+     * {@code folder/job_deleted_20130118_173351_000} for the key
+     * {@code jobs/folder/jobs/job_deleted_20130118_173351_000}.
+     *
+     * @param name The name of a deleted job.
+     * @return The key or null if the name does not end with the name of a deleted job or holds
+     *         empty, hidden or backslashed segments.
+     */
+    static String getDeletedItemKey(String name) {
+        final String[] segments = name.split("/", -1);
+        if (!segments[segments.length - 1].contains(JobConfigHistoryConsts.DELETED_MARKER)) {
+            return null;
+        }
+        final StringBuilder key = new StringBuilder(FileHistoryStore.JOBS_PREFIX);
+        for (int i = 0; i < segments.length; i++) {
+            final String segment = segments[i];
+            if (segment.length() == 0 || segment.startsWith(".") || segment.contains("\\")) {
+                return null;
+            }
+            if (i > 0) {
+                key.append('/').append(JobConfigHistoryConsts.JOBS_HISTORY_DIR).append('/');
+            }
+            key.append(segment);
+        }
+        return key.toString();
+    }
+
     /**
      * Returns {@link JobConfigHistoryBaseAction#getConfigXml(String)} as
      * String.
@@ -393,6 +469,7 @@ public class JobConfigHistoryRootAction extends JobConfigHistoryBaseAction imple
      * Returns the diff between two config files as a list of single lines.
      * Takes the two timestamps and the name of the system property 
      * or the deleted job from the url parameters.
+     * With the parameter {@code mode=structural} the changed XML elements are returned instead.
      * 
      * @return Differences between two config versions as list of lines.
      * @throws IOException If diff doesn't work or xml files can't be read.
@@ -405,20 +482,347 @@ public class JobConfigHistoryRootAction extends JobConfigHistoryBaseAction imple
             final String timestamp2 = getRequestParameter("timestamp2");
 
             final XmlFile configXml1 = getOldConfigXml(name, timestamp1);
-            final String[] configXml1Lines = configXml1.asString().split("\\n");
             final XmlFile configXml2 = getOldConfigXml(name, timestamp2);
-            final String[] configXml2Lines = configXml2.asString().split("\\n");
-            
-            final String diffAsString = getDiffAsString(configXml1.getFile(), configXml2.getFile(),
-                    configXml1Lines, configXml2Lines);
-            
-            final List<String> diffLines = Arrays.asList(diffAsString.split("\n"));
-            return getDiffLines(diffLines);
+            return getDiffLinesForMode(configXml1, configXml2);
         } else {
             return Collections.emptyList();
         }
     }
     
+    /**
+     * Returns the diff between the configs of any two items as a list of single lines, e.g. between
+     * a template job and a job created from it. Takes the parameters {@code name1}, {@code timestamp1},
+     * {@code name2} and {@code timestamp2} from the url, see {@link #getAnyConfigXml(String, String)}.
+     * With the parameter {@code mode=structural} the changed XML elements are returned instead.
+     *
+     * @return Differences between the two configs as list of lines.
+     * @throws IOException If diff doesn't work or xml files can't be read.
+     */
+    public final List<Line> getCrossDiffLines() throws IOException {
+        final XmlFile configXml1 = getAnyConfigXml(getRequestParameter("name1"), getRequestParameter("timestamp1"));
+        final XmlFile configXml2 = getAnyConfigXml(getRequestParameter("name2"), getRequestParameter("timestamp2"));
+        if (configXml1 == null || configXml2 == null) {
+            return Collections.emptyList();
+        }
+        return getDiffLinesForMode(configXml1, configXml2);
+    }
+
+    /**
+     * Compares the config given by the url parameters {@code name1} and {@code timestamp1} against
+     * the live configs of the jobs listed in the parameter {@code names}, separated by commas or
+     * whitespace, or of all jobs if the parameter is empty. The comparisons run in parallel.
+     * Jobs the current user may not configure are skipped.
+     *
+     * @return number of added and removed lines per compared job.
+     * @throws IOException If the base config cannot be read.
+     */
+    public final List<CrossItemDiff.Result> getCrossDiffResults() throws IOException {
+        final String baseName = getRequestParameter("name1");
+        final String baseTimestamp = getRequestParameter("timestamp1");
+        final XmlFile baseXml = getAnyConfigXml(baseName, baseTimestamp);
+        if (baseXml == null) {
+            return Collections.emptyList();
+        }
+        final List<AbstractItem> items = new ArrayList<AbstractItem>();
+        final String names = getRequestParameter("names");
+        if (names == null || names.trim().isEmpty()) {
+            items.addAll(getHudson().getAllItems(AbstractProject.class));
+        } else {
+            for (final String name : names.trim().split("[,\\s]+")) {
+                final AbstractItem item = getHudson().getItemByFullName(name, AbstractItem.class);
+                if (item != null) {
+                    items.add(item);
+                }
+            }
+        }
+        final List<CrossItemDiff.Target> targets = new ArrayList<CrossItemDiff.Target>(items.size());
+        for (final AbstractItem item : items) {
+            final boolean isBase = item.getFullName().equals(baseName) && CURRENT.equals(baseTimestamp);
+            if (!isBase && item.hasPermission(Item.CONFIGURE)) {
+                targets.add(new CrossItemDiff.Target(item.getFullName(), CURRENT, item.getConfigFile().getFile()));
+            }
+        }
+        return CrossItemDiff.compare(baseXml.getFile(), targets, getPlugin().getConfiguredDiffAlgorithm());
+    }
+
+    /**
+     * Gets the config of any item: a saved revision of an existing job, a system config or a deleted
+     * job, or with the timestamp {@link #CURRENT} the live config of an existing job.
+     *
+     * @param name The full name of a job, the name of a system property or of a deleted job.
+     * @param timestamp The timestamp as String or {@link #CURRENT}.
+     * @return The config file as XmlFile or null if there is none.
+     */
+    protected XmlFile getAnyConfigXml(String name, String timestamp) {
+        if (name == null) {
+            return null;
+        }
+        if (name.contains("..")) {
+            throw new IllegalArgumentException("Invalid directory name because of '..': " + name);
+        }
+        final AbstractItem item = getHudson().getItemByFullName(name, AbstractItem.class);
+        if (CURRENT.equals(timestamp)) {
+            if (item == null) {
+                return null;
+            }
+            item.checkPermission(Item.CONFIGURE);
+            return item.getConfigFile();
+        }
+        if (!checkParameters(name, timestamp)) {
+            return null;
+        }
+        if (item != null) {
+            item.checkPermission(Item.CONFIGURE);
+            final File historyDir = getPlugin().getHistoryEntryDir(
+                    getPlugin().getHistoryKey(item.getConfigFile()), timestamp);
+            final File configFile = getPlugin().getConfigFile(historyDir);
+            return configFile == null ? null : new XmlFile(configFile);
+        }
+        if (name.contains(JobConfigHistoryConsts.DELETED_MARKER)) {
+            getAccessControlledObject().checkPermission(Item.CONFIGURE);
+        }
+        return getOldConfigXml(name, timestamp);
+    }
+
+    /**
+     * Returns the start of the time window of the change report: the url parameter {@code from} or
+     * {@link #DEFAULT_REPORT_HOURS} hours (or the url parameter {@code hours}) before now.
+     *
+     * @return the first timestamp or a prefix of it, inclusive.
+     */
+    public final String getChangeReportFrom() {
+        final String from = getRequestParameter("from");
+        if (from != null && from.length() > 0) {
+            return checkReportBound(from);
+        }
+        final String hours = getRequestParameter("hours");
+        final int hoursBack = hours == null || hours.length() == 0 ? DEFAULT_REPORT_HOURS : Integer.parseInt(hours);
+        return new SimpleDateFormat(JobConfigHistoryConsts.ID_FORMATTER).format(
+                new Date(System.currentTimeMillis() - hoursBack * 3600000L));
+    }
+
+    /**
+     * Returns the end of the time window of the change report, the url parameter {@code to}.
+     *
+     * @return the last timestamp or a prefix of it, exclusive, null for no upper bound.
+     */
+    public final String getChangeReportTo() {
+        final String to = getRequestParameter("to");
+        return to == null || to.length() == 0 ? null : checkReportBound(to);
+    }
+
+    /**
+     * @param bound a bound of the time window.
+     * @return the bound.
+     * @throws IllegalArgumentException if the bound is neither a timestamp nor a prefix of one.
+     */
+    private static String checkReportBound(String bound) {
+        if (bound == null || !REPORT_BOUND.matcher(bound).matches()) {
+            throw new IllegalArgumentException("Not a timestamp like 2013-01-18_17-33: " + bound);
+        }
+        return bound;
+    }
+
+    /**
+     * Returns all changes of configs within the time window given by the url parameters, see
+     * {@link #getChangeReportFrom()} and {@link #getChangeReportTo()}. Only the configs the current user
+     * may see are included. The diffs are computed in parallel while iterating.
+     *
+     * @return the changes in chronological order.
+     * @throws IOException if the history cannot be read.
+     */
+    public final Iterator<ChangeReport.Entry> getChangeReport() throws IOException {
+        return getChangeReport(getChangeReportFrom(), getChangeReportTo());
+    }
+
+    /**
+     * Returns all changes of configs the current user may see within a time window.
+     *
+     * @param from the first timestamp or a prefix of it, inclusive.
+     * @param to the last timestamp or a prefix of it, exclusive, null for no upper bound.
+     * @return the changes in chronological order.
+     * @throws IOException if the history cannot be read.
+     */
+    private Iterator<ChangeReport.Entry> getChangeReport(String from, String to) throws IOException {
+        final List<ChangeReport.Candidate> candidates = new ArrayList<ChangeReport.Candidate>();
+        if (hasConfigurePermission()) {
+            ChangeReport.findSystemCandidates(getPlugin().getHistoryStore(), from, to, candidates);
+        }
+        if (hasJobConfigurePermission()) {
+            ChangeReport.findJobCandidates(getPlugin().getHistoryStore(), from, to, candidates);
+        }
+        ChangeReport.sort(candidates);
+        return ChangeReport.entries(candidates, getPlugin().getConfiguredDiffAlgorithm());
+    }
+
+    /**
+     * Streams the change report as downloadable unified diff text.
+     *
+     * @param req incoming request
+     * @param rsp outgoing response
+     * @throws IOException if writing the response fails.
+     */
+    public final void doChangeReportText(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        final String from = getChangeReportFrom();
+        final String to = getChangeReportTo();
+        final Iterator<ChangeReport.Entry> entries = getChangeReport(from, to);
+        rsp.setContentType("text/plain;charset=UTF-8");
+        rsp.setHeader("Content-Disposition", "attachment; filename=\"changes-" + from
+                + (to == null ? "" : "-" + to) + ".diff\"");
+        final PrintWriter out = rsp.getWriter();
+        ChangeReport.writeText(entries, out);
+        out.close();
+    }
+
+    /**
+     * Streams the job and system configs as they were at the time given by the url parameter
+     * {@code timestamp} as zip archive. Only the configs the current user may see are included.
+     *
+     * @param req incoming request
+     * @param rsp outgoing response
+     * @throws IOException if the archive cannot be written.
+     */
+    public final void doConfigsAsOf(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        final String timestamp = checkReportBound(req.getParameter("timestamp"));
+        final List<PointInTimeArchive.Member> members = PointInTimeArchive.scan(getPlugin().getHistoryStore(),
+                hasConfigurePermission(), hasJobConfigurePermission(), timestamp);
+        rsp.setContentType("application/zip");
+        rsp.setHeader("Content-Disposition", "attachment; filename=\"configs-as-of-" + timestamp + ".zip\"");
+        final OutputStream out = rsp.getOutputStream();
+        PointInTimeArchive.write(members, out);
+        out.close();
+    }
+
+    /**
+     * Returns the jobs selected for a bulk restore by the url parameters together with their last
+     * revision at or before the timestamp given by {@code before}. Jobs are selected by the full
+     * name of a {@code folder}, by a regular expression {@code pattern} matching their full name, or
+     * by a {@code user} who changed them since the timestamp {@code since}, which defaults to
+     * {@code before}; all given criteria have
+     * to match. Without any criterion or with an invalid {@code pattern} no job is selected. Jobs the
+     * current user may not configure, jobs without a revision before the timestamp and jobs whose
+     * history cannot be read are left out.
+     *
+     * @return the jobs to restore.
+     */
+    public final List<BulkRestore.Target> getBulkRestoreTargets() {
+        final String before = getRequestParameter("before");
+        final String folder = StringUtils.isBlank(getRequestParameter("folder")) ? null
+                : getRequestParameter("folder").trim();
+        final Pattern pattern;
+        try {
+            pattern = getBulkRestorePattern();
+        } catch (PatternSyntaxException e) {
+            return new ArrayList<BulkRestore.Target>();
+        }
+        final String user = StringUtils.isBlank(getRequestParameter("user")) ? null
+                : getRequestParameter("user").trim();
+        final List<BulkRestore.Target> targets = new ArrayList<BulkRestore.Target>();
+        if (StringUtils.isBlank(before) || (folder == null && pattern == null && user == null)) {
+            return targets;
+        }
+        checkReportBound(before);
+        final String since = StringUtils.isBlank(getRequestParameter("since")) ? before
+                : checkReportBound(getRequestParameter("since").trim());
+        final HistoryStore store = getPlugin().getHistoryStore();
+        for (final AbstractProject<?, ?> project : getHudson().getAllItems(AbstractProject.class)) {
+            final String fullName = project.getFullName();
+            if (folder != null && !fullName.startsWith(folder + "/")
+                    || pattern != null && !pattern.matcher(fullName).matches()
+                    || !project.hasPermission(Item.CONFIGURE)) {
+                continue;
+            }
+            final String item = getPlugin().getHistoryKey(project.getConfigFile());
+            try {
+                if (item == null || user != null && !isChangedBy(store, item, user, since)) {
+                    continue;
+                }
+                final String timestamp = PointInTimeArchive.findEntry(store, item, before);
+                if (timestamp != null) {
+                    targets.add(new BulkRestore.Target(project, store, item, timestamp));
+                }
+            } catch (IOException e) {
+                LOG.log(WARNING, "Unable to read the history of " + fullName, e);
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * Returns why the url parameter {@code pattern} of a bulk restore is not a valid regular expression.
+     *
+     * @return the description of the syntax error, null if the pattern is valid or not given.
+     */
+    public final String getBulkRestorePatternError() {
+        try {
+            getBulkRestorePattern();
+            return null;
+        } catch (PatternSyntaxException e) {
+            return e.getDescription();
+        }
+    }
+
+    /**
+     * @return the url parameter {@code pattern} of a bulk restore, null if it is not given.
+     * @throws PatternSyntaxException if the parameter is not a valid regular expression.
+     */
+    private Pattern getBulkRestorePattern() {
+        final String pattern = getRequestParameter("pattern");
+        return StringUtils.isBlank(pattern) ? null : Pattern.compile(pattern.trim());
+    }
+
+    /**
+     * @param store the history store.
+     * @param item the key of the history of a job.
+     * @param userID id of a user.
+     * @param since a timestamp or a prefix of it.
+     * @return true if the user changed the job at or after the timestamp.
+     * @throws IOException if the entries of the job cannot be listed.
+     */
+    private boolean isChangedBy(HistoryStore store, String item, String userID, String since) throws IOException {
+        for (final String timestamp : store.list(item, since, null, 0, -1)) {
+            try {
+                final HistoryDescr descr = store.readDescr(item, timestamp);
+                if (descr != null && userID.equals(descr.getUserID())) {
+                    return true;
+                }
+            } catch (IOException e) {
+                LOG.log(FINE, "Unable to read " + item + "/" + timestamp, e);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the last bulk restore started, to show its progress.
+     *
+     * @return the bulk restore or null if there was none.
+     */
+    public final BulkRestore getBulkRestore() {
+        return bulkRestore;
+    }
+
+    /**
+     * Starts restoring the jobs selected by the request parameters, see
+     * {@link #getBulkRestoreTargets()}, unless a bulk restore is still running, and redirects to the
+     * progress page. The jobs are restored with the authentication of the current user.
+     *
+     * @param req incoming request
+     * @param rsp outgoing response
+     * @throws IOException if the redirect fails.
+     */
+    public final synchronized void doStartBulkRestore(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        getAccessControlledObject().checkPermission(Item.CONFIGURE);
+        final BulkRestore running = bulkRestore;
+        if (running == null || running.isFinished()) {
+            final BulkRestore restore = new BulkRestore(getBulkRestoreTargets(), req.getParameter("before"),
+                    User.current(), Jenkins.getAuthentication());
+            bulkRestore = restore;
+            restore.start();
+        }
+        rsp.sendRedirect("bulkRestore");
+    }
+
     /**
      * Gets the version of the config.xml that was saved at a certain time.
      * 
@@ -428,19 +832,22 @@ public class JobConfigHistoryRootAction extends JobConfigHistoryBaseAction imple
      */
     protected XmlFile getOldConfigXml(String name, String timestamp) {
         final JobConfigHistory plugin = getPlugin();
-        final String rootDir;
+        final String item;
         File configFile = null;
         String path = null;
 
         if (checkParameters(name, timestamp)) {
             if (name.contains(JobConfigHistoryConsts.DELETED_MARKER)) {
-                rootDir = plugin.getJobHistoryRootDir().getPath();
+                item = getDeletedItemKey(name);
             } else {
-                rootDir = plugin.getConfiguredHistoryRootDir().getPath();
+                item = name;
                 checkConfigurePermission();
             }
-            path = rootDir + "/" + name + "/" + timestamp;
-            configFile = plugin.getConfigFile(new File(path));
+            if (item != null) {
+                final File historyDir = plugin.getHistoryEntryDir(item, timestamp);
+                path = historyDir.getPath();
+                configFile = plugin.getConfigFile(historyDir);
+            }
         }
 
         if (configFile == null) {
@@ -470,7 +877,8 @@ public class JobConfigHistoryRootAction extends JobConfigHistoryBaseAction imple
     }
     
     /**
-     * Action when 'restore' button is pressed: Restore deleted project.
+     * Action when 'restore' button is pressed: Restore deleted project, into its folder if it was
+     * deleted from a folder.
      * 
      * @param req Incoming StaplerRequest
      * @param rsp Outgoing StaplerResponse
@@ -480,13 +888,25 @@ public class JobConfigHistoryRootAction extends JobConfigHistoryBaseAction imple
         getAccessControlledObject().checkPermission(AbstractProject.CONFIGURE);
 
         final String deletedName = req.getParameter("name");
-        final String newName = deletedName.split("_deleted_") [0];
+        final int slash = deletedName.lastIndexOf('/');
+        final String newName = deletedName.substring(slash + 1).split("_deleted_") [0];
+        final ModifiableTopLevelItemGroup parent;
+        if (slash < 0) {
+            parent = getHudson();
+        } else {
+            final Item folder = getHudson().getItemByFullName(deletedName.substring(0, slash));
+            if (!(folder instanceof ModifiableTopLevelItemGroup)) {
+                throw new IllegalArgumentException("No folder to restore " + deletedName + " into");
+            }
+            parent = (ModifiableTopLevelItemGroup) folder;
+        }
 
         final XmlFile configXml = getLastOrSecondLastConfigXml(deletedName);
                
         final InputStream is = new ByteArrayInputStream(configXml.asString().getBytes("UTF-8"));
-        final AbstractProject project = (AbstractProject) getHudson().createProjectFromXML(findNewName(newName), is);
-        copyHistoryFiles(deletedName, newName);
+        final AbstractProject project = (AbstractProject) parent.createProjectFromXML(
+                findNewName(parent, newName), is);
+        copyHistoryFiles(deletedName, getPlugin().getHistoryKey(project.getConfigFile()));
         
         rsp.sendRedirect(getHudson().getRootUrl() + project.getUrl());
     }
@@ -528,18 +948,19 @@ public class JobConfigHistoryRootAction extends JobConfigHistoryBaseAction imple
      * If the old name is already in use by another project, 
      * "_" plus a number is appended to the name until an unused name is found.
      * 
+     * @param parent The folder or Jenkins instance to restore the project into.
      * @param name The old name as String.
      * @return the new name as String.
      */
-    private String findNewName(String name) {
-        if (getHudson().getItem(name) != null) {
+    private String findNewName(ModifiableTopLevelItemGroup parent, String name) {
+        if (parent.getItem(name) != null) {
             StringBuffer buf = new StringBuffer(name + "_0");
             final int nameLength = buf.length() - 1;
             int i = 1;
             do {
                 buf = buf.replace(nameLength, buf.length() - 1, String.valueOf(i));
                 i++;
-            } while (getHudson().getItem(buf.toString()) != null);
+            } while (parent.getItem(buf.toString()) != null);
             return buf.toString();
         } else {
             return name;
@@ -550,19 +971,18 @@ public class JobConfigHistoryRootAction extends JobConfigHistoryBaseAction imple
      * Moves the history files of a restored project from the old location (_deleted_)
      * to a directory with the new name.
      * @param oldName The old name of the project (containing "_deleted_")
-     * @param newName The new name of the project
+     * @param newItem The history key of the restored project
      */
-    private void copyHistoryFiles(String oldName, String newName) {
-        final FilePath oldFilePath = new FilePath(new File(getPlugin().getJobHistoryRootDir(), oldName));
-        final FilePath newFilePath = new FilePath(new File(getPlugin().getJobHistoryRootDir(), newName));
+    private void copyHistoryFiles(String oldName, String newItem) {
+        final String oldItem = getDeletedItemKey(oldName);
+        if (oldItem == null || newItem == null) {
+            return;
+        }
         try {
-            oldFilePath.moveAllChildrenTo(newFilePath);
-            oldFilePath.delete();
-        } catch (InterruptedException ex) {
-            LOG.info("Unable to move old history data " + oldFilePath + " to new directory " + newFilePath);
-            LOG.info(ex.getMessage());
+            getPlugin().getDiffCache().invalidate(getPlugin().getHistoryDir(oldItem));
+            getPlugin().getHistoryStore().move(oldItem, newItem);
         } catch (IOException ex) {
-            LOG.info("Unable to move old history data " + oldFilePath + " to new directory " + newFilePath);            
+            LOG.info("Unable to move old history data " + oldItem + " to " + newItem);            
             LOG.info(ex.getMessage());
         }
     }
@@ -580,14 +1000,4 @@ public class JobConfigHistoryRootAction extends JobConfigHistoryBaseAction imple
         final String name = req.getParameter("name");
         rsp.sendRedirect("restoreQuestion?name=" + name);
     }
-    
-    /**
-     * Utility class for comparing file names alphanumerically.
-     */
-    private static class FileNameComparator implements Comparator<File> {
-        /** {@inheritDoc} */
-        public int compare(File f1, File f2) {  
-            return f1.getName().compareTo(f2.getName());  
-        }
-    }
 }
@@ -5,6 +5,7 @@ import hudson.Extension;
 import hudson.XmlFile;
 import hudson.model.Hudson;
 import hudson.model.Saveable;
+import hudson.model.User;
 import hudson.model.listeners.SaveableListener;
 
 import java.util.logging.Logger;
@@ -20,16 +21,40 @@ public final class JobConfigHistorySaveableListener extends SaveableListener {
     /** Our logger. */
     private static final Logger LOG = Logger.getLogger(JobConfigHistorySaveableListener.class.getName());
 
+    /** The plugin, looked up on the first event as the lookup iterates over all plugins. */
+    private volatile JobConfigHistory cachedPlugin;
+
     /** {@inheritDoc} */
     @Override
     public void onChange(final Saveable o, final XmlFile file) {
-        final JobConfigHistory plugin = Hudson.getInstance().getPlugin(JobConfigHistory.class);
+        final JobConfigHistory plugin = getPlugin();
+        // most saves are build records, queue or node monitor saves, reject them without allocating
+        if (!plugin.getSaveableClassifier().classify(file.getFile())) {
+            return;
+        }
 
         LOG.log(FINEST, "In onChange for {0}", o);
-        if (plugin.isSaveable(o, file)) {
-            ConfigHistoryListenerHelper.CHANGED.createNewHistoryEntry(file);
-        }
+        final User user = ConfigHistoryListenerHelper.CHANGED.getCurrentUser();
+        plugin.saveChange(file.getFile(), new Runnable() {
+            public void run() {
+                if (plugin.isSaveable(o, file)) {
+                    ConfigHistoryListenerHelper.CHANGED.createNewHistoryEntry(file, user);
+                }
+            }
+        });
         LOG.log(FINEST, "onChange for {0} done.", o);
         //        new Exception("STACKTRACE for double invocation").printStackTrace();
     }
+
+    /**
+     * @return the plugin.
+     */
+    private JobConfigHistory getPlugin() {
+        JobConfigHistory plugin = cachedPlugin;
+        if (plugin == null) {
+            plugin = Hudson.getInstance().getPlugin(JobConfigHistory.class);
+            cachedPlugin = plugin;
+        }
+        return plugin;
+    }
 }
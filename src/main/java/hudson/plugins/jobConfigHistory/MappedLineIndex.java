@@ -0,0 +1,322 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import bmsi.util.Diff;
+
+/**
+ * Line index over a saved config file, which never holds the file as String.
+ *
+ * Big files are memory-mapped, small ones are read into a single byte array as mapping them costs
+ * more than it saves. While the index is built, the start offset and a hash of every line are
+ * recorded in int arrays, so equal lines can be numbered for the {@link DiffAlgorithm} by comparing
+ * bytes. Only lines which are actually printed are decoded. Lines are split at {@code \n} the same
+ * way as {@code String.split("\\n")} does, i.e. trailing empty lines are dropped.
+ */
+final class MappedLineIndex {
+
+    /** Files of at least this size in bytes are memory-mapped. */
+    static final int MAP_THRESHOLD = 256 * 1024;
+
+    /** Number of context lines around each change, the same as in {@link bmsi.util.DiffPrint.ContextPrint}. */
+    private static final int CONTEXT = 3;
+
+    /** Config files are saved as UTF-8. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** FNV-1a offset basis. */
+    private static final int FNV_OFFSET = 0x811c9dc5;
+
+    /** FNV-1a prime. */
+    private static final int FNV_PRIME = 0x01000193;
+
+    /** Content of the file. */
+    private final ByteBuffer content;
+
+    /** Start offset of every line, followed by the offset behind the newline of the last line. */
+    private final int[] starts;
+
+    /** Hash of every line. */
+    private final int[] hashes;
+
+    /** Number of lines. */
+    private final int size;
+
+    /**
+     * Index without any line, e.g. standing in for the predecessor of a first revision. Unlike an
+     * empty file, which has a single empty line, printing a diff against it shows every line as added.
+     */
+    static final MappedLineIndex EMPTY = new MappedLineIndex();
+
+    /**
+     * Creates {@link #EMPTY}.
+     */
+    private MappedLineIndex() {
+        this.content = ByteBuffer.allocate(0);
+        this.starts = new int[] {0};
+        this.hashes = new int[0];
+        this.size = 0;
+    }
+
+    /**
+     * @param content content of the file, position 0 and limit at the end.
+     */
+    MappedLineIndex(ByteBuffer content) {
+        this.content = content;
+        final int limit = content.limit();
+        int[] lineStarts = new int[64];
+        int[] lineHashes = new int[64];
+        int count = 0;
+        int lastNonEmpty = 0;
+        int start = 0;
+        int hash = FNV_OFFSET;
+        for (int i = 0; i <= limit; i++) {
+            if (i == limit || content.get(i) == '\n') {
+                if (count + 1 >= lineStarts.length) {
+                    lineStarts = Arrays.copyOf(lineStarts, lineStarts.length * 2);
+                    lineHashes = Arrays.copyOf(lineHashes, lineHashes.length * 2);
+                }
+                lineStarts[count] = start;
+                lineHashes[count] = hash;
+                count++;
+                if (i > start) {
+                    lastNonEmpty = count;
+                }
+                start = i + 1;
+                hash = FNV_OFFSET;
+            } else {
+                hash = (hash ^ (content.get(i) & 0xff)) * FNV_PRIME;
+            }
+        }
+        // String.split keeps a single empty line for empty input only
+        size = limit == 0 ? 1 : lastNonEmpty;
+        lineStarts[size] = size == count ? limit + 1 : lineStarts[size];
+        this.starts = lineStarts;
+        this.hashes = lineHashes;
+    }
+
+    /**
+     * Builds the line index of a file.
+     *
+     * @param file the file.
+     * @return the line index.
+     * @throws IOException if the file cannot be read or is too big.
+     */
+    static MappedLineIndex open(File file) throws IOException {
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            return open(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Builds the line index of a stream, mapping it when it reads a big file. The stream is not closed.
+     *
+     * @param in the stream.
+     * @return the line index.
+     * @throws IOException if the stream cannot be read or is too big.
+     */
+    static MappedLineIndex open(InputStream in) throws IOException {
+        if (!(in instanceof FileInputStream)) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, count);
+            }
+            return new MappedLineIndex(ByteBuffer.wrap(out.toByteArray()));
+        }
+        final FileChannel channel = ((FileInputStream) in).getChannel();
+        final long length = channel.size() - channel.position();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("File too big: " + length + " bytes");
+        }
+        if (length >= MAP_THRESHOLD) {
+            // the mapping stays valid after the channel was closed
+            return new MappedLineIndex(channel.map(FileChannel.MapMode.READ_ONLY, channel.position(), length));
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            // read until the buffer is full
+        }
+        buffer.flip();
+        return new MappedLineIndex(buffer);
+    }
+
+    /**
+     * @return number of lines.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Decodes a single line.
+     *
+     * @param line line index starting with 0.
+     * @return the text of the line without newline.
+     */
+    String getLine(int line) {
+        final int start = starts[line];
+        final int end = starts[line + 1] - 1;
+        final ByteBuffer slice = content.duplicate();
+        slice.limit(end);
+        slice.position(start);
+        return UTF8.decode(slice).toString();
+    }
+
+    /**
+     * @param line line index starting with 0.
+     * @return length of the line in bytes without newline.
+     */
+    private int length(int line) {
+        return starts[line + 1] - 1 - starts[line];
+    }
+
+    /**
+     * @param line line index in this file.
+     * @param other the other file.
+     * @param otherLine line index in the other file.
+     * @return true if both lines hold the same bytes.
+     */
+    private boolean sameLine(int line, MappedLineIndex other, int otherLine) {
+        if (hashes[line] != other.hashes[otherLine] || length(line) != other.length(otherLine)) {
+            return false;
+        }
+        final int start = starts[line];
+        final int otherStart = other.starts[otherLine];
+        for (int i = length(line) - 1; i >= 0; i--) {
+            if (content.get(start + i) != other.content.get(otherStart + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Numbers the lines of two files like {@link AbstractDiffAlgorithm#hashLines(Object[], Object[])}
+     * without decoding them.
+     *
+     * @param file0 lines of the first file.
+     * @param file1 lines of the second file.
+     * @return the ids of the first file at index 0 and those of the second file at index 1.
+     */
+    static int[][] lineIds(MappedLineIndex file0, MappedLineIndex file1) {
+        final int total = file0.size + file1.size;
+        int capacity = 16;
+        while (capacity < 2 * total) {
+            capacity <<= 1;
+        }
+        // open addressing table holding id + 1 for every slot, 0 for free slots
+        final int[] table = new int[capacity];
+        // file and line of the first occurrence of every id
+        final MappedLineIndex[] firstFile = new MappedLineIndex[total];
+        final int[] firstLine = new int[total];
+        final int[][] ids = {new int[file0.size], new int[file1.size]};
+        int idCount = 0;
+        for (int f = 0; f < 2; f++) {
+            final MappedLineIndex file = f == 0 ? file0 : file1;
+            for (int line = 0; line < file.size; line++) {
+                final int hash = file.hashes[line];
+                int slot = (hash ^ (hash >>> 16)) & (capacity - 1);
+                while (table[slot] != 0) {
+                    final int id = table[slot] - 1;
+                    if (firstFile[id].sameLine(firstLine[id], file, line)) {
+                        break;
+                    }
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                if (table[slot] == 0) {
+                    firstFile[idCount] = file;
+                    firstLine[idCount] = line;
+                    table[slot] = ++idCount;
+                }
+                ids[f][line] = table[slot] - 1;
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Prints an edit script in the unified format of {@link bmsi.util.DiffPrint.UnifiedPrint}, decoding
+     * only the printed lines. Unlike {@code UnifiedPrint}, which prints every change as hunk of its own,
+     * changes whose context overlaps are joined into one hunk like GNU diff does. So no line is
+     * printed twice and context lines never include lines deleted by a neighbouring change.
+     *
+     * @param out where to print.
+     * @param label0 label of the first file.
+     * @param label1 label of the second file.
+     * @param file0 lines of the first file.
+     * @param file1 lines of the second file.
+     * @param script the edit script.
+     */
+    static void printUnified(PrintWriter out, String label0, String label1, MappedLineIndex file0,
+            MappedLineIndex file1, Diff.change script) {
+        out.println("--- " + label0);
+        out.println("+++ " + label1);
+        Diff.change first = script;
+        while (first != null) {
+            Diff.change last = first;
+            while (last.link != null && last.link.line0 - (last.line0 + last.deleted) <= 2 * CONTEXT) {
+                last = last.link;
+            }
+            final int first0 = Math.max(first.line0 - CONTEXT, 0);
+            final int first1 = Math.max(first.line1 - CONTEXT, 0);
+            final int last0 = Math.min(last.line0 + last.deleted - 1 + CONTEXT, file0.size - 1);
+            final int last1 = Math.min(last.line1 + last.inserted - 1 + CONTEXT, file1.size - 1);
+            out.print("@@ -");
+            printRange(out, first0, last0);
+            out.print(" +");
+            printRange(out, first1, last1);
+            out.println(" @@");
+            int i = first0;
+            int j = first1;
+            for (Diff.change change = first; change != last.link; change = change.link) {
+                while (i < change.line0) {
+                    out.println(' ' + file0.getLine(i++));
+                    j++;
+                }
+                for (int k = 0; k < change.deleted; k++) {
+                    out.println('-' + file0.getLine(i++));
+                }
+                for (int k = 0; k < change.inserted; k++) {
+                    out.println('+' + file1.getLine(j++));
+                }
+            }
+            while (i <= last0) {
+                out.println(' ' + file0.getLine(i++));
+            }
+            first = last.link;
+        }
+        out.flush();
+    }
+
+    /**
+     * Prints a range of lines the way {@link bmsi.util.DiffPrint.UnifiedPrint} does. With three lines
+     * of context, a range is only empty for a file without lines, printed as {@code 0,0} like GNU diff.
+     *
+     * @param out where to print.
+     * @param first first line starting with 0.
+     * @param last last line starting with 0.
+     */
+    private static void printRange(PrintWriter out, int first, int last) {
+        if (last < first) {
+            out.print((last + 1) + ",0");
+        } else if (last > first) {
+            out.print((first + 1) + "," + (last + 1));
+        } else {
+            out.print(last + 1);
+        }
+    }
+}
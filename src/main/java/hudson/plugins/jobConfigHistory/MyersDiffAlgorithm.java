@@ -0,0 +1,21 @@
+package hudson.plugins.jobConfigHistory;
+
+/**
+ * The classic O(ND) algorithm of the bundled {@link bmsi.util.Diff}, applied to the lines
+ * left after stripping the common prefix and suffix.
+ */
+final class MyersDiffAlgorithm extends AbstractDiffAlgorithm {
+
+    /** Algorithms are stateless, so one instance is enough. */
+    static final MyersDiffAlgorithm INSTANCE = new MyersDiffAlgorithm();
+
+    /** Use {@link #INSTANCE}. */
+    private MyersDiffAlgorithm() {
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected boolean split(int[] a, int aStart, int aEnd, int[] b, int bStart, int bEnd, Ranges ranges) {
+        return false;
+    }
+}
@@ -0,0 +1,116 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.util.Arrays;
+
+/**
+ * Patience diff: anchors a range at the longest increasing sequence of lines which occur
+ * exactly once in both files and compares the gaps between the anchors separately. Unique
+ * lines like job names or script commands thereby align the surrounding blocks.
+ */
+final class PatienceDiffAlgorithm extends AbstractDiffAlgorithm {
+
+    /** Algorithms are stateless, so one instance is enough. */
+    static final PatienceDiffAlgorithm INSTANCE = new PatienceDiffAlgorithm();
+
+    /** Use {@link #INSTANCE}. */
+    private PatienceDiffAlgorithm() {
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected boolean split(int[] a, int aStart, int aEnd, int[] b, int bStart, int bEnd, Ranges ranges) {
+        // index + 1 of the only occurrence of each line id, -1 if it occurs more than once
+        final int[] onlyInA = ranges.scratch0();
+        final int[] onlyInB = ranges.scratch1();
+        for (int i = aStart; i < aEnd; i++) {
+            final int id = a[i];
+            onlyInA[id] = onlyInA[id] == 0 ? i + 1 : -1;
+        }
+        for (int i = bStart; i < bEnd; i++) {
+            final int id = b[i];
+            onlyInB[id] = onlyInB[id] == 0 ? i + 1 : -1;
+        }
+        // indices into both files of the unique common lines, in order of the second file
+        int[] uniqueA = new int[16];
+        int[] uniqueB = new int[16];
+        int uniqueCount = 0;
+        for (int i = bStart; i < bEnd; i++) {
+            final int id = b[i];
+            if (onlyInB[id] == i + 1 && onlyInA[id] > 0) {
+                if (uniqueCount == uniqueA.length) {
+                    uniqueA = Arrays.copyOf(uniqueA, uniqueCount * 2);
+                    uniqueB = Arrays.copyOf(uniqueB, uniqueCount * 2);
+                }
+                uniqueA[uniqueCount] = onlyInA[id] - 1;
+                uniqueB[uniqueCount] = i;
+                uniqueCount++;
+            }
+        }
+        for (int i = aStart; i < aEnd; i++) {
+            onlyInA[a[i]] = 0;
+        }
+        for (int i = bStart; i < bEnd; i++) {
+            onlyInB[b[i]] = 0;
+        }
+        if (uniqueCount == 0) {
+            return false;
+        }
+
+        final int[] anchors = longestIncreasingSequence(uniqueA, uniqueCount);
+        final int[] gaps = new int[4 * (anchors.length + 1)];
+        int aPos = aStart;
+        int bPos = bStart;
+        for (int i = 0; i < anchors.length; i++) {
+            final int anchorA = uniqueA[anchors[i]];
+            final int anchorB = uniqueB[anchors[i]];
+            gaps[4 * i] = aPos;
+            gaps[4 * i + 1] = anchorA;
+            gaps[4 * i + 2] = bPos;
+            gaps[4 * i + 3] = anchorB;
+            aPos = anchorA + 1;
+            bPos = anchorB + 1;
+        }
+        gaps[4 * anchors.length] = aPos;
+        gaps[4 * anchors.length + 1] = aEnd;
+        gaps[4 * anchors.length + 2] = bPos;
+        gaps[4 * anchors.length + 3] = bEnd;
+        ranges.pushAll(gaps, anchors.length + 1);
+        return true;
+    }
+
+    /**
+     * Finds the longest strictly increasing subsequence by patience sorting.
+     *
+     * @param values the values.
+     * @param count number of used values.
+     * @return the indices of the subsequence in ascending order.
+     */
+    static int[] longestIncreasingSequence(int[] values, int count) {
+        // index of the smallest tail value of all increasing sequences of length i + 1
+        final int[] tails = new int[count];
+        final int[] predecessors = new int[count];
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (values[tails[mid]] < values[i]) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            predecessors[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) {
+                length++;
+            }
+        }
+        final int[] result = new int[length];
+        for (int i = length - 1, index = tails[length - 1]; i >= 0; i--, index = predecessors[index]) {
+            result[i] = index;
+        }
+        return result;
+    }
+}
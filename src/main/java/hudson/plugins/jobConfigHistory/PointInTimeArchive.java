@@ -0,0 +1,281 @@
+package hudson.plugins.jobConfigHistory;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Rebuilds the job and system configurations of the whole instance as they were at a given time
+ * and writes them as zip archive laid out like {@code JENKINS_HOME}, e.g. for disaster recovery drills.
+ *
+ * For every item the newest history entry at or before the time is found by a binary search over
+ * the sorted timestamps listed by the {@link HistoryStore}; the items are scanned in parallel on
+ * a bounded pool.
+ * Jobs whose newest entry at that time is their deletion are left out, jobs deleted later are
+ * included under their original name.
+ */
+final class PointInTimeArchive {
+
+    /** Maximum number of items scanned at the same time. */
+    static final int POOL_SIZE = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /** Our logger. */
+    private static final Logger LOG = Logger.getLogger(PointInTimeArchive.class.getName());
+
+    /** Scans the items. */
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(POOL_SIZE,
+            new NamingThreadFactory(new DaemonThreadFactory(), "JobConfigHistory point in time archive"));
+
+    /** Orders members by path. */
+    private static final Comparator<Member> BY_PATH = new Comparator<Member>() {
+        public int compare(Member m1, Member m2) {
+            return m1.path.compareTo(m2.path);
+        }
+    };
+
+    /**
+     * Utility class.
+     */
+    private PointInTimeArchive() {
+        // only static methods
+    }
+
+    /**
+     * A config file of the archive.
+     */
+    static final class Member {
+        /** Path within the archive. */
+        private final String path;
+        /** The store holding the entry. */
+        private final HistoryStore store;
+        /** Key of the history of the item. */
+        private final String item;
+        /** Timestamp of the entry holding the saved config file. */
+        private final String timestamp;
+
+        /**
+         * @param path path within the archive.
+         * @param store the store holding the entry.
+         * @param item key of the history of the item.
+         * @param timestamp timestamp of the entry holding the saved config file.
+         */
+        Member(String path, HistoryStore store, String item, String timestamp) {
+            this.path = path;
+            this.store = store;
+            this.item = item;
+            this.timestamp = timestamp;
+        }
+
+        /**
+         * @return path within the archive.
+         */
+        String getPath() {
+            return path;
+        }
+
+        /**
+         * @return timestamp of the entry holding the saved config file.
+         */
+        String getTimestamp() {
+            return timestamp;
+        }
+    }
+
+    /**
+     * Scans the history of all items on the shared pool.
+     *
+     * @param store the history store.
+     * @param system whether to include the system configs.
+     * @param jobs whether to include the jobs.
+     * @param asOf a timestamp, entries at or before it are taken.
+     * @return the config files valid at that time, sorted by path.
+     * @throws IOException if the store cannot be read or the scan was interrupted.
+     */
+    static List<Member> scan(HistoryStore store, boolean system, boolean jobs, String asOf) throws IOException {
+        return scan(store, system, jobs, asOf, EXECUTOR);
+    }
+
+    /**
+     * Scans the history of all items.
+     *
+     * @param store the history store.
+     * @param system whether to include the system configs.
+     * @param jobs whether to include the jobs.
+     * @param asOf a timestamp, entries at or before it are taken.
+     * @param executor scans the items.
+     * @return the config files valid at that time, sorted by path.
+     * @throws IOException if the store cannot be read or the scan was interrupted.
+     */
+    static List<Member> scan(HistoryStore store, boolean system, boolean jobs, final String asOf,
+            ExecutorService executor) throws IOException {
+        final List<Callable<Member>> tasks = new ArrayList<Callable<Member>>();
+        for (final String item : store.items("")) {
+            if (item.startsWith(FileHistoryStore.JOBS_PREFIX)) {
+                if (jobs && isInFolders(item)) {
+                    tasks.add(newTask(originalPath(item) + "/", store, item, asOf));
+                }
+            } else if (system && item.indexOf('/') < 0) {
+                tasks.add(newTask("", store, item, asOf));
+            }
+        }
+        final List<Member> members = new ArrayList<Member>();
+        try {
+            for (final Future<Member> future : executor.invokeAll(tasks)) {
+                try {
+                    final Member member = future.get();
+                    if (member != null) {
+                        members.add(member);
+                    }
+                } catch (ExecutionException e) {
+                    LOG.log(Level.WARNING, "Unable to scan history", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scanning the history as of " + asOf);
+        }
+        Collections.sort(members, BY_PATH);
+        return members;
+    }
+
+    /**
+     * @param item the key of the history of a job.
+     * @return true if it is a job or a job in folders, not e.g. a module of a Maven project.
+     */
+    private static boolean isInFolders(String item) {
+        final String[] segments = item.substring(FileHistoryStore.JOBS_PREFIX.length()).split("/");
+        for (int i = 1; i < segments.length; i += 2) {
+            if (!segments[i].equals(JobConfigHistoryConsts.JOBS_HISTORY_DIR)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param item the key of the history of a job.
+     * @return the path of the job within the archive, with the names the job and its folders had
+     *         before they were deleted.
+     */
+    private static String originalPath(String item) {
+        final StringBuilder path = new StringBuilder();
+        for (final String segment : item.split("/")) {
+            final int marker = segment.indexOf(JobConfigHistoryConsts.DELETED_MARKER);
+            path.append(path.length() == 0 ? "" : "/").append(marker < 0 ? segment : segment.substring(0, marker));
+        }
+        return path.toString();
+    }
+
+    /**
+     * @param pathPrefix path of the item within the archive, empty or ending with a slash.
+     * @param store the history store.
+     * @param item the key of the history of the item.
+     * @param asOf a timestamp, entries at or before it are taken.
+     * @return a task finding the config file of the item valid at that time.
+     */
+    private static Callable<Member> newTask(final String pathPrefix, final HistoryStore store, final String item,
+            final String asOf) {
+        return new Callable<Member>() {
+            public Member call() throws IOException {
+                final String timestamp = findEntry(store, item, asOf);
+                final String configName = timestamp == null ? null : store.readConfigName(item, timestamp);
+                return configName == null ? null : new Member(pathPrefix + configName, store, item, timestamp);
+            }
+        };
+    }
+
+    /**
+     * Finds the entry holding the config file of an item valid at a given time.
+     *
+     * @param store the history store.
+     * @param item the key of the history of the item.
+     * @param asOf a timestamp, entries at or before it are taken.
+     * @return the timestamp of the newest entry holding a config file at or before the time, null if
+     *         there is none or the item was deleted at that time.
+     * @throws IOException if the store cannot be read.
+     */
+    static String findEntry(HistoryStore store, String item, String asOf) throws IOException {
+        final List<String> timestamps = store.list(item, null, null, 0, -1);
+        final int index = Collections.binarySearch(timestamps, asOf);
+        final int newest = index >= 0 ? index : -index - 2;
+        final String name = item.substring(item.lastIndexOf('/') + 1);
+        final boolean deleted = name.contains(JobConfigHistoryConsts.DELETED_MARKER);
+        // the last entry of a deleted job records the deletion
+        final int lastEntry = deleted ? timestamps.size() - 1 : -1;
+        for (int i = newest; i >= 0; i--) {
+            if (i == lastEntry) {
+                return null;
+            }
+            if (store.readConfigName(item, timestamps.get(i)) != null) {
+                return timestamps.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes the config files as zip archive. If two items end up at the same path, e.g. a job that
+     * was deleted and created again, the first one is kept.
+     *
+     * @param members the config files.
+     * @param out where to write, not closed.
+     * @throws IOException if a config file cannot be read or the archive cannot be written.
+     */
+    static void write(List<Member> members, OutputStream out) throws IOException {
+        final ZipOutputStream zip = new ZipOutputStream(out);
+        final Set<String> paths = new HashSet<String>();
+        final byte[] buffer = new byte[8192];
+        final SimpleDateFormat format = new SimpleDateFormat(JobConfigHistoryConsts.ID_FORMATTER);
+        for (final Member member : members) {
+            if (!paths.add(member.path)) {
+                LOG.log(Level.FINE, "Skipping {0}/{1}, {2} is already archived",
+                        new Object[] {member.item, member.timestamp, member.path});
+                continue;
+            }
+            final InputStream in = member.store.readConfig(member.item, member.timestamp);
+            if (in == null) {
+                LOG.log(Level.FINE, "Skipping {0}/{1}, it was deleted meanwhile", new Object[] {member.item,
+                    member.timestamp});
+                paths.remove(member.path);
+                continue;
+            }
+            final ZipEntry entry = new ZipEntry(member.path);
+            try {
+                entry.setTime(format.parse(member.timestamp).getTime());
+            } catch (ParseException e) {
+                LOG.log(Level.FINE, "Unable to parse " + member.timestamp, e);
+            }
+            try {
+                zip.putNextEntry(entry);
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    zip.write(buffer, 0, read);
+                }
+                zip.closeEntry();
+            } finally {
+                in.close();
+            }
+        }
+        zip.finish();
+    }
+}
@@ -0,0 +1,158 @@
+package hudson.plugins.jobConfigHistory;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collapses bursts of change events for the same config file into a single history entry.
+ *
+ * A form submit or a plugin update often saves the same item several times within milliseconds.
+ * With a window greater than zero the first event of a burst schedules the save after the window;
+ * later events of the same file within the window only replace the pending save, so the entry is
+ * written once with the final content. The pending saves are kept in a map split into
+ * {@link #STRIPES} stripes with a lock each, so events of unrelated items do not contend.
+ */
+final class SaveCoalescer {
+
+    /** Number of stripes of the pending saves, a power of two. */
+    static final int STRIPES = 16;
+
+    /** Maximum number of pending saves written at the same time. */
+    static final int POOL_SIZE = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /** Our logger. */
+    private static final Logger LOG = Logger.getLogger(SaveCoalescer.class.getName());
+
+    /** Writes the pending saves once their window is over. */
+    private static final ScheduledExecutorService SCHEDULER = Executors.newScheduledThreadPool(POOL_SIZE,
+            new NamingThreadFactory(new DaemonThreadFactory(), "JobConfigHistory save coalescer"));
+
+    /** Pending saves by absolute config file, one map per stripe guarded by itself. */
+    private final Map<File, Runnable>[] pending;
+
+    /** Writes the pending saves. */
+    private final ScheduledExecutorService scheduler;
+
+    /** Length of the window in milliseconds, zero or less to save every event at once. */
+    private volatile long windowMillis;
+
+    /**
+     * Creates a coalescer using the shared scheduler.
+     */
+    SaveCoalescer() {
+        this(SCHEDULER);
+    }
+
+    /**
+     * @param scheduler writes the pending saves.
+     */
+    @SuppressWarnings("unchecked")
+    SaveCoalescer(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+        pending = new Map[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            pending[i] = new HashMap<File, Runnable>();
+        }
+    }
+
+    /**
+     * @return length of the window in milliseconds, zero or less if events are not coalesced.
+     */
+    long getWindowMillis() {
+        return windowMillis;
+    }
+
+    /**
+     * Sets the length of the window. Saves already pending keep their schedule.
+     *
+     * @param windowMillis length of the window in milliseconds, zero or less to save every event at once.
+     */
+    void setWindowMillis(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Saves the config file now or after the window, replacing a save of the same file pending
+     * from an earlier event of the burst.
+     *
+     * @param configFile the changed config file.
+     * @param save writes the history entry, run without holding a lock.
+     */
+    void submit(File configFile, Runnable save) {
+        final long window = windowMillis;
+        if (window <= 0) {
+            save.run();
+            return;
+        }
+        final File key = configFile.getAbsoluteFile();
+        final Map<File, Runnable> stripe = stripe(key);
+        synchronized (stripe) {
+            if (stripe.put(key, save) != null) {
+                LOG.log(Level.FINEST, "Coalesced change of {0}", key);
+                return;
+            }
+        }
+        scheduler.schedule(new Runnable() {
+            public void run() {
+                try {
+                    flush(key);
+                } catch (RuntimeException e) {
+                    LOG.log(Level.WARNING, "Unable to save coalesced change of " + key, e);
+                }
+            }
+        }, window, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes the pending save of a config file at once, e.g. before the item is deleted.
+     *
+     * @param configFile the config file.
+     */
+    void flush(File configFile) {
+        final File key = configFile.getAbsoluteFile();
+        final Map<File, Runnable> stripe = stripe(key);
+        final Runnable save;
+        synchronized (stripe) {
+            save = stripe.remove(key);
+        }
+        if (save != null) {
+            save.run();
+        }
+    }
+
+    /**
+     * Writes all pending saves at once, e.g. before an item is renamed or when Jenkins stops.
+     */
+    void flushAll() {
+        final List<Runnable> saves = new ArrayList<Runnable>();
+        for (final Map<File, Runnable> stripe : pending) {
+            synchronized (stripe) {
+                saves.addAll(stripe.values());
+                stripe.clear();
+            }
+        }
+        for (final Runnable save : saves) {
+            save.run();
+        }
+    }
+
+    /**
+     * @param key an absolute config file.
+     * @return the stripe holding its pending save.
+     */
+    private Map<File, Runnable> stripe(File key) {
+        final int hash = key.hashCode();
+        return pending[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+}
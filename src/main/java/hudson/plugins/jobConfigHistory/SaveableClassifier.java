@@ -0,0 +1,189 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Decides quickly whether a file saved by Jenkins is a system configuration the plugin keeps the
+ * history of, i.e. a file directly beneath the Jenkins root directory not matching the exclude pattern.
+ *
+ * {@link JobConfigHistorySaveableListener} is called for every save in Jenkins, including build
+ * records, queue and node monitor saves, many times per second. The root path is precomputed when
+ * the configuration changes, and the decision for every file name seen is kept in a small open
+ * addressing table looked up by comparing regions of the path, so events are classified without
+ * allocating; only the first event of a file name runs the exclude pattern, see {@link ExcludeMatcher}.
+ * The decisions are forgotten whenever the configuration changes. Counts of accepted and rejected
+ * events show what the listener costs.
+ */
+public final class SaveableClassifier {
+
+    /** Maximum number of file names whose decision is kept, a power of two. */
+    static final int MAX_NAMES = 512;
+
+    /** Number of accepted events. */
+    private final AtomicLong acceptedCount = new AtomicLong();
+
+    /** Number of rejected events. */
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /** Current configuration and decisions, replaced as a whole. */
+    private volatile Table table = new Table(null, false, null, new String[0], new boolean[0], 0);
+
+    /**
+     * Immutable snapshot of the configuration and the decisions per file name.
+     */
+    private static final class Table {
+        /** Path of the Jenkins root directory, null if system configurations are not saved. */
+        private final String rootPath;
+        /** Length of the path prefix up to and including the separator after the root. */
+        private final int prefixLength;
+        /** Whether system configurations are saved. */
+        private final boolean enabled;
+        /** Finds names of system files to exclude from saving, null for none. */
+        private final ExcludeMatcher exclude;
+        /** File names by hash slot, null for free slots. */
+        private final String[] names;
+        /** Decision for the file name in the same slot. */
+        private final boolean[] saveable;
+        /** Number of used slots. */
+        private final int size;
+
+        /**
+         * @param rootPath path of the Jenkins root directory.
+         * @param enabled whether system configurations are saved.
+         * @param exclude finds names of system files to exclude from saving, null for none.
+         * @param names file names by hash slot.
+         * @param saveable decision for the file name in the same slot.
+         * @param size number of used slots.
+         */
+        Table(String rootPath, boolean enabled, ExcludeMatcher exclude, String[] names, boolean[] saveable,
+                int size) {
+            this.rootPath = rootPath;
+            this.prefixLength = rootPath == null ? 0
+                    : rootPath.endsWith(File.separator) ? rootPath.length() : rootPath.length() + 1;
+            this.enabled = enabled && rootPath != null;
+            this.exclude = exclude;
+            this.names = names;
+            this.saveable = saveable;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Rebuilds the classifier after the configuration changed, forgetting all decisions.
+     *
+     * @param rootDir the Jenkins root directory.
+     * @param saveSystemConfiguration whether system configurations are saved.
+     * @param exclude names of system files to exclude from saving, null for none.
+     */
+    void configure(File rootDir, boolean saveSystemConfiguration, Pattern exclude) {
+        table = new Table(rootDir == null ? null : rootDir.getPath(), saveSystemConfiguration,
+                exclude == null ? null : ExcludeMatcher.forPattern(exclude), new String[MAX_NAMES],
+                new boolean[MAX_NAMES], 0);
+    }
+
+    /**
+     * Classifies an event and counts it.
+     *
+     * @param file the saved file.
+     * @return true if the file is a system configuration whose history is kept.
+     */
+    boolean classify(File file) {
+        if (isSystemConfigFile(file)) {
+            acceptedCount.incrementAndGet();
+            return true;
+        }
+        rejectedCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * @param file a saved file.
+     * @return true if the file is a system configuration whose history is kept.
+     */
+    boolean isSystemConfigFile(File file) {
+        final Table current = table;
+        if (!current.enabled) {
+            return false;
+        }
+        final String path = file.getPath();
+        final int start = current.prefixLength;
+        final int length = path.length() - start;
+        if (length <= 0 || !path.startsWith(current.rootPath)
+                || path.charAt(start - 1) != File.separatorChar || path.indexOf(File.separatorChar, start) >= 0) {
+            return false;
+        }
+        int hash = 0;
+        for (int i = start; i < path.length(); i++) {
+            hash = 31 * hash + path.charAt(i);
+        }
+        final int mask = current.names.length - 1;
+        for (int slot = hash & mask, probes = 0; probes < current.names.length; slot = (slot + 1) & mask, probes++) {
+            final String name = current.names[slot];
+            if (name == null) {
+                break;
+            }
+            if (name.length() == length && path.regionMatches(start, name, 0, length)) {
+                return current.saveable[slot];
+            }
+        }
+        return learn(current, path.substring(start));
+    }
+
+    /**
+     * Decides for a file name seen for the first time and keeps the decision.
+     *
+     * @param current the table the name was looked up in.
+     * @param name the file name.
+     * @return true if files with this name are saved.
+     */
+    private synchronized boolean learn(Table current, String name) {
+        final boolean saveable = current.exclude == null || !current.exclude.find(name);
+        if (table != current || current.size >= MAX_NAMES / 2) {
+            // configuration changed meanwhile or the table is full enough
+            return saveable;
+        }
+        final String[] names = current.names.clone();
+        final boolean[] decisions = current.saveable.clone();
+        final int mask = names.length - 1;
+        int slot = name.hashCode() & mask;
+        while (names[slot] != null) {
+            if (names[slot].equals(name)) {
+                return saveable;
+            }
+            slot = (slot + 1) & mask;
+        }
+        names[slot] = name;
+        decisions[slot] = saveable;
+        table = new Table(current.rootPath, current.enabled, current.exclude, names, decisions, current.size + 1);
+        return saveable;
+    }
+
+    /**
+     * @return number of events accepted since Jenkins started.
+     */
+    public long getAcceptedCount() {
+        return acceptedCount.get();
+    }
+
+    /**
+     * @return number of events rejected since Jenkins started.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * @return number of file names whose decision is kept.
+     */
+    public int getNameCount() {
+        return table.size;
+    }
+
+    @Override
+    public String toString() {
+        return "SaveableClassifier[accepted=" + getAcceptedCount() + ", rejected=" + getRejectedCount()
+                + ", names=" + getNameCount() + "]";
+    }
+}
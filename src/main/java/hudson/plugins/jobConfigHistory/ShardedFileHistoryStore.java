@@ -0,0 +1,389 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Variant of the history directories for items with very many entries: the entry directories lie in
+ * a directory per year and month of their timestamp, e.g. {@code jobs/a/2013/01/2013-01-18_17-33-51-000},
+ * instead of directly in the directory of the item.
+ *
+ * Listing a range of time, like the recent history or the entries old enough to be purged, only
+ * lists and checks the entries in the months of the range. Entries still lying directly in the
+ * directory of the item are found as well, and {@link #migrate()} moves them into their months.
+ * Switching back, the store writes new entries directly into the directory of the item while
+ * {@link #flatten()} moves the others there, so that {@link FileHistoryStore} finds them afterwards.
+ */
+public class ShardedFileHistoryStore extends FileHistoryStore {
+
+    /** Names of the directories of years. */
+    private static final Pattern YEAR = Pattern.compile("\\d{4}");
+
+    /** Names of the directories of months. */
+    private static final Pattern MONTH = Pattern.compile("\\d{2}");
+
+    /** Timestamps, with the year and month as groups. */
+    private static final Pattern TIMESTAMP = Pattern.compile("(\\d{4})-(\\d{2})-.+");
+
+    /** Orders files by name. */
+    private static final Comparator<File> BY_NAME = new Comparator<File>() {
+        public int compare(File o1, File o2) {
+            return o1.getName().compareTo(o2.getName());
+        }
+    };
+
+    /** Our logger. */
+    private static final Logger LOG = Logger.getLogger(ShardedFileHistoryStore.class.getName());
+
+    /** Whether new entries are written into the directories of their months. */
+    private final boolean shardNewEntries;
+
+    /**
+     * @param historyRootDir directory of the history of system configurations.
+     * @param jobHistoryRootDir directory of the history of jobs, either beneath or next to the other one.
+     */
+    public ShardedFileHistoryStore(File historyRootDir, File jobHistoryRootDir) {
+        this(historyRootDir, jobHistoryRootDir, true);
+    }
+
+    /**
+     * @param historyRootDir directory of the history of system configurations.
+     * @param jobHistoryRootDir directory of the history of jobs, either beneath or next to the other one.
+     * @param shardNewEntries false to write new entries directly into the directory of the item, e.g.
+     *        while {@link #flatten()} runs.
+     */
+    public ShardedFileHistoryStore(File historyRootDir, File jobHistoryRootDir, boolean shardNewEntries) {
+        super(historyRootDir, jobHistoryRootDir);
+        this.shardNewEntries = shardNewEntries;
+    }
+
+    /**
+     * Returns the directory of an entry in the directory of its month or, if the entry has not been
+     * moved there yet or new entries are not sharded, in the directory of the item.
+     *
+     * @param item key of the item.
+     * @param timestamp timestamp of the entry.
+     * @return the directory of the entry, which need not exist.
+     */
+    @Override
+    public File getEntryDir(String item, String timestamp) {
+        final File unsharded = super.getEntryDir(item, timestamp);
+        final File entryDir = new File(getMonthDir(unsharded.getParentFile(), timestamp), timestamp);
+        if (entryDir.exists() || shardNewEntries && !unsharded.exists()) {
+            return entryDir;
+        }
+        return unsharded;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<String> list(String item, String from, String to, int offset, int limit) {
+        final File itemDir = getItemDir(item);
+        final String[] names = itemDir.list();
+        if (names == null || limit == 0) {
+            return Collections.emptyList();
+        }
+        final HistoryDirNames unsharded = new HistoryDirNames(itemDir, names);
+        final List<File> candidates = new ArrayList<File>();
+        for (final String name : names) {
+            if (!YEAR.matcher(name).matches()) {
+                if (isInRange(name, from, to) && unsharded.isHistoryDir(name)) {
+                    candidates.add(new File(itemDir, name));
+                }
+                continue;
+            }
+            if (!mayHoldRange(name, from, to)) {
+                continue;
+            }
+            final File yearDir = new File(itemDir, name);
+            for (final String month : list(yearDir)) {
+                if (!MONTH.matcher(month).matches() || !mayHoldRange(name + "-" + month, from, to)) {
+                    continue;
+                }
+                final File monthDir = new File(yearDir, month);
+                for (final String entry : listEntries(monthDir)) {
+                    if (isInRange(entry, from, to)) {
+                        candidates.add(new File(monthDir, entry));
+                    }
+                }
+            }
+        }
+        Collections.sort(candidates, BY_NAME);
+        final List<String> timestamps = new ArrayList<String>();
+        int skipped = 0;
+        for (final File candidate : candidates) {
+            if (skipped < offset) {
+                skipped++;
+                continue;
+            }
+            timestamps.add(candidate.getName());
+            if (limit > 0 && timestamps.size() >= limit) {
+                break;
+            }
+        }
+        return timestamps;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String latest(String item) {
+        final File itemDir = getItemDir(item);
+        final String[] names = itemDir.list();
+        if (names == null) {
+            return null;
+        }
+        Arrays.sort(names, Collections.reverseOrder());
+        final HistoryDirNames unsharded = new HistoryDirNames(itemDir, names);
+        String latestSharded = null;
+        String latestUnsharded = null;
+        for (final String name : names) {
+            if (YEAR.matcher(name).matches()) {
+                if (latestSharded == null) {
+                    latestSharded = latestInYear(new File(itemDir, name));
+                }
+            } else if (latestUnsharded == null && unsharded.isHistoryDir(name)) {
+                latestUnsharded = name;
+            }
+        }
+        if (latestSharded == null || latestUnsharded != null && latestUnsharded.compareTo(latestSharded) > 0) {
+            return latestUnsharded;
+        }
+        return latestSharded;
+    }
+
+    /**
+     * Deletes an entry and the directories of its month and year once they are empty.
+     *
+     * @param item key of the item.
+     * @param timestamp timestamp of the entry.
+     * @throws IOException if the entry cannot be deleted.
+     */
+    @Override
+    public void delete(String item, String timestamp) throws IOException {
+        // no entry may be written into the month while it is removed
+        final HistoryLocks lock = HistoryLocks.of(getItemDir(item));
+        lock.lock();
+        try {
+            final File entryDir = getEntryDir(item, timestamp);
+            super.delete(item, timestamp);
+            final File monthDir = entryDir.getParentFile();
+            if (!monthDir.equals(getItemDir(item)) && MONTH.matcher(monthDir.getName()).matches()) {
+                // fails as long as other entries are left
+                if (monthDir.delete()) {
+                    monthDir.getParentFile().delete();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    boolean holdsEntries(HistoryDirNames entries, String name) {
+        return YEAR.matcher(name).matches() || super.holdsEntries(entries, name);
+    }
+
+    /**
+     * Moves the entries lying directly in the directories of the items into the directories of their
+     * months, e.g. after switching from {@link FileHistoryStore}. The entries are renamed one by one,
+     * so the store can be used meanwhile and an interrupted migration can simply be started again.
+     *
+     * @return the number of moved entries.
+     * @throws IOException if an entry cannot be moved.
+     */
+    public long migrate() throws IOException {
+        long moved = 0;
+        for (final String item : items("")) {
+            final File itemDir = getItemDir(item);
+            final HistoryLocks lock = HistoryLocks.of(itemDir);
+            lock.lock();
+            try {
+                moved += migrate(itemDir);
+            } finally {
+                lock.unlock();
+            }
+        }
+        LOG.log(Level.INFO, "Moved {0} history entries into the directories of their months", moved);
+        return moved;
+    }
+
+    /**
+     * Moves the entries lying directly in the directory of an item into the directories of their months.
+     *
+     * @param itemDir directory of an item.
+     * @return the number of moved entries.
+     * @throws IOException if an entry cannot be moved.
+     */
+    private static long migrate(File itemDir) throws IOException {
+        final File[] entryDirs = HistoryDirNames.listHistoryDirs(itemDir);
+        if (entryDirs == null) {
+            return 0;
+        }
+        long moved = 0;
+        for (final File entryDir : entryDirs) {
+            if (!TIMESTAMP.matcher(entryDir.getName()).matches()) {
+                continue;
+            }
+            final File monthDir = getMonthDir(itemDir, entryDir.getName());
+            if (!monthDir.mkdirs() && !monthDir.isDirectory()) {
+                throw new IOException("Could not create " + monthDir);
+            }
+            if (!entryDir.renameTo(new File(monthDir, entryDir.getName()))) {
+                throw new IOException("Could not move " + entryDir + " to " + monthDir);
+            }
+            moved++;
+        }
+        return moved;
+    }
+
+    /**
+     * Moves the entries lying in the directories of their months back into the directories of the
+     * items, e.g. before switching to {@link FileHistoryStore}, and removes the emptied directories of
+     * the months and years. Like {@link #migrate()}, it may run while the store is used and may simply
+     * be started again if interrupted.
+     *
+     * @return the number of moved entries.
+     * @throws IOException if an entry cannot be moved.
+     */
+    public long flatten() throws IOException {
+        long moved = 0;
+        for (final String item : items("")) {
+            final File itemDir = getItemDir(item);
+            final HistoryLocks lock = HistoryLocks.of(itemDir);
+            lock.lock();
+            try {
+                moved += flatten(itemDir);
+            } finally {
+                lock.unlock();
+            }
+        }
+        LOG.log(Level.INFO, "Moved {0} history entries out of the directories of their months", moved);
+        return moved;
+    }
+
+    /**
+     * Moves the entries lying in the directories of the months of an item into the directory of the item.
+     *
+     * @param itemDir directory of an item.
+     * @return the number of moved entries.
+     * @throws IOException if an entry cannot be moved.
+     */
+    private static long flatten(File itemDir) throws IOException {
+        long moved = 0;
+        for (final String year : list(itemDir)) {
+            if (!YEAR.matcher(year).matches()) {
+                continue;
+            }
+            final File yearDir = new File(itemDir, year);
+            for (final String month : list(yearDir)) {
+                if (!MONTH.matcher(month).matches()) {
+                    continue;
+                }
+                final File monthDir = new File(yearDir, month);
+                for (final String entry : listEntries(monthDir)) {
+                    final File entryDir = new File(monthDir, entry);
+                    if (!entryDir.renameTo(new File(itemDir, entry))) {
+                        throw new IOException("Could not move " + entryDir + " to " + itemDir);
+                    }
+                    moved++;
+                }
+                // fails if entries being written are left
+                monthDir.delete();
+            }
+            yearDir.delete();
+        }
+        return moved;
+    }
+
+    /**
+     * @param yearDir directory of a year.
+     * @return the latest entry in the year, null if there is none.
+     */
+    private static String latestInYear(File yearDir) {
+        final List<String> months = list(yearDir);
+        Collections.reverse(months);
+        for (final String month : months) {
+            if (!MONTH.matcher(month).matches()) {
+                continue;
+            }
+            final List<String> entries = listEntries(new File(yearDir, month));
+            if (!entries.isEmpty()) {
+                return entries.get(entries.size() - 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param itemDir directory of an item.
+     * @param timestamp timestamp of an entry.
+     * @return the directory of the month of the entry.
+     */
+    private static File getMonthDir(File itemDir, String timestamp) {
+        final Matcher matcher = TIMESTAMP.matcher(timestamp);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid timestamp: " + timestamp);
+        }
+        return new File(new File(itemDir, matcher.group(1)), matcher.group(2));
+    }
+
+    /**
+     * @param name name of an entry.
+     * @param from first timestamp of the range, null for no limit.
+     * @param to timestamp after the range, null for no limit.
+     * @return true if the name lies in the range.
+     */
+    private static boolean isInRange(String name, String from, String to) {
+        return (from == null || name.compareTo(from) >= 0) && (to == null || name.compareTo(to) < 0);
+    }
+
+    /**
+     * @param prefix beginning of the timestamps in a year or month, like {@code 2013} or {@code 2013-01}.
+     * @param from first timestamp of the range, null for no limit.
+     * @param to timestamp after the range, null for no limit.
+     * @return true if timestamps beginning with the prefix may lie in the range.
+     */
+    private static boolean mayHoldRange(String prefix, String from, String to) {
+        return (from == null || prefix.compareTo(from) >= 0 || from.startsWith(prefix))
+                && (to == null || prefix.compareTo(to) < 0);
+    }
+
+    /**
+     * @param monthDir directory of a month.
+     * @return the sorted names of its complete entries, empty if it cannot be listed.
+     */
+    private static List<String> listEntries(File monthDir) {
+        final List<String> entries = new ArrayList<String>();
+        final File[] entryDirs = HistoryDirNames.listHistoryDirs(monthDir);
+        if (entryDirs != null) {
+            for (final File entryDir : entryDirs) {
+                entries.add(entryDir.getName());
+            }
+            Collections.sort(entries);
+        }
+        return entries;
+    }
+
+    /**
+     * @param dir a directory.
+     * @return the sorted names of its files, empty if it cannot be listed.
+     */
+    private static List<String> list(File dir) {
+        final String[] names = dir.list();
+        if (names == null) {
+            return new ArrayList<String>();
+        }
+        Arrays.sort(names);
+        return new ArrayList<String>(Arrays.asList(names));
+    }
+}
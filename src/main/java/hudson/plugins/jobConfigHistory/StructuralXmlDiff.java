@@ -0,0 +1,551 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Element-aware diff of two XML files.
+ *
+ * Both files are read with StAX into a flat list holding one small record per element. Unlike a DOM
+ * tree no node objects for text, attributes or whitespace are kept, but the records of both files
+ * stay in memory during the diff, as moved siblings are matched anywhere below their parent and the
+ * changes are ordered by their line in the first file. Elements are matched top-down: the children of two
+ * matched elements are matched by equal subtrees first, so reordered siblings keep their partners,
+ * and by their path afterwards. Siblings of the same name are told apart by the key attributes
+ * {@link #KEY_ATTRIBUTES} and by their ordinal. Of the matched children of an element, all but the
+ * longest run in unchanged order are reported as moved. Changes of indentation or line breaks are
+ * ignored as only trimmed text is compared, except that the whitespace of an element holding nothing
+ * else is kept, e.g. a separator of a single blank.
+ */
+public final class StructuralXmlDiff {
+
+    /** Attributes identifying an element among its siblings of the same name. */
+    static final String[] KEY_ATTRIBUTES = {"name", "id", "key"};
+
+    /**
+     * Kind of a structural change.
+     */
+    public static enum Type {
+        /** The element only exists in the second file. */
+        ADDED,
+        /** The element only exists in the first file. */
+        REMOVED,
+        /** The element changed its position among its siblings. */
+        MOVED,
+        /** The attributes of the element changed. */
+        ATTRIBUTES_CHANGED,
+        /** The text of the element changed. */
+        TEXT_CHANGED
+    }
+
+    /**
+     * A single structural change.
+     */
+    public static final class Change {
+        /** Kind of change. */
+        private final Type type;
+        /** Path of the element. */
+        private final String path;
+        /** Line of the element in the first file, 0 if it does not exist there. */
+        private final int oldLine;
+        /** Line of the element in the second file, 0 if it does not exist there. */
+        private final int newLine;
+        /** Old attributes or text, null if not applicable. */
+        private final String oldValue;
+        /** New attributes or text, null if not applicable. */
+        private final String newValue;
+        /** Line in the first file this change is sorted by. */
+        private final int sortLine;
+
+        /**
+         * @param type kind of change.
+         * @param path path of the element.
+         * @param oldElement the element in the first file or null.
+         * @param newElement the element in the second file or null.
+         * @param oldValue old attributes or text.
+         * @param newValue new attributes or text.
+         * @param sortLine line in the first file this change is sorted by.
+         */
+        Change(Type type, String path, Element oldElement, Element newElement, String oldValue, String newValue,
+                int sortLine) {
+            this.type = type;
+            this.path = path;
+            this.oldLine = oldElement == null ? 0 : oldElement.line;
+            this.newLine = newElement == null ? 0 : newElement.line;
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+            this.sortLine = sortLine;
+        }
+
+        /**
+         * @return kind of change.
+         */
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * @return path of the element, e.g. {@code /project/builders/hudson.tasks.Shell[2]/command}.
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return line of the element in the first file, 0 if it does not exist there.
+         */
+        public int getOldLine() {
+            return oldLine;
+        }
+
+        /**
+         * @return line of the element in the second file, 0 if it does not exist there.
+         */
+        public int getNewLine() {
+            return newLine;
+        }
+
+        /**
+         * @return old attributes or text, null for added, removed and moved elements.
+         */
+        public String getOldValue() {
+            return oldValue;
+        }
+
+        /**
+         * @return new attributes or text, null for added, removed and moved elements.
+         */
+        public String getNewValue() {
+            return newValue;
+        }
+
+        @Override
+        public String toString() {
+            return type + " " + path + (oldValue == null && newValue == null ? "" : ": " + oldValue + " -> " + newValue);
+        }
+    }
+
+    /**
+     * Utility class.
+     */
+    private StructuralXmlDiff() {
+        // only static methods
+    }
+
+    /**
+     * Computes the structural changes between two XML files.
+     *
+     * @param file1
+     *            the older file.
+     * @param file2
+     *            the newer file.
+     * @return changes ordered by their position in the first file.
+     * @throws IOException
+     *             if one of the files cannot be read or is not well-formed.
+     */
+    public static List<Change> diff(File file1, File file2) throws IOException {
+        return diff(read(file1), read(file2));
+    }
+
+    /**
+     * Computes the structural changes between two lists of elements.
+     *
+     * @param olds elements of the first file in document order.
+     * @param news elements of the second file in document order.
+     * @return changes ordered by their position in the first file.
+     */
+    static List<Change> diff(List<Element> olds, List<Element> news) {
+        match(olds, news);
+        final Set<Element> moved = findMoved(news);
+        final List<Change> changes = new ArrayList<Change>();
+        final Set<Element> reported = new HashSet<Element>();
+
+        for (final Element oldElement : olds) {
+            if (oldElement.match == null && !reportedParent(oldElement, reported)) {
+                reported.add(oldElement);
+                changes.add(new Change(Type.REMOVED, oldElement.path, oldElement, null, null, null, oldElement.line));
+            }
+        }
+        int sortLine = 0;
+        for (final Element newElement : news) {
+            final Element oldElement = newElement.match;
+            if (oldElement == null) {
+                if (!reportedParent(newElement, reported)) {
+                    reported.add(newElement);
+                    changes.add(new Change(Type.ADDED, newElement.path, null, newElement, null, null, sortLine));
+                }
+                continue;
+            }
+            sortLine = oldElement.line;
+            if (moved.contains(newElement)) {
+                changes.add(new Change(Type.MOVED, newElement.path, oldElement, newElement, null, null, sortLine));
+            }
+            if (!oldElement.attributes.equals(newElement.attributes)) {
+                changes.add(new Change(Type.ATTRIBUTES_CHANGED, newElement.path, oldElement, newElement,
+                        oldElement.attributes, newElement.attributes, sortLine));
+            }
+            if (!oldElement.text.equals(newElement.text)) {
+                changes.add(new Change(Type.TEXT_CHANGED, newElement.path, oldElement, newElement,
+                        oldElement.text, newElement.text, sortLine));
+            }
+        }
+        Collections.sort(changes, new Comparator<Change>() {
+            public int compare(Change c1, Change c2) {
+                return c1.sortLine < c2.sortLine ? -1 : (c1.sortLine == c2.sortLine ? 0 : 1);
+            }
+        });
+        return changes;
+    }
+
+    /**
+     * @param element an added or removed element.
+     * @param reported the elements already reported as added or removed.
+     * @return true if the parent was already reported, so the element need not be reported again.
+     */
+    private static boolean reportedParent(Element element, Set<Element> reported) {
+        if (element.parent != null && reported.contains(element.parent)) {
+            reported.add(element);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Matches the elements top-down. Children of matched elements are matched by equal subtrees
+     * first, preferring the sibling at the same path, so reordered siblings keep their partners.
+     * The remaining children are matched by their path.
+     *
+     * @param olds elements of the first file.
+     * @param news elements of the second file.
+     */
+    private static void match(List<Element> olds, List<Element> news) {
+        if (olds.isEmpty() || news.isEmpty() || !olds.get(0).path.equals(news.get(0).path)) {
+            return;
+        }
+        final LinkedList<Element> pending = new LinkedList<Element>();
+        if (!matchSubtrees(olds.get(0), news.get(0), olds, news)) {
+            olds.get(0).match = news.get(0);
+            news.get(0).match = olds.get(0);
+            pending.add(olds.get(0));
+        }
+        while (!pending.isEmpty()) {
+            final Element oldParent = pending.removeFirst();
+            final Element newParent = oldParent.match;
+            if (oldParent.children == null || newParent.children == null) {
+                continue;
+            }
+            final Map<String, Element> oldsByStep = new HashMap<String, Element>();
+            final Map<String, LinkedList<Element>> oldsBySubtree = new HashMap<String, LinkedList<Element>>();
+            for (final Element oldChild : oldParent.children) {
+                oldsByStep.put(oldChild.step, oldChild);
+                final String subtree = oldChild.segment + '\u0000' + oldChild.hash;
+                LinkedList<Element> candidates = oldsBySubtree.get(subtree);
+                if (candidates == null) {
+                    candidates = new LinkedList<Element>();
+                    oldsBySubtree.put(subtree, candidates);
+                }
+                candidates.add(oldChild);
+            }
+            for (final Element newChild : newParent.children) {
+                final Element oldChild = oldsByStep.get(newChild.step);
+                if (oldChild != null) {
+                    matchSubtrees(oldChild, newChild, olds, news);
+                }
+            }
+            for (final Element newChild : newParent.children) {
+                final LinkedList<Element> candidates = newChild.match == null
+                        ? oldsBySubtree.get(newChild.segment + '\u0000' + newChild.hash) : null;
+                while (candidates != null && !candidates.isEmpty()) {
+                    if (matchSubtrees(candidates.removeFirst(), newChild, olds, news)) {
+                        break;
+                    }
+                }
+            }
+            for (final Element newChild : newParent.children) {
+                final Element oldChild = oldsByStep.get(newChild.step);
+                if (newChild.match == null && oldChild != null && oldChild.match == null) {
+                    oldChild.match = newChild;
+                    newChild.match = oldChild;
+                    pending.add(oldChild);
+                }
+            }
+        }
+    }
+
+    /**
+     * Matches two unmatched elements including all their descendants if their subtrees are equal.
+     *
+     * @param oldElement element of the first file.
+     * @param newElement element of the second file.
+     * @param olds elements of the first file.
+     * @param news elements of the second file.
+     * @return true if the subtrees are equal and were matched.
+     */
+    private static boolean matchSubtrees(Element oldElement, Element newElement, List<Element> olds,
+            List<Element> news) {
+        if (oldElement.match != null || oldElement.hash != newElement.hash
+                || oldElement.subtreeSize != newElement.subtreeSize) {
+            return false;
+        }
+        for (int i = 0; i < oldElement.subtreeSize; i++) {
+            final Element o = olds.get(oldElement.index + i);
+            final Element n = news.get(newElement.index + i);
+            if (!o.step.equals(n.step) && i > 0 || !o.attributes.equals(n.attributes) || !o.text.equals(n.text)) {
+                return false;
+            }
+        }
+        for (int i = 0; i < oldElement.subtreeSize; i++) {
+            final Element o = olds.get(oldElement.index + i);
+            final Element n = news.get(newElement.index + i);
+            o.match = n;
+            n.match = o;
+        }
+        return true;
+    }
+
+    /**
+     * Finds matched elements whose order among their matched siblings changed. The longest
+     * sequence of siblings in unchanged order stays, all others are considered moved.
+     *
+     * @param news elements of the second file.
+     * @return the moved elements of the second file.
+     */
+    private static Set<Element> findMoved(List<Element> news) {
+        final Map<Element, List<Element>> childrenByParent = new HashMap<Element, List<Element>>();
+        for (final Element newElement : news) {
+            if (newElement.match != null && newElement.parent != null && newElement.parent.match != null
+                    && newElement.match.parent == newElement.parent.match) {
+                List<Element> children = childrenByParent.get(newElement.parent);
+                if (children == null) {
+                    children = new ArrayList<Element>();
+                    childrenByParent.put(newElement.parent, children);
+                }
+                children.add(newElement);
+            }
+        }
+        final Set<Element> moved = new HashSet<Element>();
+        for (final List<Element> children : childrenByParent.values()) {
+            final int[] oldPositions = new int[children.size()];
+            for (int i = 0; i < oldPositions.length; i++) {
+                oldPositions[i] = children.get(i).match.index;
+            }
+            final int[] stay = PatienceDiffAlgorithm.longestIncreasingSequence(oldPositions, oldPositions.length);
+            int next = 0;
+            for (int i = 0; i < oldPositions.length; i++) {
+                if (next < stay.length && stay[next] == i) {
+                    next++;
+                } else {
+                    moved.add(children.get(i));
+                }
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Reads the elements of an XML file in document order.
+     *
+     * @param file the XML file.
+     * @return one record per element.
+     * @throws IOException if the file cannot be read or is not well-formed.
+     */
+    static List<Element> read(File file) throws IOException {
+        final InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            return read(in);
+        } catch (XMLStreamException e) {
+            throw new IOException("Unable to parse " + file + ": " + e.getMessage());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the elements of an XML stream in document order.
+     *
+     * @param in the XML stream.
+     * @return one record per element.
+     * @throws XMLStreamException if the stream is not well-formed.
+     */
+    static List<Element> read(InputStream in) throws XMLStreamException {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        // the text of an element in one piece instead of split at entities or CDATA sections
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        final XMLStreamReader reader = factory.createXMLStreamReader(in);
+        final List<Element> elements = new ArrayList<Element>();
+        final LinkedList<Element> stack = new LinkedList<Element>();
+        try {
+            while (reader.hasNext()) {
+                final int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    final Element parent = stack.peek();
+                    final Element element = new Element(parent, reader, elements.size());
+                    elements.add(element);
+                    stack.push(element);
+                } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                    if (!stack.isEmpty()) {
+                        stack.peek().appendText(reader.getText());
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    stack.pop().end(elements.size());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return elements;
+    }
+
+    /**
+     * Record of a single element. Only the text directly beneath the element is kept,
+     * descendants are represented by their own records and the subtree hash.
+     */
+    static final class Element {
+        /** The parent element, null for the root element. */
+        final Element parent;
+        /** Index of the element in document order. */
+        final int index;
+        /** Name of the element. */
+        final String name;
+        /** Name and key attribute of the element. */
+        final String segment;
+        /** Last step of the path, the segment followed by the ordinal among equal siblings. */
+        final String step;
+        /** Path of the element. */
+        final String path;
+        /** Child elements in document order, null if there are none. */
+        List<Element> children;
+        /** Line of the start tag. */
+        final int line;
+        /** Attributes sorted by name, as {@code name="value"} separated by blanks. */
+        final String attributes;
+        /** Trimmed text directly beneath the element, set at the end tag. */
+        String text = "";
+        /** Text directly beneath the element read so far, null if there is none. */
+        private StringBuilder textBuilder;
+        /** Hash of name, attributes, text and all descendants. */
+        int hash;
+        /** Number of elements of the subtree including this one. */
+        int subtreeSize;
+        /** The matching element of the other file. */
+        Element match;
+        /** Number of children per path segment, used to number siblings; dropped after the end tag. */
+        private Map<String, Integer> childOrdinals;
+
+        /**
+         * Creates the record at the start tag.
+         *
+         * @param parent the parent or null.
+         * @param reader positioned at the start tag.
+         * @param index index in document order.
+         */
+        Element(Element parent, XMLStreamReader reader, int index) {
+            this.parent = parent;
+            this.index = index;
+            this.name = reader.getLocalName();
+            this.line = reader.getLocation().getLineNumber();
+            final TreeMap<String, String> sorted = new TreeMap<String, String>();
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                sorted.put(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+            }
+            final StringBuilder attributesBuilder = new StringBuilder();
+            String keyAttribute = null;
+            for (final Map.Entry<String, String> attribute : sorted.entrySet()) {
+                if (attributesBuilder.length() > 0) {
+                    attributesBuilder.append(' ');
+                }
+                attributesBuilder.append(attribute.getKey()).append("=\"").append(attribute.getValue()).append('"');
+            }
+            for (final String key : KEY_ATTRIBUTES) {
+                if (keyAttribute == null && sorted.containsKey(key)) {
+                    keyAttribute = "[@" + key + "='" + sorted.get(key) + "']";
+                }
+            }
+            this.attributes = attributesBuilder.toString();
+            this.segment = keyAttribute == null ? name : name + keyAttribute;
+            if (parent == null) {
+                this.step = segment;
+                this.path = "/" + step;
+            } else {
+                final int ordinal = parent.nextOrdinal(segment);
+                this.step = ordinal > 1 ? segment + "[" + ordinal + "]" : segment;
+                this.path = parent.path + "/" + step;
+                if (parent.children == null) {
+                    parent.children = new ArrayList<Element>();
+                }
+                parent.children.add(this);
+            }
+            this.hash = (31 * name.hashCode() + attributes.hashCode()) * 31;
+        }
+
+        /**
+         * @param segment path segment of a child.
+         * @return the ordinal of the child among the siblings with the same segment, starting with 1.
+         */
+        private int nextOrdinal(String segment) {
+            if (childOrdinals == null) {
+                childOrdinals = new HashMap<String, Integer>();
+            }
+            final Integer previous = childOrdinals.get(segment);
+            final int ordinal = previous == null ? 1 : previous + 1;
+            childOrdinals.put(segment, ordinal);
+            return ordinal;
+        }
+
+        /**
+         * @param characters text beneath the element.
+         */
+        void appendText(String characters) {
+            if (textBuilder == null) {
+                textBuilder = new StringBuilder(characters);
+            } else {
+                textBuilder.append(characters);
+            }
+        }
+
+        /**
+         * Completes the record at the end tag.
+         *
+         * @param elementCount number of elements read so far.
+         */
+        void end(int elementCount) {
+            subtreeSize = elementCount - index;
+            if (textBuilder != null) {
+                final String trimmed = textBuilder.toString().trim();
+                // whitespace between child elements is indentation
+                text = trimmed.length() > 0 || children != null ? trimmed : textBuilder.toString();
+                textBuilder = null;
+            }
+            hash += text.hashCode();
+            childOrdinals = null;
+            if (parent != null) {
+                parent.hash = 31 * parent.hash + hash;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return path + "@" + line;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link BulkIngest}.
+ */
+public class BulkIngestTest extends TestCase {
+
+    private ScheduledExecutorService writer;
+
+    private BulkIngest bulkIngest;
+
+    private List<String> saved;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        writer = Executors.newSingleThreadScheduledExecutor();
+        bulkIngest = new BulkIngest(writer);
+        saved = Collections.synchronizedList(new ArrayList<String>());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        writer.shutdownNow();
+        super.tearDown();
+    }
+
+    public void testNothingIsQueuedWithoutChangeset() {
+        assertFalse(bulkIngest.offer(new File("a/config.xml"), save("a")));
+        assertNull(bulkIngest.getChangeset());
+    }
+
+    public void testExplicitChangeset() {
+        final String id = bulkIngest.begin();
+        assertEquals(id, bulkIngest.begin());
+        assertTrue(bulkIngest.offer(new File("a/config.xml"), save("a1")));
+        assertTrue(bulkIngest.offer(new File("b/config.xml"), save("b1")));
+        assertTrue(bulkIngest.offer(new File("a/config.xml"), save("a2")));
+        assertTrue(saved.isEmpty());
+        bulkIngest.end();
+        assertNull(bulkIngest.getChangeset());
+        bulkIngest.flushAll();
+        assertEquals(2, saved.size());
+        assertTrue(saved.contains("a2@" + id));
+        assertTrue(saved.contains("b1@" + id));
+        assertNull(BulkIngest.currentChangeset());
+    }
+
+    public void testWritesFullBatchesWhileOpen() {
+        final String id = bulkIngest.begin();
+        for (int i = 0; i < BulkIngest.BATCH_SIZE; i++) {
+            assertTrue(bulkIngest.offer(new File("job" + i + "/config.xml"), save("job" + i)));
+        }
+        assertTrue(bulkIngest.offer(new File("last/config.xml"), save("last")));
+        bulkIngest.flush(new File("other/config.xml"));
+        assertEquals(BulkIngest.BATCH_SIZE, saved.size());
+        assertEquals(id, bulkIngest.getChangeset());
+        bulkIngest.flush(new File("last/config.xml"));
+        assertEquals("last@" + id, saved.get(BulkIngest.BATCH_SIZE));
+        bulkIngest.end();
+    }
+
+    public void testOpensChangesetAboveThreshold() throws InterruptedException {
+        bulkIngest.setThreshold(5);
+        int queued = 0;
+        for (int i = 0; i < 20; i++) {
+            if (bulkIngest.offer(new File("job" + i + "/config.xml"), save("job" + i))) {
+                queued++;
+            } else {
+                saved.add("job" + i);
+            }
+        }
+        assertNotNull(bulkIngest.getChangeset());
+        assertTrue(String.valueOf(queued), queued >= 10);
+        // the changeset is closed once a second passes with fewer changes
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (bulkIngest.getChangeset() != null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertNull(bulkIngest.getChangeset());
+        bulkIngest.flushAll();
+        assertEquals(20, saved.size());
+        assertFalse(bulkIngest.offer(new File("job0/config.xml"), save("job0")));
+    }
+
+    private Runnable save(final String name) {
+        return new Runnable() {
+            public void run() {
+                final String changeset = BulkIngest.currentChangeset();
+                saved.add(changeset == null ? name : name + "@" + changeset);
+            }
+        };
+    }
+}
@@ -0,0 +1,65 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link BulkRestore}.
+ */
+public class BulkRestoreTest extends TestCase {
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        dir = File.createTempFile("jobConfigHistory", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdirs());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (final File file : dir.listFiles()) {
+            assertTrue(file.delete());
+        }
+        assertTrue(dir.delete());
+        super.tearDown();
+    }
+
+    public void testSameContent() throws IOException {
+        final File file = write("a.xml", "<project>\n  <a/>\n</project>\n");
+        assertTrue(BulkRestore.sameContent(file, write("b.xml", "<project>\n  <a/>\n</project>\n")));
+        assertFalse(BulkRestore.sameContent(file, write("c.xml", "<project>\n  <b/>\n</project>\n")));
+        assertFalse(BulkRestore.sameContent(file, write("d.xml", "<project/>\n")));
+    }
+
+    public void testSameContentOfLargeFiles() throws IOException {
+        final char[] chars = new char[20000];
+        Arrays.fill(chars, 'x');
+        final String content = new String(chars);
+        final File file = write("a.xml", content);
+        assertTrue(BulkRestore.sameContent(file, write("b.xml", content)));
+        chars[chars.length - 1] = 'y';
+        assertFalse(BulkRestore.sameContent(file, write("c.xml", new String(chars))));
+    }
+
+    public void testNothingIsRestoringByDefault() {
+        assertFalse(BulkRestore.isRestoring(new File(dir, "config.xml")));
+    }
+
+    private File write(String name, String content) throws IOException {
+        final File file = new File(dir, name);
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
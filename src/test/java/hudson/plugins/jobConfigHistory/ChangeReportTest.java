@@ -0,0 +1,179 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link ChangeReport}.
+ */
+public class ChangeReportTest extends TestCase {
+
+    private File rootDir;
+
+    private ExecutorService executor;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        rootDir = File.createTempFile("jobConfigHistory", "");
+        assertTrue(rootDir.delete());
+        assertTrue(rootDir.mkdirs());
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+        delete(rootDir);
+        super.tearDown();
+    }
+
+    public void testFindsEntriesWithinWindow() throws IOException {
+        final File jobs = new File(rootDir, "jobs");
+        createEntry(new File(jobs, "a"), "2013-01-18_10-00-00-000", "<a/>\n");
+        createEntry(new File(jobs, "a"), "2013-01-18_12-00-00-000", "<a>\n</a>\n");
+        createEntry(new File(jobs, "a"), "2013-01-18_14-00-00-000", "<b/>\n");
+        createEntry(new File(jobs, "b"), "2013-01-18_13-30-00-000", "<b/>\n");
+        createEntry(new File(jobs, "folder/jobs/c"), "2013-01-18_12-30-00-000", "<c/>\n");
+        createEntry(new File(rootDir, "config"), "2013-01-18_11-00-00-000", "<hudson/>\n");
+        createEntry(new File(rootDir, "config"), "2013-01-18_13-00-00-000", "<hudson>\n</hudson>\n");
+
+        final List<ChangeReport.Candidate> candidates = new ArrayList<ChangeReport.Candidate>();
+        ChangeReport.findSystemCandidates(createStore(), "2013-01-18_11-30", "2013-01-18_14", candidates);
+        ChangeReport.findJobCandidates(createStore(), "2013-01-18_11-30", "2013-01-18_14", candidates);
+        ChangeReport.sort(candidates);
+
+        assertEquals(4, candidates.size());
+        assertCandidate("a", "2013-01-18_12-00-00-000", "2013-01-18_10-00-00-000", candidates.get(0));
+        assertCandidate("folder/c", "2013-01-18_12-30-00-000", null, candidates.get(1));
+        assertCandidate("config", "2013-01-18_13-00-00-000", "2013-01-18_11-00-00-000", candidates.get(2));
+        assertCandidate("b", "2013-01-18_13-30-00-000", null, candidates.get(3));
+    }
+
+    public void testFindsShardedEntries() throws IOException {
+        final File item = new File(rootDir, "jobs/f/jobs/a");
+        createEntry(item, "2012-12-31_23-00-00-000", "<a/>\n");
+        createEntry(new File(item, "2013/01"), "2013-01-18_10-00-00-000", "<b/>\n");
+        createEntry(new File(rootDir, "jobs/f/jobs/m/modules/x"), "2013-01-18_10-00-00-000", "<x/>\n");
+        final List<ChangeReport.Candidate> candidates = new ArrayList<ChangeReport.Candidate>();
+        ChangeReport.findJobCandidates(new ShardedFileHistoryStore(rootDir, new File(rootDir, "jobs")), "2013", null,
+                candidates);
+        assertEquals(1, candidates.size());
+        assertCandidate("f/a", "2013-01-18_10-00-00-000", "2012-12-31_23-00-00-000", candidates.get(0));
+        assertEquals("jobs/f/jobs/a", candidates.get(0).getItem());
+        final String diff = ChangeReport.compute(candidates.get(0), MyersDiffAlgorithm.INSTANCE).getDiff();
+        assertTrue(diff, diff.contains("-<a/>") && diff.contains("+<b/>"));
+    }
+
+    public void testOpenEndedWindow() throws IOException {
+        final File item = new File(rootDir, "a");
+        createEntry(item, "2013-01-18_10-00-00-000", "<a/>\n");
+        createEntry(item, "2013-01-18_12-00-00-000", "<b/>\n");
+        final List<ChangeReport.Candidate> candidates = new ArrayList<ChangeReport.Candidate>();
+        ChangeReport.findItemCandidates(createStore(), "a", "a", "2013-01-18_10-00-00-000", null, candidates);
+        assertEquals(2, candidates.size());
+        candidates.clear();
+        ChangeReport.findItemCandidates(createStore(), "a", "a", "2013-01-19", null, candidates);
+        assertEquals(0, candidates.size());
+    }
+
+    public void testSkipsPreviousEntriesWithoutConfig() throws IOException {
+        final File item = new File(rootDir, "a");
+        createEntry(item, "2013-01-18_10-00-00-000", "<a/>\n");
+        createEntry(item, "2013-01-18_11-00-00-000", null);
+        createEntry(item, "2013-01-18_12-00-00-000", "<b/>\n");
+        final List<ChangeReport.Candidate> candidates = new ArrayList<ChangeReport.Candidate>();
+        ChangeReport.findItemCandidates(createStore(), "a", "a", "2013-01-18_11", null, candidates);
+        assertEquals(2, candidates.size());
+        assertCandidate("a", "2013-01-18_11-00-00-000", "2013-01-18_10-00-00-000", candidates.get(0));
+        assertCandidate("a", "2013-01-18_12-00-00-000", "2013-01-18_10-00-00-000", candidates.get(1));
+    }
+
+    public void testEntriesInOrderWithDiffs() throws IOException {
+        final File item = new File(rootDir, "a");
+        createEntry(item, "2013-01-18_10-00-00-000", "<a>\n  <x/>\n</a>\n");
+        createEntry(item, "2013-01-18_11-00-00-000", null);
+        for (int i = 0; i < 20; i++) {
+            createEntry(item, String.format("2013-01-18_12-%02d-00-000", i), "<a>\n  <x" + i + "/>\n</a>\n");
+        }
+        final List<ChangeReport.Candidate> candidates = new ArrayList<ChangeReport.Candidate>();
+        ChangeReport.findItemCandidates(createStore(), "a", "a", "2013-01-18", null, candidates);
+        final Iterator<ChangeReport.Entry> entries = ChangeReport.entries(candidates, MyersDiffAlgorithm.INSTANCE,
+                executor);
+
+        final ChangeReport.Entry created = entries.next();
+        assertEquals("--- /dev/null\n+++ a/2013-01-18_10-00-00-000\n@@ -0,0 +1,3 @@\n+<a>\n+  <x/>\n+</a>\n",
+                created.getDiff().replace("\r", ""));
+        assertNull(entries.next().getDiff());
+        for (int i = 0; i < 20; i++) {
+            final ChangeReport.Entry entry = entries.next();
+            assertNull(entry.getError());
+            assertTrue(entry.getDiff(), entry.getDiff().contains("+  <x" + i + "/>"));
+        }
+        assertFalse(entries.hasNext());
+    }
+
+    public void testWriteText() throws IOException {
+        final File item = new File(rootDir, "a");
+        createEntry(item, "2013-01-18_10-00-00-000", "<a/>\n");
+        createEntry(item, "2013-01-18_11-00-00-000", "<b/>\n");
+        final List<ChangeReport.Candidate> candidates = new ArrayList<ChangeReport.Candidate>();
+        ChangeReport.findItemCandidates(createStore(), "a", "a", "2013-01-18_11", null, candidates);
+        final StringWriter output = new StringWriter();
+        ChangeReport.writeText(ChangeReport.entries(candidates, MyersDiffAlgorithm.INSTANCE, executor),
+                new PrintWriter(output));
+        final String text = output.toString().replace("\r", "");
+        assertTrue(text, text.startsWith("Index: a/2013-01-18_11-00-00-000 "));
+        assertTrue(text, text.contains("--- a/2013-01-18_10-00-00-000\n+++ a/2013-01-18_11-00-00-000\n"));
+        assertTrue(text, text.contains("-<a/>\n+<b/>\n"));
+    }
+
+    private static void assertCandidate(String name, String timestamp, String previous,
+            ChangeReport.Candidate candidate) {
+        assertEquals(name, candidate.getName());
+        assertEquals(timestamp, candidate.getTimestamp());
+        assertEquals(previous, candidate.getPreviousTimestamp());
+    }
+
+    private FileHistoryStore createStore() {
+        return new FileHistoryStore(rootDir, new File(rootDir, "jobs"));
+    }
+
+    private static void createEntry(File itemDir, String timestamp, String config) throws IOException {
+        final File historyDir = new File(itemDir, timestamp);
+        assertTrue(historyDir.mkdirs());
+        write(new File(historyDir, JobConfigHistoryConsts.HISTORY_FILE), "<history/>\n");
+        if (config != null) {
+            write(new File(historyDir, "config.xml"), config);
+        }
+    }
+
+    private static void write(File file, String content) throws IOException {
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void delete(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                delete(child);
+            }
+        }
+        assertTrue(file.delete());
+    }
+}
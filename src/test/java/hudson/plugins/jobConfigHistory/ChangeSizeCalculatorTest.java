@@ -0,0 +1,133 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link ChangeSizeCalculator}.
+ */
+public class ChangeSizeCalculatorTest extends TestCase {
+
+    private File itemDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        itemDir = File.createTempFile("jobConfigHistory", "");
+        assertTrue(itemDir.delete());
+        assertTrue(itemDir.mkdirs());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (final File historyDir : itemDir.listFiles()) {
+            for (final File file : historyDir.listFiles()) {
+                assertTrue(file.delete());
+            }
+            assertTrue(historyDir.delete());
+        }
+        assertTrue(itemDir.delete());
+        super.tearDown();
+    }
+
+    public void testCountChangedLines() {
+        final String[] lines1 = {"<project>", "  <a/>", "  <b/>", "</project>"};
+        final String[] lines2 = {"<project>", "  <b/>", "  <c/>", "  <d/>", "</project>"};
+        final int[] counts = ChangeSizeCalculator.countChangedLines(ChangeSizeCalculator.diff(lines1, lines2,
+                MyersDiffAlgorithm.INSTANCE));
+        assertEquals(2, counts[0]);
+        assertEquals(1, counts[1]);
+    }
+
+    public void testFirstRevisionAddsAllLines() throws IOException {
+        final String rev1 = createEntry("2013-01-18_17-33-51", "<project>\n  <a/>\n</project>\n").getName();
+        final HistoryStore store = createStore();
+        final String item = itemDir.getName();
+        ChangeSizeCalculator.update(store, item, rev1, "config.xml", new HistoryDescr("User", "user", "Created", rev1),
+                HistogramDiffAlgorithm.INSTANCE, store.getLock(item));
+        final HistoryDescr updated = store.readDescr(item, rev1);
+        assertEquals(3, updated.getLinesAdded());
+        assertEquals(0, updated.getLinesRemoved());
+        assertEquals(28L, updated.getByteDelta());
+    }
+
+    public void testUpdateSkipsPurgedEntry() throws IOException {
+        final String rev1 = createEntry("2013-01-18_17-33-51", "<project/>\n").getName();
+        final HistoryStore store = createStore();
+        final String item = itemDir.getName();
+        store.delete(item, rev1);
+        ChangeSizeCalculator.update(store, item, rev1, "config.xml", new HistoryDescr("User", "user", "Created", rev1),
+                MyersDiffAlgorithm.INSTANCE, store.getLock(item));
+        assertFalse(store.exists(item, rev1));
+    }
+
+    public void testGetPreviousTimestampSkipsEntriesWithoutConfig() throws IOException {
+        final String rev1 = createEntry("2013-01-18_17-33-51", "<project/>\n").getName();
+        final String rev2 = createEntry("2013-01-18_17-34-12", null).getName();
+        final String rev3 = createEntry("2013-01-18_17-35-00", "<project/>\n").getName();
+        final String rev4 = createEntry("2013-01-18_17-36-00", "<project/>\n").getName();
+        final HistoryStore store = createStore();
+        final String item = itemDir.getName();
+        assertNull(ChangeSizeCalculator.getPreviousTimestamp(store, item, rev1, "config.xml"));
+        assertEquals(rev1, ChangeSizeCalculator.getPreviousTimestamp(store, item, rev2, "config.xml"));
+        assertEquals(rev1, ChangeSizeCalculator.getPreviousTimestamp(store, item, rev3, "config.xml"));
+        assertEquals(rev3, ChangeSizeCalculator.getPreviousTimestamp(store, item, rev4, "config.xml"));
+    }
+
+    public void testUpdateWritesChangeSizeThroughStore() throws IOException {
+        createEntry("2013-01-18_17-33-51", "<project>\n  <a/>\n</project>\n");
+        final String rev2 = createEntry("2013-01-18_17-34-12", "<project>\n  <b/>\n  <c/>\n</project>\n").getName();
+        final HistoryStore store = createStore();
+        final String item = itemDir.getName();
+        ChangeSizeCalculator.update(store, item, rev2, "config.xml", new HistoryDescr("User", "user", "Changed", rev2),
+                MyersDiffAlgorithm.INSTANCE, store.getLock(item));
+        final HistoryDescr updated = store.readDescr(item, rev2);
+        assertTrue(updated.hasChangeSize());
+        assertEquals(2, updated.getLinesAdded());
+        assertEquals(1, updated.getLinesRemoved());
+        assertEquals(7L, updated.getByteDelta());
+        assertNotNull(ConfigBlame.read(store, item, rev2));
+    }
+
+    public void testHistoryDescrWithChangeSize() {
+        final HistoryDescr descr = new HistoryDescr("User", "user", "Changed", "2013-01-18_17-34-12");
+        assertFalse(descr.hasChangeSize());
+        final HistoryDescr updated = descr.withChangeSize(2, 1, -10L);
+        assertTrue(updated.hasChangeSize());
+        assertEquals(2, updated.getLinesAdded());
+        assertEquals(1, updated.getLinesRemoved());
+        assertEquals(-10L, updated.getByteDelta());
+        assertEquals("user", updated.getUserID());
+        assertEquals("2013-01-18_17-34-12", updated.getTimestamp());
+    }
+
+    private HistoryStore createStore() {
+        return new FileHistoryStore(itemDir.getParentFile(), new File(itemDir.getParentFile(),
+                JobConfigHistoryConsts.JOBS_HISTORY_DIR));
+    }
+
+    private File createEntry(String timestamp, String config) throws IOException {
+        final File historyDir = new File(itemDir, timestamp);
+        assertTrue(historyDir.mkdir());
+        write(new File(historyDir, JobConfigHistoryConsts.HISTORY_FILE),
+                "<?xml version='1.0' encoding='UTF-8'?>\n<hudson.plugins.jobConfigHistory.HistoryDescr>\n"
+                + "  <user>User</user>\n  <userId>user</userId>\n  <operation>Changed</operation>\n"
+                + "  <timestamp>" + timestamp + "</timestamp>\n</hudson.plugins.jobConfigHistory.HistoryDescr>\n");
+        if (config != null) {
+            write(new File(historyDir, "config.xml"), config);
+        }
+        return historyDir;
+    }
+
+    private void write(File file, String content) throws IOException {
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link ConfigBlame}.
+ */
+public class ConfigBlameTest extends TestCase {
+
+    private static final String REV1 = "2013-01-18_17-33-51";
+    private static final String REV2 = "2013-01-18_17-34-12";
+    private static final String REV3 = "2013-01-18_17-35-00";
+
+    private File itemDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        itemDir = File.createTempFile("jobConfigHistory", "");
+        assertTrue(itemDir.delete());
+        assertTrue(itemDir.mkdirs());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (final File historyDir : itemDir.listFiles()) {
+            for (final File file : historyDir.listFiles()) {
+                assertTrue(file.delete());
+            }
+            assertTrue(historyDir.delete());
+        }
+        assertTrue(itemDir.delete());
+        super.tearDown();
+    }
+
+    public void testNextCarriesAnnotationsThroughDiff() {
+        final String[] lines1 = {"<project>", "<a/>", "<b/>", "</project>"};
+        final String[] lines2 = {"<project>", "<b/>", "<c/>", "</project>"};
+        final String[] lines3 = {"<project>", "<x/>", "<b/>", "<c/>", "</project>"};
+        ConfigBlame blame = next(ConfigBlame.EMPTY, new String[0], lines1, REV1);
+        blame = next(blame, lines1, lines2, REV2);
+        blame = next(blame, lines2, lines3, REV3);
+        final List<ConfigBlame.Line> annotated = blame.annotate(lines3);
+        assertEquals(5, annotated.size());
+        assertEquals(REV1, annotated.get(0).getTimestamp());
+        assertEquals(REV3, annotated.get(1).getTimestamp());
+        assertEquals(REV1, annotated.get(2).getTimestamp());
+        assertEquals(REV2, annotated.get(3).getTimestamp());
+        assertEquals(REV1, annotated.get(4).getTimestamp());
+        assertEquals("user" + REV3, annotated.get(1).getUserID());
+        assertEquals(2, annotated.get(1).getNumber());
+        assertEquals("<x/>", annotated.get(1).getText());
+    }
+
+    public void testUnreferencedRevisionsAreDropped() throws IOException {
+        final String[] lines1 = {"a"};
+        final String[] lines2 = {"b"};
+        final ConfigBlame blame = next(next(ConfigBlame.EMPTY, new String[0], lines1, REV1), lines1, lines2, REV2);
+        createEntry(REV2, null);
+        blame.write(createStore(), itemDir.getName(), REV2);
+        final ConfigBlame read = ConfigBlame.read(createStore(), itemDir.getName(), REV2);
+        assertEquals(1, read.getLineCount());
+        assertEquals(REV2, read.getRevision(0)[0]);
+    }
+
+    public void testWriteAndRead() throws IOException {
+        final String[] lines = {"<project>", "</project>"};
+        final HistoryDescr descr = new HistoryDescr("Tab\tUser", "user", "Created", REV1);
+        final ConfigBlame blame = ConfigBlame.EMPTY.next(ChangeSizeCalculator.diff(new String[0], lines,
+                MyersDiffAlgorithm.INSTANCE), lines.length, descr);
+        createEntry(REV1, null);
+        blame.write(createStore(), itemDir.getName(), REV1);
+        final ConfigBlame read = ConfigBlame.read(createStore(), itemDir.getName(), REV1);
+        assertEquals(2, read.getLineCount());
+        assertEquals(REV1, read.getRevision(1)[0]);
+        assertEquals("user", read.getRevision(1)[1]);
+        assertEquals("Tab User", read.getRevision(1)[2]);
+    }
+
+    public void testReadMissingOrCorruptFile() throws IOException {
+        final File historyDir = createEntry(REV1, null);
+        final HistoryStore store = createStore();
+        final String item = itemDir.getName();
+        assertNull(ConfigBlame.read(store, item, REV1));
+        write(new File(historyDir, JobConfigHistoryConsts.BLAME_FILE), "1\n" + REV1 + "\tuser\tUser\n0\n1\n");
+        assertNull(ConfigBlame.read(store, item, REV1));
+        write(new File(historyDir, JobConfigHistoryConsts.BLAME_FILE), "2\n" + REV1 + "\tuser\tUser\n");
+        assertNull(ConfigBlame.read(store, item, REV1));
+        write(new File(historyDir, JobConfigHistoryConsts.BLAME_FILE), "");
+        assertNull(ConfigBlame.read(store, item, REV1));
+    }
+
+    public void testLoadAnnotatesOlderEntriesOnce() throws IOException {
+        createEntry(REV1, "<project>\n<a/>\n</project>\n");
+        createEntry(REV2, "<project>\n<a/>\n<b/>\n</project>\n");
+        final HistoryStore store = createStore();
+        final ConfigBlame blame = ConfigBlame.load(store, itemDir.getName(), REV2, "config.xml",
+                HistogramDiffAlgorithm.INSTANCE);
+        assertEquals(4, blame.getLineCount());
+        assertEquals(REV1, blame.getRevision(0)[0]);
+        assertEquals(REV2, blame.getRevision(2)[0]);
+        assertNotNull(ConfigBlame.read(store, itemDir.getName(), REV1));
+        assertNotNull(ConfigBlame.read(store, itemDir.getName(), REV2));
+    }
+
+    private ConfigBlame next(ConfigBlame blame, String[] previousLines, String[] lines, String timestamp) {
+        final HistoryDescr descr = new HistoryDescr("User", "user" + timestamp, "Changed", timestamp);
+        return blame.next(ChangeSizeCalculator.diff(previousLines, lines, PatienceDiffAlgorithm.INSTANCE),
+                lines.length, descr);
+    }
+    private HistoryStore createStore() {
+        return new FileHistoryStore(itemDir.getParentFile(),
+                new File(itemDir.getParentFile(), JobConfigHistoryConsts.JOBS_HISTORY_DIR));
+    }
+
+    private File createEntry(String timestamp, String config) throws IOException {
+        final File historyDir = new File(itemDir, timestamp);
+        assertTrue(historyDir.mkdir());
+        write(new File(historyDir, JobConfigHistoryConsts.HISTORY_FILE),
+                "<?xml version='1.0' encoding='UTF-8'?>\n<hudson.plugins.jobConfigHistory.HistoryDescr>\n"
+                + "  <user>User</user>\n  <userId>user</userId>\n  <operation>Changed</operation>\n"
+                + "  <timestamp>" + timestamp + "</timestamp>\n</hudson.plugins.jobConfigHistory.HistoryDescr>\n");
+        if (config != null) {
+            write(new File(historyDir, "config.xml"), config);
+        }
+        return historyDir;
+    }
+
+    private void write(File file, String content) throws IOException {
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
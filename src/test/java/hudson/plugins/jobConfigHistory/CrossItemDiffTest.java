@@ -0,0 +1,100 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link CrossItemDiff}.
+ */
+public class CrossItemDiffTest extends TestCase {
+
+    private File dir;
+
+    private ExecutorService executor;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        dir = File.createTempFile("jobConfigHistory", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdirs());
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+        for (final File file : dir.listFiles()) {
+            assertTrue(file.delete());
+        }
+        assertTrue(dir.delete());
+        super.tearDown();
+    }
+
+    public void testComparesAgainstAllTargetsInOrder() throws IOException {
+        final File template = write("template.xml", "<project>\n  <a/>\n  <b/>\n</project>\n");
+        final List<CrossItemDiff.Target> targets = new ArrayList<CrossItemDiff.Target>();
+        for (int i = 0; i < 20; i++) {
+            final StringBuilder content = new StringBuilder("<project>\n  <a/>\n  <b/>\n");
+            for (int j = 0; j < i % 4; j++) {
+                content.append("  <extra").append(j).append("/>\n");
+            }
+            content.append("</project>\n");
+            targets.add(new CrossItemDiff.Target("job" + i, "current", write("job" + i + ".xml", content.toString())));
+        }
+        final List<CrossItemDiff.Result> results = CrossItemDiff.compare(template, targets,
+                MyersDiffAlgorithm.INSTANCE, executor);
+        assertEquals(20, results.size());
+        for (int i = 0; i < 20; i++) {
+            final CrossItemDiff.Result result = results.get(i);
+            assertEquals("job" + i, result.getName());
+            assertEquals("current", result.getTimestamp());
+            assertNull(result.getError());
+            assertEquals(i % 4, result.getLinesAdded());
+            assertEquals(0, result.getLinesRemoved());
+            assertEquals(i % 4 == 0, result.isIdentical());
+        }
+    }
+
+    public void testCountsRemovedLines() throws IOException {
+        final File template = write("template.xml", "<project>\n  <a/>\n  <b/>\n</project>\n");
+        final List<CrossItemDiff.Target> targets = new ArrayList<CrossItemDiff.Target>();
+        targets.add(new CrossItemDiff.Target("job", "2013-01-18_17-33-51",
+                write("job.xml", "<project>\n  <c/>\n</project>\n")));
+        final CrossItemDiff.Result result = CrossItemDiff.compare(template, targets, HistogramDiffAlgorithm.INSTANCE,
+                executor).get(0);
+        assertEquals(1, result.getLinesAdded());
+        assertEquals(2, result.getLinesRemoved());
+        assertFalse(result.isIdentical());
+    }
+
+    public void testUnreadableTargetIsReported() throws IOException {
+        final File template = write("template.xml", "<project/>\n");
+        final List<CrossItemDiff.Target> targets = new ArrayList<CrossItemDiff.Target>();
+        targets.add(new CrossItemDiff.Target("missing", "current", new File(dir, "missing.xml")));
+        targets.add(new CrossItemDiff.Target("same", "current", write("same.xml", "<project/>\n")));
+        final List<CrossItemDiff.Result> results = CrossItemDiff.compare(template, targets,
+                MyersDiffAlgorithm.INSTANCE, executor);
+        assertNotNull(results.get(0).getError());
+        assertFalse(results.get(0).isIdentical());
+        assertTrue(results.get(1).isIdentical());
+    }
+
+    private File write(String name, String content) throws IOException {
+        final File file = new File(dir, name);
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,209 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import bmsi.util.Diff;
+
+/**
+ * Tests for the {@link DiffAlgorithm} implementations.
+ */
+public class DiffAlgorithmTest extends TestCase {
+
+    private static final String[] ALGORITHMS = {
+        AbstractDiffAlgorithm.MYERS, AbstractDiffAlgorithm.HISTOGRAM, AbstractDiffAlgorithm.PATIENCE,
+    };
+
+    public void testForName() {
+        assertSame(MyersDiffAlgorithm.INSTANCE, AbstractDiffAlgorithm.forName("myers"));
+        assertSame(HistogramDiffAlgorithm.INSTANCE, AbstractDiffAlgorithm.forName("histogram"));
+        assertSame(PatienceDiffAlgorithm.INSTANCE, AbstractDiffAlgorithm.forName("patience"));
+        assertSame(MyersDiffAlgorithm.INSTANCE, AbstractDiffAlgorithm.forName(null));
+    }
+
+    public void testHashLines() {
+        final int[][] ids = AbstractDiffAlgorithm.hashLines(new String[] {"a", "b", "a"}, new String[] {"b", "c"});
+        assertEquals("[0, 1, 0]", Arrays.toString(ids[0]));
+        assertEquals("[1, 2]", Arrays.toString(ids[1]));
+    }
+
+    public void testEqualFiles() {
+        for (final String name : ALGORITHMS) {
+            assertNull(name, AbstractDiffAlgorithm.forName(name).diff(new int[] {0, 1, 2}, new int[] {0, 1, 2}));
+        }
+    }
+
+    public void testPrefixAndSuffixAreStripped() {
+        for (final String name : ALGORITHMS) {
+            final Diff.change change = AbstractDiffAlgorithm.forName(name).diff(new int[] {0, 1, 2, 3}, new int[] {0, 1, 4, 3});
+            assertEquals(name, 2, change.line0);
+            assertEquals(name, 2, change.line1);
+            assertEquals(name, 1, change.deleted);
+            assertEquals(name, 1, change.inserted);
+            assertNull(name, change.link);
+        }
+    }
+
+    public void testRandomScriptsTransformFirstIntoSecondFile() {
+        final Random random = new Random(4711);
+        for (int i = 0; i < 500; i++) {
+            final int[] a = randomFile(random);
+            final int[] b = mutate(random, a);
+            for (final String name : ALGORITHMS) {
+                assertScript(name, a, b, AbstractDiffAlgorithm.forName(name).diff(a, b));
+            }
+        }
+    }
+
+    public void testRepeatedShellBlocks() {
+        final List<String> oldConfig = new ArrayList<String>();
+        final List<String> newConfig = new ArrayList<String>();
+        oldConfig.add("<project>");
+        newConfig.add("<project>");
+        for (int i = 0; i < 20; i++) {
+            oldConfig.add("  <hudson.tasks.Shell>");
+            newConfig.add("  <hudson.tasks.Shell>");
+            oldConfig.add("    <command>make step" + i + "</command>");
+            newConfig.add("    <command>make step" + (i == 10 ? "10 -j4" : String.valueOf(i)) + "</command>");
+            oldConfig.add("  </hudson.tasks.Shell>");
+            newConfig.add("  </hudson.tasks.Shell>");
+        }
+        oldConfig.add("</project>");
+        newConfig.add("</project>");
+        final int[][] ids = AbstractDiffAlgorithm.hashLines(oldConfig.toArray(), newConfig.toArray());
+        for (final String name : ALGORITHMS) {
+            final Diff.change change = AbstractDiffAlgorithm.forName(name).diff(ids[0], ids[1]);
+            assertScript(name, ids[0], ids[1], change);
+            assertEquals(name, 32, change.line0);
+            assertEquals(name, 1, change.deleted);
+            assertEquals(name, 1, change.inserted);
+            assertNull(name, change.link);
+        }
+    }
+
+    public void testChunkedScriptsTransformFirstIntoSecondFile() {
+        final Random random = new Random(4711);
+        for (int i = 0; i < 200; i++) {
+            final int[] a = randomFile(random);
+            final int[] b = mutate(random, a);
+            for (final String name : ALGORITHMS) {
+                final DiffAlgorithm chunked = new ChunkedDiffAlgorithm(AbstractDiffAlgorithm.forName(name), 0, 40);
+                assertScript("chunked " + name, a, b, chunked.diff(a, b));
+            }
+        }
+    }
+
+    public void testChunkedDiffOfLargeFileFindsSingleChange() {
+        final int[] a = new int[5000];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = i % 1000;
+        }
+        final int[] b = Arrays.copyOf(a, a.length);
+        b[2500] = 1000;
+        final Diff.change change = new ChunkedDiffAlgorithm(HistogramDiffAlgorithm.INSTANCE, 0, 100).diff(a, b);
+        assertScript("chunked", a, b, change);
+        assertEquals(2500, change.line0);
+        assertEquals(1, change.deleted);
+        assertEquals(1, change.inserted);
+        assertNull(change.link);
+    }
+
+    public void testChunkedDiffFallsBackToReplacementWithoutBudget() {
+        final Random random = new Random(42);
+        final int[] a = new int[2000];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = random.nextInt(5000);
+        }
+        final int[] b = mutate(random, a);
+        final Diff.change change = new ChunkedDiffAlgorithm(MyersDiffAlgorithm.INSTANCE, 0, 0).diff(a, b);
+        assertScript("chunked", a, b, change);
+        int changed = 0;
+        for (Diff.change c = change; c != null; c = c.link) {
+            changed += c.deleted + c.inserted;
+        }
+        int exact = 0;
+        for (Diff.change c = MyersDiffAlgorithm.INSTANCE.diff(a, b); c != null; c = c.link) {
+            exact += c.deleted + c.inserted;
+        }
+        assertTrue("whole chunks are reported as replaced", changed > exact);
+    }
+
+    public void testChunkBoundsAreContentDefined() {
+        final Random random = new Random(7);
+        final int[] a = new int[3000];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = random.nextInt(100000);
+        }
+        final int[] b = new int[a.length + 1];
+        b[0] = 100001;
+        System.arraycopy(a, 0, b, 1, a.length);
+        final int[] aBounds = ChunkedDiffAlgorithm.chunkBounds(a);
+        final int[] bBounds = ChunkedDiffAlgorithm.chunkBounds(b);
+        assertEquals(0, aBounds[0]);
+        assertEquals(a.length, aBounds[aBounds.length - 1]);
+        // after the first chunks, the boundaries are the same shifted by the inserted line
+        int shared = 0;
+        for (final int bound : aBounds) {
+            if (Arrays.binarySearch(bBounds, bound + 1) >= 0) {
+                shared++;
+            }
+        }
+        assertTrue(shared + " of " + aBounds.length, shared >= aBounds.length - 3);
+    }
+
+    private int[] randomFile(Random random) {
+        final int[] file = new int[random.nextInt(60)];
+        for (int i = 0; i < file.length; i++) {
+            // few different ids, so there are many repeated lines
+            file[i] = random.nextInt(random.nextBoolean() ? 4 : 40);
+        }
+        return file;
+    }
+
+    private int[] mutate(Random random, int[] a) {
+        final List<Integer> b = new ArrayList<Integer>();
+        for (final int id : a) {
+            final int dice = random.nextInt(10);
+            if (dice == 0) {
+                continue;
+            } else if (dice == 1) {
+                b.add(random.nextInt(50));
+            }
+            b.add(id);
+        }
+        final int[] result = new int[b.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = b.get(i);
+        }
+        return result;
+    }
+
+    private void assertScript(String name, int[] a, int[] b, Diff.change script) {
+        final List<Integer> result = new ArrayList<Integer>();
+        int pos = 0;
+        int lastLine0 = -1;
+        for (Diff.change change = script; change != null; change = change.link) {
+            assertTrue(name + ": changes must be ascending", change.line0 > lastLine0);
+            lastLine0 = change.line0;
+            assertEquals(name + ": unchanged lines must line up", change.line0 - pos,
+                    change.line1 - result.size());
+            for (; pos < change.line0; pos++) {
+                result.add(a[pos]);
+            }
+            for (int i = 0; i < change.inserted; i++) {
+                result.add(b[change.line1 + i]);
+            }
+            pos += change.deleted;
+        }
+        for (; pos < a.length; pos++) {
+            result.add(a[pos]);
+        }
+        assertEquals(name, b.length, result.size());
+        for (int i = 0; i < b.length; i++) {
+            assertEquals(name + " line " + i, b[i], (int) result.get(i));
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package hudson.plugins.jobConfigHistory;
+
+import hudson.plugins.jobConfigHistory.JobConfigHistoryBaseAction.SideBySideView.Line;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link DiffCache}.
+ */
+public class DiffCacheTest extends TestCase {
+
+    private final File itemDir = new File("config-history/jobs/Test");
+    private final File rev1 = new File(itemDir, "2013-01-18_17-33-51");
+    private final File rev2 = new File(itemDir, "2013-01-18_17-34-12");
+    private final File rev3 = new File(itemDir, "2013-01-18_17-35-00");
+
+    public void testHitAndMissStatistics() {
+        final DiffCache cache = new DiffCache(1024 * 1024);
+        assertNull(cache.get(rev1, rev2));
+        final List<Line> lines = createLines(3);
+        cache.put(rev1, rev2, lines);
+        assertEquals(3, cache.get(rev1, rev2).size());
+        assertNull("Order of revisions matters", cache.get(rev2, rev1));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1, cache.getEntryCount());
+    }
+
+    public void testEvictsLeastRecentlyUsedBySize() {
+        final long entryBytes = DiffCache.estimateBytes(createLines(10));
+        final DiffCache cache = new DiffCache(2 * entryBytes);
+        cache.put(rev1, rev2, createLines(10));
+        cache.put(rev2, rev3, createLines(10));
+        // touch the first entry, so the second one is the eldest.
+        assertNotNull(cache.get(rev1, rev2));
+        cache.put(rev1, rev3, createLines(10));
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(1, cache.getEvictionCount());
+        assertNotNull(cache.get(rev1, rev2));
+        assertNull(cache.get(rev2, rev3));
+        assertTrue(cache.getSizeInBytes() <= cache.getMaxBytes());
+    }
+
+    public void testDoesNotCacheDiffsBiggerThanCache() {
+        final DiffCache cache = new DiffCache(10);
+        assertEquals(3, cache.put(rev1, rev2, createLines(3)).size());
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0, cache.getSizeInBytes());
+    }
+
+    public void testInvalidateRevision() {
+        final DiffCache cache = new DiffCache(1024 * 1024);
+        cache.put(rev1, rev2, createLines(1));
+        cache.put(rev2, rev3, createLines(1));
+        cache.put(rev1, rev3, createLines(1));
+        cache.invalidate(rev1);
+        assertNull(cache.get(rev1, rev2));
+        assertNull(cache.get(rev1, rev3));
+        assertNotNull(cache.get(rev2, rev3));
+    }
+
+    public void testInvalidateItem() {
+        final DiffCache cache = new DiffCache(1024 * 1024);
+        final File otherItemDir = new File("config-history/jobs/Test2");
+        cache.put(rev1, rev2, createLines(1));
+        cache.put(new File(otherItemDir, rev1.getName()), new File(otherItemDir, rev2.getName()), createLines(1));
+        cache.invalidate(itemDir);
+        assertEquals(1, cache.getEntryCount());
+        assertNull(cache.get(rev1, rev2));
+        assertEquals(DiffCache.estimateBytes(createLines(1)), cache.getSizeInBytes());
+    }
+
+    private List<Line> createLines(int count) {
+        final List<Line> lines = new ArrayList<Line>();
+        for (int i = 0; i < count; i++) {
+            lines.add(new Line());
+        }
+        return lines;
+    }
+}
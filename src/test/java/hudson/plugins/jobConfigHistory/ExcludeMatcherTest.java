@@ -0,0 +1,70 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link ExcludeMatcher}.
+ */
+public class ExcludeMatcherTest extends TestCase {
+
+    public void testLiteralAlternatives() {
+        assertEquals(Arrays.asList("queue", "nodeMonitors", "UpdateCenter", "global-build-stats"),
+                ExcludeMatcher.literalAlternatives(Pattern.compile(JobConfigHistoryConsts.DEFAULT_EXCLUDE)));
+        assertEquals(Arrays.asList("queue"), ExcludeMatcher.literalAlternatives(Pattern.compile("queue")));
+        assertNull(ExcludeMatcher.literalAlternatives(Pattern.compile("queue|node.*")));
+        assertNull(ExcludeMatcher.literalAlternatives(Pattern.compile("^queue")));
+        assertNull(ExcludeMatcher.literalAlternatives(Pattern.compile("queue||node")));
+        assertNull(ExcludeMatcher.literalAlternatives(Pattern.compile("queue", Pattern.CASE_INSENSITIVE)));
+    }
+
+    public void testDefaultPatternUsesAutomaton() {
+        final ExcludeMatcher matcher = ExcludeMatcher.forPattern(Pattern.compile(JobConfigHistoryConsts.DEFAULT_EXCLUDE));
+        assertTrue(matcher instanceof ExcludeMatcher.AhoCorasickMatcher);
+        assertTrue(matcher.find("queue.xml"));
+        assertTrue(matcher.find("nodeMonitors.xml"));
+        assertTrue(matcher.find("hudson.model.UpdateCenter.xml"));
+        assertTrue(matcher.find("global-build-stats.xml"));
+        assertFalse(matcher.find("config.xml"));
+        assertFalse(matcher.find("queu.xml"));
+        assertFalse(matcher.find(""));
+    }
+
+    public void testOverlappingWords() {
+        final ExcludeMatcher matcher = ExcludeMatcher.forPattern(Pattern.compile("he|she|his|hers"));
+        assertTrue(matcher.find("ushers"));
+        assertTrue(matcher.find("ahis"));
+        assertTrue(matcher.find("sshe"));
+        assertFalse(matcher.find("hi"));
+        assertFalse(matcher.find("sh"));
+        final ExcludeMatcher suffix = ExcludeMatcher.forPattern(Pattern.compile("abcd|bc"));
+        assertTrue(suffix.find("xabcx"));
+    }
+
+    public void testAgreesWithRegex() {
+        final String[] patterns = {"a|ab|bab|c", "aa|aaa|b", "x", "ba|abc|cab|bca"};
+        final String alphabet = "abcx";
+        for (final String pattern : patterns) {
+            final Pattern regex = Pattern.compile(pattern);
+            final ExcludeMatcher matcher = ExcludeMatcher.forPattern(regex);
+            assertTrue(matcher instanceof ExcludeMatcher.AhoCorasickMatcher);
+            for (int n = 0; n < 1024; n++) {
+                final StringBuilder name = new StringBuilder();
+                for (int i = n; i > 0; i /= 4) {
+                    name.append(alphabet.charAt(i % 4));
+                }
+                assertEquals(pattern + " in " + name, regex.matcher(name).find(), matcher.find(name));
+            }
+        }
+    }
+
+    public void testOtherPatternsUseRegex() {
+        final ExcludeMatcher matcher = ExcludeMatcher.forPattern(Pattern.compile("^config|\\.bak$"));
+        assertTrue(matcher instanceof ExcludeMatcher.RegexMatcher);
+        assertTrue(matcher.find("config.xml"));
+        assertTrue(matcher.find("hudson.xml.bak"));
+        assertFalse(matcher.find("hudson.config.xml"));
+    }
+}
@@ -0,0 +1,142 @@
+package hudson.plugins.jobConfigHistory;
+
+import hudson.XmlFile;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Tests for {@link FileHistoryStore}.
+ */
+public class FileHistoryStoreTest extends HistoryStoreConformanceTest {
+
+    private File historyRootDir;
+
+    @Override
+    protected HistoryStore createStore(File dir) {
+        historyRootDir = new File(dir, JobConfigHistoryConsts.DEFAULT_HISTORY_DIR);
+        return new FileHistoryStore(historyRootDir, new File(historyRootDir, JobConfigHistoryConsts.JOBS_HISTORY_DIR));
+    }
+
+    public void testKeepsDirectoryLayout() throws IOException {
+        final FileHistoryStore store = (FileHistoryStore) createStore(historyRootDir.getParentFile());
+        store.write("jobs/f/jobs/b", "2013-01-18_17-33-51-000",
+                new HistoryDescr("User", "user", "Created", "2013-01-18_17-33-51-000"), "config.xml", null);
+        final File entryDir = new File(historyRootDir, "jobs/f/jobs/b/2013-01-18_17-33-51-000");
+        assertEquals(entryDir, store.getEntryDir("jobs/f/jobs/b", "2013-01-18_17-33-51-000"));
+        assertTrue(new File(entryDir, JobConfigHistoryConsts.HISTORY_FILE).exists());
+        assertEquals(new File(historyRootDir, "hudson.tasks.Maven"), store.getItemDir("hudson.tasks.Maven"));
+    }
+
+    public void testJobHistoryNextToHistoryRoot() throws IOException {
+        final File jobHistoryRootDir = new File(historyRootDir.getParentFile(), JobConfigHistoryConsts.JOBS_HISTORY_DIR);
+        final FileHistoryStore store = new FileHistoryStore(historyRootDir, jobHistoryRootDir);
+        store.write("jobs/a", "2013-01-18_17-33-51-000",
+                new HistoryDescr("User", "user", "Created", "2013-01-18_17-33-51-000"), "config.xml", null);
+        assertTrue(new File(jobHistoryRootDir, "a/2013-01-18_17-33-51-000").isDirectory());
+        assertEquals(Arrays.asList("jobs/a"), store.items(""));
+    }
+
+    public void testIgnoresIncompleteEntries() throws IOException {
+        final FileHistoryStore store = (FileHistoryStore) createStore(historyRootDir.getParentFile());
+        assertTrue(store.getEntryDir("config", "2013-01-18_17-33-51-000").mkdirs());
+        assertFalse(store.exists("config", "2013-01-18_17-33-51-000"));
+        assertNull(store.latest("config"));
+        assertTrue(store.items("").isEmpty());
+    }
+
+    public void testKeepsManifestsOutsideTheItemDirectories() throws IOException {
+        final FileHistoryStore store = (FileHistoryStore) createStore(historyRootDir.getParentFile());
+        store.write("jobs/a", "2013-01-18_17-33-51-000",
+                new HistoryDescr("User", "user", "Created", "2013-01-18_17-33-51-000"), "config.xml", null);
+        assertEquals(1, store.summarize("jobs/a").getEntries());
+        final File manifestFile = new File(historyRootDir, ".manifests/jobs/a.xml");
+        assertEquals(manifestFile, store.getManifestFile("jobs/a"));
+        assertTrue(manifestFile.exists());
+        assertEquals(Arrays.asList("2013-01-18_17-33-51-000"), Arrays.asList(store.getItemDir("jobs/a").list()));
+        assertEquals(Arrays.asList("jobs/a"), store.items(""));
+
+        // copied there by hand
+        final File entryDir = store.getEntryDir("jobs/a", "2013-01-18_17-33-52-000");
+        assertTrue(entryDir.mkdir());
+        new XmlFile(new File(entryDir, JobConfigHistoryConsts.HISTORY_FILE)).write(
+                new HistoryDescr("User", "user", "Deleted", "2013-01-18_17-33-52-000"));
+        assertTrue(store.getItemDir("jobs/a").setLastModified(manifestFile.lastModified() + 2000));
+        assertEquals(2, store.summarize("jobs/a").getEntries());
+        assertTrue(store.summarize("jobs/a").isLastDeleted());
+    }
+
+    public void testChecksManifestAsOldAsTheItemDirectory() throws IOException {
+        final FileHistoryStore store = (FileHistoryStore) createStore(historyRootDir.getParentFile());
+        store.write("jobs/a", "2013-01-18_17-33-51-000",
+                new HistoryDescr("User", "user", "Created", "2013-01-18_17-33-51-000"), "config.xml", null);
+        assertEquals(1, store.summarize("jobs/a").getEntries());
+        final File manifestFile = store.getManifestFile("jobs/a");
+
+        // copied there by hand within the same second
+        final File entryDir = store.getEntryDir("jobs/a", "2013-01-18_17-33-52-000");
+        assertTrue(entryDir.mkdir());
+        new XmlFile(new File(entryDir, JobConfigHistoryConsts.HISTORY_FILE)).write(
+                new HistoryDescr("User", "user", "Changed", "2013-01-18_17-33-52-000"));
+        final long second = manifestFile.lastModified() / 1000 * 1000;
+        assertTrue(manifestFile.setLastModified(second));
+        assertTrue(store.getItemDir("jobs/a").setLastModified(second));
+        final HistoryManifest manifest = store.summarize("jobs/a");
+        assertEquals(2, manifest.getEntries());
+        assertEquals("2013-01-18_17-33-52-000", manifest.getLast());
+    }
+
+    public void testRecoversEntriesInterruptedByACrash() throws IOException {
+        final FileHistoryStore store = (FileHistoryStore) createStore(historyRootDir.getParentFile());
+        store.write("jobs/a", "2013-01-18_17-33-51-000",
+                new HistoryDescr("User", "user", "Created", "2013-01-18_17-33-51-000"), "config.xml", null);
+        final File journalDir = new File(historyRootDir, JobConfigHistoryConsts.JOURNAL_DIR);
+        assertEquals(0, journalDir.list().length);
+
+        // crashed before renaming the entry
+        new HistoryJournal(journalDir).begin("jobs/a", "2013-01-18_17-33-52-000");
+        final File tempDir = new File(store.getItemDir("jobs/a"),
+                JobConfigHistoryConsts.TEMP_ENTRY_PREFIX + "2013-01-18_17-33-52-000");
+        assertTrue(tempDir.mkdir());
+        new XmlFile(new File(tempDir, JobConfigHistoryConsts.HISTORY_FILE)).write(
+                new HistoryDescr("User", "user", "Changed", "2013-01-18_17-33-52-000"));
+        // crashed while recording the entry
+        final OutputStream out = new FileOutputStream(new File(journalDir, "entry0"));
+        try {
+            out.write("jobs/b\n2013-01-18".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        assertEquals(Arrays.asList("2013-01-18_17-33-51-000"), store.list("jobs/a", null, null, 0, -1));
+        assertFalse(store.exists("jobs/a", "2013-01-18_17-33-52-000"));
+
+        assertEquals(1, store.recover());
+        assertEquals(0, journalDir.list().length);
+        assertEquals(Arrays.asList("2013-01-18_17-33-51-000"), Arrays.asList(store.getItemDir("jobs/a").list()));
+        assertEquals(0, store.recover());
+        assertTrue(store.write("jobs/a", "2013-01-18_17-33-52-000",
+                new HistoryDescr("User", "user", "Changed", "2013-01-18_17-33-52-000"), "config.xml", null));
+        assertEquals(2, store.summarize("jobs/a").getEntries());
+    }
+
+    public void testRejectsPathsOutsideTheHistory() {
+        final FileHistoryStore store = (FileHistoryStore) createStore(historyRootDir.getParentFile());
+        for (final String item : new String[] {"../config", "jobs/../../x", "/etc", "jobs//a", ""}) {
+            try {
+                store.getItemDir(item);
+                fail(item);
+            } catch (IllegalArgumentException expected) {
+                // expected
+            }
+        }
+        try {
+            store.getEntryDir("config", "../2013-01-18_17-33-51-000");
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link HistoryDirNames}.
+ */
+public class HistoryDirNamesTest extends TestCase {
+
+    private File itemDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        itemDir = File.createTempFile("jobConfigHistory", "");
+        assertTrue(itemDir.delete());
+        assertTrue(itemDir.mkdirs());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteRecursive(itemDir);
+        super.tearDown();
+    }
+
+    public void testCheckedDirectoryIsListedByName() throws IOException {
+        createEntry("2013-01-18_17-33-51-000");
+        assertEquals(Arrays.asList("2013-01-18_17-33-51-000"), names(HistoryDirNames.listHistoryDirs(itemDir)));
+        // not looked into any more, complete by name
+        assertTrue(new File(itemDir, "2013-01-18_17-33-52-000").mkdir());
+        assertTrue(new File(itemDir, JobConfigHistoryConsts.TEMP_ENTRY_PREFIX + "2013-01-18_17-33-53-000").mkdir());
+        assertTrue(new File(itemDir, "jobs").mkdir());
+        assertEquals(Arrays.asList("2013-01-18_17-33-51-000", "2013-01-18_17-33-52-000"),
+                names(HistoryDirNames.listHistoryDirs(itemDir)));
+    }
+
+    public void testDirectoryWithOtherNamesIsChecked() throws IOException {
+        createEntry("restored");
+        assertEquals(Arrays.asList("restored"), names(HistoryDirNames.listHistoryDirs(itemDir)));
+        createEntry("2013-01-18_17-33-51-000");
+        assertTrue(new File(itemDir, "2013-01-18_17-33-52-000").mkdir());
+        assertEquals(Arrays.asList("2013-01-18_17-33-51-000", "restored"),
+                names(HistoryDirNames.listHistoryDirs(itemDir)));
+    }
+
+    public void testRemembersIncompleteEntries() throws IOException {
+        createEntry("2013-01-18_17-33-51-000");
+        createEntry("2013-01-18_17-33-53-000");
+        // half written by an older version
+        assertTrue(new File(itemDir, "2013-01-18_17-33-52-000").mkdir());
+
+        assertEquals(Arrays.asList("2013-01-18_17-33-51-000", "2013-01-18_17-33-53-000"),
+                names(HistoryDirNames.listHistoryDirs(itemDir)));
+        // remembered, although it has been completed by now
+        createEntry("2013-01-18_17-33-52-000", false);
+        assertEquals(2, HistoryDirNames.listHistoryDirs(itemDir).length);
+        HistoryDirNames.forget(itemDir);
+        assertEquals(3, HistoryDirNames.listHistoryDirs(itemDir).length);
+    }
+
+    public void testSingleEntryIsToldByName() throws IOException {
+        createEntry("2013-01-18_17-33-51-000");
+        // half written by an older version
+        assertTrue(new File(itemDir, "2013-01-18_17-33-52-000").mkdir());
+        assertTrue(new File(itemDir, JobConfigHistoryConsts.TEMP_ENTRY_PREFIX + "2013-01-18_17-33-53-000").mkdir());
+        assertTrue(HistoryDirNames.isHistoryDir(new File(itemDir, "2013-01-18_17-33-51-000")));
+        assertFalse(HistoryDirNames.isHistoryDir(new File(itemDir, "2013-01-18_17-33-52-000")));
+        assertFalse(HistoryDirNames.isHistoryDir(new File(itemDir,
+                JobConfigHistoryConsts.TEMP_ENTRY_PREFIX + "2013-01-18_17-33-53-000")));
+        assertFalse(HistoryDirNames.isHistoryDir(new File(itemDir, "2013-01-18_17-33-54-000")));
+        // appeared after the check, complete by name
+        assertTrue(new File(itemDir, "2013-01-18_17-33-55-000").mkdir());
+        assertTrue(HistoryDirNames.isHistoryDir(new File(itemDir, "2013-01-18_17-33-55-000")));
+        assertFalse(HistoryDirNames.isHistoryDir(itemDir));
+    }
+
+    public void testStoreSkipsEntriesBeingWritten() throws IOException {
+        final File historyRootDir = new File(itemDir, JobConfigHistoryConsts.DEFAULT_HISTORY_DIR);
+        final FileHistoryStore store = new FileHistoryStore(historyRootDir,
+                new File(historyRootDir, JobConfigHistoryConsts.JOBS_HISTORY_DIR));
+        final HistoryDescr descr = new HistoryDescr("User", "user", "Changed", "2013-01-18_17-33-51-000");
+        assertTrue(store.write("config", "2013-01-18_17-33-51-000", descr, "config.xml",
+                new ByteArrayInputStream("<hudson/>".getBytes("UTF-8"))));
+        // nothing is left next to the entries
+        final File configDir = store.getItemDir("config");
+        assertEquals(Arrays.asList("2013-01-18_17-33-51-000"), Arrays.asList(configDir.list()));
+
+        // a write that failed halfway
+        assertTrue(new File(configDir, JobConfigHistoryConsts.TEMP_ENTRY_PREFIX + "2013-01-18_17-33-52-000").mkdir());
+        assertEquals(Arrays.asList("2013-01-18_17-33-51-000"), store.list("config", null, null, 0, -1));
+        assertEquals("2013-01-18_17-33-51-000", store.latest("config"));
+        assertEquals(Arrays.asList("config"), store.items(""));
+        assertTrue(store.write("config", "2013-01-18_17-33-52-000", descr, "config.xml", null));
+        assertEquals(Arrays.asList("2013-01-18_17-33-51-000", "2013-01-18_17-33-52-000"),
+                Arrays.asList(sorted(configDir.list())));
+    }
+
+    private void createEntry(String name) throws IOException {
+        createEntry(name, true);
+    }
+
+    private void createEntry(String name, boolean mkdir) throws IOException {
+        final File entryDir = new File(itemDir, name);
+        assertTrue(!mkdir || entryDir.mkdir());
+        assertTrue(new File(entryDir, JobConfigHistoryConsts.HISTORY_FILE).createNewFile());
+    }
+
+    private static String[] sorted(String[] names) {
+        Arrays.sort(names);
+        return names;
+    }
+
+    private static List<String> names(File[] files) {
+        final String[] names = new String[files.length];
+        for (int i = 0; i < files.length; i++) {
+            names[i] = files[i].getName();
+        }
+        Arrays.sort(names);
+        return Arrays.asList(names);
+    }
+
+    private static void deleteRecursive(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                deleteRecursive(child);
+            }
+        }
+        assertTrue(file.getPath(), file.delete());
+    }
+}
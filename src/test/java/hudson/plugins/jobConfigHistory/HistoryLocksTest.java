@@ -0,0 +1,209 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link HistoryLocks}.
+ */
+public class HistoryLocksTest extends TestCase {
+
+    private static final int WRITERS = 6;
+
+    private static final int ENTRIES_PER_WRITER = 120;
+
+    private static final int MAX_ENTRIES = 10;
+
+    private static final String[] ITEMS = {"jobs/a", "jobs/b", "jobs/c"};
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        dir = File.createTempFile("jobConfigHistory", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdirs());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteRecursive(dir);
+        super.tearDown();
+    }
+
+    public void testUnrelatedItemsProceedInParallel() throws InterruptedException {
+        final File a = new File(dir, "a");
+        File other = null;
+        for (int i = 0; other == null; i++) {
+            final File candidate = new File(dir, "b" + i);
+            if (HistoryLocks.stripe(candidate) != HistoryLocks.stripe(a)) {
+                other = candidate;
+            }
+        }
+        final CountDownLatch otherLocked = lockInThread(other);
+        final HistoryLocks lock = HistoryLocks.of(a);
+        lock.lock();
+        try {
+            assertTrue(lockInThread(other).await(5, TimeUnit.SECONDS));
+            final CountDownLatch sameLocked = lockInThread(new File(dir, "a"));
+            assertFalse(sameLocked.await(200, TimeUnit.MILLISECONDS));
+            lock.unlock();
+            assertTrue(sameLocked.await(5, TimeUnit.SECONDS));
+            lock.lock();
+        } finally {
+            lock.unlock();
+        }
+        assertTrue(otherLocked.await(5, TimeUnit.SECONDS));
+    }
+
+    public void testLockOfSeveralItems() throws InterruptedException {
+        final File a = new File(dir, "a");
+        final File b = new File(dir, "b");
+        final HistoryLocks lock = HistoryLocks.of(b, a, b);
+        lock.lock();
+        try {
+            assertFalse(lockInThread(a).await(200, TimeUnit.MILLISECONDS));
+            assertFalse(lockInThread(b).await(200, TimeUnit.MILLISECONDS));
+            // reentrant for the items it holds
+            final HistoryLocks same = HistoryLocks.of(a);
+            same.lock();
+            same.unlock();
+        } finally {
+            lock.unlock();
+        }
+        assertTrue(lockInThread(a).await(5, TimeUnit.SECONDS));
+        assertTrue(lockInThread(b).await(5, TimeUnit.SECONDS));
+    }
+
+    public void testNoEntriesLostUnderContention() throws Exception {
+        final File historyRootDir = new File(dir, JobConfigHistoryConsts.DEFAULT_HISTORY_DIR);
+        final FileHistoryStore store = new FileHistoryStore(historyRootDir,
+                new File(historyRootDir, JobConfigHistoryConsts.JOBS_HISTORY_DIR));
+        final Set<String> written = Collections.synchronizedSet(new HashSet<String>());
+        final Set<String> purged = Collections.synchronizedSet(new HashSet<String>());
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < WRITERS; t++) {
+            final int writer = t;
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int n = 0; n < ENTRIES_PER_WRITER; n++) {
+                            final String item = ITEMS[(writer + n) % ITEMS.length];
+                            final String timestamp = String.format("2013-01-%02d_17-%02d-%02d-000", 10 + writer,
+                                    n / 60, n % 60);
+                            createEntry(store, item, timestamp, written, purged);
+                        }
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }
+            });
+        }
+        // renames and deletions of jobs
+        threads.add(new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 20; i++) {
+                        store.move("jobs/c", "jobs/c_deleted_" + i);
+                        store.move("jobs/b", "jobs/d");
+                        store.move("jobs/d", "jobs/b");
+                        Thread.sleep(5);
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            }
+        });
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.emptyList(), failures);
+
+        final Set<String> expected = new HashSet<String>(written);
+        expected.removeAll(purged);
+        final Set<String> found = new HashSet<String>();
+        for (final String item : store.items("")) {
+            final List<String> timestamps = store.list(item, null, null, 0, -1);
+            assertEquals(item, timestamps.size(), store.summarize(item).getEntries());
+            // nothing half written or half deleted
+            final String[] names = store.getItemDir(item).list();
+            assertEquals(item, timestamps.size(), names.length);
+            for (final String timestamp : timestamps) {
+                assertTrue(new File(store.getEntryDir(item, timestamp), "config.xml").exists());
+                final int deleted = item.indexOf(JobConfigHistoryConsts.DELETED_MARKER);
+                found.add((deleted < 0 ? item : item.substring(0, deleted)) + "/" + timestamp);
+            }
+        }
+        assertEquals(expected, found);
+        assertEquals(WRITERS * ENTRIES_PER_WRITER, written.size());
+    }
+
+    /**
+     * Purges and writes like the listeners do.
+     */
+    private static void createEntry(FileHistoryStore store, String item, String timestamp, Set<String> written,
+            Set<String> purged) throws IOException {
+        final HistoryLocks lock = HistoryLocks.of(store.getItemDir(item));
+        lock.lock();
+        try {
+            final List<String> timestamps = store.list(item, null, null, 0, -1);
+            for (int i = 0; i <= timestamps.size() - MAX_ENTRIES; i++) {
+                store.delete(item, timestamps.get(i));
+                purged.add(item + "/" + timestamps.get(i));
+            }
+            assertTrue(store.write(item, timestamp, new HistoryDescr("User", "user", "Changed", timestamp),
+                    "config.xml", new ByteArrayInputStream("<project/>".getBytes("UTF-8"))));
+            written.add(item + "/" + timestamp);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param historyDir a history directory.
+     * @return counted down once another thread holds and released its lock.
+     */
+    private static CountDownLatch lockInThread(final File historyDir) {
+        final CountDownLatch locked = new CountDownLatch(1);
+        new Thread() {
+            @Override
+            public void run() {
+                final HistoryLocks lock = HistoryLocks.of(historyDir);
+                lock.lock();
+                try {
+                    locked.countDown();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }.start();
+        return locked;
+    }
+
+    private static void deleteRecursive(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                deleteRecursive(child);
+            }
+        }
+        assertTrue(file.getPath(), file.delete());
+    }
+}
@@ -0,0 +1,149 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Compares the {@link HistoryStore} implementations on a large history. Not run by the build:
+ *
+ * <pre>
+ * java -cp ... hudson.plugins.jobConfigHistory.HistoryStoreBenchmark [entries] [entries per item]
+ * </pre>
+ *
+ * Writes the entries, by default 1,000,000 in items of 100 entries with a config of about 2 KB each,
+ * then times finding the latest entry of every item, reading the newest page of 10 entries of every
+ * item, listing the entries of an hour of every item and listing all items.
+ */
+public final class HistoryStoreBenchmark {
+
+    /** Size of the pages read. */
+    private static final int PAGE_SIZE = 10;
+
+    /** Number of entries of all items. */
+    private final int entries;
+
+    /** Number of entries of each item. */
+    private final int entriesPerItem;
+
+    /** Content of the saved configurations. */
+    private final byte[] config;
+
+    /**
+     * @param entries number of entries of all items.
+     * @param entriesPerItem number of entries of each item.
+     */
+    private HistoryStoreBenchmark(int entries, int entriesPerItem) {
+        this.entries = entries;
+        this.entriesPerItem = entriesPerItem;
+        final StringBuilder project = new StringBuilder("<project>\n");
+        while (project.length() < 2048) {
+            project.append("  <property name=\"p").append(project.length()).append("\">value</property>\n");
+        }
+        config = project.append("</project>\n").toString().getBytes();
+    }
+
+    /**
+     * @param args number of entries and entries per item, optional.
+     * @throws IOException if a store fails.
+     */
+    public static void main(String[] args) throws IOException {
+        final int entries = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        final int entriesPerItem = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        final HistoryStoreBenchmark benchmark = new HistoryStoreBenchmark(entries, entriesPerItem);
+        final File dir = File.createTempFile("historyStoreBenchmark", "");
+        if (!dir.delete() || !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        System.out.println(entries + " entries, " + entriesPerItem + " per item, in " + dir);
+
+        final File historyRootDir = new File(dir, JobConfigHistoryConsts.DEFAULT_HISTORY_DIR);
+        benchmark.run("files", new FileHistoryStore(historyRootDir,
+                new File(historyRootDir, JobConfigHistoryConsts.JOBS_HISTORY_DIR)), historyRootDir);
+
+        final File shardedRootDir = new File(dir, "config-history-sharded");
+        benchmark.run("sharded", new ShardedFileHistoryStore(shardedRootDir,
+                new File(shardedRootDir, JobConfigHistoryConsts.JOBS_HISTORY_DIR)), shardedRootDir);
+    }
+
+    /**
+     * Fills a store and times the queries.
+     *
+     * @param name name of the store.
+     * @param store the store.
+     * @param data the file or directory the store keeps its data in.
+     * @throws IOException if the store fails.
+     */
+    private void run(String name, HistoryStore store, File data) throws IOException {
+        final SimpleDateFormat formatter = new SimpleDateFormat(JobConfigHistoryConsts.ID_FORMATTER);
+        final int items = entries / entriesPerItem;
+        final long start = new Date().getTime() - entries * 60000L;
+
+        long time = System.nanoTime();
+        for (int i = 0; i < entries; i++) {
+            final String timestamp = formatter.format(new Date(start + i * 60000L));
+            final String item = "jobs/job" + (i % items);
+            store.write(item, timestamp, new HistoryDescr("User", "user", "Changed", timestamp), "config.xml",
+                    new ByteArrayInputStream(config));
+        }
+        report(name, "write", time, entries);
+
+        time = System.nanoTime();
+        for (int i = 0; i < items; i++) {
+            store.latest("jobs/job" + i);
+        }
+        report(name, "latest", time, items);
+
+        time = System.nanoTime();
+        for (int i = 0; i < items; i++) {
+            store.list("jobs/job" + i, null, null, entriesPerItem - PAGE_SIZE, PAGE_SIZE);
+        }
+        report(name, "newest page", time, items);
+
+        final String from = formatter.format(new Date(start + entries / 2 * 60000L));
+        final String to = formatter.format(new Date(start + (entries / 2 + 60) * 60000L));
+        time = System.nanoTime();
+        for (int i = 0; i < items; i++) {
+            store.list("jobs/job" + i, from, to, 0, -1);
+        }
+        report(name, "hour range", time, items);
+
+        time = System.nanoTime();
+        final List<String> all = store.items("");
+        report(name, "items", time, 1);
+        if (all.size() != items) {
+            throw new IllegalStateException(all.size() + " items instead of " + items);
+        }
+        System.out.println(name + " size: " + size(data) / 1024 + " KB");
+    }
+
+    /**
+     * @param name name of the store.
+     * @param operation the timed operation.
+     * @param start start of the operations by {@link System#nanoTime()}.
+     * @param count number of operations.
+     */
+    private static void report(String name, String operation, long start, int count) {
+        final long micros = (System.nanoTime() - start) / 1000;
+        System.out.println(name + " " + operation + ": " + micros / 1000 + " ms, " + micros / count + " us each");
+    }
+
+    /**
+     * @param file a file or directory.
+     * @return its size with all contents in bytes.
+     */
+    private static long size(File file) {
+        final File[] children = file.listFiles();
+        if (children == null) {
+            return file.length();
+        }
+        long size = 0;
+        for (final File child : children) {
+            size += size(child);
+        }
+        return size;
+    }
+}
@@ -0,0 +1,313 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+/**
+ * Behaviour every {@link HistoryStore} has to show. Each implementation has a subclass creating it.
+ */
+public abstract class HistoryStoreConformanceTest extends TestCase {
+
+    private File dir;
+
+    private HistoryStore store;
+
+    /**
+     * @param dir an empty directory the store may keep its data in.
+     * @return a new, empty store.
+     * @throws Exception if the store cannot be created.
+     */
+    protected abstract HistoryStore createStore(File dir) throws Exception;
+
+    /**
+     * Releases the store after each test.
+     *
+     * @param store the store.
+     * @throws Exception if the store cannot be released.
+     */
+    protected void closeStore(HistoryStore store) throws Exception {
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        dir = File.createTempFile("jobConfigHistory", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdirs());
+        store = createStore(dir);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        closeStore(store);
+        deleteRecursive(dir);
+        super.tearDown();
+    }
+
+    public void testWriteAndRead() throws IOException {
+        assertTrue(write("jobs/a", "2013-01-18_17-33-51-000", "Created", "<project/>"));
+        assertTrue(store.exists("jobs/a", "2013-01-18_17-33-51-000"));
+        final HistoryDescr descr = store.readDescr("jobs/a", "2013-01-18_17-33-51-000");
+        assertEquals("user", descr.getUserID());
+        assertEquals("Created", descr.getOperation());
+        assertEquals("2013-01-18_17-33-51-000", descr.getTimestamp());
+        assertEquals("config.xml", store.readConfigName("jobs/a", "2013-01-18_17-33-51-000"));
+        assertEquals("<project/>", readConfig("jobs/a", "2013-01-18_17-33-51-000"));
+    }
+
+    public void testMissingEntries() throws IOException {
+        assertFalse(store.exists("jobs/a", "2013-01-18_17-33-51-000"));
+        assertNull(store.readDescr("jobs/a", "2013-01-18_17-33-51-000"));
+        assertNull(store.readConfigName("jobs/a", "2013-01-18_17-33-51-000"));
+        assertNull(store.readConfig("jobs/a", "2013-01-18_17-33-51-000"));
+        assertNull(store.latest("jobs/a"));
+        assertEquals(Collections.emptyList(), store.list("jobs/a", null, null, 0, -1));
+        assertEquals(Collections.emptyList(), store.items(""));
+        store.delete("jobs/a", "2013-01-18_17-33-51-000");
+        store.move("jobs/a", "jobs/b");
+        assertEquals(Collections.emptyList(), store.items(""));
+    }
+
+    public void testWriteDoesNotReplaceEntry() throws IOException {
+        assertTrue(write("config", "2013-01-18_17-33-51-000", "Changed", "<hudson>1</hudson>"));
+        assertFalse(write("config", "2013-01-18_17-33-51-000", "Changed", "<hudson>2</hudson>"));
+        assertEquals("<hudson>1</hudson>", readConfig("config", "2013-01-18_17-33-51-000"));
+    }
+
+    public void testWriteNewPicksFreeTimestamp() throws IOException {
+        assertTrue(write("config", "2013-01-18_17-33-51-999", "Changed", "<hudson>1</hudson>"));
+        assertTrue(write("config", "2013-01-18_17-33-52-000", "Changed", "<hudson>2</hudson>"));
+        final HistoryDescr descr = store.writeNew("config",
+                new HistoryDescr("User", "user", "Changed", "2013-01-18_17-33-51-999"), "config.xml",
+                new ByteArrayInputStream("<hudson>3</hudson>".getBytes("UTF-8")));
+        assertEquals("2013-01-18_17-33-52-001", descr.getTimestamp());
+        assertEquals("2013-01-18_17-33-52-001", store.readDescr("config", "2013-01-18_17-33-52-001").getTimestamp());
+        assertEquals("<hudson>3</hudson>", readConfig("config", "2013-01-18_17-33-52-001"));
+        assertEquals("<hudson>1</hudson>", readConfig("config", "2013-01-18_17-33-51-999"));
+    }
+
+    public void testEntryWithoutConfig() throws IOException {
+        assertTrue(write("jobs/a", "2013-01-18_17-33-51-000", "Deleted", null));
+        assertTrue(store.exists("jobs/a", "2013-01-18_17-33-51-000"));
+        assertEquals("Deleted", store.readDescr("jobs/a", "2013-01-18_17-33-51-000").getOperation());
+        assertNull(store.readConfigName("jobs/a", "2013-01-18_17-33-51-000"));
+        assertNull(store.readConfig("jobs/a", "2013-01-18_17-33-51-000"));
+    }
+
+    public void testWriteDescr() throws IOException {
+        write("jobs/a", "2013-01-18_17-33-51-000", "Changed", "<project/>");
+        final HistoryDescr descr = store.readDescr("jobs/a", "2013-01-18_17-33-51-000");
+        store.writeDescr("jobs/a", "2013-01-18_17-33-51-000", descr.withChangeSize(3, 1, 42L));
+        final HistoryDescr updated = store.readDescr("jobs/a", "2013-01-18_17-33-51-000");
+        assertTrue(updated.hasChangeSize());
+        assertEquals(3, updated.getLinesAdded());
+        assertEquals(42L, updated.getByteDelta());
+        assertEquals("<project/>", readConfig("jobs/a", "2013-01-18_17-33-51-000"));
+        try {
+            store.writeDescr("jobs/a", "2013-01-18_17-33-52-000", descr);
+            fail("entry does not exist");
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+
+    public void testListRangesAndPages() throws IOException {
+        write("jobs/a", "2013-01-18_17-33-53-000", "Changed", "<project>3</project>");
+        write("jobs/a", "2013-01-18_17-33-51-000", "Created", "<project>1</project>");
+        write("jobs/a", "2013-01-18_17-33-54-000", "Changed", "<project>4</project>");
+        write("jobs/a", "2013-01-18_17-33-52-000", "Changed", "<project>2</project>");
+        write("jobs/b", "2013-01-18_17-33-50-000", "Created", "<project/>");
+        assertEquals(Arrays.asList("2013-01-18_17-33-51-000", "2013-01-18_17-33-52-000", "2013-01-18_17-33-53-000",
+                "2013-01-18_17-33-54-000"), store.list("jobs/a", null, null, 0, -1));
+        assertEquals(Arrays.asList("2013-01-18_17-33-52-000", "2013-01-18_17-33-53-000"),
+                store.list("jobs/a", "2013-01-18_17-33-52-000", "2013-01-18_17-33-54-000", 0, -1));
+        assertEquals(Arrays.asList("2013-01-18_17-33-53-000"),
+                store.list("jobs/a", "2013-01-18_17-33-52", null, 1, 1));
+        assertEquals(Arrays.asList("2013-01-18_17-33-51-000", "2013-01-18_17-33-52-000"),
+                store.list("jobs/a", null, null, 0, 2));
+        assertEquals(Arrays.asList("2013-01-18_17-33-54-000"), store.list("jobs/a", null, null, 3, 2));
+        assertEquals(Collections.emptyList(), store.list("jobs/a", null, null, 4, -1));
+        assertEquals(Collections.emptyList(), store.list("jobs/a", null, null, 0, 0));
+        assertEquals("2013-01-18_17-33-54-000", store.latest("jobs/a"));
+        assertEquals("2013-01-18_17-33-50-000", store.latest("jobs/b"));
+    }
+
+    public void testItems() throws IOException {
+        write("config", "2013-01-18_17-33-51-000", "Changed", "<hudson/>");
+        write("hudson.tasks.Maven", "2013-01-18_17-33-51-000", "Changed", "<maven/>");
+        write("jobs/a", "2013-01-18_17-33-51-000", "Created", "<project/>");
+        write("jobs/ab", "2013-01-18_17-33-51-000", "Created", "<project/>");
+        write("jobs/f", "2013-01-18_17-33-51-000", "Created", "<folder/>");
+        write("jobs/f/jobs/b", "2013-01-18_17-33-51-000", "Created", "<project/>");
+        write("jobs/g/jobs/c", "2013-01-18_17-33-51-000", "Created", "<project/>");
+        write("jobs/m/modules/x", "2013-01-18_17-33-51-000", "Created", "<module/>");
+        assertEquals(Arrays.asList("config", "hudson.tasks.Maven", "jobs/a", "jobs/ab", "jobs/f", "jobs/f/jobs/b",
+                "jobs/g/jobs/c", "jobs/m/modules/x"), store.items(""));
+        assertEquals(Arrays.asList("jobs/a", "jobs/ab", "jobs/f", "jobs/f/jobs/b", "jobs/g/jobs/c",
+                "jobs/m/modules/x"), store.items("jobs/"));
+        assertEquals(Arrays.asList("jobs/a", "jobs/ab"), store.items("jobs/a"));
+        assertEquals(Arrays.asList("jobs/f/jobs/b"), store.items("jobs/f/"));
+        assertEquals(Collections.emptyList(), store.items("jobs/z"));
+    }
+
+    public void testDelete() throws IOException {
+        write("jobs/a", "2013-01-18_17-33-51-000", "Created", "<project>1</project>");
+        write("jobs/a", "2013-01-18_17-33-52-000", "Changed", "<project>2</project>");
+        store.delete("jobs/a", "2013-01-18_17-33-51-000");
+        assertFalse(store.exists("jobs/a", "2013-01-18_17-33-51-000"));
+        assertNull(store.readConfig("jobs/a", "2013-01-18_17-33-51-000"));
+        assertEquals(Arrays.asList("2013-01-18_17-33-52-000"), store.list("jobs/a", null, null, 0, -1));
+        store.delete("jobs/a", "2013-01-18_17-33-52-000");
+        assertNull(store.latest("jobs/a"));
+        assertEquals(Collections.emptyList(), store.items(""));
+    }
+
+    public void testMove() throws IOException {
+        write("jobs/a", "2013-01-18_17-33-51-000", "Created", "<project>1</project>");
+        write("jobs/a", "2013-01-18_17-33-52-000", "Changed", "<project>2</project>");
+        store.move("jobs/a", "jobs/a_deleted_20130118_173353_000");
+        assertEquals(Arrays.asList("jobs/a_deleted_20130118_173353_000"), store.items(""));
+        assertEquals(Collections.emptyList(), store.list("jobs/a", null, null, 0, -1));
+        assertEquals("<project>2</project>", readConfig("jobs/a_deleted_20130118_173353_000",
+                "2013-01-18_17-33-52-000"));
+        assertEquals("Created", store.readDescr("jobs/a_deleted_20130118_173353_000",
+                "2013-01-18_17-33-51-000").getOperation());
+    }
+
+    public void testMoveMergesIntoExistingItem() throws IOException {
+        write("jobs/old", "2013-01-18_17-33-51-000", "Created", "<project>1</project>");
+        write("jobs/old", "2013-01-18_17-33-52-000", "Changed", "<project>2</project>");
+        write("jobs/new", "2013-01-18_17-33-52-000", "Changed", "<project>x</project>");
+        write("jobs/new", "2013-01-18_17-33-53-000", "Renamed", "<project>3</project>");
+        store.move("jobs/old", "jobs/new");
+        assertEquals(Arrays.asList("jobs/new"), store.items(""));
+        assertEquals(Arrays.asList("2013-01-18_17-33-51-000", "2013-01-18_17-33-52-000", "2013-01-18_17-33-53-000"),
+                store.list("jobs/new", null, null, 0, -1));
+        assertEquals("<project>2</project>", readConfig("jobs/new", "2013-01-18_17-33-52-000"));
+        assertEquals("<project>3</project>", readConfig("jobs/new", "2013-01-18_17-33-53-000"));
+    }
+
+    public void testMoveTakesNestedItems() throws IOException {
+        write("jobs/f", "2013-01-18_17-33-51-000", "Created", "<folder/>");
+        write("jobs/f/jobs/b", "2013-01-18_17-33-52-000", "Created", "<project/>");
+        store.move("jobs/f", "jobs/g");
+        assertEquals(Arrays.asList("jobs/g", "jobs/g/jobs/b"), store.items(""));
+        assertEquals("<project/>", readConfig("jobs/g/jobs/b", "2013-01-18_17-33-52-000"));
+    }
+
+    public void testAttachments() throws IOException {
+        write("jobs/a", "2013-01-18_17-33-51-000", "Created", "<project/>");
+        assertNull(store.readAttachment("jobs/a", "2013-01-18_17-33-51-000", "blame.txt"));
+        store.writeAttachment("jobs/a", "2013-01-18_17-33-51-000", "blame.txt", "1".getBytes("UTF-8"));
+        store.writeAttachment("jobs/a", "2013-01-18_17-33-51-000", "blame.txt", "2".getBytes("UTF-8"));
+        assertEquals("2", readFully(store.readAttachment("jobs/a", "2013-01-18_17-33-51-000", "blame.txt")));
+        assertEquals("config.xml", store.readConfigName("jobs/a", "2013-01-18_17-33-51-000"));
+        store.move("jobs/a", "jobs/b");
+        assertEquals("2", readFully(store.readAttachment("jobs/b", "2013-01-18_17-33-51-000", "blame.txt")));
+        try {
+            store.writeAttachment("jobs/b", "2013-01-18_17-33-52-000", "blame.txt", new byte[0]);
+            fail("entry does not exist");
+        } catch (IOException expected) {
+            // expected
+        }
+        try {
+            store.writeAttachment("jobs/b", "2013-01-18_17-33-51-000", "../blame.txt", new byte[0]);
+            fail("invalid name");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+        store.delete("jobs/b", "2013-01-18_17-33-51-000");
+        assertNull(store.readAttachment("jobs/b", "2013-01-18_17-33-51-000", "blame.txt"));
+    }
+
+    public void testLocksAreReentrant() {
+        final HistoryStore.Lock lock = store.getLock("jobs/a");
+        lock.lock();
+        try {
+            store.getLock("jobs/a").lock();
+            store.getLock("jobs/a").unlock();
+            final HistoryStore.Lock moveLock = store.getMoveLock("jobs/a", "jobs/b");
+            moveLock.lock();
+            moveLock.unlock();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void testSummarize() throws IOException {
+        assertEquals(0, store.summarize("jobs/a").getEntries());
+        write("jobs/a", "2013-01-18_17-33-51-000", "Created", "<project>1</project>");
+        write("jobs/a", "2013-01-18_17-33-52-000", "Changed", "<project>22</project>");
+        HistoryManifest manifest = store.summarize("jobs/a");
+        assertEquals(2, manifest.getEntries());
+        assertEquals("2013-01-18_17-33-51-000", manifest.getFirst());
+        assertTrue(manifest.isFirstCreated());
+        assertEquals("2013-01-18_17-33-52-000", manifest.getLast());
+        assertFalse(manifest.isLastDeleted());
+        assertEquals(41, manifest.getBytes());
+
+        write("jobs/a", "2013-01-18_17-33-53-000", "Deleted", null);
+        manifest = store.summarize("jobs/a");
+        assertEquals(3, manifest.getEntries());
+        assertTrue(manifest.isLastDeleted());
+        assertEquals(41, manifest.getBytes());
+
+        store.delete("jobs/a", "2013-01-18_17-33-53-000");
+        store.delete("jobs/a", "2013-01-18_17-33-51-000");
+        manifest = store.summarize("jobs/a");
+        assertEquals(1, manifest.getEntries());
+        assertEquals("2013-01-18_17-33-52-000", manifest.getFirst());
+        assertFalse(manifest.isFirstCreated());
+        assertEquals("2013-01-18_17-33-52-000", manifest.getLast());
+        assertFalse(manifest.isLastDeleted());
+        assertEquals(21, manifest.getBytes());
+
+        store.move("jobs/a", "jobs/b");
+        assertEquals(0, store.summarize("jobs/a").getEntries());
+        assertEquals(1, store.summarize("jobs/b").getEntries());
+    }
+
+    private boolean write(String item, String timestamp, String operation, String config) throws IOException {
+        final HistoryDescr descr = new HistoryDescr("User", "user", operation, timestamp);
+        return store.write(item, timestamp, descr, "config.xml",
+                config == null ? null : new ByteArrayInputStream(config.getBytes("UTF-8")));
+    }
+
+    private String readConfig(String item, String timestamp) throws IOException {
+        final InputStream in = store.readConfig(item, timestamp);
+        assertNotNull(item + "/" + timestamp, in);
+        return readFully(in);
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        assertNotNull(in);
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void deleteRecursive(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                deleteRecursive(child);
+            }
+        }
+        assertTrue(file.getPath(), file.delete());
+    }
+}
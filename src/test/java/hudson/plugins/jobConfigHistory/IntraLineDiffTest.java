@@ -0,0 +1,65 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link IntraLineDiff}.
+ */
+public class IntraLineDiffTest extends TestCase {
+
+    public void testTokenizeKeepsEntities() {
+        assertEquals(Arrays.asList("&lt;", "name", "&gt;", "a", " ", "b", "&#39;", "-"),
+                IntraLineDiff.tokenize("&lt;name&gt;a b&#39;-"));
+    }
+
+    public void testTokenizeKeepsEveryCharacter() {
+        final String line = "a\u2028b\r \t&amp x";
+        final StringBuilder joined = new StringBuilder();
+        for (final String token : IntraLineDiff.tokenize(line)) {
+            joined.append(token);
+        }
+        assertEquals(line, joined.toString());
+    }
+
+    public void testMarksChangedWords() {
+        final List<List<IntraLineDiff.Segment>> segments = IntraLineDiff.diff(
+                "  &lt;command&gt;echo hello world&lt;/command&gt;",
+                "  &lt;command&gt;echo goodbye world&lt;/command&gt;", new IntraLineDiff.Budget());
+        assertEquals("  &lt;command&gt;echo |[hello]| world&lt;/command&gt;", render(segments.get(0)));
+        assertEquals("  &lt;command&gt;echo |[goodbye]| world&lt;/command&gt;", render(segments.get(1)));
+    }
+
+    public void testMarksInsertedWordsOnOneSideOnly() {
+        final List<List<IntraLineDiff.Segment>> segments = IntraLineDiff.diff("a b", "a x b",
+                new IntraLineDiff.Budget());
+        assertEquals("a b", render(segments.get(0)));
+        assertEquals("a |[x ]|b", render(segments.get(1)));
+    }
+
+    public void testLongLinesAreMarkedAsWhole() {
+        final StringBuilder line = new StringBuilder();
+        for (int i = 0; i < IntraLineDiff.MAX_LINE_TOKENS; i++) {
+            line.append("w ");
+        }
+        assertNull(IntraLineDiff.tokenize(line.toString()));
+        assertNull(IntraLineDiff.diff(line.toString(), "w", new IntraLineDiff.Budget()));
+    }
+
+    public void testExhaustedBudget() {
+        final IntraLineDiff.Budget budget = new IntraLineDiff.Budget(6, 10000);
+        assertNotNull(IntraLineDiff.diff("a b", "a c", budget));
+        assertNull(IntraLineDiff.diff("a b", "a c", budget));
+        assertNull(IntraLineDiff.diff("a", "b", new IntraLineDiff.Budget(100, -1)));
+    }
+
+    private static String render(List<IntraLineDiff.Segment> segments) {
+        final StringBuilder result = new StringBuilder();
+        for (final IntraLineDiff.Segment segment : segments) {
+            result.append(segment.isChanged() ? "|[" + segment.getText() + "]|" : segment.getText());
+        }
+        return result.toString();
+    }
+}
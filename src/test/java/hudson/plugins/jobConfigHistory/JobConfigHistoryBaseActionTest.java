@@ -8,8 +8,12 @@ import hudson.model.FreeStyleProject;
 import hudson.security.AccessControlled;
 import hudson.security.LegacyAuthorizationStrategy;
 
+import hudson.plugins.jobConfigHistory.JobConfigHistoryBaseAction.SideBySideView.Line;
+
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 
 import org.jvnet.hudson.test.Bug;
 import org.xml.sax.SAXException;
@@ -109,6 +113,53 @@ public class JobConfigHistoryBaseActionTest extends AbstractHudsonTestCaseDeleti
         assertEquals("--- old/config.xml\n+++ new/config.xml\n@@ -1,2 +1,3 @@\n 123\n 346\n+123\n", makeResultPlatformIndependent(action.getDiffAsString(file1, file2, "123\n346".split("\n"), "123\n346\n123".split("\n"))));
     }
 
+    /**
+     * Overlapping hunks repeat the unchanged lines at their borders, which are shown once.
+     */
+    public void testDuplicateUnchangedLinesAreDropped() throws IOException {
+        final List<Line> lines = createJobConfigHistoryBaseAction().getDiffLines(Arrays.asList(
+                "--- old/config.xml", "+++ new/config.xml",
+                "@@ -1,3 +1,3 @@", " a", "-b", "+B", " c",
+                "@@ -3,2 +3,2 @@", " c", "-d", "+D"));
+        assertEquals("1:a|1:a 2:b|2:B 3:c|3:c 4:d|4:D", describe(lines));
+    }
+
+    /**
+     * A changed line repeated by a later hunk replaces the first one in its place.
+     */
+    public void testDuplicateChangedLinesAreReplacedInPlace() throws IOException {
+        final List<Line> lines = createJobConfigHistoryBaseAction().getDiffLines(Arrays.asList(
+                "--- old/config.xml", "+++ new/config.xml",
+                "@@ -1,2 +1,2 @@", " a", "-b", "+B",
+                "@@ -2,3 +2,3 @@", "-b", "+X", " c", "-d", "+D",
+                "@@ -4,2 +4,2 @@", "-d", "+Y", " e"));
+        assertEquals("1:a|1:a 2:b|2:X 3:c|3:c 4:d|4:Y 5:e|5:e", describe(lines));
+    }
+
+    /**
+     * Only the line numbers on the left side identify duplicates, inserted lines are all kept.
+     */
+    public void testDuplicateRightLineNumbersAreKept() throws IOException {
+        final List<Line> lines = createJobConfigHistoryBaseAction().getDiffLines(Arrays.asList(
+                "--- old/config.xml", "+++ new/config.xml",
+                "@@ -1,1 +1,2 @@", " a", "+x",
+                "@@ -1,1 +1,2 @@", " a", "+x"));
+        assertEquals("1:a|1:a 0:null|2:x 0:null|2:x", describe(lines));
+    }
+
+    private static String describe(List<Line> lines) {
+        final StringBuilder description = new StringBuilder();
+        for (final Line line : lines) {
+            if (description.length() > 0) {
+                description.append(' ');
+            }
+            description.append(line.getLeft().getLineNumber()).append(':').append(line.getLeft().getText())
+                    .append('|').append(line.getRight().getLineNumber()).append(':')
+                    .append(line.getRight().getText());
+        }
+        return description.toString();
+    }
+
     private String makeResultPlatformIndependent(final String result) {
         return result.replace("\\", "/");
     }
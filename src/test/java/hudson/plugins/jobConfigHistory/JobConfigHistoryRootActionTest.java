@@ -342,4 +342,17 @@ public class JobConfigHistoryRootActionTest extends AbstractHudsonTestCaseDeleti
         WebAssert.assertTextPresent(jobPage, name);
         WebAssert.assertTextPresent(jobPage, description);
     }
+
+    /**
+     * Tests the keys of jobs deleted from folders.
+     */
+    public void testDeletedItemKey() {
+        assertEquals("jobs/a_deleted_20130118_173351_000",
+                JobConfigHistoryRootAction.getDeletedItemKey("a_deleted_20130118_173351_000"));
+        assertEquals("jobs/f/jobs/g/jobs/a_deleted_20130118_173351_000",
+                JobConfigHistoryRootAction.getDeletedItemKey("f/g/a_deleted_20130118_173351_000"));
+        assertNull(JobConfigHistoryRootAction.getDeletedItemKey("f_deleted_20130118_173351_000/a"));
+        assertNull(JobConfigHistoryRootAction.getDeletedItemKey("f//a_deleted_20130118_173351_000"));
+        assertNull(JobConfigHistoryRootAction.getDeletedItemKey("../a_deleted_20130118_173351_000"));
+    }
 }
@@ -102,12 +102,11 @@ public class JobConfigHistoryTest extends AbstractHudsonTestCaseDeletingInstance
             submit(form);
 
             final FreeStyleProject project = createFreeStyleProject("testproject");
-            final File projectHistoryDir = jch.getHistoryDir(project.getConfigFile());
             final JobConfigHistoryProjectAction projectAction = new JobConfigHistoryProjectAction(project);
 
             // clear out all history - setting to 1 will clear out all with the expectation that we are creating a new entry
             jch.setMaxHistoryEntries("1");
-            jch.checkForPurgeByQuantity(projectHistoryDir);
+            jch.checkForPurgeByQuantity(jch.getHistoryKey(project.getConfigFile()));
 
             // reset to empty value
             jch.setMaxHistoryEntries("");
@@ -207,15 +206,16 @@ public class JobConfigHistoryTest extends AbstractHudsonTestCaseDeletingInstance
         try {
             final FreeStyleProject project = createFreeStyleProject("newproject");
             final File historyDir = jch.getHistoryDir(project.getConfigFile());
+            final String item = jch.getHistoryKey(project.getConfigFile());
             final JobConfigHistoryProjectAction projectAction = new JobConfigHistoryProjectAction(project);
 
             // check with default value
-            jch.checkForPurgeByQuantity(historyDir);
+            jch.checkForPurgeByQuantity(item);
             assertEquals("Verify 2 history entries exist, default purge quantity: " + projectAction.getJobConfigs(), 2, projectAction.getJobConfigs().size());
 
             // set to negative value, ensure no purge happens
             jch.setMaxHistoryEntries("-1");
-            jch.checkForPurgeByQuantity(historyDir);
+            jch.checkForPurgeByQuantity(item);
             assertEquals("Verify 2 history entries, invalid max quantity.", 2, projectAction.getJobConfigs().size());
 
             // set to 3, ensure no purge happens
@@ -223,13 +223,13 @@ public class JobConfigHistoryTest extends AbstractHudsonTestCaseDeletingInstance
             assertEquals("Verify 2 history entries, max entries > current.", 2, projectAction.getJobConfigs().size());
 
             // purge attempt on invalid directory
-            jch.checkForPurgeByQuantity(new File("/invaliddir"));
+            jch.checkForPurgeByQuantity("jobs/invaliddir");
             assertEquals("Verify history unaffected (still 2 entries) after attempt to purge invalid directory.", 2, projectAction.getJobConfigs().size());
 
             // clear out all history - setting to 1 will clear out all with the expectation that we are creating a new entry
             // except for the 'created' entry which is kept anyway 
             jch.setMaxHistoryEntries("1");
-            jch.checkForPurgeByQuantity(historyDir);
+            jch.checkForPurgeByQuantity(item);
             assertEquals("Verify only one entry remains (the 'created' entry of the project).", 1, projectAction.getJobConfigs().size());
 
             // recreate a history entry, set to read-only status, verify it is not deleted
@@ -248,7 +248,7 @@ public class JobConfigHistoryTest extends AbstractHudsonTestCaseDeletingInstance
                 }
                 historyDir.setWritable(false);
                 toRestore.add(historyDir);
-                jch.checkForPurgeByQuantity(historyDir);
+                jch.checkForPurgeByQuantity(item);
                 assertEquals("Verify purge did not happen.", 1, projectAction.getJobConfigs().size());
 
                 for (final File file : toRestore) {
@@ -269,7 +269,7 @@ public class JobConfigHistoryTest extends AbstractHudsonTestCaseDeletingInstance
         assertEquals("Verify 5 original project history entries.", 5,  historyDir.listFiles().length);
 
         jch.setMaxHistoryEntries("1");
-        jch.checkForPurgeByQuantity(historyDir);
+        jch.checkForPurgeByQuantity("jobs/" + name);
         
         assertEquals("Verify no project history entries left.", 0,  historyDir.listFiles().length);
     }
@@ -282,7 +282,7 @@ public class JobConfigHistoryTest extends AbstractHudsonTestCaseDeletingInstance
         assertEquals("Verify 5 original project history entries.", 5,  historyDir.listFiles().length);
 
         jch.setMaxHistoryEntries("1");
-        jch.checkForPurgeByQuantity(historyDir);
+        jch.checkForPurgeByQuantity("jobs/" + name);
         
         assertEquals("Verify 2 project history entries left.", 2,  historyDir.listFiles().length);
     }
@@ -295,11 +295,22 @@ public class JobConfigHistoryTest extends AbstractHudsonTestCaseDeletingInstance
         assertEquals("Verify no original project history entries.", 0,  historyDir.listFiles().length);
 
         jch.setMaxHistoryEntries("1");
-        jch.checkForPurgeByQuantity(historyDir);
+        jch.checkForPurgeByQuantity("jobs/" + name);
         
         assertEquals("Verify still no project history entries.", 0,  historyDir.listFiles().length);
     }
 
+    public void testChangingTheDiffAlgorithmClearsTheDiffCache() {
+        final JobConfigHistory jch = hudson.getPlugin(JobConfigHistory.class);
+        final File itemDir = new File(jch.getJobHistoryRootDir(), "Test");
+        jch.getDiffCache().put(new File(itemDir, "2013-01-18_17-33-51"), new File(itemDir, "2013-01-18_17-34-12"),
+                Collections.singletonList(new JobConfigHistoryBaseAction.SideBySideView.Line()));
+        jch.setDiffAlgorithm(jch.getDiffAlgorithm());
+        assertEquals(1, jch.getDiffCache().getEntryCount());
+        jch.setDiffAlgorithm(AbstractDiffAlgorithm.HISTOGRAM);
+        assertEquals(0, jch.getDiffCache().getEntryCount());
+    }
+
     public void testAbsPathHistoryRootDir() {
         final JobConfigHistory jch = hudson.getPlugin(JobConfigHistory.class);
         try {
@@ -0,0 +1,144 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import bmsi.util.Diff;
+import bmsi.util.DiffPrint;
+
+/**
+ * Tests for {@link MappedLineIndex}.
+ */
+public class MappedLineIndexTest extends TestCase {
+
+    public void testSplitsLikeStringSplit() throws IOException {
+        final String[] texts = {"", "\n", "\n\n", "a", "a\n", "a\n\n", "\na", "a\r\nb", "a\n\nb\n", "\u00e4\u20ac\nb"};
+        for (final String text : texts) {
+            final MappedLineIndex index = index(text);
+            final String[] expected = text.split("\\n");
+            assertEquals(text, expected.length, index.size());
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(text, expected[i], index.getLine(i));
+            }
+        }
+    }
+
+    public void testLineIdsMatchHashLines() throws IOException {
+        final String text0 = "a\nb\na\n\u00e4\n";
+        final String text1 = "b\nc\n\u00e4\na";
+        final int[][] expected = AbstractDiffAlgorithm.hashLines(text0.split("\\n"), text1.split("\\n"));
+        final int[][] ids = MappedLineIndex.lineIds(index(text0), index(text1));
+        assertEquals(Arrays.toString(expected[0]), Arrays.toString(ids[0]));
+        assertEquals(Arrays.toString(expected[1]), Arrays.toString(ids[1]));
+    }
+
+    public void testUnifiedOutputOfSingleChangeMatchesDiffPrint() throws IOException {
+        final String text0 = "<project>\n  <a/>\n  <b/>\n  <c/>\n  <d/>\n</project>";
+        final String text1 = "<project>\n  <a/>\n  <b/>\n  <x/>\n  <d/>\n</project>\n";
+        final String[] lines0 = text0.split("\\n");
+        final String[] lines1 = text1.split("\\n");
+        final int[][] ids = AbstractDiffAlgorithm.hashLines(lines0, lines1);
+        final Diff.change script = MyersDiffAlgorithm.INSTANCE.diff(ids[0], ids[1]);
+
+        final StringWriter expected = new StringWriter();
+        final DiffPrint.UnifiedPrint unifiedPrint = new DiffPrint.UnifiedPrint(lines0, lines1);
+        unifiedPrint.setOutput(expected);
+        unifiedPrint.print_header("old/config.xml", "new/config.xml");
+        unifiedPrint.print_script(script);
+        assertEquals(expected.toString(), printUnified(text0, text1, script));
+    }
+
+    public void testUnifiedOutputTransformsFirstIntoSecondFile() throws IOException {
+        final Random random = new Random(4711);
+        for (int n = 0; n < 300; n++) {
+            final String text0 = randomText(random);
+            final String text1 = random.nextInt(10) == 0 ? text0 : randomText(random);
+            final String[] lines0 = text0.split("\\n");
+            final String[] lines1 = text1.split("\\n");
+            final int[][] ids = AbstractDiffAlgorithm.hashLines(lines0, lines1);
+            final Diff.change script = HistogramDiffAlgorithm.INSTANCE.diff(ids[0], ids[1]);
+            final String[] output = printUnified(text0, text1, script).split("\\n");
+            // apply the hunks to the first file
+            final List<String> result = new ArrayList<String>();
+            int pos = 0;
+            for (int i = 2; i < output.length; i++) {
+                if (output[i].startsWith("@@ -")) {
+                    final String range = output[i].substring(4, output[i].indexOf(' ', 4));
+                    final int start = Integer.parseInt(range.split(",")[0]) - 1;
+                    assertTrue("hunks must not overlap", start >= pos);
+                    while (pos < start) {
+                        result.add(lines0[pos++]);
+                    }
+                } else if (output[i].startsWith("+")) {
+                    result.add(output[i].substring(1));
+                } else {
+                    assertEquals(lines0[pos++], output[i].substring(1));
+                    if (output[i].startsWith(" ")) {
+                        result.add(output[i].substring(1));
+                    }
+                }
+            }
+            while (pos < lines0.length) {
+                result.add(lines0[pos++]);
+            }
+            assertEquals(Arrays.asList(lines1), result);
+        }
+    }
+
+    public void testMappedFile() throws IOException {
+        final File file = File.createTempFile("config", ".xml");
+        try {
+            final StringBuilder text = new StringBuilder();
+            while (text.length() < MappedLineIndex.MAP_THRESHOLD) {
+                text.append("<line>").append(text.length()).append("</line>\n");
+            }
+            final FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(text.toString().getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+            final MappedLineIndex index = MappedLineIndex.open(file);
+            final String[] expected = text.toString().split("\\n");
+            assertEquals(expected.length, index.size());
+            assertEquals(expected[expected.length - 1], index.getLine(expected.length - 1));
+        } finally {
+            file.delete();
+        }
+    }
+
+    private String printUnified(String text0, String text1, Diff.change script) throws IOException {
+        final StringWriter output = new StringWriter();
+        MappedLineIndex.printUnified(new PrintWriter(output), "old/config.xml", "new/config.xml",
+                index(text0), index(text1), script);
+        return output.toString();
+    }
+
+    private MappedLineIndex index(String text) throws IOException {
+        return new MappedLineIndex(ByteBuffer.wrap(text.getBytes("UTF-8")));
+    }
+
+    private String randomText(Random random) {
+        final StringBuilder text = new StringBuilder();
+        final int lines = random.nextInt(30);
+        for (int i = 0; i < lines; i++) {
+            if (random.nextInt(8) > 0) {
+                text.append("line").append(random.nextInt(12));
+            }
+            text.append('\n');
+        }
+        if (random.nextBoolean() && lines > 0) {
+            text.append("last");
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,145 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link PointInTimeArchive}.
+ */
+public class PointInTimeArchiveTest extends TestCase {
+
+    private File rootDir;
+
+    private File jobsDir;
+
+    private ExecutorService executor;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        rootDir = File.createTempFile("jobConfigHistory", "");
+        assertTrue(rootDir.delete());
+        assertTrue(rootDir.mkdirs());
+        jobsDir = new File(rootDir, "jobs");
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+        delete(rootDir);
+        super.tearDown();
+    }
+
+    public void testPicksNewestEntryAtOrBeforeTime() throws IOException {
+        final File item = new File(jobsDir, "a");
+        final FileHistoryStore store = createStore();
+        createEntry(item, "2013-01-18_10-00-00-000", "v1");
+        createEntry(item, "2013-01-18_11-00-00-000", "v2");
+        createEntry(item, "2013-01-18_12-00-00-000", "v3");
+        assertNull(PointInTimeArchive.findEntry(store, "jobs/a", "2013-01-18_09-59-59-999"));
+        assertEquals("2013-01-18_10-00-00-000",
+                PointInTimeArchive.findEntry(store, "jobs/a", "2013-01-18_10-00-00-000"));
+        assertEquals("2013-01-18_11-00-00-000", PointInTimeArchive.findEntry(store, "jobs/a", "2013-01-18_11-59"));
+        assertEquals("2013-01-18_12-00-00-000", PointInTimeArchive.findEntry(store, "jobs/a", "2014"));
+    }
+
+    public void testHonoursDeletion() throws IOException {
+        final File item = new File(jobsDir, "a_deleted_20130118_120000");
+        final String key = "jobs/a_deleted_20130118_120000";
+        createEntry(item, "2013-01-18_10-00-00-000", "v1");
+        createEntry(item, "2013-01-18_12-00-00-000", null);
+        assertEquals("2013-01-18_10-00-00-000", PointInTimeArchive.findEntry(createStore(), key, "2013-01-18_11"));
+        assertNull(PointInTimeArchive.findEntry(createStore(), key, "2013-01-18_13"));
+    }
+
+    public void testArchive() throws IOException {
+        createEntry(new File(jobsDir, "a"), "2013-01-18_10-00-00-000", "a1");
+        createEntry(new File(jobsDir, "a"), "2013-01-18_12-00-00-000", "a2");
+        createEntry(new File(jobsDir, "b_deleted_20130118_110000"), "2013-01-18_09-00-00-000", "b1");
+        createEntry(new File(jobsDir, "b_deleted_20130118_110000"), "2013-01-18_11-00-00-000", null);
+        createEntry(new File(jobsDir, "c_deleted_20130118_130000"), "2013-01-18_09-00-00-000", "c1");
+        createEntry(new File(jobsDir, "c_deleted_20130118_130000"), "2013-01-18_13-00-00-000", null);
+        createEntry(new File(jobsDir, "folder"), "2013-01-18_09-00-00-000", "f1");
+        createEntry(new File(jobsDir, "folder/jobs/d"), "2013-01-18_09-30-00-000", "d1");
+        createEntry(new File(jobsDir, "e"), "2013-01-18_11-30-00-000", "e1");
+        createEntry(new File(rootDir, "config"), "2013-01-18_08-00-00-000", "hudson1");
+
+        final List<PointInTimeArchive.Member> members = PointInTimeArchive.scan(createStore(), true, true,
+                "2013-01-18_11-00-00-000", executor);
+        final List<String> paths = new ArrayList<String>();
+        for (final PointInTimeArchive.Member member : members) {
+            paths.add(member.getPath());
+        }
+        assertEquals("[config.xml, jobs/a/config.xml, jobs/c/config.xml, jobs/folder/config.xml,"
+                + " jobs/folder/jobs/d/config.xml]", paths.toString());
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PointInTimeArchive.write(members, out);
+        final ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()));
+        final List<String> contents = new ArrayList<String>();
+        for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+            final ByteArrayOutputStream content = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[256];
+            int read;
+            while ((read = zip.read(buffer)) >= 0) {
+                content.write(buffer, 0, read);
+            }
+            contents.add(entry.getName() + "=" + content.toString("UTF-8"));
+        }
+        assertEquals("[config.xml=hudson1, jobs/a/config.xml=a1, jobs/c/config.xml=c1, jobs/folder/config.xml=f1,"
+                + " jobs/folder/jobs/d/config.xml=d1]", contents.toString());
+    }
+
+    public void testSystemConfigsOnly() throws IOException {
+        createEntry(new File(jobsDir, "a"), "2013-01-18_10-00-00-000", "a1");
+        createEntry(new File(rootDir, "config"), "2013-01-18_08-00-00-000", "hudson1");
+        final List<PointInTimeArchive.Member> members = PointInTimeArchive.scan(createStore(), true, false, "2014",
+                executor);
+        assertEquals(1, members.size());
+        assertEquals("config.xml", members.get(0).getPath());
+    }
+
+    private FileHistoryStore createStore() {
+        return new FileHistoryStore(rootDir, jobsDir);
+    }
+
+    private static void createEntry(File itemDir, String timestamp, String config) throws IOException {
+        final File historyDir = new File(itemDir, timestamp);
+        assertTrue(historyDir.mkdirs());
+        write(new File(historyDir, JobConfigHistoryConsts.HISTORY_FILE), "<history/>");
+        if (config != null) {
+            write(new File(historyDir, "config.xml"), config);
+        }
+    }
+
+    private static void write(File file, String content) throws IOException {
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void delete(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                delete(child);
+            }
+        }
+        assertTrue(file.delete());
+    }
+}
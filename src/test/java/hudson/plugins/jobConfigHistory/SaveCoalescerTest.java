@@ -0,0 +1,113 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link SaveCoalescer}.
+ */
+public class SaveCoalescerTest extends TestCase {
+
+    private ScheduledExecutorService scheduler;
+
+    private SaveCoalescer coalescer;
+
+    private List<String> saved;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        scheduler = Executors.newScheduledThreadPool(2);
+        coalescer = new SaveCoalescer(scheduler);
+        saved = Collections.synchronizedList(new ArrayList<String>());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        scheduler.shutdownNow();
+        super.tearDown();
+    }
+
+    public void testSavesAtOnceWithoutWindow() {
+        coalescer.submit(new File("a/config.xml"), save("a1"));
+        coalescer.submit(new File("a/config.xml"), save("a2"));
+        assertEquals(2, saved.size());
+    }
+
+    public void testBurstIsSavedOnceWithLastChange() throws InterruptedException {
+        coalescer.setWindowMillis(200);
+        final CountDownLatch done = new CountDownLatch(2);
+        coalescer.submit(new File("a/config.xml"), save("a1"));
+        coalescer.submit(new File("b/config.xml"), countDown(save("b1"), done));
+        coalescer.submit(new File("a/config.xml"), save("a2"));
+        coalescer.submit(new File("a/config.xml"), countDown(save("a3"), done));
+        assertTrue(saved.isEmpty());
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(2, saved.size());
+        assertTrue(saved.contains("a3"));
+        assertTrue(saved.contains("b1"));
+    }
+
+    public void testFlushSavesPendingChangeAtOnce() {
+        coalescer.setWindowMillis(60000);
+        coalescer.submit(new File("a/config.xml"), save("a1"));
+        coalescer.submit(new File("b/config.xml"), save("b1"));
+        coalescer.flush(new File("a/config.xml"));
+        assertEquals(Collections.singletonList("a1"), saved);
+        coalescer.flush(new File("a/config.xml"));
+        assertEquals(1, saved.size());
+        coalescer.flushAll();
+        assertEquals(2, saved.size());
+        assertEquals("b1", saved.get(1));
+    }
+
+    public void testManyItemsInParallel() throws InterruptedException {
+        coalescer.setWindowMillis(1000);
+        final int items = 50;
+        final CountDownLatch done = new CountDownLatch(items);
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            final Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < items; i++) {
+                        coalescer.submit(new File("job" + i + "/config.xml"), countDown(save("job" + i), done));
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        Thread.sleep(200);
+        assertEquals(items, saved.size());
+    }
+
+    private Runnable save(final String name) {
+        return new Runnable() {
+            public void run() {
+                saved.add(name);
+            }
+        };
+    }
+
+    private static Runnable countDown(final Runnable save, final CountDownLatch latch) {
+        return new Runnable() {
+            public void run() {
+                save.run();
+                latch.countDown();
+            }
+        };
+    }
+}
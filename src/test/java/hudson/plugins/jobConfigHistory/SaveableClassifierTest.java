@@ -0,0 +1,67 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.io.File;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link SaveableClassifier}.
+ */
+public class SaveableClassifierTest extends TestCase {
+
+    private final File root = new File("jenkins-home").getAbsoluteFile();
+
+    private final SaveableClassifier classifier = new SaveableClassifier();
+
+    public void testRejectsEverythingByDefault() {
+        assertFalse(classifier.classify(new File(root, "config.xml")));
+        classifier.configure(root, false, null);
+        assertFalse(classifier.classify(new File(root, "config.xml")));
+        assertEquals(0, classifier.getAcceptedCount());
+        assertEquals(2, classifier.getRejectedCount());
+    }
+
+    public void testAcceptsFilesDirectlyBeneathRoot() {
+        classifier.configure(root, true, null);
+        assertTrue(classifier.classify(new File(root, "config.xml")));
+        assertTrue(classifier.classify(new File(root, "hudson.tasks.Maven.xml")));
+        assertFalse(classifier.classify(new File(root, "jobs/a/config.xml")));
+        assertFalse(classifier.classify(new File(root, "jobs/a/builds/1/build.xml")));
+        assertFalse(classifier.classify(new File(root.getParentFile(), "config.xml")));
+        assertFalse(classifier.classify(new File(root.getPath() + "2", "config.xml")));
+        assertFalse(classifier.classify(root));
+        assertEquals(2, classifier.getAcceptedCount());
+        assertEquals(5, classifier.getRejectedCount());
+    }
+
+    public void testExcludedNamesAreRemembered() {
+        classifier.configure(root, true, Pattern.compile(JobConfigHistoryConsts.DEFAULT_EXCLUDE));
+        for (int i = 0; i < 3; i++) {
+            assertFalse(classifier.classify(new File(root, "queue.xml")));
+            assertFalse(classifier.classify(new File(root, "nodeMonitors.xml")));
+            assertTrue(classifier.classify(new File(root, "config.xml")));
+        }
+        assertEquals(3, classifier.getNameCount());
+        assertEquals(3, classifier.getAcceptedCount());
+        assertEquals(6, classifier.getRejectedCount());
+    }
+
+    public void testReconfigureForgetsDecisions() {
+        classifier.configure(root, true, null);
+        assertTrue(classifier.classify(new File(root, "queue.xml")));
+        classifier.configure(root, true, Pattern.compile("queue"));
+        assertEquals(0, classifier.getNameCount());
+        assertFalse(classifier.classify(new File(root, "queue.xml")));
+    }
+
+    public void testManyNames() {
+        classifier.configure(root, true, Pattern.compile("7"));
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < SaveableClassifier.MAX_NAMES; i++) {
+                assertEquals(!String.valueOf(i).contains("7"), classifier.isSystemConfigFile(new File(root, i + ".xml")));
+            }
+        }
+        assertEquals(SaveableClassifier.MAX_NAMES / 2, classifier.getNameCount());
+    }
+}
@@ -0,0 +1,105 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Tests for {@link ShardedFileHistoryStore}.
+ */
+public class ShardedFileHistoryStoreTest extends HistoryStoreConformanceTest {
+
+    private File historyRootDir;
+
+    private File jobHistoryRootDir;
+
+    @Override
+    protected HistoryStore createStore(File dir) {
+        historyRootDir = new File(dir, JobConfigHistoryConsts.DEFAULT_HISTORY_DIR);
+        jobHistoryRootDir = new File(historyRootDir, JobConfigHistoryConsts.JOBS_HISTORY_DIR);
+        return new ShardedFileHistoryStore(historyRootDir, jobHistoryRootDir);
+    }
+
+    public void testShardsByMonth() throws IOException {
+        final ShardedFileHistoryStore store = new ShardedFileHistoryStore(historyRootDir, jobHistoryRootDir);
+        write(store, "jobs/f/jobs/b", "2013-01-18_17-33-51-000");
+        write(store, "jobs/f", "2012-12-31_23-59-59-000");
+        assertTrue(new File(jobHistoryRootDir, "f/jobs/b/2013/01/2013-01-18_17-33-51-000/history.xml").exists());
+        assertTrue(new File(jobHistoryRootDir, "f/2012/12/2012-12-31_23-59-59-000/history.xml").exists());
+        assertEquals(Arrays.asList("jobs/f", "jobs/f/jobs/b"), store.items(""));
+    }
+
+    public void testListsOnlyMonthsOfRange() throws IOException {
+        final ShardedFileHistoryStore store = new ShardedFileHistoryStore(historyRootDir, jobHistoryRootDir);
+        write(store, "jobs/a", "2012-11-02_10-00-00-000");
+        write(store, "jobs/a", "2012-12-31_23-59-59-000");
+        write(store, "jobs/a", "2013-01-01_00-00-00-000");
+        write(store, "jobs/a", "2013-02-10_08-00-00-000");
+        // a misplaced entry in a month outside the range would be listed if the month were read
+        final File november = new File(jobHistoryRootDir, "a/2012/11");
+        assertTrue(new File(november, "2012-11-02_10-00-00-000")
+                .renameTo(new File(november, "2013-01-02_00-00-00-000")));
+        assertEquals(Arrays.asList("2012-12-31_23-59-59-000", "2013-01-01_00-00-00-000"),
+                store.list("jobs/a", "2012-12", "2013-02", 0, -1));
+        assertEquals("2013-02-10_08-00-00-000", store.latest("jobs/a"));
+    }
+
+    public void testDeleteRemovesEmptyMonths() throws IOException {
+        final ShardedFileHistoryStore store = new ShardedFileHistoryStore(historyRootDir, jobHistoryRootDir);
+        write(store, "jobs/a", "2012-12-31_23-59-59-000");
+        write(store, "jobs/a", "2013-01-01_00-00-00-000");
+        store.delete("jobs/a", "2012-12-31_23-59-59-000");
+        assertFalse(new File(jobHistoryRootDir, "a/2012").exists());
+        assertTrue(new File(jobHistoryRootDir, "a/2013/01").exists());
+    }
+
+    public void testMigrateInPlace() throws IOException {
+        final FileHistoryStore unsharded = new FileHistoryStore(historyRootDir, jobHistoryRootDir);
+        write(unsharded, "config", "2013-01-18_17-33-51-000");
+        write(unsharded, "jobs/a", "2012-12-31_23-59-59-000");
+        write(unsharded, "jobs/f/jobs/b", "2013-01-18_17-33-52-000");
+        final ShardedFileHistoryStore store = new ShardedFileHistoryStore(historyRootDir, jobHistoryRootDir);
+        write(store, "jobs/a", "2013-01-01_00-00-00-000");
+
+        // entries not moved yet are found as well
+        assertEquals(Arrays.asList("2012-12-31_23-59-59-000", "2013-01-01_00-00-00-000"),
+                store.list("jobs/a", null, null, 0, -1));
+        assertEquals("Changed", store.readDescr("jobs/a", "2012-12-31_23-59-59-000").getOperation());
+        assertFalse(write(store, "jobs/a", "2012-12-31_23-59-59-000"));
+
+        assertEquals(3, store.migrate());
+        assertEquals(0, store.migrate());
+        assertTrue(new File(historyRootDir, "config/2013/01/2013-01-18_17-33-51-000").isDirectory());
+        assertTrue(new File(jobHistoryRootDir, "a/2012/12/2012-12-31_23-59-59-000").isDirectory());
+        assertFalse(new File(jobHistoryRootDir, "a/2012-12-31_23-59-59-000").exists());
+        assertEquals(Arrays.asList("config", "jobs/a", "jobs/f/jobs/b"), store.items(""));
+        assertEquals("2013-01-01_00-00-00-000", store.latest("jobs/a"));
+        assertEquals("config.xml", store.readConfigName("jobs/f/jobs/b", "2013-01-18_17-33-52-000"));
+    }
+
+    public void testFlattenInPlace() throws IOException {
+        final ShardedFileHistoryStore sharded = new ShardedFileHistoryStore(historyRootDir, jobHistoryRootDir);
+        write(sharded, "jobs/a", "2012-12-31_23-59-59-000");
+        write(sharded, "jobs/f/jobs/b", "2013-01-18_17-33-52-000");
+        final ShardedFileHistoryStore store = new ShardedFileHistoryStore(historyRootDir, jobHistoryRootDir, false);
+        write(store, "jobs/a", "2013-01-01_00-00-00-000");
+        assertTrue(new File(jobHistoryRootDir, "a/2013-01-01_00-00-00-000").isDirectory());
+        assertFalse(write(store, "jobs/a", "2012-12-31_23-59-59-000"));
+
+        assertEquals(2, store.flatten());
+        assertEquals(0, store.flatten());
+        assertFalse(new File(jobHistoryRootDir, "a/2012").exists());
+        assertFalse(new File(jobHistoryRootDir, "f/jobs/b/2013").exists());
+        // found without the months afterwards
+        final FileHistoryStore unsharded = new FileHistoryStore(historyRootDir, jobHistoryRootDir);
+        assertEquals(Arrays.asList("2012-12-31_23-59-59-000", "2013-01-01_00-00-00-000"),
+                unsharded.list("jobs/a", null, null, 0, -1));
+        assertEquals(Arrays.asList("jobs/a", "jobs/f/jobs/b"), unsharded.items(""));
+    }
+
+    private static boolean write(HistoryStore store, String item, String timestamp) throws IOException {
+        return store.write(item, timestamp, new HistoryDescr("User", "user", "Changed", timestamp), "config.xml",
+                new ByteArrayInputStream("<project/>".getBytes("UTF-8")));
+    }
+}
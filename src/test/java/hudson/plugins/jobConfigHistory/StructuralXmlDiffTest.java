@@ -0,0 +1,130 @@
+package hudson.plugins.jobConfigHistory;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link StructuralXmlDiff}.
+ */
+public class StructuralXmlDiffTest extends TestCase {
+
+    private static final String OLD_CONFIG = "<?xml version='1.0' encoding='UTF-8'?>\n"
+            + "<project>\n"
+            + "  <description>old</description>\n"
+            + "  <properties>\n"
+            + "    <hudson.model.StringParameterDefinition name=\"A\"><defaultValue>1</defaultValue></hudson.model.StringParameterDefinition>\n"
+            + "    <hudson.model.StringParameterDefinition name=\"B\"><defaultValue>2</defaultValue></hudson.model.StringParameterDefinition>\n"
+            + "  </properties>\n"
+            + "  <builders>\n"
+            + "    <hudson.tasks.Shell><command>make</command></hudson.tasks.Shell>\n"
+            + "    <hudson.tasks.Shell><command>make test</command></hudson.tasks.Shell>\n"
+            + "  </builders>\n"
+            + "  <disabled>false</disabled>\n"
+            + "</project>\n";
+
+    public void testEqualFilesWithDifferentFormatting() throws Exception {
+        final String reformatted = OLD_CONFIG.replace("\n    <", "\n<").replace("><command>", ">\n  <command>");
+        assertEquals(0, diff(OLD_CONFIG, reformatted).size());
+    }
+
+    public void testTextChanged() throws Exception {
+        final List<StructuralXmlDiff.Change> changes = diff(OLD_CONFIG,
+                OLD_CONFIG.replace("<disabled>false", "<disabled>true"));
+        assertEquals(1, changes.size());
+        final StructuralXmlDiff.Change change = changes.get(0);
+        assertEquals(StructuralXmlDiff.Type.TEXT_CHANGED, change.getType());
+        assertEquals("/project/disabled", change.getPath());
+        assertEquals("false", change.getOldValue());
+        assertEquals("true", change.getNewValue());
+        assertEquals(12, change.getOldLine());
+        assertEquals(12, change.getNewLine());
+    }
+
+    public void testTextIsComparedInOnePiece() throws Exception {
+        final List<StructuralXmlDiff.Change> changes = diff(OLD_CONFIG,
+                OLD_CONFIG.replace("<command>make test</command>", "<command>make <![CDATA[test]]></command>")
+                        .replace("<command>make</command>", "<command>ma<![CDATA[ke]]></command>"));
+        assertEquals(changes.toString(), 0, changes.size());
+        final List<StructuralXmlDiff.Change> joined = diff(OLD_CONFIG,
+                OLD_CONFIG.replace("<command>make test</command>", "<command>make<![CDATA[test]]></command>"));
+        assertEquals(1, joined.size());
+        assertEquals("make test", joined.get(0).getOldValue());
+        assertEquals("maketest", joined.get(0).getNewValue());
+    }
+
+    public void testWhitespaceOnlyTextChanged() throws Exception {
+        final List<StructuralXmlDiff.Change> changes = diff(OLD_CONFIG,
+                OLD_CONFIG.replace("<description>old</description>", "<description> </description>"));
+        assertEquals(1, changes.size());
+        assertEquals(" ", changes.get(0).getNewValue());
+        assertEquals(1, diff(OLD_CONFIG.replace("<description>old</description>", "<description></description>"),
+                OLD_CONFIG.replace("<description>old</description>", "<description> </description>")).size());
+    }
+
+    public void testAttributesChanged() throws Exception {
+        final List<StructuralXmlDiff.Change> changes = diff(OLD_CONFIG,
+                OLD_CONFIG.replace("<builders>", "<builders plugin=\"x\">"));
+        assertEquals(1, changes.size());
+        assertEquals(StructuralXmlDiff.Type.ATTRIBUTES_CHANGED, changes.get(0).getType());
+        assertEquals("", changes.get(0).getOldValue());
+        assertEquals("plugin=\"x\"", changes.get(0).getNewValue());
+    }
+
+    public void testOnlyTopmostAddedAndRemovedElementsAreReported() throws Exception {
+        final String newConfig = OLD_CONFIG.replace(
+                "    <hudson.tasks.Shell><command>make test</command></hudson.tasks.Shell>\n", "").replace(
+                "</project>", "<publishers><hudson.tasks.Mailer><recipients>a</recipients></hudson.tasks.Mailer>"
+                        + "</publishers></project>");
+        final List<StructuralXmlDiff.Change> changes = diff(OLD_CONFIG, newConfig);
+        assertEquals(changes.toString(), 2, changes.size());
+        assertEquals(StructuralXmlDiff.Type.REMOVED, changes.get(0).getType());
+        assertEquals("/project/builders/hudson.tasks.Shell[2]", changes.get(0).getPath());
+        assertEquals(0, changes.get(0).getNewLine());
+        assertEquals(StructuralXmlDiff.Type.ADDED, changes.get(1).getType());
+        assertEquals("/project/publishers", changes.get(1).getPath());
+        assertEquals(0, changes.get(1).getOldLine());
+    }
+
+    public void testKeyAttributesIdentifySiblings() throws Exception {
+        final String swapped = OLD_CONFIG.replace("name=\"A\"><defaultValue>1", "name=\"X\"><defaultValue>1")
+                .replace("name=\"B\"><defaultValue>2", "name=\"A\"><defaultValue>1")
+                .replace("name=\"X\"><defaultValue>1", "name=\"B\"><defaultValue>2");
+        final List<StructuralXmlDiff.Change> changes = diff(OLD_CONFIG, swapped);
+        assertEquals(changes.toString(), 1, changes.size());
+        assertEquals(StructuralXmlDiff.Type.MOVED, changes.get(0).getType());
+    }
+
+    public void testReorderedSiblingsAreMoved() throws Exception {
+        final String reordered = OLD_CONFIG.replace("<command>make</command>", "<command>TMP</command>")
+                .replace("<command>make test</command>", "<command>make</command>")
+                .replace("<command>TMP</command>", "<command>make test</command>");
+        final List<StructuralXmlDiff.Change> changes = diff(OLD_CONFIG, reordered);
+        assertEquals(changes.toString(), 1, changes.size());
+        assertEquals(StructuralXmlDiff.Type.MOVED, changes.get(0).getType());
+        // one of both shell steps moved from line 9 to 10 or vice versa
+        assertEquals(19, changes.get(0).getOldLine() + changes.get(0).getNewLine());
+        assertFalse(changes.get(0).getOldLine() == changes.get(0).getNewLine());
+    }
+
+    public void testExternalEntitiesAreNotResolved() throws Exception {
+        final String withEntity = "<?xml version='1.0'?>\n<!DOCTYPE project [<!ENTITY e SYSTEM \"file:///etc/passwd\">]>\n"
+                + "<project><description>&e;</description></project>";
+        try {
+            for (final StructuralXmlDiff.Element element : read(withEntity)) {
+                assertFalse(element.text.contains("root:"));
+            }
+        } catch (javax.xml.stream.XMLStreamException e) {
+            // rejecting the document is fine as well
+        }
+    }
+
+    private List<StructuralXmlDiff.Change> diff(String config1, String config2) throws Exception {
+        return StructuralXmlDiff.diff(read(config1), read(config2));
+    }
+
+    private List<StructuralXmlDiff.Element> read(String config) throws Exception {
+        return StructuralXmlDiff.read(new ByteArrayInputStream(config.getBytes("UTF-8")));
+    }
+}